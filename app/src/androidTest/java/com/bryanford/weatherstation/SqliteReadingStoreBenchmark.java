@@ -0,0 +1,118 @@
+package com.bryanford.weatherstation;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Loads a few million readings into a {@link SqliteReadingStore} and logs the write
+ * throughput, the time {@link SqliteReadingStore#offer} takes on the calling thread while the
+ * writer commits, and the latency of one-hour range queries against the full table.  Runs on
+ * a device, as SQLite is not available to the JVM unit tests.
+ */
+public class SqliteReadingStoreBenchmark extends InstrumentationTestCase {
+    private static final String TAG = SqliteReadingStoreBenchmark.class.getSimpleName();
+    private static final String DATABASE = "benchmark-readings.db";
+
+    private static final String[] ADDRESSES = {"AA:BB:CC:DD:EE:01", "AA:BB:CC:DD:EE:02"};
+    private static final int[] CHANNELS = {ReadingChannel.TEMPERATURE, ReadingChannel.HUMIDITY,
+            ReadingChannel.PRESSURE};
+
+    // Samples per device and channel, one a second
+    private static final int SAMPLES = 400000;
+    private static final long INTERVAL_MILLIS = 1000;
+
+    // Paced phase, bursts of a batch with a pause for the writer to commit
+    private static final int PACED_BURSTS = 50;
+    private static final long BURST_PAUSE_MILLIS = 20;
+
+    private static final int QUERIES = 1000;
+    private static final long QUERY_MILLIS = 3600 * 1000;
+
+    private Context mContext;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(DATABASE);
+        super.tearDown();
+    }
+
+    public void testWriteAndQuery() throws Exception {
+        final SqliteReadingStore store = new SqliteReadingStore(mContext, DATABASE);
+        final int rows = SAMPLES * ADDRESSES.length * CHANNELS.length;
+
+        try {
+            // Bulk load as fast as the writer takes it, offer() blocks when it falls behind
+            long start = System.nanoTime();
+            for (int i = 0; i < SAMPLES; i++) {
+                offerAll(store, i);
+            }
+            store.flush();
+            final double loadSeconds = (System.nanoTime() - start) / 1e9;
+
+            assertEquals(rows, store.count());
+            assertEquals(0, store.failures());
+            Log.i(TAG, String.format("Bulk load: %d rows in %.1f s, %.0f rows/s", rows,
+                    loadSeconds, rows / loadSeconds));
+
+            // Paced, as the decode thread would, while the writer commits the bursts
+            final int perBurst = SqliteReadingStore.BATCH_ROWS;
+            final long[] offers = new long[PACED_BURSTS * perBurst];
+            int n = 0;
+            for (int burst = 0; burst < PACED_BURSTS; burst++) {
+                for (int i = 0; i < perBurst; i++) {
+                    final long before = System.nanoTime();
+                    store.offer(ADDRESSES[0], ReadingChannel.TEMPERATURE,
+                            (SAMPLES + n) * INTERVAL_MILLIS, 20);
+                    offers[n++] = System.nanoTime() - before;
+                }
+                Thread.sleep(BURST_PAUSE_MILLIS);
+            }
+            store.flush();
+            Arrays.sort(offers);
+            Log.i(TAG, String.format("offer(): p50 %.1f us, p99 %.1f us, max %.2f ms",
+                    offers[n / 2] / 1e3, offers[n * 99 / 100] / 1e3, offers[n - 1] / 1e6));
+
+            // Random one-hour windows of one channel
+            final Random random = new Random(42);
+            final long[] times = new long[(int) (QUERY_MILLIS / INTERVAL_MILLIS)];
+            final double[] values = new double[times.length];
+            final long[] queries = new long[QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                final long from = random.nextInt(SAMPLES - times.length) * INTERVAL_MILLIS;
+
+                start = System.nanoTime();
+                final int found = store.query(ADDRESSES[random.nextInt(ADDRESSES.length)],
+                        CHANNELS[random.nextInt(CHANNELS.length)], from, from + QUERY_MILLIS,
+                        times, values);
+                queries[i] = System.nanoTime() - start;
+                assertEquals(times.length, found);
+            }
+            Arrays.sort(queries);
+            Log.i(TAG, String.format("Query of %d rows: p50 %.2f ms, p99 %.2f ms", times.length,
+                    queries[QUERIES / 2] / 1e6, queries[QUERIES * 99 / 100] / 1e6));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static void offerAll(SqliteReadingStore store, int sample) {
+        final long time = sample * INTERVAL_MILLIS;
+
+        for (String address : ADDRESSES) {
+            store.offer(address, ReadingChannel.TEMPERATURE, time, 60 + sample % 50 * 0.25);
+            store.offer(address, ReadingChannel.HUMIDITY, time, 40 + sample % 7);
+            store.offer(address, ReadingChannel.PRESSURE, time, 101325 + sample % 100);
+        }
+    }
+}
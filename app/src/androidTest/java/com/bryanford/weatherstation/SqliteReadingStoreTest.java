@@ -0,0 +1,103 @@
+package com.bryanford.weatherstation;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.test.InstrumentationTestCase;
+
+public class SqliteReadingStoreTest extends InstrumentationTestCase {
+    private static final String DATABASE = "test-readings.db";
+
+    private Context mContext;
+    private SqliteReadingStore mStore;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DATABASE);
+        mStore = new SqliteReadingStore(mContext, DATABASE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mStore.close();
+        mContext.deleteDatabase(DATABASE);
+        super.tearDown();
+    }
+
+    public void testFlushWritesPartialBatch() throws Exception {
+        mStore.offer("AA:BB", ReadingChannel.TEMPERATURE, 1000, 70.5);
+        mStore.offer("AA:BB", ReadingChannel.HUMIDITY, 1000, 40);
+        mStore.flush();
+
+        assertEquals(2, mStore.count());
+        assertEquals(2, mStore.rowsWritten());
+        assertEquals(0, mStore.failures());
+    }
+
+    public void testQueriesOneChannelOfOneDevice() throws Exception {
+        // Enough rows for full batches, multi-row inserts and single-row leftovers
+        final int samples = 3 * SqliteReadingStore.BATCH_ROWS + 77;
+        for (int i = 0; i < samples; i++) {
+            mStore.offer("AA:BB", ReadingChannel.TEMPERATURE, 1000L * i, i);
+            mStore.offer("AA:BB", ReadingChannel.PRESSURE, 1000L * i, 101325);
+            mStore.offer("CC:DD", ReadingChannel.TEMPERATURE, 1000L * i, -i);
+        }
+        mStore.flush();
+        assertEquals(3 * samples, mStore.count());
+
+        final long[] times = new long[100];
+        final double[] values = new double[100];
+        assertEquals(10, mStore.query("AA:BB", ReadingChannel.TEMPERATURE, 5000, 15000,
+                times, values));
+        assertEquals(5000, times[0]);
+        assertEquals(5.0, values[0]);
+        assertEquals(14000, times[9]);
+
+        assertEquals(10, mStore.query("CC:DD", ReadingChannel.TEMPERATURE, 5000, 15000,
+                times, values));
+        assertEquals(-5.0, values[0]);
+
+        // Limited to the arrays, oldest first
+        assertEquals(100, mStore.query("AA:BB", ReadingChannel.TEMPERATURE, 0, Long.MAX_VALUE,
+                times, values));
+        assertEquals(99000, times[99]);
+
+        assertEquals(0, mStore.query("EE:FF", ReadingChannel.TEMPERATURE, 0, Long.MAX_VALUE,
+                times, values));
+    }
+
+    public void testCloseWritesQueuedSamplesAndReopens() throws Exception {
+        for (int i = 0; i < 1500; i++) {
+            mStore.offer("AA:BB", ReadingChannel.HUMIDITY, i, 50);
+        }
+        mStore.close();
+
+        mStore = new SqliteReadingStore(mContext, DATABASE);
+        assertEquals(1500, mStore.count());
+
+        // Known devices keep their id
+        mStore.offer("AA:BB", ReadingChannel.HUMIDITY, 1500, 51);
+        mStore.flush();
+        final long[] times = new long[2000];
+        assertEquals(1501, mStore.query("AA:BB", ReadingChannel.HUMIDITY, 0, Long.MAX_VALUE,
+                times, new double[2000]));
+    }
+
+    public void testQueryUsesCoveringIndex() {
+        final Cursor cursor = mStore.getDatabase().rawQuery(
+                "EXPLAIN QUERY PLAN SELECT time, value FROM readings "
+                        + "WHERE device = 1 AND channel = 0 AND time >= 0 AND time < 10 "
+                        + "ORDER BY time", null);
+        final StringBuilder plan = new StringBuilder();
+
+        try {
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(cursor.getColumnCount() - 1)).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        assertTrue(plan.toString(), plan.toString().contains("COVERING INDEX readings_by_time"));
+    }
+}
@@ -0,0 +1,51 @@
+package com.bryanford.weatherstation;
+
+import android.app.Instrumentation;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Launches MainActivity repeatedly and logs the time from onCreate to its first frame.  The
+ * first launch runs in a fresh activity stack and includes process wide setup such as the
+ * media router; later launches show the per activity cost.  For full cold starts including
+ * process creation, compare with {@code adb shell am start -W -S -n
+ * com.bryanford.weatherstation/.MainActivity}.
+ */
+public class StartupBenchmark extends InstrumentationTestCase {
+    private static final String TAG = StartupBenchmark.class.getSimpleName();
+
+    private static final int LAUNCHES = 10;
+    private static final long FIRST_FRAME_TIMEOUT = 5000;
+
+    public void testFirstFrame() throws Exception {
+        Instrumentation instrumentation = getInstrumentation();
+        long[] times = new long[LAUNCHES];
+
+        for (int i = 0; i < LAUNCHES; i++) {
+            Intent intent = new Intent(Intent.ACTION_MAIN);
+            intent.setClassName(instrumentation.getTargetContext(), MainActivity.class.getName());
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+
+            MainActivity activity = (MainActivity) instrumentation.startActivitySync(intent);
+            long deadline = SystemClock.uptimeMillis() + FIRST_FRAME_TIMEOUT;
+
+            while (activity.getFirstFrameMillis() == 0 && SystemClock.uptimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            times[i] = activity.getFirstFrameMillis();
+            assertTrue("No first frame on launch " + i, times[i] > 0);
+
+            activity.finish();
+            instrumentation.waitForIdleSync();
+        }
+
+        long first = times[0];
+        Arrays.sort(times, 1, LAUNCHES);
+        Log.i(TAG, String.format("First frame: first launch %d ms, later launches median %d ms "
+                + "(min %d, max %d)", first, times[LAUNCHES / 2], times[1], times[LAUNCHES - 1]));
+    }
+}
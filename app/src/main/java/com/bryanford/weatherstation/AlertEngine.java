@@ -0,0 +1,253 @@
+package com.bryanford.weatherstation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Evaluates {@link AlertRule}s against the sample stream.
+ *
+ * Rules are compiled into two sorted edge tables per channel: points that matter when the
+ * value rises (an ABOVE rule firing, a BELOW rule clearing) and points that matter when it
+ * falls.  A sample only visits the edges between the previous value and the new one, found
+ * by binary search, so the cost does not grow with the number of rules that are not crossed.
+ * Evaluation does not allocate.
+ *
+ * {@link #setRules(List)} may be called from any thread, {@link #onSample} must be called
+ * from a single thread.  Both take the engine's lock, which the sample thread holds
+ * uncontended unless the rules are being replaced.
+ */
+public class AlertEngine implements SampleListener {
+    /**
+     * Told when a rule becomes active or clears.  Called on the sample thread, or on the thread
+     * calling {@link #setRules(List)} to clear rules that were removed while active.
+     */
+    public interface AlertSink {
+        void onAlert(AlertRule rule, boolean active, long time, double value);
+    }
+
+    // Compiled rules for one channel, the edge actions are rule index * 2 + 1 to fire, + 0 to clear
+    private static class ChannelTable {
+        final int[] rules;
+        final double[] rising;
+        final int[] risingActions;
+        final double[] falling;
+        final int[] fallingActions;
+        double last = Double.NaN;
+
+        ChannelTable(int[] rules, double[] rising, int[] risingActions, double[] falling,
+                     int[] fallingActions) {
+            this.rules = rules;
+            this.rising = rising;
+            this.risingActions = risingActions;
+            this.falling = falling;
+            this.fallingActions = fallingActions;
+        }
+    }
+
+    // Immutable rule set with the mutable evaluation state that belongs to it
+    private static class RuleSet {
+        final AlertRule[] rules;
+        final boolean[] active;
+        final ChannelTable[] channels = new ChannelTable[ReadingChannel.COUNT];
+
+        RuleSet(AlertRule[] rules) {
+            this.rules = rules;
+            this.active = new boolean[rules.length];
+        }
+    }
+
+    private final AlertSink mSink;
+    private RuleSet mRuleSet = compile(Collections.<AlertRule>emptyList());
+
+    public AlertEngine(AlertSink sink) {
+        mSink = sink;
+    }
+
+    /**
+     * Replaces the rules.  A rule that is unchanged keeps its state, an active rule that is
+     * removed or changed is cleared through the sink.  All rules are evaluated in full against
+     * the next sample of their channel.
+     */
+    public synchronized void setRules(List<AlertRule> rules) {
+        RuleSet old = mRuleSet;
+        RuleSet set = compile(rules);
+        long now = System.currentTimeMillis();
+
+        for (int o = 0; o < old.rules.length; o++) {
+            if (!old.active[o]) {
+                continue;
+            }
+
+            int r = Arrays.asList(set.rules).indexOf(old.rules[o]);
+            if (r >= 0) {
+                set.active[r] = true;
+            } else {
+                ChannelTable table = old.channels[old.rules[o].getChannel()];
+                mSink.onAlert(old.rules[o], false, now, table.last);
+            }
+        }
+        mRuleSet = set;
+    }
+
+    public synchronized List<AlertRule> getRules() {
+        return Collections.unmodifiableList(Arrays.asList(mRuleSet.rules));
+    }
+
+    @Override
+    public synchronized void onSample(int channel, long time, double value) {
+        RuleSet set = mRuleSet;
+        ChannelTable table = set.channels[channel];
+
+        if (table == null || Double.isNaN(value)) {
+            return;
+        }
+
+        double last = table.last;
+        table.last = value;
+
+        if (Double.isNaN(last)) {
+            evaluateAll(set, table, time, value);
+        } else if (value > last) {
+            // Rising edges e with last <= e < value, in ascending order
+            double[] edges = table.rising;
+            for (int i = lowerBound(edges, last); i < edges.length && edges[i] < value; i++) {
+                apply(set, table.risingActions[i], time, value);
+            }
+        } else if (value < last) {
+            // Falling edges e with value < e <= last, in descending order
+            double[] edges = table.falling;
+            for (int i = upperBound(edges, last) - 1; i >= 0 && edges[i] > value; i--) {
+                apply(set, table.fallingActions[i], time, value);
+            }
+        }
+    }
+
+    private void evaluateAll(RuleSet set, ChannelTable table, long time, double value) {
+        for (int r : table.rules) {
+            AlertRule rule = set.rules[r];
+            boolean above = rule.getDirection() == AlertRule.ABOVE;
+            boolean active;
+
+            // A rule carried over active by setRules stays so until it crosses its clear point
+            if (set.active[r]) {
+                active = above ? value >= rule.clearPoint() : value <= rule.clearPoint();
+            } else {
+                active = above ? value > rule.firePoint() : value < rule.firePoint();
+            }
+
+            if (active != set.active[r]) {
+                set.active[r] = active;
+                mSink.onAlert(rule, active, time, value);
+            }
+        }
+    }
+
+    private void apply(RuleSet set, int action, long time, double value) {
+        int r = action >> 1;
+        boolean fire = (action & 1) != 0;
+
+        if (set.active[r] != fire) {
+            set.active[r] = fire;
+            mSink.onAlert(set.rules[r], fire, time, value);
+        }
+    }
+
+    private static RuleSet compile(List<AlertRule> rules) {
+        RuleSet set = new RuleSet(rules.toArray(new AlertRule[rules.size()]));
+
+        for (int channel = 0; channel < ReadingChannel.COUNT; channel++) {
+            List<Integer> members = new ArrayList<>();
+            List<double[]> rising = new ArrayList<>();
+            List<double[]> falling = new ArrayList<>();
+
+            for (int r = 0; r < set.rules.length; r++) {
+                AlertRule rule = set.rules[r];
+
+                if (rule.getChannel() != channel) {
+                    continue;
+                }
+                members.add(r);
+
+                double[] fire = {rule.firePoint(), r * 2 + 1};
+                double[] clear = {rule.clearPoint(), r * 2};
+                if (rule.getDirection() == AlertRule.ABOVE) {
+                    rising.add(fire);
+                    falling.add(clear);
+                } else {
+                    falling.add(fire);
+                    rising.add(clear);
+                }
+            }
+
+            if (members.isEmpty()) {
+                continue;
+            }
+
+            int[] memberArray = new int[members.size()];
+            for (int i = 0; i < memberArray.length; i++) {
+                memberArray[i] = members.get(i);
+            }
+
+            double[] risingEdges = new double[rising.size()];
+            int[] risingActions = new int[rising.size()];
+            double[] fallingEdges = new double[falling.size()];
+            int[] fallingActions = new int[falling.size()];
+            fill(rising, risingEdges, risingActions);
+            fill(falling, fallingEdges, fallingActions);
+
+            set.channels[channel] = new ChannelTable(memberArray, risingEdges, risingActions,
+                    fallingEdges, fallingActions);
+        }
+        return set;
+    }
+
+    // Sorts (point, action) pairs by point into the parallel arrays
+    private static void fill(List<double[]> pairs, double[] edges, int[] actions) {
+        Collections.sort(pairs, new Comparator<double[]>() {
+            @Override
+            public int compare(double[] a, double[] b) {
+                return Double.compare(a[0], b[0]);
+            }
+        });
+
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = pairs.get(i)[0];
+            actions[i] = (int) pairs.get(i)[1];
+        }
+    }
+
+    // First index with edges[i] >= value
+    private static int lowerBound(double[] edges, double value) {
+        int lo = 0;
+        int hi = edges.length;
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (edges[mid] < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // First index with edges[i] > value
+    private static int upperBound(double[] edges, double value) {
+        int lo = 0;
+        int hi = edges.length;
+
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (edges[mid] <= value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
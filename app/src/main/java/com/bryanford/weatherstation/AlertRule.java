@@ -0,0 +1,149 @@
+package com.bryanford.weatherstation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A threshold on one reading channel.  An {@link #ABOVE} rule becomes active when a sample
+ * rises above the threshold and clears once a sample falls below threshold - hysteresis;
+ * a {@link #BELOW} rule mirrors that.  Rules are immutable, {@link AlertEngine} keeps their
+ * state.
+ */
+public class AlertRule {
+    public static final int ABOVE = 0;
+    public static final int BELOW = 1;
+
+    private static final String[] DIRECTIONS = {"above", "below"};
+
+    private final int mId;
+    private final int mChannel;
+    private final int mDirection;
+    private final double mThreshold;
+    private final double mHysteresis;
+    private final String mLabel;
+
+    /**
+     * @param id Stable id, also used as the notification id.
+     * @param channel One of the {@link ReadingChannel} ids.
+     * @param direction {@link #ABOVE} or {@link #BELOW}.
+     * @param hysteresis Distance back past the threshold needed to clear, not negative.
+     * @param label Shown to the user, e.g. "Greenhouse too hot".
+     */
+    public AlertRule(int id, int channel, int direction, double threshold, double hysteresis,
+                     String label) {
+        ReadingChannel.name(channel);
+
+        if (direction != ABOVE && direction != BELOW) {
+            throw new IllegalArgumentException("Unknown direction: " + direction);
+        }
+        if (!(hysteresis >= 0) || Double.isNaN(threshold)) {
+            throw new IllegalArgumentException("Invalid threshold " + threshold
+                    + " or hysteresis " + hysteresis);
+        }
+
+        mId = id;
+        mChannel = channel;
+        mDirection = direction;
+        mThreshold = threshold;
+        mHysteresis = hysteresis;
+        mLabel = label;
+    }
+
+    public int getId() {
+        return mId;
+    }
+
+    public int getChannel() {
+        return mChannel;
+    }
+
+    public int getDirection() {
+        return mDirection;
+    }
+
+    public double getThreshold() {
+        return mThreshold;
+    }
+
+    public double getHysteresis() {
+        return mHysteresis;
+    }
+
+    public String getLabel() {
+        return mLabel;
+    }
+
+    // Value a sample must cross to activate the rule
+    double firePoint() {
+        return mThreshold;
+    }
+
+    // Value a sample must cross to clear the rule
+    double clearPoint() {
+        return mDirection == ABOVE ? mThreshold - mHysteresis : mThreshold + mHysteresis;
+    }
+
+    // Rules are equal when they have the same id, condition and label
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof AlertRule)) {
+            return false;
+        }
+
+        AlertRule other = (AlertRule) o;
+        return mId == other.mId && mChannel == other.mChannel
+                && mDirection == other.mDirection
+                && Double.compare(mThreshold, other.mThreshold) == 0
+                && Double.compare(mHysteresis, other.mHysteresis) == 0
+                && (mLabel != null ? mLabel.equals(other.mLabel) : other.mLabel == null);
+    }
+
+    @Override
+    public int hashCode() {
+        return mId * 31 + mChannel;
+    }
+
+    /**
+     * @return The rule as one line of "id,channel,direction,threshold,hysteresis,label",
+     *         readable by {@link #parse(String)}.
+     */
+    @Override
+    public String toString() {
+        return mId + "," + ReadingChannel.name(mChannel) + "," + DIRECTIONS[mDirection] + ","
+                + mThreshold + "," + mHysteresis + "," + (mLabel != null ? mLabel : "");
+    }
+
+    /**
+     * Parses rules written by {@link #toString()}, one per line.  Blank lines are skipped.
+     *
+     * @throws IllegalArgumentException If a line is malformed.
+     */
+    public static List<AlertRule> parse(String text) {
+        List<AlertRule> rules = new ArrayList<>();
+
+        for (String line : text.split("\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+
+            // The label is last so it may contain commas
+            String[] fields = line.split(",", 6);
+            if (fields.length < 5) {
+                throw new IllegalArgumentException("Malformed alert rule: " + line);
+            }
+
+            int channel = ReadingChannel.fromName(fields[1].trim());
+            int direction = DIRECTIONS[ABOVE].equals(fields[2].trim()) ? ABOVE
+                    : DIRECTIONS[BELOW].equals(fields[2].trim()) ? BELOW : -1;
+
+            try {
+                rules.add(new AlertRule(Integer.parseInt(fields[0].trim()), channel, direction,
+                        Double.parseDouble(fields[3].trim()), Double.parseDouble(fields[4].trim()),
+                        fields.length > 5 ? fields[5] : ""));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed alert rule: " + line, e);
+            }
+        }
+        return rules;
+    }
+}
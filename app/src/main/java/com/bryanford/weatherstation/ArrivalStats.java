@@ -0,0 +1,56 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Inter-arrival statistics of one characteristic's notifications, from monotonic callback
+ * timestamps.  The jitter is the standard deviation of the intervals; together with the
+ * mean and the largest gap it shows whether the peripheral or the stack paces
+ * notifications unevenly.
+ */
+public class ArrivalStats {
+    private final WelfordStats mIntervals = new WelfordStats();
+    private long mLastNanos;
+    private long mArrivals;
+    private long mMaxInterval;
+
+    public synchronized void record(long nanos) {
+        if (mArrivals > 0) {
+            long interval = nanos - mLastNanos;
+
+            mIntervals.push(interval);
+            mMaxInterval = Math.max(mMaxInterval, interval);
+        }
+        mLastNanos = nanos;
+        mArrivals++;
+    }
+
+    public synchronized void reset() {
+        mIntervals.reset();
+        mArrivals = 0;
+        mMaxInterval = 0;
+    }
+
+    public synchronized long arrivals() {
+        return mArrivals;
+    }
+
+    // Mean interval in nanoseconds, NaN before two arrivals
+    public synchronized double meanInterval() {
+        return mIntervals.mean();
+    }
+
+    // Standard deviation of the interval in nanoseconds, NaN before three arrivals
+    public synchronized double jitter() {
+        return mIntervals.standardDeviation();
+    }
+
+    public synchronized long maxInterval() {
+        return mMaxInterval;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d arrivals, interval %.2f ms, jitter %.2f ms, max %.2f ms",
+                mArrivals, mIntervals.mean() / 1e6, mIntervals.standardDeviation() / 1e6,
+                mMaxInterval / 1e6);
+    }
+}
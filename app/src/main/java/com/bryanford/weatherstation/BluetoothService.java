@@ -12,13 +12,27 @@ import android.bluetooth.BluetoothManager;
 import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Binder;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static java.lang.Math.pow;
 
@@ -42,6 +56,18 @@ public class BluetoothService extends Service {
             "com.bryanford.weatherstation.ACTION_GATT_SERVICES_DISCOVERED";
     public final static String ACTION_DATA_AVAILABLE =
             "com.bryanford.weatherstation.ACTION_DATA_AVAILABLE";
+    public final static String ACTION_CHARACTERISTIC_READ =
+            "com.bryanford.weatherstation.ACTION_CHARACTERISTIC_READ";
+    public final static String EXTRA_UUID =
+            "com.bryanford.weatherstation.EXTRA_UUID";
+    public final static String EXTRA_TIMESTAMP_NANOS =
+            "com.bryanford.weatherstation.EXTRA_TIMESTAMP_NANOS";
+    public final static String ACTION_THROUGHPUT =
+            "com.bryanford.weatherstation.ACTION_THROUGHPUT";
+    public final static String EXTRA_BYTES_PER_SECOND =
+            "com.bryanford.weatherstation.EXTRA_BYTES_PER_SECOND";
+    public final static String EXTRA_MTU =
+            "com.bryanford.weatherstation.EXTRA_MTU";
     public final static String RX_DATA =
             "com.bryanford.weatherstation.RX_DATA";
     public final static String TEMP_ACT_DATA =
@@ -52,6 +78,21 @@ public class BluetoothService extends Service {
             "com.bryanford.weatherstation.PRESS_DATA";
     public final static String HUMID_DATA =
             "com.bryanford.weatherstation.HUMID_DATA";
+    public final static String FORECAST_DATA =
+            "com.bryanford.weatherstation.FORECAST_DATA";
+    public final static String DERIVED_DATA =
+            "com.bryanford.weatherstation.DERIVED_DATA";
+    public final static String EXTRA_CHANNEL =
+            "com.bryanford.weatherstation.EXTRA_CHANNEL";
+
+    // Directory below getFilesDir() holding the reading history
+    public final static String HISTORY_DIR = "history";
+
+    // Directory below getFilesDir() holding batches not yet accepted by the broker
+    public final static String OUTBOX_DIR = "outbox";
+
+    // File below getFilesDir() holding the latest value of every channel, see ReadingSnapshot
+    public final static String SNAPSHOT_FILE = "latest.bin";
 
     private final IBinder mBinder = new LocalBinder();
 
@@ -61,7 +102,184 @@ public class BluetoothService extends Service {
     private BluetoothAdapter mBluetoothAdapter;
     private BluetoothGatt mBluetoothGatt;
 
-    private int mConnectionState = STATE_DISCONNECTED;
+    private ReadingLog mReadingLog;
+    private final GattOperationQueue mOperations = new GattOperationQueue();
+    private final CharacteristicCache mCharacteristicCache = new CharacteristicCache();
+
+    // ATT MTU limits, the payload of a write or notification is the MTU less a 3 byte header
+    public static final int DEFAULT_MTU = 23;
+    public static final int MAX_MTU = 517;
+    private static final int ATT_HEADER_SIZE = 3;
+
+    private volatile int mMtu = DEFAULT_MTU;
+    private final ThroughputMeter mThroughput = new ThroughputMeter();
+
+    // Chunks queued for the UART before senders block
+    private static final int UART_TX_WINDOW = 8;
+    private UartTransmitter mUartTransmitter;
+    private BluetoothGattCharacteristic mUartCharacteristic;
+
+    // Everything published by publishSample, raw and derived
+    private final CopyOnWriteArrayList<SampleListener> mSampleListeners =
+            new CopyOnWriteArrayList<>();
+
+    // Derived samples take the same path as raw ones and are broadcast as DERIVED_DATA
+    private final DerivedMetrics mDerivedMetrics = new DerivedMetrics(new SampleListener() {
+        @Override
+        public void onSample(int channel, long time, double value) {
+            publishSample(channel, time, value);
+
+            final Intent intent = new Intent(DERIVED_DATA);
+            intent.putExtra(EXTRA_CHANNEL, channel);
+            intent.putExtra(DERIVED_DATA, value);
+            intent.putExtra(EXTRA_TIMESTAMP_NANOS, mSampleNanos);
+            sendBroadcast(intent);
+        }
+    });
+
+    // Spike filters applied between decode and publish, indexed by channel
+    private static final int FILTER_WINDOW = 15;
+    private static final double FILTER_THRESHOLD = 3;
+    private volatile StreamOperator[] mFilters = new StreamOperator[ReadingChannel.COUNT];
+
+    private final PressureForecaster mForecaster = new PressureForecaster();
+
+    // Alert rules are kept as AlertRule lines in this preference
+    private static final String ALERT_PREFS = "alerts";
+    private static final String ALERT_RULES = "rules";
+    private AlertEngine mAlertEngine;
+
+    // Optional LAN server for the latest readings, history and a live feed
+    private static final String SERVER_PREFS = "live_server";
+    private static final String SERVER_ENABLED = "enabled";
+    private volatile LiveServer mLiveServer;
+
+    // Stops a server switched off from the UI, stopping joins the server's threads
+    private Thread mLiveServerStop;
+
+    // Optional store-and-forward publishing of samples to an on-site broker
+    private static final String BRIDGE_PREFS = "publish_bridge";
+    private static final String BRIDGE_URL = "url";
+    private static final long BRIDGE_SPOOL_BYTES = 16 * 1024 * 1024;
+    private static final int BRIDGE_CONCURRENCY = 2;
+    private volatile PublishBridge mPublishBridge;
+
+    // Backend the stored history is uploaded to on request
+    private static final String UPLOAD_PREFS = "history_upload";
+    private static final String UPLOAD_URL = "url";
+    private static final String UPLOAD_SOURCE = "source";
+    private volatile HistoryUploader mHistoryUploader;
+
+    // Optional copy of the samples in SQLite, for code that queries readings with SQL
+    // Station the recent pressure history belongs to and since when, for priming the forecast
+    private static final String FORECAST_PREFS = "forecast";
+    private static final String FORECAST_ADDRESS = "address";
+    private static final String FORECAST_SINCE = "since";
+
+    private static final String SQLITE_PREFS = "sqlite_store";
+    private static final String SQLITE_ENABLED = "enabled";
+    private volatile SqliteReadingStore mSqliteStore;
+
+    // Raw samples for a week, minute means for eight weeks and hourly means after that
+    private static final RetentionPolicy RETENTION = new RetentionPolicy(
+            RetentionPolicy.WEEK_MILLIS, 8 * RetentionPolicy.WEEK_MILLIS, 64 * 1024 * 1024);
+    private HistoryCompactor mHistoryCompactor;
+
+    // Reassembles frames from UART notifications
+    private static final int UART_BUFFER_SIZE = 4096;
+    private final UartFrameBuffer mUartFrames =
+            new UartFrameBuffer(UART_BUFFER_SIZE, UartFrameBuffer.MODE_LINE);
+    private final CopyOnWriteArrayList<UartFrameBuffer.FrameListener> mUartListeners =
+            new CopyOnWriteArrayList<>();
+
+    // Payload kinds in the decode ring
+    private static final int PAYLOAD_PRESSURE_CALIBRATION = 0;
+    private static final int PAYLOAD_PRESSURE = 1;
+    private static final int PAYLOAD_HUMIDITY = 2;
+    private static final int PAYLOAD_UART = 3;
+    private static final int PAYLOAD_OTHER = 4;
+
+    // UART chunk following chunks the UART ring had to drop
+    private static final int PAYLOAD_UART_RESYNC = 6;
+
+    // Queued by the GATT callback after the last payload of a connection, carries no data
+    private static final int PAYLOAD_DISCONNECTED = 5;
+    private static final byte[] NO_PAYLOAD = new byte[0];
+
+    // Largest characteristic value, an ATT MTU of 517 less the header
+    private static final int MAX_PAYLOAD = 514;
+    private static final int DECODE_RING_SIZE = 64;
+    private static final int UART_RING_SIZE = 256;
+    private static final long DECODE_STOP_TIMEOUT = 1000;
+
+    // Trace names of the sensor enable steps, indexed by mState
+    private static final String[] SENSOR_STEPS =
+            {"enable pressure calibration", "enable pressure", "enable humidity"};
+
+    // Callbacks queue raw payloads here, decoding runs on mDecodeThread
+    private final PayloadRing mDecodeRing =
+            new PayloadRing(DECODE_RING_SIZE, MAX_PAYLOAD, PayloadRing.DROP_OLDEST);
+    private Thread mDecodeThread;
+
+    // UART chunks go through a ring of their own, frames are reassembled on mUartThread.
+    // When it is full the chunk is dropped rather than stall the callback thread, and the
+    // frame buffer resyncs at the next chunk that gets through.
+    private final PayloadRing mUartRing =
+            new PayloadRing(UART_RING_SIZE, MAX_PAYLOAD, PayloadRing.DROP_NEWEST);
+    private Thread mUartThread;
+
+    // Set by the GATT callback thread when a UART chunk was dropped
+    private boolean mUartGap;
+
+    // Callback entry time of the UART chunk completing a frame
+    private long mUartNanos;
+
+    // Callback entry time of the sample being decoded, from elapsedRealtimeNanos
+    private long mSampleNanos;
+
+    // When the current station was connected, payloads from then on are decoded with fresh
+    // derived metrics, filters and forecast.  The decode thread notes which connection its
+    // state belongs to.
+    private volatile long mConnectNanos;
+    private long mMetricsConnectNanos;
+
+    // Wall clock minus elapsedRealtimeNanos, maps callback stamps to stored sample times
+    private volatile long mClockOffsetNanos;
+
+    // Notification pacing per characteristic
+    private final ConcurrentHashMap<UUID, ArrivalStats> mArrivals = new ConcurrentHashMap<>();
+
+    private volatile int mConnectionState = STATE_DISCONNECTED;
+    private String mBluetoothDeviceAddress;
+
+    // How long a session outlives its last bound client, long enough for activity recreation
+    private static final long SESSION_GRACE_MILLIS = 60 * 1000;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mBound;
+
+    // Latest value of every channel per station, readable from any thread without locking
+    private final StationStore mStations = new StationStore();
+
+    // Station the decoded samples belong to, the current or last connected device
+    private volatile String mStationAddress;
+
+    // Set first thing in onDestroy, stops start-up on the decode thread from starting servers
+    private volatile boolean mDestroyed;
+
+    // Closes the storage of the last destroyed instance, the next one waits for it
+    private static Thread sShutdownThread;
+
+    // The snapshot is written out at most this often while samples arrive, in milliseconds
+    private static final long SNAPSHOT_SAVE_INTERVAL = 60 * 1000;
+    private long mSnapshotSavedAt;
+
+    private final Runnable mEndSession = new Runnable() {
+        @Override
+        public void run() {
+            Log.i(TAG, "No client came back, ending the session.");
+            endSession();
+        }
+    };
     private int[] mPressCalibration;
     private  int mState;
 
@@ -76,6 +294,9 @@ public class BluetoothService extends Service {
                 intentAction = ACTION_GATT_CONNECTED;
                 mConnectionState = STATE_CONNECTED;
 
+                Tracer.endAsync("connectGatt", 0);
+                Tracer.beginAsync("discoverServices", 0);
+
                 // Attempts to discover services after successful connection.
                 Log.i(TAG, "Connected to GATT server.");
                 Log.i(TAG, "Attempting to start service discovery: " +
@@ -89,10 +310,26 @@ public class BluetoothService extends Service {
 
                 Log.i(TAG, "Disconnected from GATT server.");
 
+                mOperations.reset(mBluetoothGatt);
+                mUartTransmitter.cancel();
+                logArrivalStats();
+                Log.i(TAG, "Decode queue: max depth " + mDecodeRing.maxDepth() + " of "
+                        + mDecodeRing.capacity() + ", " + mDecodeRing.dropped() + " dropped");
+                Log.i(TAG, "UART queue: max depth " + mUartRing.maxDepth() + " of "
+                        + mUartRing.capacity() + ", " + mUartRing.dropped() + " dropped");
+
+                // The decode thread flushes and saves once it has stored the last payload
+                mDecodeRing.offer(PAYLOAD_DISCONNECTED, SystemClock.elapsedRealtimeNanos(),
+                        NO_PAYLOAD, 0, 0);
                 broadcastUpdate(intentAction);
+                endSessionIfUnbound(gatt);
             } else if (status != BluetoothGatt.GATT_SUCCESS) {
+                Tracer.endAsync("connectGatt", 0);
+
                 // Disconnect on failed status
                 mBluetoothGatt.disconnect();
+                mOperations.reset(mBluetoothGatt);
+                mUartTransmitter.cancel();
 
                 intentAction = ACTION_GATT_DISCONNECTED;
                 mConnectionState = STATE_DISCONNECTED;
@@ -100,11 +337,15 @@ public class BluetoothService extends Service {
                 Log.i(TAG, "Disconnected from GATT server.");
 
                 broadcastUpdate(intentAction);
+                endSessionIfUnbound(gatt);
             }
         }
 
         @Override
         public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            Tracer.endAsync("discoverServices", 0);
+            Tracer.begin("onServicesDiscovered");
+
             if (status == BluetoothGatt.GATT_SUCCESS) {
                 // Get all of the services
                 mGattServices = mBluetoothGatt.getServices();
@@ -114,41 +355,110 @@ public class BluetoothService extends Service {
                     mGattServiceMap.put(s.getUuid(), s);
                 }
 
+                findUartCharacteristic();
                 broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
+
+                // Enable the sensors here rather than from a client, which may be mid-recreation
+                startSensorEnable();
             } else {
                 Log.w(TAG, "onServicesDiscovered received: " + status);
             }
+            Tracer.end();
         }
 
         @Override
         public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            final long nanos = SystemClock.elapsedRealtimeNanos();
+            GattOperationQueue.Operation operation = mOperations.current();
+
+            if (operation != null && operation.isBulk()) {
+                // Service browser read, leave the sensor enable sequence alone
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    mCharacteristicCache.put(characteristic.getUuid(),
+                            DeviceTags.decode(characteristic.getUuid(), characteristic.getValue()),
+                            nanos / 1000000);
+                }
+
+                final Intent intent = new Intent(ACTION_CHARACTERISTIC_READ);
+                intent.putExtra(EXTRA_UUID, characteristic.getUuid().toString());
+                sendBroadcast(intent);
+            } else {
                 nextSensorNotify(mBluetoothGatt);
-                broadcastUpdate(characteristic);
+                enqueuePayload(characteristic, nanos);
+            }
+
+            // Issue the next queued operation
+            mOperations.complete();
         }
 
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            broadcastUpdate(characteristic);
+            // Stamp before anything else so decoding and queueing do not skew the time
+            final long nanos = SystemClock.elapsedRealtimeNanos();
+
+            recordArrival(characteristic.getUuid(), nanos);
+            enqueuePayload(characteristic, nanos);
         }
 
         @Override
         public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            final long nanos = SystemClock.elapsedRealtimeNanos();
+
+            if (DeviceTags.UART_CHAR.equals(characteristic.getUuid())) {
+                // The characteristic value may be a notification by now, count what was sent
+                final GattOperationQueue.Operation operation = mOperations.current();
+                if (status == BluetoothGatt.GATT_SUCCESS && operation != null
+                        && operation.getValue() != null) {
+                    mThroughput.add(operation.getValue().length, nanos);
+                }
+
+                // Queues the next chunk behind this operation
+                mUartTransmitter.onWriteComplete(status == BluetoothGatt.GATT_SUCCESS);
+            } else {
                 nextSensorRead(mBluetoothGatt);
+            }
+            mOperations.complete();
         }
 
         @Override
         public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
             nextSensorEnable(mBluetoothGatt, false);
+            mOperations.complete();
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                mMtu = mtu;
+                Log.i(TAG, "ATT MTU is now " + mtu);
+            } else {
+                Log.w(TAG, "MTU request failed: " + status);
+            }
+            mOperations.complete();
         }
     };
 
     private void nextSensorEnable(BluetoothGatt gatt, boolean reset) {
         BluetoothGattCharacteristic characteristic;
 
+        if (reset) {
+            Tracer.beginAsync("sensor enable", 0);
+        } else if (mState < SENSOR_STEPS.length) {
+            Tracer.endAsync("subscribe", mState);
+            Tracer.endAsync(SENSOR_STEPS[mState], mState);
+        }
+
         // Start at zero if reset is true else advance
         if (reset) { mState = 0; }
         else { mState++; }
 
+        if (mState < SENSOR_STEPS.length) {
+            Tracer.beginAsync(SENSOR_STEPS[mState], mState);
+            Tracer.beginAsync("write config", mState);
+        } else if (mState == SENSOR_STEPS.length) {
+            Tracer.endAsync("sensor enable", 0);
+        }
+
         switch (mState) {
             case 0:
                 // Enable pressure calibration
@@ -179,6 +489,8 @@ public class BluetoothService extends Service {
     private void nextSensorRead(BluetoothGatt gatt) {
         BluetoothGattCharacteristic characteristic;
 
+        traceSensorStep("write config", "read");
+
         switch (mState) {
             case 0:
                 // Read pressure calibration
@@ -206,6 +518,8 @@ public class BluetoothService extends Service {
     private void nextSensorNotify(BluetoothGatt gatt) {
         BluetoothGattCharacteristic characteristic;
 
+        traceSensorStep("read", "subscribe");
+
         switch (mState) {
             case 0:
                 // Enable pressure calibration
@@ -236,34 +550,136 @@ public class BluetoothService extends Service {
         writeDescriptor(desc);
     }
 
+    // Moves the trace of the current sensor enable step on to its next operation
+    private void traceSensorStep(String finished, String started) {
+        if (mState < SENSOR_STEPS.length) {
+            Tracer.endAsync(finished, mState);
+            Tracer.beginAsync(started, mState);
+        }
+    }
+
     private void broadcastUpdate(final String action) {
         final Intent intent = new Intent(action);
         sendBroadcast(intent);
     }
 
-    private void broadcastUpdate(final BluetoothGattCharacteristic characteristic) {
+    // Copies a characteristic value into the decode ring, the callback returns right away
+    private void enqueuePayload(BluetoothGattCharacteristic characteristic, long nanos) {
+        final UUID uuid = characteristic.getUuid();
+        final byte[] data = characteristic.getValue();
+        final int kind;
+
+        if (data == null) {
+            return;
+        }
+
+        if (DeviceTags.PRESSURE_CAL_CHAR.equals(uuid)) {
+            kind = PAYLOAD_PRESSURE_CALIBRATION;
+        } else if (DeviceTags.PRESSURE_DATA_CHAR.equals(uuid)) {
+            kind = PAYLOAD_PRESSURE;
+        } else if (DeviceTags.HUMIDITY_DATA_CHAR.equals(uuid)) {
+            kind = PAYLOAD_HUMIDITY;
+        } else if (DeviceTags.UART_CHAR.equals(uuid)) {
+            mUartGap = !mUartRing.offer(mUartGap ? PAYLOAD_UART_RESYNC : PAYLOAD_UART, nanos,
+                    data, 0, data.length);
+            return;
+        } else {
+            kind = PAYLOAD_OTHER;
+        }
+
+        mDecodeRing.offer(kind, nanos, data, 0, data.length);
+    }
+
+    // Drains the decode ring until the thread is interrupted
+    private final Runnable mDecodeLoop = new Runnable() {
+        @Override
+        public void run() {
+            final PayloadRing.Entry entry = new PayloadRing.Entry(MAX_PAYLOAD);
+
+            startUp();
+
+            while (!Thread.currentThread().isInterrupted()) {
+                if (mDecodeRing.poll(entry)) {
+                    decodePayload(entry.kind, entry.nanos, entry.data, entry.length);
+                } else {
+                    mDecodeRing.await();
+                }
+            }
+        }
+    };
+
+    // Drains the UART ring into the frame buffer until the thread is interrupted
+    private final Runnable mUartLoop = new Runnable() {
+        @Override
+        public void run() {
+            final PayloadRing.Entry entry = new PayloadRing.Entry(MAX_PAYLOAD);
+
+            while (!Thread.currentThread().isInterrupted()) {
+                if (mUartRing.poll(entry)) {
+                    if (entry.kind == PAYLOAD_UART_RESYNC) {
+                        mUartFrames.resync();
+                    }
+                    if (entry.length > 0) {
+                        mUartNanos = entry.nanos;
+                        mThroughput.add(entry.length, entry.nanos);
+                        mUartFrames.append(entry.data, 0, entry.length, mUartFrameDispatcher);
+                    }
+                } else {
+                    mUartRing.await();
+                }
+            }
+        }
+    };
+
+    /**
+     * Decodes a characteristic value and publishes it.  Runs on the decode thread.
+     *
+     * @param kind One of the PAYLOAD_ kinds.
+     * @param nanos elapsedRealtimeNanos when the callback delivering the value was entered.
+     */
+    private void decodePayload(int kind, long nanos, byte[] data, int length) {
         final Intent intent;
+        final long time = toEpochMillis(nanos);
+        final long connectNanos = mConnectNanos;
+
+        if (kind == PAYLOAD_DISCONNECTED) {
+            flushHistory();
+            saveSnapshot();
+            return;
+        }
 
-        if (DeviceTags.PRESSURE_CAL_CHAR.equals(characteristic.getUuid())) {
+        mSampleNanos = nanos;
+
+        // First payload of a new station, earlier ones still belonged to the previous one
+        if (connectNanos != mMetricsConnectNanos && nanos >= connectNanos) {
+            mMetricsConnectNanos = connectNanos;
+            resetStationState(time);
+        }
+
+        if (kind == PAYLOAD_PRESSURE_CALIBRATION) {
+            if (length < 16) {
+                Log.w(TAG, "Short pressure calibration: " + length + " bytes");
+                return;
+            }
             mPressCalibration = new int[8];
 
             // Extract the calibration data
-            mPressCalibration[0] = shortUnsignedAtOffset(characteristic, 0);
-            mPressCalibration[1] = shortUnsignedAtOffset(characteristic, 2);
-            mPressCalibration[2] = shortUnsignedAtOffset(characteristic, 4);
-            mPressCalibration[3] = shortUnsignedAtOffset(characteristic, 6);
-            mPressCalibration[4] = shortUnsignedAtOffset(characteristic, 8);
-            mPressCalibration[5] = shortUnsignedAtOffset(characteristic, 10);
-            mPressCalibration[6] = shortUnsignedAtOffset(characteristic, 12);
-            mPressCalibration[7] = shortUnsignedAtOffset(characteristic, 14);
-        }
-        else if (DeviceTags.PRESSURE_DATA_CHAR.equals(characteristic.getUuid())) {
+            mPressCalibration[0] = shortUnsignedAtOffset(data, 0);
+            mPressCalibration[1] = shortUnsignedAtOffset(data, 2);
+            mPressCalibration[2] = shortUnsignedAtOffset(data, 4);
+            mPressCalibration[3] = shortUnsignedAtOffset(data, 6);
+            mPressCalibration[4] = shortUnsignedAtOffset(data, 8);
+            mPressCalibration[5] = shortUnsignedAtOffset(data, 10);
+            mPressCalibration[6] = shortUnsignedAtOffset(data, 12);
+            mPressCalibration[7] = shortUnsignedAtOffset(data, 14);
+        }
+        else if (kind == PAYLOAD_PRESSURE && length >= 4) {
             double press_raw, press_act, temp_raw;
             double S, O;
 
             if (mPressCalibration != null) {
-                temp_raw = shortSignedAtOffset(characteristic, 0);
-                press_raw = shortUnsignedAtOffset(characteristic, 2);
+                temp_raw = shortSignedAtOffset(data, 0);
+                press_raw = shortUnsignedAtOffset(data, 2);
 
                 /* temp_act = (100 * (mPressCalibration[0] * temp_raw / pow(2, 8) + mPressCalibration[1] * pow(2, 6))) / pow(2, 16); */
                 S = mPressCalibration[2] + mPressCalibration[3] * temp_raw / pow(2, 17) + ((mPressCalibration[4] * temp_raw / pow(2, 15)) * temp_raw) / pow(2, 19);
@@ -272,14 +688,18 @@ public class BluetoothService extends Service {
 
                 Log.d(TAG, String.format("Press: %f in. Hg", press_act * 0.000296));
 
+                press_act = filterSample(ReadingChannel.PRESSURE, press_act);
+                publishSample(ReadingChannel.PRESSURE, time, press_act);
+
                 intent = new Intent(PRESS_DATA);
                 intent.putExtra(PRESS_DATA, press_act);
+                intent.putExtra(EXTRA_TIMESTAMP_NANOS, nanos);
                 sendBroadcast(intent);
             }
         }
-        else if (DeviceTags.HUMIDITY_DATA_CHAR.equals(characteristic.getUuid())) {
-            double temp = -46.85 + 175.72/65536 * (double)shortSignedAtOffset(characteristic, 0);
-            double humid = shortUnsignedAtOffset(characteristic, 2);
+        else if (kind == PAYLOAD_HUMIDITY && length >= 4) {
+            double temp = -46.85 + 175.72/65536 * (double)shortSignedAtOffset(data, 0);
+            double humid = shortUnsignedAtOffset(data, 2);
 
             // Convert to F
             temp = (temp * 9 / 5) + 32;
@@ -287,33 +707,633 @@ public class BluetoothService extends Service {
             // Convert to %RH
             humid = humid - (humid % 4);
             humid = -6f + 125f * (humid / 65535f);
+            humid = filterSample(ReadingChannel.HUMIDITY, humid);
 
             Log.d(TAG, String.format("Temp: %f", temp));
             Log.d(TAG, String.format("Humid: %f", humid));
 
+            publishSample(ReadingChannel.TEMPERATURE, time, temp);
+            publishSample(ReadingChannel.HUMIDITY, time, humid);
+
             intent = new Intent(HUMID_DATA);
             intent.putExtra(TEMP_ACT_DATA, temp);
             intent.putExtra(HUMID_DATA, humid);
+            intent.putExtra(EXTRA_TIMESTAMP_NANOS, nanos);
             sendBroadcast(intent);
         }
-        else if (DeviceTags.UART_CHAR.equals((characteristic.getUuid()))){
-            final byte[] data = characteristic.getValue();
-
-            if (data != null && data.length > 0) {
-                intent = new Intent(RX_DATA);
-                intent.putExtra(RX_DATA, new String(data));
+        else if (kind == PAYLOAD_OTHER) {
+            // For all other profiles, writes the data as a string
+            if (length > 0) {
+                intent = new Intent(ACTION_DATA_AVAILABLE);
+                intent.putExtra(ACTION_DATA_AVAILABLE, new String(data, 0, length));
                 sendBroadcast(intent);
             }
         }
-        else {
-            // For all other profiles, writes the data as a string
-            final byte[] data = characteristic.getValue();
+    }
 
-            if (data != null && data.length > 0) {
-                intent = new Intent(ACTION_DATA_AVAILABLE);
-                intent.putExtra(ACTION_DATA_AVAILABLE, data.toString());
-                sendBroadcast(intent);
+    // Hands complete UART frames to in-process listeners and broadcasts a copy as RX_DATA
+    private final UartFrameBuffer.FrameListener mUartFrameDispatcher =
+            new UartFrameBuffer.FrameListener() {
+        @Override
+        public void onFrame(byte[] buffer, int offset, int length) {
+            for (UartFrameBuffer.FrameListener listener : mUartListeners) {
+                listener.onFrame(buffer, offset, length);
             }
+
+            final Intent intent = new Intent(RX_DATA);
+            intent.putExtra(RX_DATA, Arrays.copyOfRange(buffer, offset, offset + length));
+            intent.putExtra(EXTRA_TIMESTAMP_NANOS, mUartNanos);
+            sendBroadcast(intent);
+        }
+    };
+
+    /**
+     * Registers a listener for complete UART frames.  It is called on the UART receive thread
+     * with a slice of the receive buffer that is only valid during the call.
+     */
+    public void addUartFrameListener(UartFrameBuffer.FrameListener listener) {
+        mUartListeners.add(listener);
+    }
+
+    public void removeUartFrameListener(UartFrameBuffer.FrameListener listener) {
+        mUartListeners.remove(listener);
+    }
+
+    /**
+     * Selects how the UART stream is split into frames, see {@link UartFrameBuffer}.  Call
+     * it before enabling UART notifications, it is not synchronized with the receive path.
+     */
+    public void setUartFrameMode(int mode) {
+        mUartFrames.setMode(mode);
+    }
+
+    private void findUartCharacteristic() {
+        final BluetoothGattService uart = mGattServiceMap.get(DeviceTags.UART_SERVICE);
+
+        mUartCharacteristic = uart != null ? uart.getCharacteristic(DeviceTags.UART_CHAR) : null;
+
+        if (mUartCharacteristic != null && (mUartCharacteristic.getProperties()
+                & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
+            // Let the stack pack several chunks into each connection event
+            mUartCharacteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        }
+    }
+
+    /**
+     * Sends a byte stream to the UART characteristic in MTU sized chunks.  Blocks while the
+     * transmit window is full, so call it from a background thread.  Use
+     * {@link #startThroughputMode()} first for large transfers.
+     *
+     * @throws IOException If there is no UART or the connection drops while sending.
+     */
+    public void sendUart(byte[] data, int offset, int length)
+            throws IOException, InterruptedException {
+        if (mBluetoothGatt == null || mUartCharacteristic == null) {
+            throw new IOException("UART characteristic not available");
+        }
+        mUartTransmitter.send(data, offset, length, getMaxPayload());
+    }
+
+    /**
+     * Blocks until every byte passed to {@link #sendUart(byte[], int, int)} has been written.
+     */
+    public void drainUart() throws IOException, InterruptedException {
+        mUartTransmitter.drain();
+    }
+
+    public UartTransmitter getUartTransmitter() {
+        return mUartTransmitter;
+    }
+
+    /**
+     * Registers a listener for every published sample, raw and derived.  Called on the
+     * decode thread.
+     */
+    public void addSampleListener(SampleListener listener) {
+        mSampleListeners.add(listener);
+    }
+
+    public void removeSampleListener(SampleListener listener) {
+        mSampleListeners.remove(listener);
+    }
+
+    /**
+     * Sets the filter decoded samples of a raw channel pass through before they are
+     * displayed, stored or derived from, e.g. a {@link HampelFilter} or {@link RunningMedian}.
+     * Null passes samples through unchanged.  Humidity and pressure get a Hampel filter by
+     * default.
+     */
+    public synchronized void setSampleFilter(int channel, StreamOperator filter) {
+        StreamOperator[] filters = mFilters.clone();
+
+        filters[channel] = filter;
+        mFilters = filters;
+    }
+
+    // Drops what was derived from the previous connection's samples, decode thread only
+    private void resetStationState(long time) {
+        mDerivedMetrics.reset();
+        mForecaster.clear();
+
+        for (StreamOperator filter : mFilters) {
+            if (filter != null) {
+                filter.reset();
+            }
+        }
+
+        // The log is shared, only a reconnected station finds its own pressure history there
+        final String address = mStationAddress;
+        final SharedPreferences prefs = getSharedPreferences(FORECAST_PREFS, MODE_PRIVATE);
+
+        if (address != null && address.equals(prefs.getString(FORECAST_ADDRESS, null))) {
+            primeForecaster(prefs.getLong(FORECAST_SINCE, time));
+        } else {
+            prefs.edit()
+                    .putString(FORECAST_ADDRESS, address)
+                    .putLong(FORECAST_SINCE, time)
+                    .apply();
+        }
+    }
+
+    private double filterSample(int channel, double value) {
+        final StreamOperator filter = mFilters[channel];
+
+        if (filter == null) {
+            return value;
+        }
+        filter.push(value);
+        return filter.value();
+    }
+
+    /**
+     * Sets what happens when callbacks outpace the decode thread: one of
+     * {@link PayloadRing#DROP_OLDEST} (the default), {@link PayloadRing#DROP_NEWEST} or
+     * {@link PayloadRing#BLOCK}, which stalls the Bluetooth callback thread.
+     */
+    public void setDecodeOverflowPolicy(int policy) {
+        mDecodeRing.setPolicy(policy);
+    }
+
+    // Queue depth and drop counters of the decode ring
+    public PayloadRing getDecodeQueue() {
+        return mDecodeRing;
+    }
+
+    // Queue depth and drop counters of the UART ring, a drop costs the frame it was part of
+    public PayloadRing getUartQueue() {
+        return mUartRing;
+    }
+
+    // Stores a decoded sample, feeds the derived metrics and notifies sample listeners
+    private void publishSample(int channel, long time, double value) {
+        storeReading(channel, time, value);
+        updateSnapshot(channel, time, value);
+        mDerivedMetrics.onSample(channel, time, value);
+        mAlertEngine.onSample(channel, time, value);
+
+        if (channel == ReadingChannel.PRESSURE && mForecaster.update(time, value)) {
+            final Intent intent = new Intent(FORECAST_DATA);
+            intent.putExtra(FORECAST_DATA, mForecaster.getForecast());
+            intent.putExtra(EXTRA_TIMESTAMP_NANOS, mSampleNanos);
+            sendBroadcast(intent);
+        }
+
+        for (SampleListener listener : mSampleListeners) {
+            listener.onSample(channel, time, value);
+        }
+
+        final String address = mStationAddress;
+        if (address == null) {
+            return;
+        }
+
+        final LiveServer server = mLiveServer;
+        if (server != null) {
+            server.publish(address, channel, time, value);
+        }
+
+        final PublishBridge bridge = mPublishBridge;
+        if (bridge != null) {
+            bridge.offer(address, channel, time, value);
+        }
+
+        final SqliteReadingStore store = mSqliteStore;
+        if (store != null) {
+            store.offer(address, channel, time, value);
+        }
+    }
+
+    // Decode thread only, the single writer of the connected station
+    private void updateSnapshot(int channel, long time, double value) {
+        final String address = mStationAddress;
+
+        if (address == null) {
+            return;
+        }
+        mStations.update(address, channel, time, value);
+
+        if (time - mSnapshotSavedAt >= SNAPSHOT_SAVE_INTERVAL) {
+            mSnapshotSavedAt = time;
+            saveSnapshot();
+        }
+    }
+
+    // Lets the next start of the app show the latest values before anything is connected
+    private synchronized void saveSnapshot() {
+        try {
+            getSnapshot().save(new File(getFilesDir(), SNAPSHOT_FILE));
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to save reading snapshot", e);
+        }
+    }
+
+    private void loadSnapshot() {
+        final File file = new File(getFilesDir(), SNAPSHOT_FILE);
+
+        if (file.exists()) {
+            try {
+                final ReadingSnapshot snapshot = ReadingSnapshot.load(file);
+
+                if (snapshot.getDeviceAddress() != null) {
+                    mStations.put(snapshot);
+
+                    // Loaded in the background, a station connected meanwhile stays current
+                    synchronized (this) {
+                        if (mStationAddress == null) {
+                            mStationAddress = snapshot.getDeviceAddress();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to load reading snapshot", e);
+            }
+        }
+    }
+
+    // Re-reads the wall clock, sample times stay monotonic until the next call
+    private void syncClock() {
+        mClockOffsetNanos = System.currentTimeMillis() * 1000000
+                - SystemClock.elapsedRealtimeNanos();
+    }
+
+    private long toEpochMillis(long nanos) {
+        return (nanos + mClockOffsetNanos) / 1000000;
+    }
+
+    private void recordArrival(UUID uuid, long nanos) {
+        ArrivalStats stats = mArrivals.get(uuid);
+
+        if (stats == null) {
+            stats = new ArrivalStats();
+            mArrivals.put(uuid, stats);
+        }
+        stats.record(nanos);
+    }
+
+    /**
+     * @return Notification inter-arrival statistics of the characteristic for the current
+     *         connection, or null if it has not notified.
+     */
+    public ArrivalStats getArrivalStats(UUID characteristic) {
+        return mArrivals.get(characteristic);
+    }
+
+    private void logArrivalStats() {
+        for (Map.Entry<UUID, ArrivalStats> entry : mArrivals.entrySet()) {
+            String name = DeviceTags.lookup(entry.getKey());
+
+            Log.i(TAG, (name != null ? name : entry.getKey().toString())
+                    + " notifications: " + entry.getValue());
+        }
+    }
+
+    public PressureForecaster getForecaster() {
+        return mForecaster;
+    }
+
+    /**
+     * Seeds the forecast with stored pressure so it is available right after a restart.
+     *
+     * @param since Time the station the forecast is for started recording, older pressure in
+     *              the log came from another station.
+     */
+    private void primeForecaster(long since) {
+        final long now = System.currentTimeMillis();
+
+        try {
+            SampleCursor cursor = mReadingLog.query(ReadingChannel.PRESSURE,
+                    Math.max(now - 3 * 60 * 60 * 1000, since), now);
+            try {
+                while (cursor.next()) {
+                    mForecaster.update(cursor.time(), cursor.value());
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read pressure history", e);
+        }
+    }
+
+    public List<AlertRule> getAlertRules() {
+        return mAlertEngine.getRules();
+    }
+
+    /**
+     * Replaces and persists the alert rules.  Alerts are raised as notifications from the
+     * service, so they keep working without the UI.
+     */
+    public void setAlertRules(List<AlertRule> rules) {
+        StringBuilder text = new StringBuilder();
+
+        for (AlertRule rule : rules) {
+            text.append(rule).append('\n');
+        }
+
+        getSharedPreferences(ALERT_PREFS, MODE_PRIVATE).edit()
+                .putString(ALERT_RULES, text.toString())
+                .apply();
+        mAlertEngine.setRules(rules);
+    }
+
+    private void loadAlertRules() {
+        String text = getSharedPreferences(ALERT_PREFS, MODE_PRIVATE).getString(ALERT_RULES, "");
+
+        try {
+            mAlertEngine.setRules(AlertRule.parse(text));
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Ignoring invalid alert rules", e);
+        }
+    }
+
+    public boolean isLiveServerEnabled() {
+        return getSharedPreferences(SERVER_PREFS, MODE_PRIVATE).getBoolean(SERVER_ENABLED, false);
+    }
+
+    /**
+     * Starts or stops the live server on {@link LiveServer#DEFAULT_PORT} and remembers the
+     * choice for the next start of the service.
+     *
+     * @return False if the server was to be started but the port could not be bound.
+     */
+    public boolean setLiveServerEnabled(boolean enabled) {
+        getSharedPreferences(SERVER_PREFS, MODE_PRIVATE).edit()
+                .putBoolean(SERVER_ENABLED, enabled)
+                .apply();
+        if (enabled) {
+            return startLiveServer();
+        }
+
+        final LiveServer server = detachLiveServer();
+        if (server != null) {
+            synchronized (this) {
+                mLiveServerStop = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        server.stop();
+                    }
+                }, "LiveServerStop");
+                mLiveServerStop.start();
+            }
+        }
+        return true;
+    }
+
+    // Running server, null if it is disabled
+    public LiveServer getLiveServer() {
+        return mLiveServer;
+    }
+
+    private synchronized boolean startLiveServer() {
+        if (mLiveServer != null) {
+            return true;
+        }
+        if (mDestroyed) {
+            return false;
+        }
+
+        // A server switched off just before still holds the port until it has stopped
+        join(mLiveServerStop, 0);
+
+        try {
+            final LiveServer server = new LiveServer(mStations, mReadingLog,
+                    new InetSocketAddress(LiveServer.DEFAULT_PORT));
+            server.start();
+            mLiveServer = server;
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to start live server", e);
+            return false;
+        }
+    }
+
+    // Takes the server out of service, publish() and getLiveServer() no longer see it
+    private synchronized LiveServer detachLiveServer() {
+        final LiveServer server = mLiveServer;
+
+        mLiveServer = null;
+        return server;
+    }
+
+    // Stops the server, and waits for one still stopping so the history can be closed after
+    private void stopLiveServer() {
+        final LiveServer server = detachLiveServer();
+        final Thread stopping;
+
+        if (server != null) {
+            server.stop();
+        }
+        synchronized (this) {
+            stopping = mLiveServerStop;
+        }
+        join(stopping, 0);
+    }
+
+    // Broker endpoint samples are published to, null if publishing is off
+    public String getPublishUrl() {
+        return getSharedPreferences(BRIDGE_PREFS, MODE_PRIVATE).getString(BRIDGE_URL, null);
+    }
+
+    /**
+     * Starts publishing samples to the broker at url, or stops if url is null.  Batches
+     * already spooled for an earlier url are sent to the new one.
+     *
+     * @throws IllegalArgumentException If url is not a valid URL.
+     */
+    public void setPublishUrl(String url) {
+        if (url != null) {
+            parseUrl(url);
+        }
+
+        getSharedPreferences(BRIDGE_PREFS, MODE_PRIVATE).edit()
+                .putString(BRIDGE_URL, url)
+                .apply();
+
+        stopPublishBridge();
+        if (url != null) {
+            startPublishBridge(url);
+        }
+    }
+
+    // Running bridge for queue depth and drain rate, null if publishing is off
+    public PublishBridge getPublishBridge() {
+        return mPublishBridge;
+    }
+
+    private synchronized void startPublishBridge(String url) {
+        if (mDestroyed) {
+            return;
+        }
+
+        try {
+            final SpoolQueue spool = new SpoolQueue(new File(getFilesDir(), OUTBOX_DIR),
+                    BRIDGE_SPOOL_BYTES);
+            mPublishBridge = new PublishBridge(spool,
+                    new HttpPublishTransport(parseUrl(url)), BRIDGE_CONCURRENCY);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Unable to start publishing to " + url, e);
+        }
+    }
+
+    private synchronized void stopPublishBridge() {
+        if (mPublishBridge != null) {
+            mPublishBridge.close();
+            mPublishBridge = null;
+        }
+    }
+
+    public boolean isSqliteStoreEnabled() {
+        return getSharedPreferences(SQLITE_PREFS, MODE_PRIVATE).getBoolean(SQLITE_ENABLED, false);
+    }
+
+    /**
+     * Starts or stops copying samples to the {@link SqliteReadingStore#DATABASE_NAME} database
+     * and remembers the choice for the next start of the service.  The database is kept when
+     * the copying stops.
+     */
+    public void setSqliteStoreEnabled(boolean enabled) {
+        getSharedPreferences(SQLITE_PREFS, MODE_PRIVATE).edit()
+                .putBoolean(SQLITE_ENABLED, enabled)
+                .apply();
+        if (enabled) {
+            startSqliteStore();
+        } else {
+            stopSqliteStore();
+        }
+    }
+
+    // Running store for SQL queries, null if it is disabled
+    public SqliteReadingStore getSqliteStore() {
+        return mSqliteStore;
+    }
+
+    private synchronized void startSqliteStore() {
+        if (mSqliteStore == null && !mDestroyed) {
+            mSqliteStore = new SqliteReadingStore(this, SqliteReadingStore.DATABASE_NAME);
+        }
+    }
+
+    private synchronized void stopSqliteStore() {
+        if (mSqliteStore != null) {
+            mSqliteStore.close();
+            mSqliteStore = null;
+        }
+    }
+
+    // Rolls up and drops old history, the minute and hourly means are queried through it
+    public HistoryCompactor getHistoryCompactor() {
+        return mHistoryCompactor;
+    }
+
+    // Backend the history is uploaded to, null if none is set
+    public String getHistoryUploadUrl() {
+        return getSharedPreferences(UPLOAD_PREFS, MODE_PRIVATE).getString(UPLOAD_URL, null);
+    }
+
+    /**
+     * @throws IllegalArgumentException If url is not a valid URL.
+     */
+    public void setHistoryUploadUrl(String url) {
+        if (url != null) {
+            parseUrl(url);
+        }
+        getSharedPreferences(UPLOAD_PREFS, MODE_PRIVATE).edit()
+                .putString(UPLOAD_URL, url)
+                .apply();
+    }
+
+    /**
+     * Uploads the stored history, continuing where the last upload stopped.  Blocks the
+     * calling thread until the upload is done or cancelled.
+     *
+     * The history holds the readings of every station this device has been connected to, so
+     * it is filed under an id of this installation rather than a station address.
+     *
+     * @return Number of samples uploaded.
+     */
+    public long uploadHistory() throws IOException {
+        final String url = getHistoryUploadUrl();
+
+        if (url == null) {
+            throw new IOException("No upload URL");
+        }
+
+        final HistoryUploader uploader =
+                new HistoryUploader(mReadingLog, parseUrl(url), getHistorySource());
+        mHistoryUploader = uploader;
+        try {
+            return uploader.uploadAll();
+        } finally {
+            mHistoryUploader = null;
+        }
+    }
+
+    // Random id the history is uploaded under, created on first use
+    private synchronized String getHistorySource() {
+        final SharedPreferences prefs = getSharedPreferences(UPLOAD_PREFS, MODE_PRIVATE);
+        String source = prefs.getString(UPLOAD_SOURCE, null);
+
+        if (source == null) {
+            source = UUID.randomUUID().toString();
+            prefs.edit().putString(UPLOAD_SOURCE, source).commit();
+        }
+        return source;
+    }
+
+    // Stops a running history upload after its current chunk
+    public void cancelHistoryUpload() {
+        final HistoryUploader uploader = mHistoryUploader;
+
+        if (uploader != null) {
+            uploader.cancel();
+        }
+    }
+
+    private static URL parseUrl(String url) {
+        try {
+            return new URL(url);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid broker URL: " + url, e);
+        }
+    }
+
+    private void storeReading(int channel, long time, double value) {
+        try {
+            mReadingLog.append(channel, time, value);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to store reading", e);
+        }
+    }
+
+    /**
+     * Writes buffered readings to the history so that readers of the
+     * {@link #HISTORY_DIR} segments see them.
+     */
+    public void flushHistory() {
+        try {
+            mReadingLog.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to flush reading history", e);
         }
     }
 
@@ -323,18 +1343,260 @@ public class BluetoothService extends Service {
         }
     }
 
+    @Override
+    public void onCreate() {
+        Tracer.begin("BluetoothService.onCreate");
+        super.onCreate();
+
+        mReadingLog = new ReadingLog(new File(getFilesDir(), HISTORY_DIR));
+        mHistoryCompactor = new HistoryCompactor(mReadingLog, RETENTION);
+        syncClock();
+
+        // One-off spikes from the sensor tag, deviations within a quantization step or two pass
+        setSampleFilter(ReadingChannel.HUMIDITY,
+                new HampelFilter(FILTER_WINDOW, FILTER_THRESHOLD, 0.5));
+        setSampleFilter(ReadingChannel.PRESSURE,
+                new HampelFilter(FILTER_WINDOW, FILTER_THRESHOLD, 25));
+
+        mAlertEngine = new AlertEngine(new NotificationAlertSink(this));
+
+        mUartTransmitter = new UartTransmitter(UART_TX_WINDOW, new UartTransmitter.ChunkWriter() {
+            @Override
+            public void writeChunk(byte[] chunk) {
+                // Set when the write is issued, RX notifications change the value until then
+                mOperations.write(mUartCharacteristic, chunk);
+            }
+        });
+
+        // A UART write that never started gets no callback, release its chunk here
+        mOperations.setFailureListener(new GattOperationQueue.FailureListener() {
+            @Override
+            public void onOperationFailed(GattOperationQueue.Operation operation) {
+                Log.w(TAG, "GATT operation " + operation.getType() + " could not be started");
+
+                if (operation.getType() == GattOperationQueue.WRITE_CHARACTERISTIC
+                        && operation.getCharacteristic() == mUartCharacteristic) {
+                    mUartTransmitter.onWriteComplete(false);
+                }
+            }
+        });
+
+        // Storage and sockets are set up by the decode thread, see startUp()
+        mDecodeThread = new Thread(mDecodeLoop, "decode");
+        mDecodeThread.start();
+        mUartThread = new Thread(mUartLoop, "uart");
+        mUartThread.start();
+        Tracer.end();
+    }
+
+    /**
+     * Loads what the service keeps on disk and starts the optional servers.  Runs on the decode
+     * thread before the first payload, so none of it delays the main thread and live samples
+     * reach a primed forecaster and the alert rules.
+     */
+    private void startUp() {
+        // The previous instance may still be closing the same segment files
+        if (!awaitShutdown()) {
+            return;
+        }
+
+        Tracer.begin("BluetoothService.startUp");
+        mHistoryCompactor.start();
+        loadSnapshot();
+
+        // Shows the forecast of the station that recorded last until a station connects
+        final SharedPreferences forecast = getSharedPreferences(FORECAST_PREFS, MODE_PRIVATE);
+        if (forecast.contains(FORECAST_SINCE)) {
+            primeForecaster(forecast.getLong(FORECAST_SINCE, 0));
+        }
+        loadAlertRules();
+
+        if (isLiveServerEnabled()) {
+            startLiveServer();
+        }
+
+        final String publishUrl = getPublishUrl();
+        if (publishUrl != null) {
+            startPublishBridge(publishUrl);
+        }
+
+        if (isSqliteStoreEnabled()) {
+            startSqliteStore();
+        }
+        Tracer.end();
+    }
+
+    @Override
+    public void onDestroy() {
+        // Servers the decode thread has not started yet stay stopped
+        mDestroyed = true;
+        mHandler.removeCallbacks(mEndSession);
+        close();
+        cancelHistoryUpload();
+
+        mUartThread.interrupt();
+        mDecodeThread.interrupt();
+
+        // Stopping the servers and closing the storage block, none of it runs on the main thread
+        synchronized (BluetoothService.class) {
+            final Thread previous = sShutdownThread;
+
+            sShutdownThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    join(previous, 0);
+                    shutDown();
+                }
+            }, "shutdown");
+            sShutdownThread.start();
+        }
+        super.onDestroy();
+    }
+
+    // Runs on the shutdown thread, the service is already destroyed
+    private void shutDown() {
+        stopLiveServer();
+        stopPublishBridge();
+
+        // Finish the payload being decoded before the history is closed
+        join(mDecodeThread, DECODE_STOP_TIMEOUT);
+
+        try {
+            mHistoryCompactor.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to close history rollups", e);
+        }
+
+        try {
+            mReadingLog.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to close reading history", e);
+        }
+        stopSqliteStore();
+        saveSnapshot();
+    }
+
+    /**
+     * Waits until a previously destroyed instance has closed its storage.
+     *
+     * @return False if interrupted while waiting.
+     */
+    private static boolean awaitShutdown() {
+        final Thread shutdown;
+
+        synchronized (BluetoothService.class) {
+            shutdown = sShutdownThread;
+        }
+        return join(shutdown, 0);
+    }
+
+    // Waits for the thread if there is one, false if interrupted
+    private static boolean join(Thread thread, long millis) {
+        if (thread == null) {
+            return true;
+        }
+
+        try {
+            thread.join(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // Started for the length of a session, a killed session is not worth restoring
+        return START_NOT_STICKY;
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
+        mBound = true;
+        mHandler.removeCallbacks(mEndSession);
         return mBinder;
     }
 
+    @Override
+    public void onRebind(Intent intent) {
+        mBound = true;
+        mHandler.removeCallbacks(mEndSession);
+    }
+
     @Override
     public boolean onUnbind(Intent intent) {
-        // After using a given device, you should make sure that BluetoothGatt.close() is called
-        // such that resources are cleaned up properly.  In this particular example, close() is
-        // invoked when the UI is disconnected from the Service.
+        mBound = false;
+
+        // A recreated activity binds again within the grace period and finds the session as it
+        // left it.  Without a session there is nothing to keep.
+        if (isSessionActive()) {
+            Log.i(TAG, "Last client unbound, keeping the session for "
+                    + SESSION_GRACE_MILLIS + " ms");
+            mHandler.postDelayed(mEndSession, SESSION_GRACE_MILLIS);
+        } else {
+            endSession();
+        }
+        return true;
+    }
+
+    /**
+     * Closes the connection and stops the service once no client is bound.  The service is
+     * started by the client that asks for a connection and keeps running for the session.
+     */
+    private void endSession() {
+        mHandler.removeCallbacks(mEndSession);
         close();
-        return super.onUnbind(intent);
+        mConnectionState = STATE_DISCONNECTED;
+        stopSelf();
+    }
+
+    // Called on a binder thread when the device went away
+    private void endSessionIfUnbound(final BluetoothGatt gatt) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Ignore a late callback from a connection that has since been replaced
+                if (!mBound && gatt == mBluetoothGatt) {
+                    endSession();
+                }
+            }
+        });
+    }
+
+    // True while connecting or connected
+    public boolean isSessionActive() {
+        return mConnectionState != STATE_DISCONNECTED;
+    }
+
+    public boolean isConnected() {
+        return mConnectionState == STATE_CONNECTED;
+    }
+
+    // Address of the device of the current or last session
+    public String getDeviceAddress() {
+        return mBluetoothDeviceAddress;
+    }
+
+    public String getDeviceName() {
+        final BluetoothGatt gatt = mBluetoothGatt;
+        return gatt == null ? null : gatt.getDevice().getName();
+    }
+
+    /**
+     * @return Latest value of every channel for the current or last device, including values
+     *         persisted by an earlier run of the service.
+     */
+    public ReadingSnapshot getSnapshot() {
+        final String address = mStationAddress;
+        final ReadingSnapshot snapshot = address == null ? null : mStations.get(address);
+
+        return snapshot == null ? ReadingSnapshot.EMPTY : snapshot;
+    }
+
+    // Latest readings of every station seen by this service, for a multi-station dashboard
+    public StationStore getStations() {
+        return mStations;
     }
 
     /**
@@ -372,6 +1634,15 @@ public class BluetoothService extends Service {
      *         callback.
      */
     public boolean connect(final String address) {
+        Tracer.begin("BluetoothService.connect");
+        try {
+            return connectDevice(address);
+        } finally {
+            Tracer.end();
+        }
+    }
+
+    private boolean connectDevice(String address) {
         final BluetoothDevice device;
 
         if (mBluetoothAdapter == null || address == null) {
@@ -387,9 +1658,27 @@ public class BluetoothService extends Service {
             return false;
         }
 
+        // A new session replaces the old one rather than leaking its connection
+        close();
+
+        synchronized (this) {
+            mStationAddress = address;
+        }
+
+        // DerivedMetrics belongs to the decode thread, which resets it once it gets this far
+        mConnectNanos = SystemClock.elapsedRealtimeNanos();
+
         // We want to directly connect to the device, so we are setting the autoConnect
         // parameter to false.
+        Tracer.beginAsync("connectGatt", 0);
         mBluetoothGatt = device.connectGatt(this, false, mGattCallback);
+        mBluetoothDeviceAddress = address;
+        mOperations.reset(mBluetoothGatt);
+        mUartTransmitter.reset();
+        mMtu = DEFAULT_MTU;
+        mCharacteristicCache.clear();
+        mArrivals.clear();
+        syncClock();
         Log.d(TAG, "Trying to create a new connection.");
         mConnectionState = STATE_CONNECTING;
         return true;
@@ -419,6 +1708,10 @@ public class BluetoothService extends Service {
         }
         mBluetoothGatt.close();
         mBluetoothGatt = null;
+        mOperations.reset(null);
+
+        // No disconnect callback follows close(), fail blocked UART senders here
+        mUartTransmitter.cancel();
     }
 
     /**
@@ -433,7 +1726,47 @@ public class BluetoothService extends Service {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.readCharacteristic(characteristic);
+        mOperations.read(characteristic, false);
+    }
+
+    /**
+     * Queues a read of every readable characteristic of a service whose cached value is older
+     * than maxAge.  The reads are pipelined through the operation queue and each completion
+     * is announced with {@link #ACTION_CHARACTERISTIC_READ}.  Values end up in
+     * {@link #getCharacteristicCache()}.
+     *
+     * @param service Service to read, or null for all discovered services.
+     * @param maxAge Cached values younger than this many milliseconds are not read again.
+     *
+     * @return The number of reads queued.
+     */
+    public int readAllCharacteristics(BluetoothGattService service, long maxAge) {
+        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+            Log.w(TAG, "BluetoothAdapter not initialized");
+            return 0;
+        }
+
+        final List<BluetoothGattService> services = service != null
+                ? Collections.singletonList(service) : mBluetoothGatt.getServices();
+        final long now = SystemClock.elapsedRealtime();
+        int queued = 0;
+
+        for (BluetoothGattService s : services) {
+            for (BluetoothGattCharacteristic c : s.getCharacteristics()) {
+                // A read already queued or in flight is not queued a second time
+                if ((c.getProperties() & BluetoothGattCharacteristic.PROPERTY_READ) != 0
+                        && !mCharacteristicCache.isFresh(c.getUuid(), now, maxAge)
+                        && !mOperations.isReadPending(c)) {
+                    mOperations.read(c, true);
+                    queued++;
+                }
+            }
+        }
+        return queued;
+    }
+
+    public CharacteristicCache getCharacteristicCache() {
+        return mCharacteristicCache;
     }
 
     public void writeDescriptor(BluetoothGattDescriptor descriptor) {
@@ -441,7 +1774,7 @@ public class BluetoothService extends Service {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.writeDescriptor(descriptor);
+        mOperations.write(descriptor);
     }
 
     public void writeCharacteristic(BluetoothGattCharacteristic characteristic) {
@@ -449,7 +1782,7 @@ public class BluetoothService extends Service {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.writeCharacteristic(characteristic);
+        mOperations.write(characteristic);
     }
 
     /**
@@ -467,6 +1800,68 @@ public class BluetoothService extends Service {
         mBluetoothGatt.setCharacteristicNotification(characteristic, enable);
     }
 
+    /**
+     * Prepares the link for a bulk UART transfer: requests high connection priority and the
+     * largest ATT MTU, and starts measuring UART throughput.  Call
+     * {@link #stopThroughputMode()} when the transfer is done.
+     *
+     * @return Return true if the requests were issued.
+     */
+    public boolean startThroughputMode() {
+        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+            Log.w(TAG, "BluetoothAdapter not initialized");
+            return false;
+        }
+
+        mThroughput.start(SystemClock.elapsedRealtimeNanos());
+
+        // Shortest connection interval while the transfer runs
+        if (!mBluetoothGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH)) {
+            Log.w(TAG, "Connection priority request failed");
+        }
+
+        // The result arrives in onMtuChanged and is kept for the rest of the connection
+        if (mMtu < MAX_MTU) {
+            mOperations.requestMtu(MAX_MTU);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the link to balanced connection priority and reports the effective UART
+     * throughput of the transfer through {@link #ACTION_THROUGHPUT}.  The negotiated MTU
+     * cannot be lowered again and stays in effect until disconnect.
+     *
+     * @return The measured bytes per second.
+     */
+    public double stopThroughputMode() {
+        mThroughput.stop(SystemClock.elapsedRealtimeNanos());
+
+        if (mBluetoothGatt != null) {
+            mBluetoothGatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_BALANCED);
+        }
+
+        final double rate = mThroughput.bytesPerSecond();
+        Log.i(TAG, String.format("Transfer: %d bytes, %.0f B/s, MTU %d",
+                mThroughput.bytes(), rate, mMtu));
+
+        final Intent intent = new Intent(ACTION_THROUGHPUT);
+        intent.putExtra(EXTRA_BYTES_PER_SECOND, rate);
+        intent.putExtra(EXTRA_MTU, mMtu);
+        sendBroadcast(intent);
+        return rate;
+    }
+
+    // Negotiated ATT MTU of the current connection
+    public int getMtu() {
+        return mMtu;
+    }
+
+    // Largest payload of a single write or notification at the current MTU
+    public int getMaxPayload() {
+        return mMtu - ATT_HEADER_SIZE;
+    }
+
     public  void startSensorEnable() {
         nextSensorEnable(mBluetoothGatt, true);
     }
@@ -492,6 +1887,20 @@ public class BluetoothService extends Service {
      *
      * This function extracts these 16 bit two's complement values.
      * */
+    public static int shortSignedAtOffset(byte[] data, int offset) {
+        int lowerByte = data[offset];
+        int upperByte = data[offset + 1]; // Note: interpret MSB as signed.
+
+        return (upperByte << 8) + lowerByte;
+    }
+
+    public static int shortUnsignedAtOffset(byte[] data, int offset) {
+        int lowerByte = data[offset] & 0xFF;
+        int upperByte = data[offset + 1] & 0xFF; // Note: interpret MSB as unsigned.
+
+        return (upperByte << 8) + lowerByte;
+    }
+
     public static Integer shortSignedAtOffset(BluetoothGattCharacteristic c, int offset) {
         Integer lowerByte = c.getIntValue(BluetoothGattCharacteristic.FORMAT_SINT8, offset);
         Integer upperByte = c.getIntValue(BluetoothGattCharacteristic.FORMAT_SINT8, offset + 1); // Note: interpret MSB as signed.
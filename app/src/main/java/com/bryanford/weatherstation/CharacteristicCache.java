@@ -0,0 +1,47 @@
+package com.bryanford.weatherstation;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Last decoded value of each characteristic read through the service browser, with the
+ * time it was read so the UI can show how fresh it is.
+ */
+public class CharacteristicCache {
+    /**
+     * A decoded value and the elapsed realtime in milliseconds at which it was read.
+     */
+    public static class Entry {
+        public final String value;
+        public final long time;
+
+        Entry(String value, long time) {
+            this.value = value;
+            this.time = time;
+        }
+    }
+
+    private final HashMap<UUID, Entry> mEntries = new HashMap<>();
+
+    public synchronized void put(UUID uuid, String value, long time) {
+        mEntries.put(uuid, new Entry(value, time));
+    }
+
+    // Cached entry, or null if the characteristic has not been read
+    public synchronized Entry get(UUID uuid) {
+        return mEntries.get(uuid);
+    }
+
+    /**
+     * @return True if the characteristic was read no longer than maxAge milliseconds
+     *         before now.
+     */
+    public synchronized boolean isFresh(UUID uuid, long now, long maxAge) {
+        Entry entry = mEntries.get(uuid);
+        return entry != null && now - entry.time <= maxAge;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+}
@@ -0,0 +1,159 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Streaming stage that turns raw samples into derived weather metrics:
+ * <ul>
+ *   <li>{@link ReadingChannel#DEW_POINT} and {@link ReadingChannel#HEAT_INDEX} in degrees F,
+ *       from each humidity sample and the temperature read with it.</li>
+ *   <li>{@link ReadingChannel#PRESSURE_TREND}, the 3 hour pressure tendency in Pa, from
+ *       each pressure sample once 3 hours of history are available.</li>
+ * </ul>
+ * Every sample costs O(1) work.  Pressure is kept as per minute sums in a preallocated
+ * ring, so the tendency is the difference of two bucket means rather than a scan of the
+ * window.  Not thread safe, feed it from the decode thread only.
+ */
+public class DerivedMetrics {
+    // Humidity is only paired with a temperature read this recently
+    private static final long PAIR_WINDOW_MS = 5000;
+
+    private static final long BUCKET_MS = 60 * 1000;
+    private static final int TREND_BUCKETS = 180;
+
+    // Magnus coefficients for water, valid from -45 to 60 C
+    private static final double MAGNUS_B = 17.625;
+    private static final double MAGNUS_C = 243.04;
+
+    private final SampleListener mSink;
+
+    private double mTemperature;
+    private long mTemperatureTime = Long.MIN_VALUE;
+
+    // One slot more than the window so the bucket 3 hours back is still held
+    private final double[] mPressureSums = new double[TREND_BUCKETS + 1];
+    private final int[] mPressureCounts = new int[TREND_BUCKETS + 1];
+    private long mBucket = Long.MIN_VALUE;
+
+    /**
+     * @param sink Receives the derived samples, with the time of the sample they came from.
+     */
+    public DerivedMetrics(SampleListener sink) {
+        mSink = sink;
+    }
+
+    /**
+     * Feeds one raw sample.  Derived channels are ignored, so the stage can sit on the same
+     * path it publishes to.
+     */
+    public void onSample(int channel, long time, double value) {
+        switch (channel) {
+            case ReadingChannel.TEMPERATURE:
+                mTemperature = value;
+                mTemperatureTime = time;
+                break;
+            case ReadingChannel.HUMIDITY:
+                if (mTemperatureTime != Long.MIN_VALUE
+                        && Math.abs(time - mTemperatureTime) <= PAIR_WINDOW_MS) {
+                    mSink.onSample(ReadingChannel.DEW_POINT, time, dewPoint(mTemperature, value));
+                    mSink.onSample(ReadingChannel.HEAT_INDEX, time, heatIndex(mTemperature, value));
+                }
+                break;
+            case ReadingChannel.PRESSURE:
+                addPressure(time, value);
+                break;
+        }
+    }
+
+    // Forgets all state, e.g. when connecting to a different station
+    public void reset() {
+        mTemperatureTime = Long.MIN_VALUE;
+        mBucket = Long.MIN_VALUE;
+    }
+
+    private void addPressure(long time, double value) {
+        long bucket = time / BUCKET_MS;
+
+        if (mBucket == Long.MIN_VALUE || bucket - mBucket > mPressureSums.length) {
+            clearPressure();
+            mBucket = bucket;
+        } else {
+            // Clear the slots skipped over, each bucket is cleared once so this is O(1)
+            while (mBucket < bucket) {
+                mBucket++;
+                int slot = slot(mBucket);
+                mPressureSums[slot] = 0;
+                mPressureCounts[slot] = 0;
+            }
+        }
+
+        // Late samples go to the newest bucket, like the history clamps them
+        int current = slot(mBucket);
+        mPressureSums[current] += value;
+        mPressureCounts[current]++;
+
+        int past = slot(mBucket - TREND_BUCKETS);
+        if (mPressureCounts[past] > 0) {
+            double trend = mPressureSums[current] / mPressureCounts[current]
+                    - mPressureSums[past] / mPressureCounts[past];
+            mSink.onSample(ReadingChannel.PRESSURE_TREND, time, trend);
+        }
+    }
+
+    private void clearPressure() {
+        for (int i = 0; i < mPressureSums.length; i++) {
+            mPressureSums[i] = 0;
+            mPressureCounts[i] = 0;
+        }
+    }
+
+    private int slot(long bucket) {
+        return (int) (bucket % mPressureSums.length);
+    }
+
+    /**
+     * @param temperature Air temperature in degrees F.
+     * @param humidity Relative humidity in %.
+     *
+     * @return Dew point in degrees F.
+     */
+    public static double dewPoint(double temperature, double humidity) {
+        double celsius = (temperature - 32) * 5 / 9;
+
+        // The sensor conversion can step slightly outside 0..100 %RH
+        double rh = Math.min(Math.max(humidity, 1), 100);
+        double gamma = Math.log(rh / 100) + MAGNUS_B * celsius / (MAGNUS_C + celsius);
+        double dew = MAGNUS_C * gamma / (MAGNUS_B - gamma);
+
+        return dew * 9 / 5 + 32;
+    }
+
+    /**
+     * NWS heat index: Steadman's simple formula in mild weather, the Rothfusz regression
+     * with its low and high humidity adjustments above 80 F.
+     *
+     * @param temperature Air temperature in degrees F.
+     * @param humidity Relative humidity in %.
+     *
+     * @return Heat index in degrees F.
+     */
+    public static double heatIndex(double temperature, double humidity) {
+        double t = temperature;
+        double rh = Math.min(Math.max(humidity, 0), 100);
+        double simple = 0.5 * (t + 61.0 + (t - 68.0) * 1.2 + rh * 0.094);
+
+        if ((simple + t) / 2 < 80) {
+            return simple;
+        }
+
+        double hi = -42.379 + 2.04901523 * t + 10.14333127 * rh
+                - 0.22475541 * t * rh - 0.00683783 * t * t
+                - 0.05481717 * rh * rh + 0.00122874 * t * t * rh
+                + 0.00085282 * t * rh * rh - 0.00000199 * t * t * rh * rh;
+
+        if (rh < 13 && t >= 80 && t <= 112) {
+            hi -= (13 - rh) / 4 * Math.sqrt((17 - Math.abs(t - 95)) / 17);
+        } else if (rh > 85 && t >= 80 && t <= 87) {
+            hi += (rh - 85) / 10 * (87 - t) / 5;
+        }
+        return hi;
+    }
+}
@@ -1,5 +1,6 @@
 package com.bryanford.weatherstation;
 
+import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.UUID;
 
@@ -10,6 +11,17 @@ public class DeviceTags {
     // Lookup table for the descriptors
     private static HashMap<UUID, String> attributes = new HashMap<>();
 
+    // Lookup table for how characteristic values are displayed
+    private static HashMap<UUID, Integer> formats = new HashMap<>();
+
+    // Value formats
+    public static final int FORMAT_HEX    = 0;
+    public static final int FORMAT_STRING = 1;
+    public static final int FORMAT_UINT8  = 2;
+    public static final int FORMAT_UINT16 = 3;
+
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
     // IR Temperature
     public static final UUID IR_TEMP_SERVICE      = UUID.fromString("f000aa00-0451-4000-b000-000000000000");
     public static final UUID IR_TEMP_DATA_CHAR    = UUID.fromString("f000aa01-0451-4000-b000-000000000000");
@@ -92,6 +104,24 @@ public class DeviceTags {
 
         // Other
         attributes.put(MANUFACTURER_NAME_STRING, "Manufacturer Name String");
+        attributes.put(DEVICE_NAME_CHAR, "Device Name");
+        attributes.put(APPEARANCE_CHAR, "Appearance");
+        attributes.put(PERPH_PRIC_FLAG, "Peripheral Privacy Flag");
+        attributes.put(RECONN_ADDR, "Reconnection Address");
+        attributes.put(PERF_CONN_PARAM, "Preferred Connection Parameters");
+        attributes.put(SERVICE_CHANGED_CHAR, "Service Changed");
+
+        // Value formats, anything not listed is shown as hex
+        formats.put(DEVICE_NAME_CHAR, FORMAT_STRING);
+        formats.put(MANUFACTURER_NAME_STRING, FORMAT_STRING);
+        formats.put(APPEARANCE_CHAR, FORMAT_UINT16);
+        formats.put(PERPH_PRIC_FLAG, FORMAT_UINT8);
+        formats.put(IR_TEMP_CONFIG_CHAR, FORMAT_UINT8);
+        formats.put(ACCEL_CONFIG_CHAR, FORMAT_UINT8);
+        formats.put(HUMIDITY_CONFIG_CHAR, FORMAT_UINT8);
+        formats.put(MAGNET_CONFIG_CHAR, FORMAT_UINT8);
+        formats.put(PRESSURE_CONFIG_CHAR, FORMAT_UINT8);
+        formats.put(GYRO_CONFIG_CHAR, FORMAT_UINT8);
     }
 
     // Lookup method for finding service, char., or config string name
@@ -103,4 +133,40 @@ public class DeviceTags {
             return null;
         }
     }
+
+    // Lookup method for the display format of a characteristic value
+    public static int format(UUID uuid) {
+        Integer format = formats.get(uuid);
+        return format != null ? format : FORMAT_HEX;
+    }
+
+    // Decode a raw characteristic value for display using its format
+    public static String decode(UUID uuid, byte[] value) {
+        if (value == null || value.length == 0) {
+            return "";
+        }
+
+        switch (format(uuid)) {
+            case FORMAT_STRING:
+                return new String(value, Charset.forName("UTF-8")).trim();
+            case FORMAT_UINT8:
+                return Integer.toString(value[0] & 0xFF);
+            case FORMAT_UINT16:
+                if (value.length >= 2) {
+                    return Integer.toString((value[0] & 0xFF) | (value[1] & 0xFF) << 8);
+                }
+                break;
+        }
+
+        // Little endian bytes as they arrive, "0x01-A2-..."
+        StringBuilder hex = new StringBuilder(2 + value.length * 3);
+        hex.append("0x");
+        for (int i = 0; i < value.length; i++) {
+            if (i > 0) {
+                hex.append('-');
+            }
+            hex.append(HEX_DIGITS[(value[i] >> 4) & 0xF]).append(HEX_DIGITS[value[i] & 0xF]);
+        }
+        return hex.toString();
+    }
 }
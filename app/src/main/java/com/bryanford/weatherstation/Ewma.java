@@ -0,0 +1,44 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Exponentially weighted moving average.  The first value seeds the average.
+ */
+public class Ewma implements StreamOperator {
+    private final double mAlpha;
+    private double mValue = Double.NaN;
+
+    /**
+     * @param alpha Weight of each new value, 0 < alpha <= 1.
+     */
+    public Ewma(double alpha) {
+        if (!(alpha > 0 && alpha <= 1)) {
+            throw new IllegalArgumentException("alpha must be in (0, 1]: " + alpha);
+        }
+        mAlpha = alpha;
+    }
+
+    /**
+     * @return An average whose weights halve every halfLife values.
+     */
+    public static Ewma withHalfLife(double halfLife) {
+        return new Ewma(1 - Math.pow(0.5, 1 / halfLife));
+    }
+
+    @Override
+    public void push(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        mValue = Double.isNaN(mValue) ? value : mValue + mAlpha * (value - mValue);
+    }
+
+    @Override
+    public double value() {
+        return mValue;
+    }
+
+    @Override
+    public void reset() {
+        mValue = Double.NaN;
+    }
+}
@@ -0,0 +1,244 @@
+package com.bryanford.weatherstation;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+import java.util.ArrayDeque;
+
+/**
+ * Serializes GATT operations.  Android only allows one outstanding read or write per
+ * connection, so operations are queued and the next one is issued straight from the
+ * completion callback of the previous one, without a round trip through the UI.
+ */
+public class GattOperationQueue {
+    public static final int READ_CHARACTERISTIC = 0;
+    public static final int WRITE_CHARACTERISTIC = 1;
+    public static final int WRITE_DESCRIPTOR = 2;
+    public static final int REQUEST_MTU = 3;
+
+    /**
+     * A queued GATT request.  Bulk operations come from the service browser and must not
+     * advance the sensor enable sequence.
+     */
+    public static class Operation {
+        final int type;
+        final BluetoothGattCharacteristic characteristic;
+        final BluetoothGattDescriptor descriptor;
+        final boolean bulk;
+        final int mtu;
+        final byte[] value;
+
+        Operation(int type, BluetoothGattCharacteristic characteristic,
+                  BluetoothGattDescriptor descriptor, boolean bulk, int mtu, byte[] value) {
+            this.type = type;
+            this.characteristic = characteristic;
+            this.descriptor = descriptor;
+            this.bulk = bulk;
+            this.mtu = mtu;
+            this.value = value;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public BluetoothGattCharacteristic getCharacteristic() {
+            return characteristic;
+        }
+
+        public boolean isBulk() {
+            return bulk;
+        }
+
+        // Value a write carries, null if it was set on the characteristic beforehand
+        public byte[] getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Told about operations that could not be started and will get no callback.
+     */
+    public interface FailureListener {
+        void onOperationFailed(Operation operation);
+    }
+
+    // The calls that start operations, a BluetoothGatt or a stand-in in tests
+    interface Connection {
+        boolean readCharacteristic(BluetoothGattCharacteristic characteristic);
+
+        boolean writeCharacteristic(BluetoothGattCharacteristic characteristic);
+
+        boolean writeDescriptor(BluetoothGattDescriptor descriptor);
+
+        boolean requestMtu(int mtu);
+    }
+
+    private final ArrayDeque<Operation> mPending = new ArrayDeque<>();
+    private Operation mCurrent;
+    private Connection mConnection;
+    private volatile FailureListener mFailureListener;
+
+    public void setFailureListener(FailureListener listener) {
+        mFailureListener = listener;
+    }
+
+    /**
+     * Sets the connection operations are issued on and drops anything still queued for a
+     * previous connection.
+     */
+    public void reset(final BluetoothGatt gatt) {
+        attach(gatt == null ? null : new Connection() {
+            @Override
+            public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+                return gatt.readCharacteristic(characteristic);
+            }
+
+            @Override
+            public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+                return gatt.writeCharacteristic(characteristic);
+            }
+
+            @Override
+            public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+                return gatt.writeDescriptor(descriptor);
+            }
+
+            @Override
+            public boolean requestMtu(int mtu) {
+                return gatt.requestMtu(mtu);
+            }
+        });
+    }
+
+    // As reset(BluetoothGatt), for any connection
+    synchronized void attach(Connection connection) {
+        mConnection = connection;
+        mPending.clear();
+        mCurrent = null;
+    }
+
+    public void read(BluetoothGattCharacteristic characteristic, boolean bulk) {
+        enqueue(new Operation(READ_CHARACTERISTIC, characteristic, null, bulk, 0, null));
+    }
+
+    public void write(BluetoothGattCharacteristic characteristic) {
+        write(characteristic, null);
+    }
+
+    /**
+     * Queues a write of the given value.  The value is only set on the characteristic when
+     * the write is issued, so notifications or other writes queued meanwhile on the same
+     * characteristic cannot change what is sent.
+     */
+    public void write(BluetoothGattCharacteristic characteristic, byte[] value) {
+        enqueue(new Operation(WRITE_CHARACTERISTIC, characteristic, null, false, 0, value));
+    }
+
+    public void write(BluetoothGattDescriptor descriptor) {
+        enqueue(new Operation(WRITE_DESCRIPTOR, null, descriptor, false, 0, null));
+    }
+
+    public void requestMtu(int mtu) {
+        enqueue(new Operation(REQUEST_MTU, null, null, false, mtu, null));
+    }
+
+    /**
+     * @return The operation whose completion callback is being delivered, or null.
+     */
+    public synchronized Operation current() {
+        return mCurrent;
+    }
+
+    /**
+     * Marks the current operation as finished and issues the next one.  Called at the end
+     * of every read and write callback.
+     */
+    public void complete() {
+        synchronized (this) {
+            mCurrent = null;
+        }
+        issuePending();
+    }
+
+    // Number of queued operations, not counting the one in flight
+    public synchronized int pending() {
+        return mPending.size();
+    }
+
+    /**
+     * @return True if a read of the characteristic is queued or in flight.
+     */
+    public synchronized boolean isReadPending(BluetoothGattCharacteristic characteristic) {
+        if (mCurrent != null && mCurrent.type == READ_CHARACTERISTIC
+                && mCurrent.characteristic == characteristic) {
+            return true;
+        }
+
+        for (Operation operation : mPending) {
+            if (operation.type == READ_CHARACTERISTIC
+                    && operation.characteristic == characteristic) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void enqueue(Operation operation) {
+        synchronized (this) {
+            mPending.add(operation);
+        }
+        issuePending();
+    }
+
+    // Failures are reported without holding the lock, listeners may enqueue again
+    private void issuePending() {
+        Operation failed;
+
+        do {
+            synchronized (this) {
+                failed = issueNext();
+            }
+
+            FailureListener listener = mFailureListener;
+            if (failed != null && listener != null) {
+                listener.onOperationFailed(failed);
+            }
+        } while (failed != null);
+    }
+
+    // Starts queued operations until one is in flight, returns one that failed to start
+    private Operation issueNext() {
+        while (mCurrent == null && mConnection != null && !mPending.isEmpty()) {
+            Operation operation = mPending.poll();
+            boolean started;
+
+            switch (operation.type) {
+                case READ_CHARACTERISTIC:
+                    started = mConnection.readCharacteristic(operation.characteristic);
+                    break;
+                case WRITE_CHARACTERISTIC:
+                    if (operation.value != null) {
+                        operation.characteristic.setValue(operation.value);
+                    }
+                    started = mConnection.writeCharacteristic(operation.characteristic);
+                    break;
+                case WRITE_DESCRIPTOR:
+                    started = mConnection.writeDescriptor(operation.descriptor);
+                    break;
+                default:
+                    started = mConnection.requestMtu(operation.mtu);
+                    break;
+            }
+
+            if (started) {
+                mCurrent = operation;
+            } else {
+                // No callback will follow, the failure listener hears of it instead
+                return operation;
+            }
+        }
+        return null;
+    }
+}
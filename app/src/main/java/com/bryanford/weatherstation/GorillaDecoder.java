@@ -0,0 +1,102 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Streaming decoder for blocks written by {@link GorillaEncoder}.  Decodes straight into
+ * caller provided primitive arrays without allocating per value.
+ */
+public class GorillaDecoder {
+    private byte[] mBuffer;
+    private int mBitPosition;
+
+    private long mPreviousTime;
+    private long mPreviousDelta;
+    private long mPreviousBits;
+    private int mPreviousLeading;
+    private int mPreviousTrailing;
+    private boolean mFirstValue;
+
+    /**
+     * Starts decoding a block.
+     *
+     * @param buffer Encoded block, from offset 0.
+     * @param firstTime Time of the first sample, as passed to {@link GorillaEncoder#begin(long)}.
+     */
+    public void begin(byte[] buffer, long firstTime) {
+        mBuffer = buffer;
+        mBitPosition = 0;
+        mPreviousTime = firstTime;
+        mPreviousDelta = 0;
+        mPreviousBits = 0;
+        mPreviousLeading = 0;
+        mPreviousTrailing = 0;
+        mFirstValue = true;
+    }
+
+    /**
+     * Decodes the next count samples of the block.
+     */
+    public void decode(long[] times, double[] values, int count) {
+        for (int i = 0; i < count; i++) {
+            times[i] = readTime();
+            values[i] = readValue();
+        }
+    }
+
+    private long readTime() {
+        long deltaOfDelta;
+
+        if (readBits(1) == 0) {
+            deltaOfDelta = 0;
+        } else if (readBits(1) == 0) {
+            deltaOfDelta = readBits(7) - 63;
+        } else if (readBits(1) == 0) {
+            deltaOfDelta = readBits(9) - 255;
+        } else if (readBits(1) == 0) {
+            deltaOfDelta = readBits(12) - 2047;
+        } else {
+            deltaOfDelta = readBits(64);
+        }
+
+        mPreviousDelta += deltaOfDelta;
+        mPreviousTime += mPreviousDelta;
+        return mPreviousTime;
+    }
+
+    private double readValue() {
+        if (mFirstValue) {
+            mPreviousBits = readBits(64);
+            mFirstValue = false;
+        } else if (readBits(1) != 0) {
+            if (readBits(1) != 0) {
+                mPreviousLeading = (int) readBits(5);
+
+                int meaningful = (int) readBits(6);
+                if (meaningful == 0) {
+                    meaningful = 64;
+                }
+                mPreviousTrailing = 64 - mPreviousLeading - meaningful;
+            }
+
+            int meaningful = 64 - mPreviousLeading - mPreviousTrailing;
+            mPreviousBits ^= readBits(meaningful) << mPreviousTrailing;
+        }
+        return Double.longBitsToDouble(mPreviousBits);
+    }
+
+    // Reads count bits, most significant first
+    private long readBits(int count) {
+        long value = 0;
+
+        while (count > 0) {
+            int available = 8 - (mBitPosition & 7);
+            int take = Math.min(available, count);
+            int bits = ((mBuffer[mBitPosition >>> 3] & 0xFF) >>> (available - take))
+                    & ((1 << take) - 1);
+
+            value = (value << take) | bits;
+            mBitPosition += take;
+            count -= take;
+        }
+        return value;
+    }
+}
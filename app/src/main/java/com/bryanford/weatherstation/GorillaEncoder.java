@@ -0,0 +1,153 @@
+package com.bryanford.weatherstation;
+
+import java.util.Arrays;
+
+/**
+ * Streaming encoder for (time, value) series in the style of Facebook's Gorilla TSDB:
+ * delta-of-delta timestamps and XOR compressed doubles, packed MSB first into a reusable
+ * byte array.  The first time is not written, the decoder gets it from the block header.
+ *
+ * Time delta-of-delta buckets:
+ * <pre>
+ *   0              '0'
+ *   [-63, 64]      '10'   + 7 bits
+ *   [-255, 256]    '110'  + 9 bits
+ *   [-2047, 2048]  '1110' + 12 bits
+ *   otherwise      '1111' + 64 bits
+ * </pre>
+ * Values: '0' when equal to the previous value, '10' + meaningful bits when the XOR fits
+ * the previous leading/trailing zero window, otherwise '11' + 5 bits leading zeros +
+ * 6 bits meaningful length + meaningful bits.  The very first value is written raw.
+ */
+public class GorillaEncoder {
+    // Worst case bits per sample: 4 + 64 for the time, 2 + 5 + 6 + 64 for the value
+    public static final int MAX_BITS_PER_SAMPLE = 145;
+
+    private final byte[] mBuffer;
+    private int mBitPosition;
+
+    private long mPreviousTime;
+    private long mPreviousDelta;
+    private long mPreviousBits;
+    private int mPreviousLeading;
+    private int mPreviousTrailing;
+    private boolean mFirstValue;
+
+    /**
+     * @param maxSamples Largest number of samples a single block will hold.
+     */
+    public GorillaEncoder(int maxSamples) {
+        mBuffer = new byte[maxBytes(maxSamples)];
+    }
+
+    // Buffer size needed for the given number of samples in the worst case
+    public static int maxBytes(int samples) {
+        return (samples * MAX_BITS_PER_SAMPLE + 7) / 8;
+    }
+
+    /**
+     * Starts a new block.
+     *
+     * @param firstTime Time of the first sample, stored by the caller.
+     */
+    public void begin(long firstTime) {
+        Arrays.fill(mBuffer, 0, (mBitPosition + 7) >>> 3, (byte) 0);
+        mBitPosition = 0;
+        mPreviousTime = firstTime;
+        mPreviousDelta = 0;
+        mPreviousBits = 0;
+        mPreviousLeading = Integer.MAX_VALUE;
+        mPreviousTrailing = 0;
+        mFirstValue = true;
+    }
+
+    public void add(long time, double value) {
+        writeTime(time);
+        writeValue(value);
+    }
+
+    // Encoded data of the current block
+    public byte[] buffer() {
+        return mBuffer;
+    }
+
+    // Number of bytes used by the current block
+    public int length() {
+        return (mBitPosition + 7) >>> 3;
+    }
+
+    private void writeTime(long time) {
+        long delta = time - mPreviousTime;
+        long deltaOfDelta = delta - mPreviousDelta;
+
+        if (deltaOfDelta == 0) {
+            writeBits(0, 1);
+        } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+            writeBits(0x2, 2);
+            writeBits(deltaOfDelta + 63, 7);
+        } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+            writeBits(0x6, 3);
+            writeBits(deltaOfDelta + 255, 9);
+        } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+            writeBits(0xE, 4);
+            writeBits(deltaOfDelta + 2047, 12);
+        } else {
+            writeBits(0xF, 4);
+            writeBits(deltaOfDelta, 64);
+        }
+
+        mPreviousTime = time;
+        mPreviousDelta = delta;
+    }
+
+    private void writeValue(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+
+        if (mFirstValue) {
+            writeBits(bits, 64);
+            mPreviousBits = bits;
+            mFirstValue = false;
+            return;
+        }
+
+        long xor = bits ^ mPreviousBits;
+        mPreviousBits = bits;
+
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+
+        if (leading >= mPreviousLeading && trailing >= mPreviousTrailing) {
+            // Fits the previous window
+            writeBits(0x2, 2);
+            writeBits(xor >>> mPreviousTrailing, 64 - mPreviousLeading - mPreviousTrailing);
+        } else {
+            int meaningful = 64 - leading - trailing;
+
+            writeBits(0x3, 2);
+            writeBits(leading, 5);
+            writeBits(meaningful & 0x3F, 6);    // 64 is stored as 0
+            writeBits(xor >>> trailing, meaningful);
+
+            mPreviousLeading = leading;
+            mPreviousTrailing = trailing;
+        }
+    }
+
+    // Appends the low count bits of value, most significant first
+    private void writeBits(long value, int count) {
+        while (count > 0) {
+            int free = 8 - (mBitPosition & 7);
+            int take = Math.min(free, count);
+            int bits = (int) (value >>> (count - take)) & ((1 << take) - 1);
+
+            mBuffer[mBitPosition >>> 3] |= bits << (free - take);
+            mBitPosition += take;
+            count -= take;
+        }
+    }
+}
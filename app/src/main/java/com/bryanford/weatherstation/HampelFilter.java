@@ -0,0 +1,121 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Hampel outlier rejector.  Each value is compared with the median of the last N values; if
+ * it is further away than threshold times the scaled median absolute deviation (MAD) it is
+ * replaced by that median.  The filter is causal, the window ends at the current value, so
+ * nothing is delayed.  Genuine steps pass once they fill half the window.
+ *
+ * The median and MAD come from a {@link RunningMedian}.  The absolute deviations above and
+ * below the median form two sorted runs of the window, so the MAD is found by selecting
+ * from the two runs in O(log^2 n) without sorting or allocating.
+ */
+public class HampelFilter implements StreamOperator {
+    // Scales the MAD to a standard deviation for normally distributed noise
+    private static final double MAD_SCALE = 1.4826;
+
+    private final RunningMedian mWindow;
+    private final double mThreshold;
+    private final double mMinDeviation;
+
+    private double mOutput = Double.NaN;
+    private long mRejected;
+
+    // Median and count of window values below it, for the deviation runs
+    private double mMedian;
+    private int mBelow;
+
+    /**
+     * @param window Number of recent values the median and MAD are taken over.
+     * @param threshold Rejection distance in scaled MADs, 3 is the usual choice.
+     * @param minDeviation Deviations up to this size always pass, so a flat or quantized
+     *                     signal with a MAD of 0 does not reject every small change.
+     */
+    public HampelFilter(int window, double threshold, double minDeviation) {
+        mWindow = new RunningMedian(window);
+        mThreshold = threshold;
+        mMinDeviation = minDeviation;
+    }
+
+    @Override
+    public void push(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        mWindow.push(value);
+        mMedian = mWindow.value();
+
+        double limit = Math.max(mThreshold * MAD_SCALE * mad(), mMinDeviation);
+        if (Math.abs(value - mMedian) > limit) {
+            mOutput = mMedian;
+            mRejected++;
+        } else {
+            mOutput = value;
+        }
+    }
+
+    @Override
+    public double value() {
+        return mOutput;
+    }
+
+    @Override
+    public void reset() {
+        mWindow.reset();
+        mOutput = Double.NaN;
+    }
+
+    // Values replaced by the median so far
+    public long rejected() {
+        return mRejected;
+    }
+
+    private double mad() {
+        int size = mWindow.size();
+
+        mBelow = mWindow.countBelow(mMedian);
+        if (size % 2 == 1) {
+            return deviation(size / 2);
+        }
+        return (deviation(size / 2 - 1) + deviation(size / 2)) / 2;
+    }
+
+    /**
+     * Selects the absolute deviation of the given rank from the runs above (value - median,
+     * ascending) and below (median - value, ascending) the median.
+     */
+    private double deviation(int rank) {
+        int above = mWindow.size() - mBelow;
+        int lo = Math.max(0, rank + 1 - mBelow);
+        int hi = Math.min(rank + 1, above);
+
+        // Find how many of the rank + 1 smallest deviations come from the upper run
+        while (lo < hi) {
+            int taken = (lo + hi) >>> 1;
+            if (upper(taken) < lower(rank - taken)) {
+                lo = taken + 1;
+            } else {
+                hi = taken;
+            }
+        }
+
+        int fromLower = rank + 1 - lo;
+        double last = Double.NEGATIVE_INFINITY;
+        if (lo > 0) {
+            last = upper(lo - 1);
+        }
+        if (fromLower > 0) {
+            last = Math.max(last, lower(fromLower - 1));
+        }
+        return last;
+    }
+
+    private double upper(int i) {
+        return mWindow.select(mBelow + i) - mMedian;
+    }
+
+    private double lower(int i) {
+        return mMedian - mWindow.select(mBelow - 1 - i);
+    }
+}
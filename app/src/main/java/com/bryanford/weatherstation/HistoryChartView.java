@@ -0,0 +1,314 @@
+package com.bryanford.weatherstation;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import java.io.IOException;
+
+/**
+ * Trend chart over one channel of the stored reading history.  The visible time window is
+ * reduced to one min/max pair per pixel by a {@link HistoryDecimator} on a worker thread,
+ * so onDraw only walks a pixel-wide array into a reused {@link Path}.  Drag to pan, pinch
+ * to zoom; both are served from the decimation cache while it covers the new window.
+ */
+public class HistoryChartView extends View {
+    private static final String TAG = HistoryChartView.class.getSimpleName();
+
+    // Default visible window
+    private static final long DEFAULT_SPAN = 24 * 60 * 60 * 1000L;
+    private static final long MIN_SPAN = 60 * 1000L;
+
+    // Cached buckets per pixel, allows zooming in 2x before the log is read again
+    private static final int CACHE_RESOLUTION = 2;
+
+    private final Paint mLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint mAxisPaint = new Paint();
+    private final Path mPath = new Path();
+    private final Object mLock = new Object();
+
+    private final GestureDetector mGestureDetector;
+    private final ScaleGestureDetector mScaleDetector;
+
+    // Drawn by the UI thread, swapped with the pending arrays under mLock
+    private float[] mMin = new float[0];
+    private float[] mMax = new float[0];
+    private float[] mPendingMin = new float[0];
+    private float[] mPendingMax = new float[0];
+    private int mPixels;
+    private int mPendingPixels;
+    private boolean mPendingReady;
+
+    // Owned by the worker thread
+    private final HistoryDecimator mDecimator = new HistoryDecimator();
+    private float[] mWorkMin = new float[0];
+    private float[] mWorkMax = new float[0];
+
+    private HandlerThread mWorkerThread;
+    private Handler mWorker;
+
+    private volatile ReadingLog mLog;
+    private volatile int mChannel;
+    private volatile long mVisibleFrom;
+    private volatile long mVisibleTo;
+    private volatile boolean mReload;
+
+    public HistoryChartView(Context context) {
+        this(context, null);
+    }
+
+    public HistoryChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+
+        mLinePaint.setColor(Color.parseColor("#1565C0"));
+        mLinePaint.setStyle(Paint.Style.STROKE);
+        mLinePaint.setStrokeWidth(2f);
+        mAxisPaint.setColor(Color.LTGRAY);
+
+        mGestureDetector = new GestureDetector(context, new PanListener());
+        mScaleDetector = new ScaleGestureDetector(context, new ZoomListener());
+
+        mVisibleTo = System.currentTimeMillis();
+        mVisibleFrom = mVisibleTo - DEFAULT_SPAN;
+    }
+
+    /**
+     * Shows the given channel of a reading history.
+     *
+     * @param log History to read.
+     * @param channel One of the {@link ReadingChannel} ids.
+     */
+    public void setSource(ReadingLog log, int channel) {
+        mLog = log;
+        mChannel = channel;
+        reload();
+    }
+
+    /**
+     * Moves the window to end now and re-reads the history, picking up new blocks.
+     */
+    public void reload() {
+        long span = mVisibleTo - mVisibleFrom;
+
+        mVisibleTo = System.currentTimeMillis();
+        mVisibleFrom = mVisibleTo - span;
+        mReload = true;
+        requestDecimation();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        mWorkerThread = new HandlerThread("ChartDecimation");
+        mWorkerThread.start();
+        mWorker = new Handler(mWorkerThread.getLooper());
+        requestDecimation();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        mWorkerThread.quitSafely();
+        mWorkerThread = null;
+        mWorker = null;
+
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        synchronized (mLock) {
+            mMin = new float[w];
+            mMax = new float[w];
+            mPendingMin = new float[w];
+            mPendingMax = new float[w];
+            mPixels = 0;
+            mPendingReady = false;
+        }
+        requestDecimation();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = mScaleDetector.onTouchEvent(event);
+        handled |= mGestureDetector.onTouchEvent(event);
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        final float height = getHeight();
+        canvas.drawLine(0, height - 1, getWidth(), height - 1, mAxisPaint);
+
+        synchronized (mLock) {
+            if (mPendingReady) {
+                float[] min = mMin;
+                float[] max = mMax;
+
+                mMin = mPendingMin;
+                mMax = mPendingMax;
+                mPixels = mPendingPixels;
+                mPendingMin = min;
+                mPendingMax = max;
+                mPendingReady = false;
+            }
+        }
+
+        // Scale to the visible values
+        float low = Float.MAX_VALUE;
+        float high = -Float.MAX_VALUE;
+        for (int i = 0; i < mPixels; i++) {
+            if (mMin[i] == mMin[i]) {
+                low = Math.min(low, mMin[i]);
+                high = Math.max(high, mMax[i]);
+            }
+        }
+
+        if (low > high) {
+            return;
+        }
+
+        final float padding = getPaddingTop() + getPaddingBottom();
+        final float range = Math.max(high - low, 0.01f);
+        final float scale = (height - padding) / range;
+        final float base = height - getPaddingBottom();
+        boolean drawing = false;
+
+        // A vertical stroke per pixel from max to min keeps spikes visible
+        mPath.rewind();
+        for (int i = 0; i < mPixels; i++) {
+            if (mMin[i] != mMin[i]) {
+                drawing = false;
+                continue;
+            }
+
+            float top = base - (mMax[i] - low) * scale;
+            float bottom = base - (mMin[i] - low) * scale;
+
+            if (drawing) {
+                mPath.lineTo(i, top);
+            } else {
+                mPath.moveTo(i, top);
+                drawing = true;
+            }
+            mPath.lineTo(i, bottom);
+        }
+        canvas.drawPath(mPath, mLinePaint);
+    }
+
+    private void requestDecimation() {
+        if (mWorker != null && mLog != null && getWidth() > 0) {
+            // Coalesce bursts of pan and zoom events into one pass
+            mWorker.removeCallbacks(mDecimateTask);
+            mWorker.post(mDecimateTask);
+        }
+    }
+
+    private final Runnable mDecimateTask = new Runnable() {
+        @Override
+        public void run() {
+            final ReadingLog log = mLog;
+            final long from = mVisibleFrom;
+            final long to = mVisibleTo;
+            final int pixels;
+
+            synchronized (mLock) {
+                pixels = mPendingMin.length;
+            }
+
+            if (log == null || pixels == 0) {
+                return;
+            }
+
+            if (mReload || !mDecimator.covers(from, to, pixels)) {
+                long span = to - from;
+                long loadFrom = from - span;
+                long loadTo = to + span;
+
+                mReload = false;
+                try {
+                    SampleCursor cursor = log.query(mChannel, loadFrom, loadTo);
+                    try {
+                        mDecimator.load(cursor, loadFrom, loadTo, 3 * pixels * CACHE_RESOLUTION);
+                    } finally {
+                        cursor.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Unable to read history", e);
+                    return;
+                }
+            }
+
+            if (mWorkMin.length != pixels) {
+                mWorkMin = new float[pixels];
+                mWorkMax = new float[pixels];
+            }
+            mDecimator.render(from, to, pixels, mWorkMin, mWorkMax);
+
+            synchronized (mLock) {
+                if (mPendingMin.length != pixels) {
+                    // Resized meanwhile, a new pass is queued
+                    return;
+                }
+                System.arraycopy(mWorkMin, 0, mPendingMin, 0, pixels);
+                System.arraycopy(mWorkMax, 0, mPendingMax, 0, pixels);
+                mPendingPixels = pixels;
+                mPendingReady = true;
+            }
+            postInvalidate();
+        }
+    };
+
+    /**
+     * Drag pans the window
+     */
+    private class PanListener extends GestureDetector.SimpleOnGestureListener {
+        @Override
+        public boolean onDown(MotionEvent e) {
+            return true;
+        }
+
+        @Override
+        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+            long span = mVisibleTo - mVisibleFrom;
+            long shift = (long) (distanceX * span / getWidth());
+
+            mVisibleFrom += shift;
+            mVisibleTo += shift;
+            requestDecimation();
+            return true;
+        }
+    }
+
+    /**
+     * Pinch zooms the window around the focus point
+     */
+    private class ZoomListener extends ScaleGestureDetector.SimpleOnScaleGestureListener {
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            long span = mVisibleTo - mVisibleFrom;
+            long newSpan = Math.max(MIN_SPAN, (long) (span / detector.getScaleFactor()));
+            float focus = detector.getFocusX() / getWidth();
+            long anchor = mVisibleFrom + (long) (focus * span);
+
+            mVisibleFrom = anchor - (long) (focus * newSpan);
+            mVisibleTo = mVisibleFrom + newSpan;
+            requestDecimation();
+            return true;
+        }
+    }
+}
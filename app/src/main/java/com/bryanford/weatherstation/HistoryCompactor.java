@@ -0,0 +1,403 @@
+package com.bryanford.weatherstation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Applies a {@link RetentionPolicy} to a {@link ReadingLog} in the background.
+ *
+ * Raw samples older than the raw retention are rolled up into one-minute means, and those
+ * older than the minute retention into hourly means.  Each mean is stored at the start of
+ * its bucket in a ReadingLog of its own below the raw log's directory, so the coarser tiers
+ * are queried like the raw history.  Once rolled up, old blocks are dropped with
+ * {@link ReadingLog#dropBefore(int, long)}; a segment is only rewritten once a good share of
+ * it can go, unless the history is over its disk budget.
+ *
+ * Work is done in steps of at most {@link #CHUNK_SAMPLES} samples or one segment rewrite,
+ * with pauses in between, on a low priority thread.  Appends to the raw log only wait while
+ * a rewrite swaps in the new segment.  The rollups on disk mark how far each tier got, so
+ * compaction cut short by the app stopping goes on where it left off without counting a
+ * sample twice.
+ */
+public class HistoryCompactor {
+    public static final String MINUTE_DIR = "minute";
+    public static final String HOUR_DIR = "hour";
+
+    public static final long MINUTE_MILLIS = 60 * 1000;
+    public static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+
+    // Most source samples rolled up in one step
+    public static final int CHUNK_SAMPLES = 16 * 1024;
+
+    public static final long STEP_PAUSE_MILLIS = 100;
+    public static final long IDLE_MILLIS = 15 * MINUTE_MILLIS;
+
+    // Within budget, a segment is rewritten once this fraction of it can be dropped
+    private static final int DROP_FRACTION = 8;
+
+    private static final int RAW = 0;
+    private static final int MINUTES = 1;
+    private static final int HOURS = 2;
+    private static final long[] BUCKET_MILLIS = {0, MINUTE_MILLIS, HOUR_MILLIS};
+
+    private final ReadingLog[] mTiers;
+    private final RetentionPolicy mPolicy;
+
+    // Guarded by this, the step lock
+    private final SegmentIndex[][] mIndexes = new SegmentIndex[3][ReadingChannel.COUNT];
+    private final long[][] mRolledUntil = new long[3][ReadingChannel.COUNT];
+    private boolean mLoaded;
+
+    // Data before this goes early while over budget, moves forward only, per tier
+    private final long[] mBudgetCutoff = {Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE};
+
+    // Guarded by mLock
+    private final Object mLock = new Object();
+    private Thread mThread;
+    private boolean mRunning = true;
+
+    // Written by step() only
+    private volatile long mSamplesRolledUp;
+    private volatile long mBytesFreed;
+    private volatile long mFailures;
+
+    /**
+     * @param raw Log the samples are appended to, whose directory also holds the tiers.
+     */
+    public HistoryCompactor(ReadingLog raw, RetentionPolicy policy) {
+        mTiers = new ReadingLog[]{raw,
+                new ReadingLog(new File(raw.getDirectory(), MINUTE_DIR)),
+                new ReadingLog(new File(raw.getDirectory(), HOUR_DIR))};
+        mPolicy = policy;
+    }
+
+    // One-minute means of samples older than the raw retention
+    public ReadingLog getMinuteLog() {
+        return mTiers[MINUTES];
+    }
+
+    // Hourly means of samples older than the minute retention
+    public ReadingLog getHourLog() {
+        return mTiers[HOURS];
+    }
+
+    /**
+     * Starts compacting on a background thread, a step at a time while there is work and
+     * every {@link #IDLE_MILLIS} after that.
+     */
+    public void start() {
+        synchronized (mLock) {
+            if (mThread != null || !mRunning) {
+                return;
+            }
+            mThread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    compactLoop();
+                }
+            }, "HistoryCompactor");
+            mThread.setPriority(Thread.MIN_PRIORITY);
+            mThread.start();
+        }
+    }
+
+    /**
+     * Waits for the step in progress, if any, and closes the tiers.  The raw log stays open.
+     */
+    public void close() throws IOException {
+        final Thread thread;
+
+        synchronized (mLock) {
+            mRunning = false;
+            mLock.notifyAll();
+            thread = mThread;
+        }
+
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            try {
+                mTiers[MINUTES].close();
+            } finally {
+                mTiers[HOURS].close();
+            }
+        }
+    }
+
+    /**
+     * Does one bounded piece of compaction: rolls up a chunk of one channel, or drops the
+     * rolled up blocks of one segment.
+     *
+     * @param now Current time in milliseconds since the epoch.
+     *
+     * @return True if there may be more to do.
+     */
+    public synchronized boolean step(long now) throws IOException {
+        if (!mLoaded) {
+            loadRolledUntil();
+            mLoaded = true;
+        }
+
+        final long rawBytes = tierBytes(RAW);
+        final long minuteBytes = tierBytes(MINUTES);
+        final long excess = rawBytes + minuteBytes + tierBytes(HOURS) - mPolicy.getBudgetBytes();
+
+        // Over budget, raw data goes first and minutes only once there is no raw data left
+        final long rawCutoff = Math.max(now - mPolicy.getRawMillis(),
+                budgetCutoff(RAW, excess, rawBytes));
+        for (int channel : ReadingChannel.all()) {
+            if (compact(RAW, channel, rawCutoff, excess > 0)) {
+                return true;
+            }
+        }
+
+        final long minuteCutoff = Math.max(now - mPolicy.getMinuteMillis(),
+                budgetCutoff(MINUTES, excess - rawBytes, minuteBytes));
+        for (int channel : ReadingChannel.all()) {
+            if (compact(MINUTES, channel, minuteCutoff, excess - rawBytes > 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Bytes of all tiers
+    public long diskBytes() {
+        return tierBytes(RAW) + tierBytes(MINUTES) + tierBytes(HOURS);
+    }
+
+    public long samplesRolledUp() {
+        return mSamplesRolledUp;
+    }
+
+    public long bytesFreed() {
+        return mBytesFreed;
+    }
+
+    // Steps that failed with an IOException on the background thread
+    public long failures() {
+        return mFailures;
+    }
+
+    private void compactLoop() {
+        while (true) {
+            boolean more;
+            try {
+                more = step(System.currentTimeMillis());
+            } catch (IOException e) {
+                mFailures++;
+                more = false;
+            }
+
+            synchronized (mLock) {
+                if (mRunning) {
+                    try {
+                        mLock.wait(more ? STEP_PAUSE_MILLIS : IDLE_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!mRunning) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Time before which the tier's data should go to free the excess bytes, the same for
+     * every channel.  Assumes a steady sample rate and leaves some headroom, so the next
+     * rewrite is not due right away.
+     *
+     * @return Long.MIN_VALUE if the tier has nothing to give up.
+     */
+    private long budgetCutoff(int tier, long excess, long tierBytes) throws IOException {
+        if (excess <= 0 || tierBytes == 0) {
+            return Long.MIN_VALUE;
+        }
+
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int channel : ReadingChannel.all()) {
+            if (!mTiers[tier].segmentFile(channel).exists()) {
+                continue;
+            }
+            final SegmentIndex index = index(tier, channel);
+            if (index.size() > 0) {
+                first = Math.min(first, index.minTime(0));
+                last = Math.max(last, index.maxTime(index.size() - 1));
+            }
+        }
+        if (first > last) {
+            return Long.MIN_VALUE;
+        }
+
+        // Channels cut back already must not pull the horizon back for the others
+        final double share = Math.min(1, (double) excess / tierBytes + 1.0 / DROP_FRACTION);
+        final long cutoff = share == 1 ? last + 1 : first + (long) ((last - first) * share);
+        mBudgetCutoff[tier] = Math.max(mBudgetCutoff[tier], cutoff);
+        return mBudgetCutoff[tier];
+    }
+
+    /**
+     * Rolls up or drops data of one source tier and channel.
+     *
+     * @param cutoff Data before this is due to be rolled up and dropped.
+     * @param overBudget Whether to drop data even if the segment is not worth rewriting yet.
+     */
+    private boolean compact(int source, int channel, long cutoff, boolean overBudget)
+            throws IOException {
+        final ReadingLog log = mTiers[source];
+        final File file = log.segmentFile(channel);
+        if (!file.exists()) {
+            return false;
+        }
+
+        final SegmentIndex index = index(source, channel);
+        final int blocks = index.size();
+        if (blocks == 0) {
+            return false;
+        }
+
+        final long bucket = BUCKET_MILLIS[source + 1];
+        cutoff -= cutoff % bucket;
+
+        if (rollUp(source, channel, cutoff)) {
+            return true;
+        }
+
+        // Drop what has been rolled up, if it is worth rewriting the segment for
+        final long before = Math.min(cutoff, mRolledUntil[source + 1][channel]);
+        final int first = index.firstBlockEndingAtOrAfter(before, blocks);
+        if (first == 0) {
+            return false;
+        }
+
+        final long droppable = (first < blocks ? index.offset(first) : index.end())
+                - index.offset(0);
+        if (!overBudget && droppable * DROP_FRACTION < file.length()) {
+            return false;
+        }
+
+        // The rollups must be on disk before their source goes
+        mTiers[source + 1].flush();
+        final long freed = log.dropBefore(channel, before);
+        mBytesFreed += freed;
+        return freed > 0;
+    }
+
+    /**
+     * Rolls up the next chunk of source samples before the cutoff, which is at a bucket
+     * boundary, so every bucket written is complete.
+     *
+     * @return True if any samples were rolled up.
+     */
+    private boolean rollUp(int source, int channel, long cutoff) throws IOException {
+        final int target = source + 1;
+        final long bucket = BUCKET_MILLIS[target];
+        final long from = mRolledUntil[target][channel];
+        if (from >= cutoff) {
+            return false;
+        }
+
+        if (source != RAW) {
+            // Our own tier, make its latest means visible to the query
+            mTiers[source].flush();
+        }
+
+        final SampleCursor cursor = mTiers[source].query(channel, from, cutoff);
+        long bucketStart = Long.MIN_VALUE;
+        double sum = 0;
+        int count = 0;
+        int samples = 0;
+
+        try {
+            while (cursor.next()) {
+                final long time = cursor.time();
+                final long start = time - time % bucket;
+
+                if (start != bucketStart) {
+                    if (count > 0) {
+                        mTiers[target].append(channel, bucketStart, sum / count);
+                        mRolledUntil[target][channel] = bucketStart + bucket;
+
+                        // Stop between buckets, the current one is read again next time
+                        if (samples >= CHUNK_SAMPLES) {
+                            mSamplesRolledUp += samples;
+                            return true;
+                        }
+                    }
+                    bucketStart = start;
+                    sum = 0;
+                    count = 0;
+                }
+                sum += cursor.value();
+                count++;
+                samples++;
+            }
+
+            if (count > 0) {
+                mTiers[target].append(channel, bucketStart, sum / count);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Everything before the cutoff is rolled up now
+        mRolledUntil[target][channel] = cutoff;
+        mSamplesRolledUp += samples;
+        return samples > 0;
+    }
+
+    // Where the rollups on disk end, before anything is appended to the tiers
+    private void loadRolledUntil() throws IOException {
+        for (int tier = MINUTES; tier <= HOURS; tier++) {
+            Arrays.fill(mRolledUntil[tier], Long.MIN_VALUE);
+
+            for (int channel : ReadingChannel.all()) {
+                if (!mTiers[tier].segmentFile(channel).exists()) {
+                    continue;
+                }
+                final SegmentIndex index = index(tier, channel);
+                if (index.size() > 0) {
+                    mRolledUntil[tier][channel] =
+                            index.maxTime(index.size() - 1) + BUCKET_MILLIS[tier];
+                }
+            }
+        }
+    }
+
+    // Index of a tier's segment, brought up to date
+    private SegmentIndex index(int tier, int channel) throws IOException {
+        final SegmentReader reader = new SegmentReader(mTiers[tier].segmentFile(channel));
+
+        try {
+            SegmentIndex index = mIndexes[tier][channel];
+            if (index == null || !index.refresh(reader.channel())) {
+                // New, or the segment was rewritten
+                index = new SegmentIndex();
+                index.refresh(reader.channel());
+                mIndexes[tier][channel] = index;
+            }
+            return index;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private long tierBytes(int tier) {
+        long bytes = 0;
+
+        for (int channel : ReadingChannel.all()) {
+            bytes += mTiers[tier].segmentFile(channel).length();
+        }
+        return bytes;
+    }
+}
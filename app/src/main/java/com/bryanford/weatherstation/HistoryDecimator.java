@@ -0,0 +1,104 @@
+package com.bryanford.weatherstation;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Min/max bucketing of stored history for display.  A pass over the log fills a cache of
+ * fine buckets covering a time range, {@link #render(long, long, int, float[], float[])}
+ * then merges those buckets into one min/max pair per pixel.  Panning and zooming inside
+ * the cached range and resolution is served from the cache without touching the log.
+ *
+ * Not thread safe, meant to be owned by a single worker thread.
+ */
+public class HistoryDecimator {
+    private float[] mMin = new float[0];
+    private float[] mMax = new float[0];
+    private int mBuckets;
+    private long mFrom;
+    private long mTo;
+    private long mBucketWidth;
+
+    /**
+     * Re-reads [from, to) from the cursor into the given number of buckets.  Empty buckets
+     * hold NaN.
+     *
+     * @param cursor Cursor over at least [from, to), not closed by this method.
+     */
+    public void load(SampleCursor cursor, long from, long to, int buckets) throws IOException {
+        if (mMin.length < buckets) {
+            mMin = new float[buckets];
+            mMax = new float[buckets];
+        }
+
+        Arrays.fill(mMin, 0, buckets, Float.NaN);
+        Arrays.fill(mMax, 0, buckets, Float.NaN);
+        mBuckets = buckets;
+        mFrom = from;
+        mBucketWidth = Math.max(1, (to - from + buckets - 1) / buckets);
+        mTo = from + mBucketWidth * buckets;
+
+        while (cursor.next()) {
+            long time = cursor.time();
+            float value = (float) cursor.value();
+
+            if (time < from || time >= mTo || value != value) {
+                continue;
+            }
+
+            int bucket = (int) ((time - from) / mBucketWidth);
+
+            // NaN compares false, so an empty bucket takes the first value
+            if (!(value >= mMin[bucket])) {
+                mMin[bucket] = value;
+            }
+            if (!(value <= mMax[bucket])) {
+                mMax[bucket] = value;
+            }
+        }
+    }
+
+    /**
+     * @return True if the cache holds [from, to) at a resolution of at least one bucket
+     *         per pixel.
+     */
+    public boolean covers(long from, long to, int pixels) {
+        return mBuckets > 0 && from >= mFrom && to <= mTo
+                && mBucketWidth * pixels <= to - from;
+    }
+
+    /**
+     * Merges the cached buckets overlapping [from, to) into one min/max pair per pixel.
+     * Pixels without data get NaN.
+     */
+    public void render(long from, long to, int pixels, float[] min, float[] max) {
+        double pixelWidth = (double) (to - from) / pixels;
+
+        Arrays.fill(min, 0, pixels, Float.NaN);
+        Arrays.fill(max, 0, pixels, Float.NaN);
+
+        int first = (int) Math.max(0, (from - mFrom) / mBucketWidth);
+        for (int bucket = first; bucket < mBuckets; bucket++) {
+            long start = mFrom + bucket * mBucketWidth;
+
+            if (start >= to) {
+                break;
+            }
+            if (mMin[bucket] != mMin[bucket] || start + mBucketWidth <= from) {
+                continue;
+            }
+
+            int pixel = (int) ((start + mBucketWidth / 2 - from) / pixelWidth);
+            if (pixel < 0 || pixel >= pixels) {
+                continue;
+            }
+
+            if (!(mMin[bucket] >= min[pixel])) {
+                min[pixel] = mMin[bucket];
+            }
+            if (!(mMax[bucket] <= max[pixel])) {
+                max[pixel] = mMax[bucket];
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.bryanford.weatherstation;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+
+/**
+ * Streams stored readings out of a {@link ReadingLog} as CSV or as a compact columnar
+ * binary file.  Selected channels are merged in time order and written chunk by chunk, so
+ * memory use stays bounded no matter how much history is exported.
+ *
+ * Columnar layout, all values big endian:
+ * <pre>
+ *   int magic "WSXC", int version
+ *   byte channel count, then per channel: byte id, modified UTF-8 name
+ *   chunks: int rows, int time bytes, long base time,
+ *           zig-zag varint time deltas, byte[rows] channel ids, double[rows] values
+ *   int 0 terminates the file
+ * </pre>
+ */
+public class HistoryExporter {
+    public static final int COLUMNAR_MAGIC = 0x57535843;   // "WSXC"
+    public static final int COLUMNAR_VERSION = 1;
+
+    // Rows buffered before they are handed to the output
+    public static final int CHUNK_ROWS = 4096;
+
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private final ReadingLog mLog;
+
+    // Reused chunk buffers
+    private final long[] mTimes = new long[CHUNK_ROWS];
+    private final byte[] mChannels = new byte[CHUNK_ROWS];
+    private final double[] mValues = new double[CHUNK_ROWS];
+
+    public HistoryExporter(ReadingLog log) {
+        mLog = log;
+    }
+
+    /**
+     * Writes "time,channel,value" rows for the selected channels and time range.
+     *
+     * @param out Destination, not closed by this method.
+     * @param channels {@link ReadingChannel} ids to export.
+     * @param from Inclusive start time in milliseconds since the epoch.
+     * @param to Exclusive end time in milliseconds since the epoch.
+     *
+     * @return Number of rows written.
+     */
+    public long exportCsv(Writer out, int[] channels, long from, long to) throws IOException {
+        final StringBuilder line = new StringBuilder(CHUNK_ROWS * 32);
+        long total = 0;
+        int rows;
+
+        out.write("time,channel,value\n");
+
+        MergeCursor cursor = new MergeCursor(mLog, channels, from, to);
+        try {
+            while ((rows = cursor.fill(mTimes, mChannels, mValues)) > 0) {
+                line.setLength(0);
+
+                for (int i = 0; i < rows; i++) {
+                    line.append(mTimes[i]).append(',')
+                            .append(ReadingChannel.name(mChannels[i])).append(',')
+                            .append(mValues[i]).append('\n');
+                }
+                out.write(line.toString());
+                total += rows;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        out.flush();
+        return total;
+    }
+
+    /**
+     * Writes the selected channels and time range in the columnar format described above.
+     *
+     * @param out Destination, not closed by this method.
+     * @param channels {@link ReadingChannel} ids to export.
+     * @param from Inclusive start time in milliseconds since the epoch.
+     * @param to Exclusive end time in milliseconds since the epoch.
+     *
+     * @return Number of rows written.
+     */
+    public long exportColumnar(OutputStream out, int[] channels, long from, long to)
+            throws IOException {
+        final ByteBuffer chunk = ByteBuffer.allocate(
+                16 + CHUNK_ROWS * (MAX_VARINT_BYTES + 1 + 8));
+        long total = 0;
+        int rows;
+
+        chunk.putInt(COLUMNAR_MAGIC).putInt(COLUMNAR_VERSION).put((byte) channels.length);
+        out.write(chunk.array(), 0, chunk.position());
+
+        DataOutputStream names = new DataOutputStream(out);
+        for (int channel : channels) {
+            names.writeByte(channel);
+            names.writeUTF(ReadingChannel.name(channel));
+        }
+
+        MergeCursor cursor = new MergeCursor(mLog, channels, from, to);
+        try {
+            while ((rows = cursor.fill(mTimes, mChannels, mValues)) > 0) {
+                chunk.clear();
+                chunk.putInt(rows).putInt(0).putLong(mTimes[0]);
+
+                // Times as zig-zag varint deltas against the previous row
+                int timeStart = chunk.position();
+                long previous = mTimes[0];
+                for (int i = 1; i < rows; i++) {
+                    putVarLong(chunk, mTimes[i] - previous);
+                    previous = mTimes[i];
+                }
+                chunk.putInt(4, chunk.position() - timeStart);
+
+                chunk.put(mChannels, 0, rows);
+                for (int i = 0; i < rows; i++) {
+                    chunk.putDouble(mValues[i]);
+                }
+
+                out.write(chunk.array(), 0, chunk.position());
+                total += rows;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        chunk.clear();
+        chunk.putInt(0);
+        out.write(chunk.array(), 0, chunk.position());
+        out.flush();
+        return total;
+    }
+
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        long zigzag = (value << 1) ^ (value >> 63);
+
+        while ((zigzag & ~0x7FL) != 0) {
+            buffer.put((byte) ((zigzag & 0x7F) | 0x80));
+            zigzag >>>= 7;
+        }
+        buffer.put((byte) zigzag);
+    }
+
+    /**
+     * Merges the cursors of several channels into a single time ordered stream.
+     */
+    private static class MergeCursor {
+        private final SampleCursor[] mCursors;
+        private final int[] mChannels;
+
+        MergeCursor(ReadingLog log, int[] channels, long from, long to) throws IOException {
+            mCursors = new SampleCursor[channels.length];
+            mChannels = channels.clone();
+
+            try {
+                for (int i = 0; i < channels.length; i++) {
+                    mCursors[i] = log.query(channels[i], from, to);
+                    advance(i);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Copies up to times.length merged rows into the given arrays.
+         *
+         * @return The number of rows copied, 0 once every channel is exhausted.
+         */
+        int fill(long[] times, byte[] channels, double[] values) throws IOException {
+            int rows = 0;
+
+            while (rows < times.length) {
+                int next = -1;
+                long nextTime = Long.MAX_VALUE;
+
+                for (int i = 0; i < mCursors.length; i++) {
+                    if (mCursors[i] != null && (next < 0 || mCursors[i].time() < nextTime)) {
+                        next = i;
+                        nextTime = mCursors[i].time();
+                    }
+                }
+
+                if (next < 0) {
+                    break;
+                }
+
+                times[rows] = nextTime;
+                channels[rows] = (byte) mChannels[next];
+                values[rows] = mCursors[next].value();
+                rows++;
+
+                advance(next);
+            }
+            return rows;
+        }
+
+        // Moves cursor i to its next sample, closing it when exhausted
+        private void advance(int i) throws IOException {
+            if (!mCursors[i].next()) {
+                mCursors[i].close();
+                mCursors[i] = null;
+            }
+        }
+
+        void close() throws IOException {
+            for (int i = 0; i < mCursors.length; i++) {
+                if (mCursors[i] != null) {
+                    mCursors[i].close();
+                    mCursors[i] = null;
+                }
+            }
+        }
+    }
+}
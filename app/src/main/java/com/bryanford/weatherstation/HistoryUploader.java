@@ -0,0 +1,369 @@
+package com.bryanford.weatherstation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Uploads a {@link ReadingLog} in resumable chunks.
+ *
+ * Each channel's segment is read block by block from the start, and runs of whole blocks are
+ * sent as gzip compressed "time,value" CSV chunks.  Progress is tracked by the stream offset
+ * of the blocks (see {@link SegmentIndex}), which retention does not change: a chunk covers
+ * the blocks from {@code X-Segment-Offset} up to {@code X-Segment-End}, and the server
+ * acknowledges it by answering with its new offset.
+ * The server is the authority on progress, so an interrupted upload continues from the last
+ * acknowledged offset, whether it was cut off by the network or by a restart of the app.
+ * The same check makes it safe to send a chunk again when its answer got lost, which the
+ * uploader does once before giving up.
+ *
+ * Protocol, per channel at {@code <base>/<source>/<channel>}:
+ * <ul>
+ *   <li>{@code GET} answers with the acknowledged offset in {@code X-Segment-Offset}, 404
+ *       for a channel the server has never seen.</li>
+ *   <li>{@code POST} of a chunk answers 200 with the new offset, or 409 with the current
+ *       offset if the chunk does not start there.</li>
+ * </ul>
+ * When retention has dropped blocks the server has not acknowledged yet, the chunk still
+ * starts at the acknowledged offset, and {@code X-Segment-Gap-End} tells where its data
+ * begins; the bytes in between are gone for good.  An answer that does not move the offset
+ * forward fails the upload rather than sending the same chunk again.
+ */
+public class HistoryUploader {
+    public static final String OFFSET_HEADER = "X-Segment-Offset";
+    public static final String END_HEADER = "X-Segment-End";
+    public static final String GAP_END_HEADER = "X-Segment-Gap-End";
+
+    // Blocks per chunk, 64 blocks of 256 samples compress to some tens of kilobytes
+    public static final int DEFAULT_CHUNK_BLOCKS = 64;
+
+    public static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final ReadingLog mLog;
+    private final String mBase;
+    private final String mSource;
+    private int mChunkBlocks = DEFAULT_CHUNK_BLOCKS;
+    private volatile boolean mCancelled;
+
+    private long mChunks;
+    private long mRows;
+    private long mBytes;
+    private long mUncompressedBytes;
+
+    /**
+     * @param base URL the channel paths are appended to.
+     * @param source Identifies the log on the server.  Offsets are those of this log, so it
+     *               must not be shared with another log.
+     */
+    public HistoryUploader(ReadingLog log, URL base, String source) {
+        final String url = base.toString();
+
+        mLog = log;
+        mBase = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        mSource = source;
+    }
+
+    public void setChunkBlocks(int blocks) {
+        if (blocks < 1) {
+            throw new IllegalArgumentException("Chunk must hold a block: " + blocks);
+        }
+        mChunkBlocks = blocks;
+    }
+
+    /**
+     * Stops an upload in progress after its current chunk.  The upload throws an
+     * {@link IOException} and can be resumed with a new uploader.
+     */
+    public void cancel() {
+        mCancelled = true;
+    }
+
+    /**
+     * Uploads every channel.
+     *
+     * @return Number of samples uploaded.
+     */
+    public long uploadAll() throws IOException {
+        long rows = 0;
+
+        for (int channel : ReadingChannel.all()) {
+            rows += upload(channel);
+        }
+        return rows;
+    }
+
+    /**
+     * Uploads the blocks of one channel that the server has not acknowledged yet.  Samples
+     * still buffered by the log are left for the next upload.
+     *
+     * @return Number of samples uploaded.
+     */
+    public long upload(int channel) throws IOException {
+        final File file = mLog.segmentFile(channel);
+        if (!file.exists()) {
+            return 0;
+        }
+
+        final URL url = new URL(mBase + "/" + URLEncoder.encode(mSource, "UTF-8") + "/"
+                + ReadingChannel.name(channel));
+        final SegmentReader reader = new SegmentReader(file);
+        final SegmentIndex index = new SegmentIndex();
+        long rows = 0;
+
+        try {
+            index.refresh(reader.channel());
+            final int blocks = index.size();
+
+            long acknowledged = acknowledgedOffset(url);
+            int block = blockAt(index, blocks, acknowledged);
+            while (block < blocks) {
+                if (mCancelled) {
+                    throw new IOException("Upload cancelled");
+                }
+
+                final int end = Math.min(block + mChunkBlocks, blocks);
+                final long dataStart = index.streamOffset(block);
+                final long endOffset = end < blocks ? index.streamOffset(end) : index.streamEnd();
+                final int count = countRows(index, block, end);
+                final byte[] chunk = encodeChunk(reader, index, block, end);
+
+                // Blocks between the acknowledged offset and the first one left were dropped
+                final long start = Math.min(acknowledged, dataStart);
+
+                long next;
+                try {
+                    next = post(url, start, dataStart, endOffset, chunk);
+                } catch (IOException e) {
+                    // Often a pooled connection the server had closed.  If the chunk did
+                    // arrive, the server answers the second try with a 409 at its end.
+                    next = post(url, start, dataStart, endOffset, chunk);
+                }
+
+                if (next == endOffset) {
+                    rows += count;
+                    synchronized (this) {
+                        mChunks++;
+                        mRows += count;
+                        mBytes += chunk.length;
+                    }
+                }
+
+                if (next <= acknowledged) {
+                    throw new IOException("Server did not take the chunk at " + start
+                            + ", its offset stays at " + next);
+                }
+
+                // A 409 moves us to wherever the server says it is
+                acknowledged = next;
+                block = blockAt(index, blocks, acknowledged);
+            }
+        } finally {
+            reader.close();
+        }
+        return rows;
+    }
+
+    public synchronized long chunksSent() {
+        return mChunks;
+    }
+
+    public synchronized long rowsSent() {
+        return mRows;
+    }
+
+    // Compressed bytes sent in acknowledged chunks
+    public synchronized long bytesSent() {
+        return mBytes;
+    }
+
+    // CSV bytes before compression, of every chunk encoded
+    public synchronized long uncompressedBytes() {
+        return mUncompressedBytes;
+    }
+
+    private static int countRows(SegmentIndex index, int from, int to) {
+        int rows = 0;
+
+        for (int block = from; block < to; block++) {
+            rows += index.count(block);
+        }
+        return rows;
+    }
+
+    private byte[] encodeChunk(SegmentReader reader, SegmentIndex index, int from, int to)
+            throws IOException {
+        final StringBuilder csv = new StringBuilder(ReadingLog.BLOCK_SAMPLES * 24);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final GZIPOutputStream out = new GZIPOutputStream(bytes, 8192);
+        long uncompressed = 0;
+
+        csv.append("time,value\n");
+        for (int block = from; block < to; block++) {
+            reader.readBlock(index, block);
+
+            final long[] times = reader.times();
+            final double[] values = reader.values();
+            for (int i = 0; i < reader.count(); i++) {
+                csv.append(times[i]).append(',').append(values[i]).append('\n');
+            }
+
+            // Compress block by block to keep the text buffer small
+            final byte[] text = csv.toString().getBytes(UTF_8);
+            out.write(text);
+            uncompressed += text.length;
+            csv.setLength(0);
+        }
+        out.close();
+
+        synchronized (this) {
+            mUncompressedBytes += uncompressed;
+        }
+        return bytes.toByteArray();
+    }
+
+    // First block at the offset, which must be a block boundary
+    private static int blockAt(SegmentIndex index, int blocks, long offset) throws IOException {
+        if (offset >= index.streamEnd() || blocks == 0) {
+            if (offset > index.streamEnd()) {
+                throw new IOException("Server is ahead of the segment: " + offset);
+            }
+            return blocks;
+        }
+
+        int low = 0;
+        int high = blocks - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long start = index.streamOffset(mid);
+
+            if (start < offset) {
+                low = mid + 1;
+            } else if (start > offset) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        // Offsets before the first block, 0 for a new channel or one in blocks dropped since,
+        // start from the beginning with a gap
+        if (offset < index.streamOffset(0)) {
+            return 0;
+        }
+        throw new IOException("Server offset is not a block boundary: " + offset);
+    }
+
+    private long acknowledgedOffset(URL url) throws IOException {
+        final HttpURLConnection connection = open(url);
+        boolean done = false;
+
+        try {
+            final int status = connection.getResponseCode();
+            final long offset;
+
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                offset = 0;
+                drain(connection.getErrorStream());
+            } else if (status == HttpURLConnection.HTTP_OK) {
+                offset = offsetHeader(connection);
+                drain(connection.getInputStream());
+            } else {
+                throw new IOException("Unable to get upload offset: " + status);
+            }
+            done = true;
+            return offset;
+        } finally {
+            // Keep the connection for the chunks unless it is in an unknown state
+            if (!done) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Sends a chunk and returns the offset the server acknowledged.
+     *
+     * @param dataStart Offset of the chunk's first block, after start if blocks were dropped.
+     */
+    private long post(URL url, long start, long dataStart, long end, byte[] chunk)
+            throws IOException {
+        final HttpURLConnection connection = open(url);
+        boolean done = false;
+
+        try {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(chunk.length);
+            connection.setRequestProperty("Content-Type", "text/csv; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setRequestProperty(OFFSET_HEADER, Long.toString(start));
+            connection.setRequestProperty(END_HEADER, Long.toString(end));
+            if (dataStart != start) {
+                connection.setRequestProperty(GAP_END_HEADER, Long.toString(dataStart));
+            }
+
+            final OutputStream out = connection.getOutputStream();
+            try {
+                out.write(chunk);
+            } finally {
+                out.close();
+            }
+
+            final int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK
+                    && status != HttpURLConnection.HTTP_CONFLICT) {
+                throw new IOException("Chunk at " + start + " refused: " + status);
+            }
+            final long offset = offsetHeader(connection);
+            drain(status == HttpURLConnection.HTTP_OK
+                    ? connection.getInputStream() : connection.getErrorStream());
+            done = true;
+            return offset;
+        } finally {
+            if (!done) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static HttpURLConnection open(URL url) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    private static long offsetHeader(HttpURLConnection connection) throws IOException {
+        final String offset = connection.getHeaderField(OFFSET_HEADER);
+
+        try {
+            return Long.parseLong(offset);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid " + OFFSET_HEADER + ": " + offset);
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        try {
+            final byte[] buffer = new byte[512];
+            while (in.read(buffer) >= 0) {
+                // Discard
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.bryanford.weatherstation;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Posts {@link PublishBridge} batches to a broker's HTTP ingestion endpoint.  The body is the
+ * compressed batch as is, with the batch sequence number in an {@code X-Batch-Sequence}
+ * header so the broker can drop duplicates of a batch whose acknowledgement was lost.  Any
+ * 2xx response counts as accepted.
+ */
+public class HttpPublishTransport implements PublishBridge.Transport {
+    public static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int READ_TIMEOUT_MILLIS = 30000;
+
+    private final URL mUrl;
+
+    public HttpPublishTransport(URL url) {
+        mUrl = url;
+    }
+
+    @Override
+    public void publish(long sequence, byte[] payload) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) mUrl.openConnection();
+        boolean accepted = false;
+
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+            connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(payload.length);
+            connection.setRequestProperty("Content-Type", "text/csv; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setRequestProperty("X-Batch-Sequence", Long.toString(sequence));
+
+            final OutputStream out = connection.getOutputStream();
+            try {
+                out.write(payload);
+            } finally {
+                out.close();
+            }
+
+            final int status = connection.getResponseCode();
+            if (status / 100 != 2) {
+                throw new IOException("Broker refused batch " + sequence + ": " + status);
+            }
+
+            // Read to the end so the connection goes back to the pool for the next batch
+            final InputStream in = connection.getInputStream();
+            try {
+                final byte[] buffer = new byte[512];
+                while (in.read(buffer) >= 0) {
+                    // Discard
+                }
+            } finally {
+                in.close();
+            }
+            accepted = true;
+        } finally {
+            if (!accepted) {
+                connection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,842 @@
+package com.bryanford.weatherstation;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Small HTTP and WebSocket server for LAN displays and scripts.  A single thread serves every
+ * client through a {@link Selector}:
+ * <ul>
+ *   <li>{@code GET /snapshot}: latest readings of every station as JSON.</li>
+ *   <li>{@code GET /history?channel=pressure&from=ms&to=ms&limit=n}: stored samples of one
+ *       channel as "time,value" CSV, at most {@link #MAX_HISTORY_ROWS} rows.</li>
+ *   <li>{@code GET /live}: WebSocket that receives every {@link #publish} call as a JSON text
+ *       message.</li>
+ * </ul>
+ * HTTP connections are kept alive unless the client asks otherwise.  History is read from disk
+ * on a second thread, so WebSocket clients are not held up by it.
+ *
+ * Live messages are encoded once by the publishing thread and copied into a bounded buffer
+ * per WebSocket client.  A client whose buffer is full misses messages instead of holding up
+ * the others, and one that misses {@link #MAX_DROPS} in a row is disconnected.
+ */
+public class LiveServer implements Runnable {
+    public static final int DEFAULT_PORT = 8080;
+
+    // Live message bytes queued per WebSocket client before further messages are dropped
+    public static final int CLIENT_BUFFER = 64 * 1024;
+
+    public static final int MAX_HISTORY_ROWS = 10000;
+
+    // Consecutive dropped messages before a client is considered stuck
+    public static final int MAX_DROPS = 1024;
+
+    // Largest request head or client frame accepted
+    private static final int MAX_REQUEST = 8 * 1024;
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    private static class Client {
+        final SocketChannel channel;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST);
+
+        // Bytes waiting to be written, kept in fill mode
+        ByteBuffer out = ByteBuffer.allocate(16 * 1024);
+
+        boolean webSocket;
+        boolean closeAfterWrite;
+        int drops;
+
+        // A history response is being read, requests behind it wait
+        boolean busy;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    // History response read off the selector thread, body null if the read failed
+    private static class Reply {
+        final SelectionKey key;
+        final Client client;
+        final byte[] body;
+        final boolean keepAlive;
+
+        Reply(SelectionKey key, Client client, byte[] body, boolean keepAlive) {
+            this.key = key;
+            this.client = client;
+            this.body = body;
+            this.keepAlive = keepAlive;
+        }
+    }
+
+    private final StationStore mStations;
+    private final ReadingLog mLog;
+    private final Selector mSelector;
+    private final ServerSocketChannel mServer;
+
+    // Encoded live messages handed over by publish()
+    private final ConcurrentLinkedQueue<byte[]> mOutbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean mWakeupPending = new AtomicBoolean();
+
+    // Reads history for one request at a time, answers go back through mReplies
+    private final ExecutorService mHistoryReader = Executors.newSingleThreadExecutor();
+    private final ConcurrentLinkedQueue<Reply> mReplies = new ConcurrentLinkedQueue<>();
+
+    // Selector thread only
+    private final ArrayList<Client> mWebSockets = new ArrayList<>();
+    private final StringBuilder mText = new StringBuilder(4096);
+
+    private Thread mThread;
+    private volatile boolean mRunning;
+
+    // Written by the selector thread only
+    private volatile int mClients;
+    private volatile int mLiveClients;
+    private volatile long mMessagesSent;
+    private volatile long mMessagesDropped;
+    private volatile long mRequests;
+
+    /**
+     * Binds the server socket, call {@link #start()} to begin serving.
+     *
+     * @param address Address to listen on, port 0 picks a free port.
+     */
+    public LiveServer(StationStore stations, ReadingLog log, InetSocketAddress address)
+            throws IOException {
+        mStations = stations;
+        mLog = log;
+        mSelector = Selector.open();
+        mServer = ServerSocketChannel.open();
+
+        try {
+            mServer.socket().setReuseAddress(true);
+            mServer.socket().bind(address);
+            mServer.configureBlocking(false);
+            mServer.register(mSelector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            mServer.close();
+            mSelector.close();
+            throw e;
+        }
+    }
+
+    public int getPort() {
+        return mServer.socket().getLocalPort();
+    }
+
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(this, "LiveServer");
+        mThread.start();
+    }
+
+    /**
+     * Stops serving and closes every connection.  The server cannot be started again.
+     */
+    public synchronized void stop() {
+        mRunning = false;
+        mSelector.wakeup();
+
+        if (mThread != null) {
+            try {
+                mThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // The log may be closed right after, let a read in progress finish first
+        mHistoryReader.shutdown();
+        try {
+            mHistoryReader.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeAll();
+    }
+
+    /**
+     * Sends a reading to every WebSocket client.  Safe to call from any thread, the message is
+     * encoded here and written by the server thread.
+     */
+    public void publish(String address, int channel, long time, double value) {
+        // Nothing is encoded while nobody listens, a client misses what came before it
+        if (!mRunning || mLiveClients == 0) {
+            return;
+        }
+
+        final StringBuilder json = new StringBuilder(96);
+        json.append("{\"address\":");
+        appendString(json, address);
+        json.append(",\"channel\":\"").append(ReadingChannel.name(channel))
+                .append("\",\"time\":").append(time).append(",\"value\":");
+        appendNumber(json, value);
+        json.append('}');
+
+        mOutbox.add(textFrame(json.toString().getBytes(UTF_8)));
+
+        // One wakeup covers every message queued before the server thread drains the outbox
+        if (mWakeupPending.compareAndSet(false, true)) {
+            mSelector.wakeup();
+        }
+    }
+
+    // Connected clients, HTTP and WebSocket
+    public int clients() {
+        return mClients;
+    }
+
+    // Connected WebSocket clients
+    public int liveClients() {
+        return mLiveClients;
+    }
+
+    public long messagesSent() {
+        return mMessagesSent;
+    }
+
+    // Live messages not delivered to some client because its buffer was full
+    public long messagesDropped() {
+        return mMessagesDropped;
+    }
+
+    public long requests() {
+        return mRequests;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (mRunning) {
+                mSelector.select();
+
+                mWakeupPending.set(false);
+                deliverOutbox();
+                deliverReplies();
+
+                Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        try {
+                            accept();
+                        } catch (IOException e) {
+                            // Out of descriptors or similar, try again on the next round
+                        }
+                        continue;
+                    }
+
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(key, client);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(key, client);
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // A bad request costs its own client the connection, not the server
+                        close(key, client);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // Nothing left to serve on
+        } finally {
+            // Nobody drains the outbox any more, stop publish() from filling it
+            mRunning = false;
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+
+        while ((channel = mServer.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            channel.register(mSelector, SelectionKey.OP_READ, new Client(channel));
+            mClients++;
+        }
+    }
+
+    private void read(SelectionKey key, Client client) throws IOException {
+        if (client.channel.read(client.in) < 0) {
+            close(key, client);
+            return;
+        }
+
+        if (client.webSocket) {
+            readFrames(key, client);
+        } else {
+            readRequests(key, client);
+        }
+    }
+
+    private void readRequests(SelectionKey key, Client client) throws IOException {
+        int end;
+
+        // Several requests may arrive together when the client pipelines
+        while (!client.webSocket && !client.closeAfterWrite && !client.busy
+                && (end = headEnd(client.in)) >= 0) {
+            String head = new String(client.in.array(), 0, end, ASCII);
+            consume(client.in, end + 4);
+            handleRequest(key, client, head);
+        }
+
+        if (client.busy) {
+            // Answers go out in order, read no further until the history is in
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            return;
+        }
+
+        if (!client.in.hasRemaining()) {
+            respond(key, client, 431, "Request Header Fields Too Large", "text/plain",
+                    "Request too large\n".getBytes(ASCII), false);
+        }
+    }
+
+    private void handleRequest(SelectionKey key, Client client, String head)
+            throws IOException {
+        final String[] lines = head.split("\r\n");
+        final String[] request = lines[0].split(" ");
+        final Map<String, String> headers = new HashMap<>();
+
+        mRequests++;
+
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.US),
+                        lines[i].substring(colon + 1).trim());
+            }
+        }
+
+        if (request.length != 3) {
+            respond(key, client, 400, "Bad Request", "text/plain",
+                    "Bad request\n".getBytes(ASCII), false);
+            return;
+        }
+
+        final String connection = headers.get("connection");
+        final boolean keepAlive = request[2].equals("HTTP/1.1")
+                ? !"close".equalsIgnoreCase(connection)
+                : "keep-alive".equalsIgnoreCase(connection);
+
+        if (!request[0].equals("GET")) {
+            respond(key, client, 405, "Method Not Allowed", "text/plain",
+                    "Only GET is supported\n".getBytes(ASCII), keepAlive);
+            return;
+        }
+
+        final int question = request[1].indexOf('?');
+        final String path = question < 0 ? request[1] : request[1].substring(0, question);
+        final Map<String, String> query =
+                parseQuery(question < 0 ? "" : request[1].substring(question + 1));
+
+        if (path.equals("/snapshot")) {
+            respond(key, client, 200, "OK", "application/json", snapshotJson(), keepAlive);
+        } else if (path.equals("/history")) {
+            history(key, client, query, keepAlive);
+        } else if (path.equals("/live")) {
+            upgrade(key, client, headers);
+        } else {
+            respond(key, client, 404, "Not Found", "text/plain",
+                    "Not found\n".getBytes(ASCII), keepAlive);
+        }
+    }
+
+    private void history(final SelectionKey key, final Client client,
+                         Map<String, String> query, final boolean keepAlive)
+            throws IOException {
+        final int channel = ReadingChannel.fromName(String.valueOf(query.get("channel")));
+        final long from;
+        final long to;
+        final int limit;
+
+        try {
+            from = query.containsKey("from") ? Long.parseLong(query.get("from")) : 0;
+            to = query.containsKey("to") ? Long.parseLong(query.get("to")) : Long.MAX_VALUE;
+            limit = query.containsKey("limit")
+                    ? Math.min(Integer.parseInt(query.get("limit")), MAX_HISTORY_ROWS)
+                    : MAX_HISTORY_ROWS;
+        } catch (NumberFormatException e) {
+            respond(key, client, 400, "Bad Request", "text/plain",
+                    "Invalid from, to or limit\n".getBytes(ASCII), keepAlive);
+            return;
+        }
+
+        if (channel < 0) {
+            respond(key, client, 400, "Bad Request", "text/plain",
+                    "Unknown channel\n".getBytes(ASCII), keepAlive);
+            return;
+        }
+
+        client.busy = true;
+        mHistoryReader.execute(new Runnable() {
+            @Override
+            public void run() {
+                byte[] body;
+                try {
+                    body = readHistory(channel, from, to, limit);
+                } catch (IOException e) {
+                    body = null;
+                }
+                mReplies.add(new Reply(key, client, body, keepAlive));
+                mSelector.wakeup();
+            }
+        });
+    }
+
+    // History thread only
+    private byte[] readHistory(int channel, long from, long to, int limit) throws IOException {
+        final StringBuilder text = new StringBuilder(4096);
+        text.append("time,value\n");
+
+        SampleCursor cursor = mLog.query(channel, from, to);
+        try {
+            for (int rows = 0; rows < limit && cursor.next(); rows++) {
+                text.append(cursor.time()).append(',').append(cursor.value()).append('\n');
+            }
+        } finally {
+            cursor.close();
+        }
+        return text.toString().getBytes(ASCII);
+    }
+
+    private void deliverReplies() {
+        Reply reply;
+
+        while ((reply = mReplies.poll()) != null) {
+            final SelectionKey key = reply.key;
+            final Client client = reply.client;
+            if (!client.channel.isOpen()) {
+                continue;
+            }
+            client.busy = false;
+
+            try {
+                if (reply.body != null) {
+                    respond(key, client, 200, "OK", "text/csv", reply.body, reply.keepAlive);
+                } else {
+                    respond(key, client, 500, "Internal Server Error", "text/plain",
+                            "Unable to read history\n".getBytes(ASCII), reply.keepAlive);
+                }
+
+                // Requests that arrived in the meantime
+                if (key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                    readRequests(key, client);
+                }
+            } catch (IOException | RuntimeException e) {
+                close(key, client);
+            }
+        }
+    }
+
+    private byte[] snapshotJson() {
+        mText.setLength(0);
+        mText.append("{\"stations\":[");
+
+        final ReadingSnapshot[] stations = mStations.snapshot();
+        for (int i = 0; i < stations.length; i++) {
+            if (i > 0) {
+                mText.append(',');
+            }
+            mText.append("{\"address\":");
+            appendString(mText, stations[i].getDeviceAddress());
+            mText.append(",\"readings\":{");
+
+            boolean first = true;
+            for (int channel = 0; channel < ReadingChannel.COUNT; channel++) {
+                if (!stations[i].has(channel)) {
+                    continue;
+                }
+                if (!first) {
+                    mText.append(',');
+                }
+                first = false;
+
+                mText.append('"').append(ReadingChannel.name(channel)).append("\":{\"time\":")
+                        .append(stations[i].time(channel)).append(",\"value\":");
+                appendNumber(mText, stations[i].value(channel));
+                mText.append('}');
+            }
+            mText.append("}}");
+        }
+        mText.append("]}\n");
+        return mText.toString().getBytes(UTF_8);
+    }
+
+    private void upgrade(SelectionKey key, Client client, Map<String, String> headers)
+            throws IOException {
+        final String webSocketKey = headers.get("sec-websocket-key");
+
+        if (webSocketKey == null || !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+            respond(key, client, 426, "Upgrade Required", "text/plain",
+                    "Expected a WebSocket upgrade\n".getBytes(ASCII), false);
+            return;
+        }
+
+        final String head = "HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + acceptKey(webSocketKey) + "\r\n\r\n";
+
+        client.webSocket = true;
+        mWebSockets.add(client);
+        mLiveClients = mWebSockets.size();
+        queue(key, client, head.getBytes(ASCII));
+
+        // Frames sent right behind the upgrade request
+        readFrames(key, client);
+    }
+
+    private void readFrames(SelectionKey key, Client client) throws IOException {
+        final ByteBuffer in = client.in;
+
+        while (in.position() >= 2) {
+            final byte[] data = in.array();
+            final int opcode = data[0] & 0x0F;
+            final boolean masked = (data[1] & 0x80) != 0;
+            long length = data[1] & 0x7F;
+            int header = 2;
+
+            if (length == 126) {
+                if (in.position() < 4) {
+                    return;
+                }
+                length = ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
+                header = 4;
+            } else if (length == 127) {
+                if (in.position() < 10) {
+                    return;
+                }
+                length = ByteBuffer.wrap(data, 2, 8).getLong();
+                header = 10;
+            }
+
+            // Client frames are always masked and ours never need to be large, a 64-bit length
+            // with the top bit set reads as negative
+            if (!masked || length < 0 || length > MAX_REQUEST - header - 4) {
+                close(key, client);
+                return;
+            }
+
+            final int total = header + 4 + (int) length;
+            if (in.position() < total) {
+                return;
+            }
+
+            final byte[] payload = new byte[(int) length];
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = (byte) (data[header + 4 + i] ^ data[header + (i & 3)]);
+            }
+            consume(in, total);
+
+            if (opcode == OPCODE_CLOSE) {
+                // Flag first, the reply may be written and the connection closed right away
+                mWebSockets.remove(client);
+                client.closeAfterWrite = true;
+                queue(key, client, frame(OPCODE_CLOSE, payload));
+                return;
+            } else if (opcode == OPCODE_PING) {
+                queue(key, client, frame(OPCODE_PONG, payload));
+            }
+        }
+    }
+
+    private void respond(SelectionKey key, Client client, int status, String reason,
+                         String type, byte[] body, boolean keepAlive) throws IOException {
+        final String head = "HTTP/1.1 " + status + " " + reason + "\r\n"
+                + "Content-Type: " + type + "\r\n"
+                + "Content-Length: " + body.length + "\r\n"
+                + "Access-Control-Allow-Origin: *\r\n"
+                + "Cache-Control: no-cache\r\n"
+                + "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n\r\n";
+
+        final byte[] headBytes = head.getBytes(ASCII);
+        final byte[] response = Arrays.copyOf(headBytes, headBytes.length + body.length);
+
+        // One write for head and body
+        System.arraycopy(body, 0, response, headBytes.length, body.length);
+        client.closeAfterWrite = !keepAlive;
+        queue(key, client, response);
+    }
+
+    private void deliverOutbox() {
+        byte[] message;
+
+        // Messages are appended and each client is written once per batch, not once a message
+        while ((message = mOutbox.poll()) != null) {
+            for (int i = mWebSockets.size() - 1; i >= 0; i--) {
+                Client client = mWebSockets.get(i);
+                SelectionKey key = client.channel.keyFor(mSelector);
+
+                try {
+                    // A full buffer is written out before counting the message as dropped
+                    boolean queued = append(client, message, CLIENT_BUFFER);
+                    if (!queued) {
+                        flush(key, client);
+                        queued = append(client, message, CLIENT_BUFFER);
+                    }
+
+                    if (queued) {
+                        client.drops = 0;
+                        mMessagesSent++;
+                    } else {
+                        mMessagesDropped++;
+                        if (++client.drops >= MAX_DROPS) {
+                            close(key, client);
+                        }
+                    }
+                } catch (IOException e) {
+                    close(key, client);
+                }
+            }
+        }
+
+        for (int i = mWebSockets.size() - 1; i >= 0; i--) {
+            Client client = mWebSockets.get(i);
+            SelectionKey key = client.channel.keyFor(mSelector);
+
+            try {
+                if (client.out.position() > 0) {
+                    flush(key, client);
+                }
+            } catch (IOException e) {
+                close(key, client);
+            }
+        }
+    }
+
+    // Appends data to the client's pending output and tries to write it straight away
+    private void queue(SelectionKey key, Client client, byte[] data) throws IOException {
+        append(client, data, Integer.MAX_VALUE);
+        flush(key, client);
+    }
+
+    /**
+     * Appends data to the client's pending output without writing it.
+     *
+     * @param limit Most bytes that may be pending afterwards.
+     *
+     * @return False if the data did not fit within the limit and was not appended.
+     */
+    private static boolean append(Client client, byte[] data, int limit) {
+        final int pending = client.out.position() + data.length;
+
+        if (pending > limit) {
+            return false;
+        }
+
+        if (pending > client.out.capacity()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending, client.out.capacity() * 2));
+            client.out.flip();
+            grown.put(client.out);
+            client.out = grown;
+        }
+        client.out.put(data);
+        return true;
+    }
+
+    private void flush(SelectionKey key, Client client) throws IOException {
+        final ByteBuffer out = client.out;
+
+        out.flip();
+        client.channel.write(out);
+        out.compact();
+
+        if (out.position() > 0) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        } else if (client.closeAfterWrite) {
+            close(key, client);
+        } else {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void close(SelectionKey key, Client client) {
+        if (!client.channel.isOpen()) {
+            return;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        if (client.webSocket) {
+            mWebSockets.remove(client);
+            mLiveClients = mWebSockets.size();
+        }
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        mClients--;
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : mSelector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException e) {
+                    // Closing anyway
+                }
+            }
+            mSelector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            // Already closed
+        }
+        mWebSockets.clear();
+        mClients = 0;
+        mLiveClients = 0;
+    }
+
+    // Offset of the blank line ending the request head, or -1 if it is incomplete
+    private static int headEnd(ByteBuffer in) {
+        final byte[] data = in.array();
+
+        for (int i = 0; i + 3 < in.position(); i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n' && data[i + 2] == '\r'
+                    && data[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Drops the first count bytes of a buffer in fill mode
+    private static void consume(ByteBuffer in, int count) {
+        in.flip();
+        in.position(count);
+        in.compact();
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        final Map<String, String> params = new HashMap<>();
+
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                params.put(pair.substring(0, equals), pair.substring(equals + 1));
+            }
+        }
+        return params;
+    }
+
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return base64(sha1.digest((key + WEBSOCKET_GUID).getBytes(ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+    }
+
+    private static byte[] textFrame(byte[] payload) {
+        return frame(OPCODE_TEXT, payload);
+    }
+
+    // Final, unmasked frame as sent by a server
+    private static byte[] frame(int opcode, byte[] payload) {
+        final int header = payload.length < 126 ? 2 : payload.length < 65536 ? 4 : 10;
+        final ByteBuffer frame = ByteBuffer.allocate(header + payload.length);
+
+        frame.put((byte) (0x80 | opcode));
+        if (header == 2) {
+            frame.put((byte) payload.length);
+        } else if (header == 4) {
+            frame.put((byte) 126);
+            frame.putShort((short) payload.length);
+        } else {
+            frame.put((byte) 127);
+            frame.putLong(payload.length);
+        }
+        frame.put(payload);
+        return frame.array();
+    }
+
+    private static String base64(byte[] data) {
+        final String alphabet =
+                "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        final StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+
+        for (int i = 0; i < data.length; i += 3) {
+            int b = (data[i] & 0xFF) << 16;
+            if (i + 1 < data.length) {
+                b |= (data[i + 1] & 0xFF) << 8;
+            }
+            if (i + 2 < data.length) {
+                b |= data[i + 2] & 0xFF;
+            }
+
+            out.append(alphabet.charAt((b >> 18) & 0x3F));
+            out.append(alphabet.charAt((b >> 12) & 0x3F));
+            out.append(i + 1 < data.length ? alphabet.charAt((b >> 6) & 0x3F) : '=');
+            out.append(i + 2 < data.length ? alphabet.charAt(b & 0x3F) : '=');
+        }
+        return out.toString();
+    }
+
+    private static void appendNumber(StringBuilder out, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out.append("null");
+        } else {
+            out.append(value);
+        }
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
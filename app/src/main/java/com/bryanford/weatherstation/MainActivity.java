@@ -20,6 +20,7 @@ import android.support.v7.media.MediaRouter.RouteInfo;
 import android.support.v4.view.MenuItemCompat;
 import android.Manifest;
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
@@ -27,6 +28,7 @@ import android.bluetooth.BluetoothManager;
 import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.ServiceConnection;
@@ -34,16 +36,27 @@ import android.content.pm.PackageManager;
 import android.graphics.Color;
 import android.os.Bundle;
 import android.os.IBinder;
+import android.os.SystemClock;
+import android.text.InputType;
 import android.support.v4.app.ActivityCompat;
 import android.support.v4.content.ContextCompat;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
+import android.widget.EditText;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.UUID;
@@ -61,21 +74,24 @@ public class MainActivity extends AppCompatActivity {
     private String mDeviceAddress;
     private String mSessionId;
     private BluetoothAdapter btAdapter;
-    private TextView tTemp, tHumid, tPress, tTempText;
+    private TextView tTemp, tHumid, tPress, tTempText, tForecast;
     private TextView tDevice, tAddress, tState;
     private ActionBar tBar;
     private View tView;
+    private HistoryChartView tChart;
 
     // Connection variables
     private HashMap<UUID, BluetoothGattService> mGattServiceMap = new HashMap<>();
     private List<BluetoothGattService> mGattServices;
     private BluetoothService mBluetoothService;
+    private ReadingLog mHistoryLog;
 
     // Media Router variables
     private MediaRouter.Callback mMediaRouterCallback;
     private MediaRouteSelector mMediaRouteSelector;
     private CastDevice mSelectedDevice;
     private MediaRouter mMediaRouter;
+    private MediaRouteActionProvider mMediaRouteActionProvider;
     private GoogleApiClient mApiClient;
     private Cast.Listener mCastListener;
     private GoogleApiClient.ConnectionCallbacks mConnectionCallbacks;
@@ -83,104 +99,231 @@ public class MainActivity extends AppCompatActivity {
     private WeatherStationChannel mWeatherStationChannel;
 
     private boolean mApplicationStarted = false;
+    private boolean mStarted = false;
+
+    // Milliseconds from onCreate to the first frame, 0 until it has been drawn
+    private long mCreateTime;
+    private volatile long mFirstFrameMillis;
     private boolean mWaitingForReconnect = false;
     private boolean mBtConnected = false;
 
+    // Set once values from the service are shown, the saved snapshot loads too late for them
+    private boolean mShowingServiceValues = false;
+
+    // Receiver registered and service binding requested, undone in onDestroy
+    private boolean mAttached = false;
+
     public static final String EXTRAS_DEVICE_NAME = "DEVICE_NAME";
     public static final String EXTRAS_DEVICE_ADDRESS = "DEVICE_ADDRESS";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_main);
+        mCreateTime = SystemClock.uptimeMillis();
+        Tracer.begin("MainActivity.onCreate");
+        Tracer.beginAsync("first frame", 0);
+        try {
+            super.onCreate(savedInstanceState);
 
-        tBar = getSupportActionBar();
-        if (tBar != null) {
-            tBar.setDisplayOptions(ActionBar.DISPLAY_SHOW_HOME | ActionBar.DISPLAY_SHOW_TITLE);
-            tBar.setIcon(R.mipmap.ic_launcher);
-        }
+            Tracer.begin("setContentView");
+            setContentView(R.layout.activity_main);
+            Tracer.end();
 
-        // Use this check to determine whether BLE is supported on the device.  Then you can
-        // selectively disable BLE-related features.
-        if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE)) {
-            Toast.makeText(this, "No LE Support", Toast.LENGTH_SHORT).show();
-            finish();
-            return;
-        }
+            tBar = getSupportActionBar();
+            if (tBar != null) {
+                tBar.setDisplayOptions(ActionBar.DISPLAY_SHOW_HOME | ActionBar.DISPLAY_SHOW_TITLE);
+                tBar.setIcon(R.mipmap.ic_launcher);
+            }
 
-        // Get the UI components
-        tView = findViewById(R.id.main_layout);
-        tTemp = (TextView) findViewById(R.id.data_ambient_temp);
-        tTempText = (TextView) findViewById(R.id.text_temp);
-        tHumid = (TextView) findViewById(R.id.data_humid);
-        tPress = (TextView) findViewById(R.id.data_press);
-        tDevice = (TextView) findViewById(R.id.data_device_name);
-        tAddress = (TextView) findViewById(R.id.data_device_address);
-        tState = (TextView) findViewById(R.id.data_device_state);
+            // Use this check to determine whether BLE is supported on the device.  Then you can
+            // selectively disable BLE-related features.
+            if (!getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH_LE)) {
+                Toast.makeText(this, "No LE Support", Toast.LENGTH_SHORT).show();
+                finish();
+                return;
+            }
 
-        // Set the default values for the text views
-        clearDisplayValues();
+            // Get the UI components
+            tView = findViewById(R.id.main_layout);
+            tTemp = (TextView) findViewById(R.id.data_ambient_temp);
+            tTempText = (TextView) findViewById(R.id.text_temp);
+            tHumid = (TextView) findViewById(R.id.data_humid);
+            tPress = (TextView) findViewById(R.id.data_press);
+            tForecast = (TextView) findViewById(R.id.data_forecast);
+            tDevice = (TextView) findViewById(R.id.data_device_name);
+            tAddress = (TextView) findViewById(R.id.data_device_address);
+            tState = (TextView) findViewById(R.id.data_device_state);
+            tChart = (HistoryChartView) findViewById(R.id.history_chart);
+
+            // Cast is not needed to show readings, bring it up once the first frame is out
+            tView.getViewTreeObserver().addOnPreDrawListener(
+                    new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    tView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    mFirstFrameMillis = SystemClock.uptimeMillis() - mCreateTime;
+                    Tracer.endAsync("first frame", 0);
+                    Log.i(TAG, "First frame " + mFirstFrameMillis + " ms after onCreate");
 
-        // Get the bluetooth manager and instantiate the adapter
-        final BluetoothManager btManager =
-                (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
-        btAdapter = btManager.getAdapter();
+                    tView.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            initCast();
+                        }
+                    });
+                    return true;
+                }
+            });
 
-        if (btAdapter == null) {
-            Toast.makeText(this, "Bluetooth not supported!", Toast.LENGTH_SHORT).show();
-            finish();
-        }
+            // Trend of the stored temperature history
+            mHistoryLog = new ReadingLog(new File(getFilesDir(), BluetoothService.HISTORY_DIR));
+            tChart.setSource(mHistoryLog, ReadingChannel.TEMPERATURE);
+
+            // Set the default values for the text views, then fill in the last known readings
+            clearDisplayValues();
+            showSavedSnapshot();
 
-        // Check and request location permissions
-        if (ContextCompat.checkSelfPermission(this,
-                Manifest.permission.ACCESS_COARSE_LOCATION)
-                != PackageManager.PERMISSION_GRANTED) {
+            // Get the bluetooth manager and instantiate the adapter
+            final BluetoothManager btManager =
+                    (BluetoothManager) getSystemService(Context.BLUETOOTH_SERVICE);
+            btAdapter = btManager.getAdapter();
 
-            // Should we show an explanation?
-            if (ActivityCompat.shouldShowRequestPermissionRationale(this,
-                    Manifest.permission.ACCESS_COARSE_LOCATION)) {
+            if (btAdapter == null) {
+                Toast.makeText(this, "Bluetooth not supported!", Toast.LENGTH_SHORT).show();
+                finish();
+            }
+
+            if (savedInstanceState != null) {
+                mDeviceAddress = savedInstanceState.getString(EXTRAS_DEVICE_ADDRESS);
+                mDeviceName = savedInstanceState.getString(EXTRAS_DEVICE_NAME);
+            }
+
+            // Reattach to a session the service kept running for us, e.g. across a rotation.
+            // The binding does not create the service, it is started once a device is chosen.
+            registerReceiver(mGattUpdateReceiver, makeGattUpdateIntentFilter());
+            Tracer.begin("bindService");
+            bindService(new Intent(this, BluetoothService.class), mServiceConnection, 0);
+            Tracer.end();
+            mAttached = true;
 
-                // Show an explanation to the user *asynchronously* -- don't block
-                // this thread waiting for the user's response! After the user
-                // sees the explanation, try again to request the permission.
+            // Check and request location permissions
+            if (ContextCompat.checkSelfPermission(this,
+                    Manifest.permission.ACCESS_COARSE_LOCATION)
+                    != PackageManager.PERMISSION_GRANTED) {
 
-            } else {
+                // Should we show an explanation?
+                if (ActivityCompat.shouldShowRequestPermissionRationale(this,
+                        Manifest.permission.ACCESS_COARSE_LOCATION)) {
 
-                // No explanation needed, we can request the permission.
+                    // Show an explanation to the user *asynchronously* -- don't block
+                    // this thread waiting for the user's response! After the user
+                    // sees the explanation, try again to request the permission.
 
-                ActivityCompat.requestPermissions(this,
-                        new String[]{Manifest.permission.ACCESS_COARSE_LOCATION},
-                        PERMISSIONS_REQUEST_LOCATION);
+                } else {
+
+                    // No explanation needed, we can request the permission.
+
+                    Tracer.beginAsync("permission prompt", PERMISSIONS_REQUEST_LOCATION);
+                    ActivityCompat.requestPermissions(this,
+                            new String[]{Manifest.permission.ACCESS_COARSE_LOCATION},
+                            PERMISSIONS_REQUEST_LOCATION);
 
-                // PERMISSIONS_REQUEST_LOCATION is an
-                // app-defined int constant. The callback method gets the
-                // result of the request.
+                    // PERMISSIONS_REQUEST_LOCATION is an
+                    // app-defined int constant. The callback method gets the
+                    // result of the request.
+                }
             }
+        } finally {
+            Tracer.end();
         }
+    }
 
+    /**
+     * Sets up the media router for Cast.  Deferred until after the first frame because it
+     * loads the Cast support stack, which the readings do not need.
+     */
+    private void initCast() {
+        if (mMediaRouter != null || isFinishing()) {
+            return;
+        }
+
+        Tracer.begin("initCast");
         mMediaRouter = MediaRouter.getInstance(getApplicationContext());
         mMediaRouteSelector = new MediaRouteSelector.Builder()
                 .addControlCategory(CastMediaControlIntent.categoryForCast(getResources()
                         .getString(R.string.app_id))).build();
         mMediaRouterCallback = new MediaRouterCallback();
+        Tracer.end();
+
+        // The cast button appears once it has a selector
+        if (mMediaRouteActionProvider != null) {
+            mMediaRouteActionProvider.setRouteSelector(mMediaRouteSelector);
+        }
+        if (mStarted) {
+            startRouteDiscovery();
+        }
+    }
+
+    // Passive discovery only, the route chooser scans actively while the user has it open
+    private void startRouteDiscovery() {
+        mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback);
+    }
+
+    /**
+     * @return Milliseconds from onCreate to the first frame, 0 until it has been drawn.
+     */
+    long getFirstFrameMillis() {
+        return mFirstFrameMillis;
     }
 
     @Override
     protected void onStart() {
         super.onStart();
+        mStarted = true;
+
+        if (mMediaRouter != null) {
+            startRouteDiscovery();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        mStarted = false;
+
+        if (mMediaRouter != null) {
+            mMediaRouter.removeCallback(mMediaRouterCallback);
+        }
+        super.onStop();
+    }
 
-        // Start media router discovery
-        mMediaRouter.addCallback(mMediaRouteSelector, mMediaRouterCallback,
-                MediaRouter.CALLBACK_FLAG_REQUEST_DISCOVERY);
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(EXTRAS_DEVICE_ADDRESS, mDeviceAddress);
+        outState.putString(EXTRAS_DEVICE_NAME, mDeviceName);
+    }
+
+    @Override
+    protected void onDestroy() {
+        // The service keeps the session for a grace period in case we are being recreated
+        if (mAttached) {
+            unregisterReceiver(mGattUpdateReceiver);
+            unbindService(mServiceConnection);
+            mAttached = false;
+        }
+        super.onDestroy();
     }
 
     @Override
     protected void onResume() {
         super.onResume();
 
+        // Pick up history stored while we were away
+        tChart.reload();
+
         // Enforce Bluetooth
         if (btAdapter == null || !btAdapter.isEnabled()) {
             Intent enableBtIntent = new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE);
+            Tracer.beginAsync("enable Bluetooth prompt", REQUEST_ENABLE_BT);
             startActivityForResult(enableBtIntent, REQUEST_ENABLE_BT);
         }
     }
@@ -200,10 +343,11 @@ public class MainActivity extends AppCompatActivity {
         getMenuInflater().inflate(R.menu.menu_main, menu);
 
         MenuItem mediaRouterMenuItem = menu.findItem(R.id.media_route_menu_item);
-        MediaRouteActionProvider mediaRouteActionProvider
-                = (MediaRouteActionProvider) MenuItemCompat
+        mMediaRouteActionProvider = (MediaRouteActionProvider) MenuItemCompat
                 .getActionProvider(mediaRouterMenuItem);
-        mediaRouteActionProvider.setRouteSelector(mMediaRouteSelector);
+        if (mMediaRouteSelector != null) {
+            mMediaRouteActionProvider.setRouteSelector(mMediaRouteSelector);
+        }
 
         if (mBtConnected) {
             menu.findItem(R.id.main_disconnect).setVisible(true);
@@ -213,6 +357,20 @@ public class MainActivity extends AppCompatActivity {
             menu.findItem(R.id.main_view_services).setVisible(false);
         }
 
+        menu.findItem(R.id.main_upload_history).setVisible(mBluetoothService != null
+                && mBluetoothService.getHistoryUploadUrl() != null);
+        menu.findItem(R.id.main_upload_url).setVisible(mBluetoothService != null);
+
+        final MenuItem liveServer = menu.findItem(R.id.main_live_server);
+        liveServer.setVisible(mBluetoothService != null);
+        liveServer.setChecked(mBluetoothService != null
+                && mBluetoothService.getLiveServer() != null);
+
+        final MenuItem sqliteStore = menu.findItem(R.id.main_sqlite_store);
+        sqliteStore.setVisible(mBluetoothService != null);
+        sqliteStore.setChecked(mBluetoothService != null
+                && mBluetoothService.getSqliteStore() != null);
+
         return true;
     }
 
@@ -233,6 +391,22 @@ public class MainActivity extends AppCompatActivity {
             runOnUiThread(onDisconnect_Click);
         } else if (id == R.id.main_view_services) {
             runOnUiThread(onViewList_Click);
+        } else if (id == R.id.main_export_history) {
+            exportHistory();
+        } else if (id == R.id.main_upload_url) {
+            editUploadUrl();
+        } else if (id == R.id.main_upload_history) {
+            uploadHistory();
+        } else if (id == R.id.main_export_trace) {
+            exportTrace();
+        } else if (id == R.id.main_live_server) {
+            toggleLiveServer();
+        } else if (id == R.id.main_sqlite_store) {
+            if (mBluetoothService != null) {
+                mBluetoothService.setSqliteStoreEnabled(
+                        mBluetoothService.getSqliteStore() == null);
+                invalidateOptionsMenu();
+            }
         } else if (id == android.R.id.home) {
             setContentView(R.layout.activity_main);
         }
@@ -243,6 +417,10 @@ public class MainActivity extends AppCompatActivity {
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
 
+        if (requestCode == REQUEST_ENABLE_BT) {
+            Tracer.endAsync("enable Bluetooth prompt", REQUEST_ENABLE_BT);
+        }
+
         if (requestCode == REQUEST_DEVICE && resultCode != Activity.RESULT_CANCELED) {
             // If connecting to new device, disconnect from any possible connection
             if (mBluetoothService != null) {
@@ -253,12 +431,13 @@ public class MainActivity extends AppCompatActivity {
             mDeviceAddress = data.getStringExtra(EXTRAS_DEVICE_ADDRESS);
             mDeviceName = data.getStringExtra(EXTRAS_DEVICE_NAME);
 
-            // Create the bind to the BluetoothService class
-            Intent gattServiceIntent = new Intent(this, BluetoothService.class);
-            bindService(gattServiceIntent, mServiceConnection, BIND_AUTO_CREATE);
-
-            // Register the broadcast receiver for updates from the service
-            registerReceiver(mGattUpdateReceiver, makeGattUpdateIntentFilter());
+            // The service runs for the session, our binding from onCreate connects once it is up
+            if (mBluetoothService == null) {
+                Tracer.beginAsync("service bind", 0);
+            }
+            Tracer.begin("startService");
+            startService(new Intent(this, BluetoothService.class));
+            Tracer.end();
 
             if (mBluetoothService != null) {
                 final boolean result = mBluetoothService.connect(mDeviceAddress);
@@ -277,6 +456,8 @@ public class MainActivity extends AppCompatActivity {
     public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
         switch (requestCode) {
             case PERMISSIONS_REQUEST_LOCATION: {
+                Tracer.endAsync("permission prompt", PERMISSIONS_REQUEST_LOCATION);
+
                 // If request is cancelled, the result arrays are empty.
                 if (grantResults.length > 0
                         && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
@@ -482,7 +663,7 @@ public class MainActivity extends AppCompatActivity {
             }
             mApiClient = null;
         }
-        if (selectDefaultRoute) {
+        if (selectDefaultRoute && mMediaRouter != null) {
             mMediaRouter.selectRoute(mMediaRouter.getDefaultRoute());
         }
         mSelectedDevice = null;
@@ -543,15 +724,31 @@ public class MainActivity extends AppCompatActivity {
     private final ServiceConnection mServiceConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
+            Tracer.endAsync("service bind", 0);
+            Tracer.begin("onServiceConnected");
             mBluetoothService = ((BluetoothService.LocalBinder) iBinder).getService();
 
-            if (!mBluetoothService.initialize()) {
-                Log.e(TAG, "Unable to initialize");
-                finish();
-            }
+            if (mBluetoothService.isSessionActive()) {
+                // Pick the running session up where the previous activity left it
+                mDeviceAddress = mBluetoothService.getDeviceAddress();
+                if (mDeviceName == null) {
+                    mDeviceName = mBluetoothService.getDeviceName();
+                }
+                mBtConnected = mBluetoothService.isConnected();
+                runOnUiThread(updateOnConnection);
+                mShowingServiceValues = true;
+                showSnapshot(mBluetoothService.getSnapshot());
+                showForecast(mBluetoothService.getForecaster().getForecast());
+            } else if (mDeviceAddress != null) {
+                if (!mBluetoothService.initialize()) {
+                    Log.e(TAG, "Unable to initialize");
+                    finish();
+                }
 
-            // Automatically connects to the device upon successful start-up initialization.
-            mBluetoothService.connect(mDeviceAddress);
+                // Automatically connects to the device upon successful start-up initialization.
+                mBluetoothService.connect(mDeviceAddress);
+            }
+            Tracer.end();
         }
 
         @Override
@@ -585,8 +782,7 @@ public class MainActivity extends AppCompatActivity {
                     mGattServiceMap.put(s.getUuid(), s);
                 }
 
-                // Begin enabling the sensors on the Gatt device
-                mBluetoothService.startSensorEnable();
+                // The service enables the sensors itself
 
             } else if (BluetoothService.HUMID_DATA.equals(action)) {
                 runOnUiThread(new Runnable() {
@@ -595,9 +791,9 @@ public class MainActivity extends AppCompatActivity {
                         double temp = intent.getDoubleExtra(BluetoothService.TEMP_ACT_DATA, 0.d);
                         double humid = intent.getDoubleExtra(BluetoothService.HUMID_DATA, 0.d);
 
-                        tTemp.setText(String.format("%.0f %cF", temp, (char)0x00B0));
-                        tHumid.setText(String.format("%.2f %%", humid));
-                        adjustViewColorByTemp(tView, temp);
+                        mShowingServiceValues = true;
+                        showTemperature(temp);
+                        showHumidity(humid);
                     }
                 });
             } else if (BluetoothService.PRESS_DATA.equals(action)) {
@@ -606,10 +802,20 @@ public class MainActivity extends AppCompatActivity {
                         public void run() {
                             double press = intent.getDoubleExtra(BluetoothService.PRESS_DATA, 0.d);
 
-                            // Convert from hPa to mmHg
-                            tPress.setText(String.format("%.2f in. Hg", press * 0.000296));
+                            mShowingServiceValues = true;
+                            showPressure(press);
                         }
                     });
+            } else if (BluetoothService.FORECAST_DATA.equals(action)) {
+                final int forecast = intent.getIntExtra(BluetoothService.FORECAST_DATA,
+                        PressureForecaster.UNKNOWN);
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showForecast(forecast);
+                    }
+                });
             } else if (BluetoothService.ACTION_DATA_AVAILABLE.equals(action)) {
                 // Nothing to see here
             }
@@ -635,8 +841,6 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void run() {
             mBtConnected = false;
-            unregisterReceiver(mGattUpdateReceiver);
-            unbindService(mServiceConnection);
             clearDisplayValues();
 
             // Reset the option menu
@@ -647,13 +851,9 @@ public class MainActivity extends AppCompatActivity {
     private Runnable onDisconnect_Click = new Runnable() {
         @Override
         public void run() {
-            // Cleanup the service connection and hide the disconnect button
+            // The disconnect broadcast hides the disconnect button, the binding stays so the
+            // next device can be connected through the same service
             mBluetoothService.disconnect();
-
-            // Wait until we have successful disconnect from the device
-            while (mBluetoothService != null) {
-                mBluetoothService = null;
-            }
         }
     };
 
@@ -666,6 +866,172 @@ public class MainActivity extends AppCompatActivity {
         }
     };
 
+    /**
+     * Export the whole reading history as CSV and columnar files to the app's external
+     * files directory.  Runs on a background thread since weeks of history take a while.
+     */
+    private void exportHistory() {
+        final File dir = getExternalFilesDir(null);
+
+        // Make the buffered readings of a running session visible to the export
+        if (mBluetoothService != null) {
+            mBluetoothService.flushHistory();
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final String stamp = Long.toString(System.currentTimeMillis());
+                final File csvFile = new File(dir, "history-" + stamp + ".csv");
+                final File columnarFile = new File(dir, "history-" + stamp + ".wsc");
+                final HistoryExporter exporter = new HistoryExporter(mHistoryLog);
+                long rows;
+
+                try {
+                    Writer csv = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(csvFile), "UTF-8"), 64 * 1024);
+                    try {
+                        rows = exporter.exportCsv(csv, ReadingChannel.all(), 0, Long.MAX_VALUE);
+                    } finally {
+                        csv.close();
+                    }
+
+                    OutputStream columnar =
+                            new BufferedOutputStream(new FileOutputStream(columnarFile), 64 * 1024);
+                    try {
+                        exporter.exportColumnar(columnar, ReadingChannel.all(), 0, Long.MAX_VALUE);
+                    } finally {
+                        columnar.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "History export failed", e);
+                    showToast(getString(R.string.export_failed));
+                    return;
+                }
+
+                Log.i(TAG, "Exported " + rows + " readings to " + csvFile);
+                showToast(getString(R.string.export_complete, rows, dir.getPath()));
+            }
+        }, "HistoryExport").start();
+    }
+
+    private void uploadHistory() {
+        final BluetoothService service = mBluetoothService;
+
+        if (service == null) {
+            return;
+        }
+
+        // Make the buffered readings of a running session part of the upload
+        service.flushHistory();
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long rows;
+
+                try {
+                    rows = service.uploadHistory();
+                } catch (IOException e) {
+                    Log.e(TAG, "History upload failed", e);
+                    showToast(getString(R.string.upload_failed));
+                    return;
+                }
+
+                Log.i(TAG, "Uploaded " + rows + " readings");
+                showToast(getString(R.string.upload_complete, rows));
+            }
+        }, "HistoryUpload").start();
+    }
+
+    // Asks for the backend history is uploaded to, an empty URL turns uploads off
+    private void editUploadUrl() {
+        final BluetoothService service = mBluetoothService;
+
+        if (service == null) {
+            return;
+        }
+
+        final EditText input = new EditText(this);
+        input.setInputType(InputType.TYPE_CLASS_TEXT | InputType.TYPE_TEXT_VARIATION_URI);
+        input.setHint(R.string.upload_url_hint);
+        input.setText(service.getHistoryUploadUrl());
+
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.menu_main_upload_url)
+                .setView(input)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        final String url = input.getText().toString().trim();
+
+                        try {
+                            service.setHistoryUploadUrl(url.isEmpty() ? null : url);
+                        } catch (IllegalArgumentException e) {
+                            showToast(getString(R.string.upload_url_invalid));
+                        }
+                        invalidateOptionsMenu();
+                    }
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    private void toggleLiveServer() {
+        if (mBluetoothService == null) {
+            return;
+        }
+
+        if (mBluetoothService.getLiveServer() != null) {
+            mBluetoothService.setLiveServerEnabled(false);
+        } else if (mBluetoothService.setLiveServerEnabled(true)) {
+            showToast(getString(R.string.live_server_started,
+                    mBluetoothService.getLiveServer().getPort()));
+        } else {
+            showToast(getString(R.string.live_server_failed));
+        }
+        invalidateOptionsMenu();
+    }
+
+    // Writes the recorded startup and connect sections as a Chrome trace
+    private void exportTrace() {
+        final File file = new File(getExternalFilesDir(null),
+                "trace-" + System.currentTimeMillis() + ".json");
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int events;
+
+                try {
+                    Writer out = new BufferedWriter(new OutputStreamWriter(
+                            new FileOutputStream(file), "UTF-8"), 64 * 1024);
+                    try {
+                        events = Tracer.getRecorder().writeJson(out);
+                    } finally {
+                        out.close();
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Trace export failed", e);
+                    showToast(getString(R.string.trace_export_failed));
+                    return;
+                }
+
+                Log.i(TAG, "Exported " + events + " trace events to " + file);
+                showToast(getString(R.string.trace_export_complete, events, file.getPath()));
+            }
+        }, "TraceExport").start();
+    }
+
+    private void showToast(final String message) {
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(MainActivity.this, message, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
     private static IntentFilter makeGattUpdateIntentFilter() {
         final IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(BluetoothService.ACTION_GATT_CONNECTED);
@@ -674,6 +1040,7 @@ public class MainActivity extends AppCompatActivity {
         intentFilter.addAction(BluetoothService.ACTION_DATA_AVAILABLE);
         intentFilter.addAction(BluetoothService.HUMID_DATA);
         intentFilter.addAction(BluetoothService.PRESS_DATA);
+        intentFilter.addAction(BluetoothService.FORECAST_DATA);
         return intentFilter;
     }
 
@@ -682,11 +1049,81 @@ public class MainActivity extends AppCompatActivity {
         tTemp.setText(R.string.dashes);
         tHumid.setText(R.string.dashes);
         tPress.setText(R.string.dashes);
+        tForecast.setText("");
         tDevice.setText("");
         tAddress.setText("");
         tState.setText(" " + mBtConnected);
     }
 
+    private void showTemperature(double temp) {
+        tTemp.setText(String.format("%.0f %cF", temp, (char)0x00B0));
+        adjustViewColorByTemp(tView, temp);
+    }
+
+    private void showHumidity(double humid) {
+        tHumid.setText(String.format("%.2f %%", humid));
+    }
+
+    private void showPressure(double press) {
+        // Convert from hPa to mmHg
+        tPress.setText(String.format("%.2f in. Hg", press * 0.000296));
+    }
+
+    // Shows whatever latest values the snapshot holds, the rest keep their dashes
+    private void showSnapshot(ReadingSnapshot snapshot) {
+        if (snapshot.has(ReadingChannel.TEMPERATURE)) {
+            showTemperature(snapshot.value(ReadingChannel.TEMPERATURE));
+        }
+        if (snapshot.has(ReadingChannel.HUMIDITY)) {
+            showHumidity(snapshot.value(ReadingChannel.HUMIDITY));
+        }
+        if (snapshot.has(ReadingChannel.PRESSURE)) {
+            showPressure(snapshot.value(ReadingChannel.PRESSURE));
+        }
+    }
+
+    // Shows the saved snapshot once a worker thread has read it, unless the service got there first
+    private void showSavedSnapshot() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                final ReadingSnapshot snapshot = loadSnapshot();
+
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mShowingServiceValues && !isDestroyed()) {
+                            showSnapshot(snapshot);
+                        }
+                    }
+                });
+            }
+        }, "SnapshotLoad").start();
+    }
+
+    // Snapshot the service saved last time, so the dashboard is not blank until it connects
+    private ReadingSnapshot loadSnapshot() {
+        final File file = new File(getFilesDir(), BluetoothService.SNAPSHOT_FILE);
+
+        if (file.exists()) {
+            try {
+                return ReadingSnapshot.load(file);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to load reading snapshot", e);
+            }
+        }
+        return ReadingSnapshot.EMPTY;
+    }
+
+    private void showForecast(int forecast) {
+        if (forecast == PressureForecaster.UNKNOWN) {
+            tForecast.setText(R.string.forecast_unknown);
+        } else {
+            String[] forecasts = getResources().getStringArray(R.array.zambretti_forecasts);
+            tForecast.setText(forecasts[forecast - 1]);
+        }
+    }
+
     private void adjustViewColorByTemp(View view, double temp) {
         int alpha = 225;
         int red = 0;
@@ -0,0 +1,55 @@
+package com.bryanford.weatherstation;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Posts a notification while an alert rule is active and removes it when the rule clears.
+ * Works without any activity running, notifications are keyed by the rule id.
+ */
+public class NotificationAlertSink implements AlertEngine.AlertSink {
+    private static final String TAG = "alert";
+
+    private final Context mContext;
+    private final NotificationManager mNotificationManager;
+    private final PendingIntent mContentIntent;
+
+    public NotificationAlertSink(Context context) {
+        mContext = context.getApplicationContext();
+        mNotificationManager =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        mContentIntent = PendingIntent.getActivity(mContext, 0,
+                new Intent(mContext, MainActivity.class), 0);
+    }
+
+    @Override
+    public void onAlert(AlertRule rule, boolean active, long time, double value) {
+        if (!active) {
+            mNotificationManager.cancel(TAG, rule.getId());
+            return;
+        }
+
+        final String text = mContext.getString(rule.getDirection() == AlertRule.ABOVE
+                        ? R.string.alert_above : R.string.alert_below,
+                ReadingChannel.name(rule.getChannel()), value, rule.getThreshold());
+        final String title = rule.getLabel() != null && !rule.getLabel().isEmpty()
+                ? rule.getLabel() : mContext.getString(R.string.app_name);
+
+        Notification notification = new Notification.Builder(mContext)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(title)
+                .setContentText(text)
+                .setWhen(time)
+                .setShowWhen(true)
+                .setCategory(Notification.CATEGORY_ALARM)
+                .setPriority(Notification.PRIORITY_HIGH)
+                .setDefaults(Notification.DEFAULT_SOUND)
+                .setContentIntent(mContentIntent)
+                .build();
+
+        mNotificationManager.notify(TAG, rule.getId(), notification);
+    }
+}
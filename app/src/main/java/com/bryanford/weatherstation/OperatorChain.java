@@ -0,0 +1,37 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Feeds every value through a sequence of operators, each one receiving the value of the
+ * one before, e.g. an {@link Ewma} smoothing into a {@link SlidingMinMax}.  The chain's
+ * value is the value of the last operator.
+ */
+public class OperatorChain implements StreamOperator {
+    private final StreamOperator[] mOperators;
+
+    public OperatorChain(StreamOperator... operators) {
+        if (operators.length == 0) {
+            throw new IllegalArgumentException("Empty operator chain");
+        }
+        mOperators = operators.clone();
+    }
+
+    @Override
+    public void push(double value) {
+        for (StreamOperator operator : mOperators) {
+            operator.push(value);
+            value = operator.value();
+        }
+    }
+
+    @Override
+    public double value() {
+        return mOperators[mOperators.length - 1].value();
+    }
+
+    @Override
+    public void reset() {
+        for (StreamOperator operator : mOperators) {
+            operator.reset();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Runs the samples of one channel through a {@link StreamOperator} and forwards the
+ * operator's value with the sample time, so operators can sit in the sample pipeline,
+ * e.g. to smooth a reading before display or alerting.  Other channels pass through
+ * unchanged.
+ */
+public class OperatorStage implements SampleListener {
+    private final int mChannel;
+    private final StreamOperator mOperator;
+    private final SampleListener mSink;
+
+    /**
+     * @param channel The {@link ReadingChannel} id to transform.
+     * @param sink Receives the transformed samples; nothing is forwarded while the
+     *             operator's value is NaN.
+     */
+    public OperatorStage(int channel, StreamOperator operator, SampleListener sink) {
+        mChannel = channel;
+        mOperator = operator;
+        mSink = sink;
+    }
+
+    @Override
+    public void onSample(int channel, long time, double value) {
+        if (channel != mChannel) {
+            mSink.onSample(channel, time, value);
+            return;
+        }
+
+        mOperator.push(value);
+
+        double result = mOperator.value();
+        if (!Double.isNaN(result)) {
+            mSink.onSample(channel, time, result);
+        }
+    }
+
+    public StreamOperator getOperator() {
+        return mOperator;
+    }
+}
@@ -0,0 +1,207 @@
+package com.bryanford.weatherstation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single producer, single consumer queue of raw characteristic payloads.  Slots and
+ * their byte buffers are allocated up front, so offering a payload is a copy and a couple of
+ * volatile writes.  Used to hand GATT callback payloads to the decode thread.
+ *
+ * When the ring is full the overflow policy decides:
+ * <ul>
+ *   <li>{@link #DROP_OLDEST}: the oldest queued payload is discarded.</li>
+ *   <li>{@link #DROP_NEWEST}: the offered payload is discarded.</li>
+ *   <li>{@link #BLOCK}: the producer waits for the consumer.</li>
+ * </ul>
+ * With DROP_OLDEST the producer may advance the head, so the consumer copies a slot out
+ * first and only keeps the copy if it can still claim the slot afterwards.
+ */
+public class PayloadRing {
+    public static final int DROP_OLDEST = 0;
+    public static final int DROP_NEWEST = 1;
+    public static final int BLOCK = 2;
+
+    // How long a waiting thread parks before looking again, in case a wakeup was missed
+    private static final long PARK_NANOS = 10 * 1000 * 1000;
+
+    /**
+     * Consumer side copy of one payload, reused for every poll.
+     */
+    public static class Entry {
+        public final byte[] data;
+        public int length;
+        public int kind;
+        public long nanos;
+
+        public Entry(int maxPayload) {
+            data = new byte[maxPayload];
+        }
+    }
+
+    private final int mCapacity;
+    private final int mMaxPayload;
+    private final byte[][] mData;
+    private final int[] mLengths;
+    private final int[] mKinds;
+    private final long[] mNanos;
+
+    // Next slot to consume; advanced by the consumer, and by the producer when dropping
+    private final AtomicLong mHead = new AtomicLong();
+
+    // Next slot to fill, written by the producer only
+    private volatile long mTail;
+
+    private volatile int mPolicy;
+    private volatile Thread mWaitingConsumer;
+    private volatile Thread mWaitingProducer;
+
+    // Written by the producer only
+    private volatile long mOffered;
+    private volatile long mDropped;
+    private volatile int mMaxDepth;
+
+    /**
+     * @param capacity Number of payloads that can be queued.
+     * @param maxPayload Largest payload in bytes, longer ones are dropped.
+     * @param policy {@link #DROP_OLDEST}, {@link #DROP_NEWEST} or {@link #BLOCK}.
+     */
+    public PayloadRing(int capacity, int maxPayload, int policy) {
+        mCapacity = capacity;
+        mMaxPayload = maxPayload;
+        mData = new byte[capacity][maxPayload];
+        mLengths = new int[capacity];
+        mKinds = new int[capacity];
+        mNanos = new long[capacity];
+        setPolicy(policy);
+    }
+
+    public void setPolicy(int policy) {
+        if (policy != DROP_OLDEST && policy != DROP_NEWEST && policy != BLOCK) {
+            throw new IllegalArgumentException("Unknown overflow policy: " + policy);
+        }
+        mPolicy = policy;
+
+        // A producer blocked under the old policy re-evaluates
+        LockSupport.unpark(mWaitingProducer);
+    }
+
+    public int getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * Queues a copy of the payload.  Producer thread only.
+     *
+     * @param kind Caller defined tag, e.g. which characteristic the payload came from.
+     * @param nanos Callback timestamp carried to the consumer.
+     *
+     * @return False if the payload was dropped.
+     */
+    public boolean offer(int kind, long nanos, byte[] data, int offset, int length) {
+        mOffered++;
+
+        if (length > mMaxPayload) {
+            mDropped++;
+            return false;
+        }
+
+        long tail = mTail;
+        while (tail - mHead.get() >= mCapacity) {
+            int policy = mPolicy;
+
+            if (policy == DROP_NEWEST) {
+                mDropped++;
+                return false;
+            } else if (policy == DROP_OLDEST) {
+                long head = mHead.get();
+                if (tail - head >= mCapacity && mHead.compareAndSet(head, head + 1)) {
+                    mDropped++;
+                }
+            } else {
+                mWaitingProducer = Thread.currentThread();
+                if (tail - mHead.get() >= mCapacity) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                mWaitingProducer = null;
+            }
+        }
+
+        int slot = (int) (tail % mCapacity);
+        System.arraycopy(data, offset, mData[slot], 0, length);
+        mLengths[slot] = length;
+        mKinds[slot] = kind;
+        mNanos[slot] = nanos;
+        mTail = tail + 1;
+
+        int depth = (int) (tail + 1 - mHead.get());
+        if (depth > mMaxDepth) {
+            mMaxDepth = depth;
+        }
+
+        LockSupport.unpark(mWaitingConsumer);
+        return true;
+    }
+
+    /**
+     * Copies the oldest payload into the entry and removes it.  Consumer thread only.
+     *
+     * @return False if the ring is empty.
+     */
+    public boolean poll(Entry entry) {
+        while (true) {
+            long head = mHead.get();
+
+            if (head >= mTail) {
+                return false;
+            }
+
+            int slot = (int) (head % mCapacity);
+            int length = mLengths[slot];
+            System.arraycopy(mData[slot], 0, entry.data, 0, length);
+            entry.length = length;
+            entry.kind = mKinds[slot];
+            entry.nanos = mNanos[slot];
+
+            // Fails if the producer dropped this slot meanwhile, the copy may be torn
+            if (mHead.compareAndSet(head, head + 1)) {
+                LockSupport.unpark(mWaitingProducer);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Waits until a payload may be available or the thread is interrupted.  Consumer thread
+     * only.
+     */
+    public void await() {
+        mWaitingConsumer = Thread.currentThread();
+        if (mHead.get() >= mTail) {
+            LockSupport.parkNanos(this, PARK_NANOS);
+        }
+        mWaitingConsumer = null;
+    }
+
+    // Payloads currently queued
+    public int depth() {
+        return (int) Math.max(0, mTail - mHead.get());
+    }
+
+    // Most payloads queued at once
+    public int maxDepth() {
+        return mMaxDepth;
+    }
+
+    public long offered() {
+        return mOffered;
+    }
+
+    public long dropped() {
+        return mDropped;
+    }
+
+    public int capacity() {
+        return mCapacity;
+    }
+}
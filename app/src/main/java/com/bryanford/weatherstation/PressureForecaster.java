@@ -0,0 +1,122 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Short term Zambretti forecast from the barometer.  The pressure tendency is the slope of
+ * a least squares line through the last 3 hours of samples, kept by a
+ * {@link SlidingRegression} so each new pressure value costs O(1).  The forecast is the
+ * Zambretti number 1..32 from the sea level pressure and whether it is falling, steady or
+ * rising; 0 until an hour of samples is available.
+ *
+ * Updated from the decode thread, read from any thread.
+ */
+public class PressureForecaster {
+    public static final int FALLING = -1;
+    public static final int STEADY = 0;
+    public static final int RISING = 1;
+
+    // Forecast until enough history is available
+    public static final int UNKNOWN = 0;
+
+    private static final long WINDOW_MS = 3 * 60 * 60 * 1000;
+    private static final long MIN_SPAN_MS = 60 * 60 * 1000;
+
+    // Several samples a second over the whole window
+    private static final int CAPACITY = 16384;
+
+    // A tendency within this many hPa per 3 hours counts as steady
+    private static final double STEADY_HPA = 1.6;
+
+    private final SlidingRegression mRegression = new SlidingRegression(WINDOW_MS, CAPACITY);
+
+    private double mAltitude;
+    private double mSeaLevelPressure = Double.NaN;
+    private double mTendency = Double.NaN;
+    private int mTrend = STEADY;
+    private int mForecast = UNKNOWN;
+
+    /**
+     * @param meters Station altitude, used to reduce readings to sea level pressure.
+     */
+    public synchronized void setAltitude(double meters) {
+        mAltitude = meters;
+    }
+
+    /**
+     * Adds a pressure reading and updates the forecast.
+     *
+     * @param time Sample time in milliseconds since the epoch.
+     * @param pascals Station pressure in Pa.
+     *
+     * @return True if the forecast changed.
+     */
+    public synchronized boolean update(long time, double pascals) {
+        mRegression.add(time, pascals);
+
+        // Barometric formula for the standard atmosphere
+        mSeaLevelPressure = pascals / 100 * Math.pow(1 - 2.25577e-5 * mAltitude, -5.25588);
+
+        int forecast = UNKNOWN;
+
+        if (mRegression.span() >= MIN_SPAN_MS) {
+            mTendency = mRegression.slope() * WINDOW_MS / 100;
+            mTrend = mTendency < -STEADY_HPA ? FALLING
+                    : mTendency > STEADY_HPA ? RISING : STEADY;
+            forecast = zambretti(mSeaLevelPressure, mTrend);
+        } else {
+            mTendency = Double.NaN;
+            mTrend = STEADY;
+        }
+
+        boolean changed = forecast != mForecast;
+        mForecast = forecast;
+        return changed;
+    }
+
+    public synchronized void clear() {
+        mRegression.clear();
+        mTendency = Double.NaN;
+        mTrend = STEADY;
+        mForecast = UNKNOWN;
+    }
+
+    // Zambretti number 1..32, or UNKNOWN
+    public synchronized int getForecast() {
+        return mForecast;
+    }
+
+    // FALLING, STEADY or RISING
+    public synchronized int getTrend() {
+        return mTrend;
+    }
+
+    // Fitted pressure change in hPa over 3 hours, NaN until an hour of samples is available
+    public synchronized double getTendency() {
+        return mTendency;
+    }
+
+    // Latest reading reduced to sea level, in hPa
+    public synchronized double getSeaLevelPressure() {
+        return mSeaLevelPressure;
+    }
+
+    /**
+     * @param hpa Sea level pressure in hPa.
+     * @param trend {@link #FALLING}, {@link #STEADY} or {@link #RISING}.
+     *
+     * @return Zambretti number, 1..9 when falling, 10..19 when steady, 20..32 when rising.
+     */
+    public static int zambretti(double hpa, int trend) {
+        switch (trend) {
+            case FALLING:
+                return clamp((int) Math.round(127 - 0.12 * hpa), 1, 9);
+            case RISING:
+                return clamp((int) Math.round(185 - 0.16 * hpa), 20, 32);
+            default:
+                return clamp((int) Math.round(144 - 0.13 * hpa), 10, 19);
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
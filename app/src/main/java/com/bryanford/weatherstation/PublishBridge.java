@@ -0,0 +1,370 @@
+package com.bryanford.weatherstation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Store-and-forward bridge from the decoded sample stream to a broker.
+ *
+ * Samples are collected into batches of "address,channel,time,value" CSV rows.  A batch is
+ * sealed once it holds enough samples or is old enough, gzip compressed and written to a
+ * {@link SpoolQueue} before anything is sent, so batches survive both an unreachable broker
+ * and a restart of the app.  A drain thread hands the oldest spooled batches to at most
+ * {@code concurrency} senders and deletes each batch once the broker accepted it.  After a
+ * failed send the broker is considered unreachable and retried with a growing delay.
+ *
+ * Batches may be accepted out of order when more than one is in flight; the sequence number
+ * passed to the {@link Transport} lets the receiving end restore the order.
+ */
+public class PublishBridge {
+    public static final int DEFAULT_BATCH_SAMPLES = 512;
+    public static final long DEFAULT_BATCH_AGE_MILLIS = 60 * 1000;
+    public static final long DEFAULT_MIN_RETRY_MILLIS = 1000;
+    public static final long DEFAULT_MAX_RETRY_MILLIS = 5 * 60 * 1000;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String HEADER = "address,channel,time,value\n";
+
+    /**
+     * Delivers batches to the broker.  Called from several sender threads at once.
+     */
+    public interface Transport {
+        /**
+         * Returns once the broker has accepted the batch.
+         *
+         * @param sequence Increasing number of the batch, unique per spool directory.
+         * @param payload Gzip compressed CSV rows.
+         *
+         * @throws IOException If the broker could not be reached or refused the batch.
+         */
+        void publish(long sequence, byte[] payload) throws IOException;
+    }
+
+    private final SpoolQueue mSpool;
+    private final Transport mTransport;
+    private final int mConcurrency;
+    private final ExecutorService mSenders;
+    private final Thread mDrainThread;
+
+    private int mBatchSamples = DEFAULT_BATCH_SAMPLES;
+    private long mBatchAgeNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BATCH_AGE_MILLIS);
+    private long mMinRetryNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MIN_RETRY_MILLIS);
+    private long mMaxRetryNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_RETRY_MILLIS);
+
+    // Batch being filled and batches waiting to be spooled, guarded by this
+    private StringBuilder mBatch = new StringBuilder(HEADER);
+    private int mBatchCount;
+    private long mBatchStartNanos;
+    private final List<String> mSealed = new ArrayList<>();
+
+    // Drain state, guarded by this
+    private final Set<Long> mInFlight = new HashSet<>();
+    private long mRetryDelayNanos;
+    private long mRetryAtNanos;
+    private boolean mReachable = true;
+    private boolean mRunning = true;
+
+    private final ThroughputMeter mDrainMeter = new ThroughputMeter();
+    private long mBatchesSent;
+    private long mFailures;
+
+    /**
+     * Starts draining batches left in the spool by an earlier run.
+     *
+     * @param concurrency Most batches being sent at the same time.
+     */
+    public PublishBridge(SpoolQueue spool, Transport transport, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive: " + concurrency);
+        }
+        mSpool = spool;
+        mTransport = transport;
+        mConcurrency = concurrency;
+        mSenders = Executors.newFixedThreadPool(concurrency);
+        mRetryDelayNanos = mMinRetryNanos;
+
+        mDrainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "PublishBridge");
+        mDrainThread.start();
+    }
+
+    /**
+     * @param samples Samples per batch.
+     * @param maxAgeMillis Longest a sample waits in a batch that is not full.
+     */
+    public synchronized void setBatching(int samples, long maxAgeMillis) {
+        mBatchSamples = samples;
+        mBatchAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+        notifyAll();
+    }
+
+    /**
+     * Delay before the first retry after a failed send, doubled after every further failure.
+     */
+    public synchronized void setRetryDelay(long minMillis, long maxMillis) {
+        mMinRetryNanos = TimeUnit.MILLISECONDS.toNanos(minMillis);
+        mMaxRetryNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+        mRetryDelayNanos = mMinRetryNanos;
+    }
+
+    /**
+     * Adds a sample to the current batch.  Only appends to a buffer, compression and disk
+     * writes happen on the drain thread.
+     */
+    public synchronized void offer(String address, int channel, long time, double value) {
+        if (!mRunning) {
+            return;
+        }
+
+        if (mBatchCount == 0) {
+            // Lets the drain thread time the new batch
+            mBatchStartNanos = System.nanoTime();
+            notifyAll();
+        }
+        mBatch.append(address).append(',').append(ReadingChannel.name(channel)).append(',')
+                .append(time).append(',').append(value).append('\n');
+
+        if (++mBatchCount >= mBatchSamples) {
+            seal();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Seals the current batch and retries the broker straight away, e.g. after the network
+     * came back.
+     */
+    public synchronized void retryNow() {
+        if (mBatchCount > 0) {
+            seal();
+        }
+        mRetryAtNanos = System.nanoTime();
+        mRetryDelayNanos = mMinRetryNanos;
+        notifyAll();
+    }
+
+    /**
+     * Spools the current batch and stops sending.  Batches not yet accepted stay in the
+     * spool for the next run.
+     */
+    public void close() {
+        synchronized (this) {
+            if (!mRunning) {
+                return;
+            }
+            if (mBatchCount > 0) {
+                seal();
+            }
+            mRunning = false;
+            notifyAll();
+        }
+
+        try {
+            mDrainThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Sends in flight finish on their own, a batch only leaves the spool once accepted
+        mSenders.shutdown();
+
+        // The drain thread may have stopped before spooling the last sealed batch
+        spoolSealed();
+    }
+
+    // Batches waiting to be sent, in the spool or about to be written to it
+    public synchronized int queueDepth() {
+        return mSpool.size() + mSealed.size();
+    }
+
+    public long queuedBytes() {
+        return mSpool.bytes();
+    }
+
+    /**
+     * @return Compressed bytes per second accepted by the broker during the current drain, or
+     *         the last one if the queue is empty.
+     */
+    public double drainBytesPerSecond() {
+        return mDrainMeter.bytesPerSecond();
+    }
+
+    public synchronized long batchesSent() {
+        return mBatchesSent;
+    }
+
+    public synchronized long failures() {
+        return mFailures;
+    }
+
+    // Batches deleted unsent to keep the spool within its limit
+    public long batchesDropped() {
+        return mSpool.dropped();
+    }
+
+    // Whether the last send succeeded
+    public synchronized boolean isReachable() {
+        return mReachable;
+    }
+
+    private void seal() {
+        mSealed.add(mBatch.toString());
+        mBatch = new StringBuilder(mBatch.length());
+        mBatch.append(HEADER);
+        mBatchCount = 0;
+    }
+
+    private void drain() {
+        while (true) {
+            spoolSealed();
+
+            final List<Long> batches;
+            synchronized (this) {
+                if (!mRunning) {
+                    return;
+                }
+
+                final long now = System.nanoTime();
+                if (mBatchCount > 0 && now - mBatchStartNanos >= mBatchAgeNanos) {
+                    seal();
+                    continue;
+                }
+
+                batches = now - mRetryAtNanos >= 0
+                        ? mSpool.oldest(mConcurrency - mInFlight.size(), mInFlight)
+                        : new ArrayList<Long>();
+                mInFlight.addAll(batches);
+
+                if (batches.isEmpty() && mSealed.isEmpty()) {
+                    waitForWork(now);
+                    continue;
+                }
+                if (!batches.isEmpty() && !mDrainMeter.isRunning()) {
+                    mDrainMeter.start(now);
+                }
+            }
+
+            for (final Long sequence : batches) {
+                mSenders.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        send(sequence);
+                    }
+                });
+            }
+        }
+    }
+
+    // Sleeps until the current batch is due, a retry is due or something else changes
+    private void waitForWork(long now) {
+        long wait = Long.MAX_VALUE;
+
+        if (mBatchCount > 0) {
+            wait = mBatchStartNanos + mBatchAgeNanos - now;
+        }
+        if (mRetryAtNanos - now > 0 && mSpool.size() > mInFlight.size()) {
+            wait = Math.min(wait, mRetryAtNanos - now);
+        }
+
+        try {
+            if (wait == Long.MAX_VALUE) {
+                wait();
+            } else {
+                TimeUnit.NANOSECONDS.timedWait(this, Math.max(wait, 1));
+            }
+        } catch (InterruptedException e) {
+            mRunning = false;
+        }
+    }
+
+    private void spoolSealed() {
+        final List<String> sealed;
+
+        synchronized (this) {
+            if (mSealed.isEmpty()) {
+                return;
+            }
+            sealed = new ArrayList<>(mSealed);
+            mSealed.clear();
+        }
+
+        for (String batch : sealed) {
+            try {
+                mSpool.add(gzip(batch));
+            } catch (IOException e) {
+                // The rows are still in the reading history
+                synchronized (this) {
+                    mFailures++;
+                }
+            }
+        }
+    }
+
+    private void send(long sequence) {
+        boolean sent = false;
+        int bytes = 0;
+
+        try {
+            final byte[] payload = mSpool.read(sequence);
+
+            // Dropped to make room, nothing to send
+            if (payload != null) {
+                mTransport.publish(sequence, payload);
+                bytes = payload.length;
+            }
+            mSpool.remove(sequence);
+            sent = true;
+        } catch (IOException | RuntimeException e) {
+            // Counted below, the batch stays in the spool
+        }
+
+        synchronized (this) {
+            final long now = System.nanoTime();
+            mInFlight.remove(sequence);
+
+            if (sent) {
+                mDrainMeter.add(bytes, now);
+                mBatchesSent++;
+                mReachable = true;
+                mRetryDelayNanos = mMinRetryNanos;
+
+                if (mSpool.size() == 0) {
+                    mDrainMeter.stop(now);
+                }
+            } else {
+                mFailures++;
+                mReachable = false;
+                mDrainMeter.stop(now);
+
+                // Later failures of batches already in flight do not stretch the delay again
+                if (now - mRetryAtNanos >= 0) {
+                    mRetryAtNanos = now + mRetryDelayNanos;
+                    mRetryDelayNanos = Math.min(mRetryDelayNanos * 2, mMaxRetryNanos);
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    private static byte[] gzip(String batch) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.length() / 4);
+        final GZIPOutputStream out = new GZIPOutputStream(bytes);
+
+        out.write(batch.getBytes(UTF_8));
+        out.close();
+        return bytes.toByteArray();
+    }
+}
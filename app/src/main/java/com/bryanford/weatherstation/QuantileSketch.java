@@ -0,0 +1,132 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Estimates one quantile of a stream with the P-square algorithm (Jain and Chlamtac): five
+ * markers track the minimum, the quantile, the maximum and two points in between, and their
+ * heights are adjusted with piecewise parabolic interpolation as values arrive.  Constant
+ * memory and O(1) per value; exact until five values have been pushed.
+ */
+public class QuantileSketch implements StreamOperator {
+    private final double mQuantile;
+
+    // Marker heights, actual positions, desired positions and desired position increments
+    private final double[] mHeights = new double[5];
+    private final int[] mPositions = new int[5];
+    private final double[] mDesired = new double[5];
+    private final double[] mIncrements = new double[5];
+
+    private long mCount;
+
+    /**
+     * @param quantile The quantile to track, 0 < quantile < 1, e.g. 0.95.
+     */
+    public QuantileSketch(double quantile) {
+        if (!(quantile > 0 && quantile < 1)) {
+            throw new IllegalArgumentException("quantile must be in (0, 1): " + quantile);
+        }
+        mQuantile = quantile;
+        mIncrements[0] = 0;
+        mIncrements[1] = quantile / 2;
+        mIncrements[2] = quantile;
+        mIncrements[3] = (1 + quantile) / 2;
+        mIncrements[4] = 1;
+        reset();
+    }
+
+    @Override
+    public void push(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        if (mCount < 5) {
+            // Insertion sort the first values into the markers
+            int i = (int) mCount;
+            while (i > 0 && mHeights[i - 1] > value) {
+                mHeights[i] = mHeights[i - 1];
+                i--;
+            }
+            mHeights[i] = value;
+            mCount++;
+            return;
+        }
+
+        int k;
+        if (value < mHeights[0]) {
+            mHeights[0] = value;
+            k = 0;
+        } else if (value >= mHeights[4]) {
+            mHeights[4] = value;
+            k = 3;
+        } else {
+            k = 0;
+            while (value >= mHeights[k + 1]) {
+                k++;
+            }
+        }
+
+        for (int i = k + 1; i < 5; i++) {
+            mPositions[i]++;
+        }
+        for (int i = 0; i < 5; i++) {
+            mDesired[i] += mIncrements[i];
+        }
+        mCount++;
+
+        for (int i = 1; i < 4; i++) {
+            double d = mDesired[i] - mPositions[i];
+
+            if ((d >= 1 && mPositions[i + 1] - mPositions[i] > 1)
+                    || (d <= -1 && mPositions[i - 1] - mPositions[i] < -1)) {
+                int step = d > 0 ? 1 : -1;
+                double height = parabolic(i, step);
+
+                if (mHeights[i - 1] < height && height < mHeights[i + 1]) {
+                    mHeights[i] = height;
+                } else {
+                    mHeights[i] += step * (mHeights[i + step] - mHeights[i])
+                            / (mPositions[i + step] - mPositions[i]);
+                }
+                mPositions[i] += step;
+            }
+        }
+    }
+
+    @Override
+    public double value() {
+        if (mCount == 0) {
+            return Double.NaN;
+        }
+        if (mCount < 5) {
+            // Nearest rank over the sorted values seen so far
+            return mHeights[(int) Math.round(mQuantile * (mCount - 1))];
+        }
+        return mHeights[2];
+    }
+
+    @Override
+    public void reset() {
+        mCount = 0;
+        for (int i = 0; i < 5; i++) {
+            mPositions[i] = i + 1;
+        }
+        mDesired[0] = 1;
+        mDesired[1] = 1 + 2 * mQuantile;
+        mDesired[2] = 1 + 4 * mQuantile;
+        mDesired[3] = 3 + 2 * mQuantile;
+        mDesired[4] = 5;
+    }
+
+    public long count() {
+        return mCount;
+    }
+
+    private double parabolic(int i, int step) {
+        double below = mPositions[i] - mPositions[i - 1];
+        double above = mPositions[i + 1] - mPositions[i];
+
+        return mHeights[i] + step / (double) (mPositions[i + 1] - mPositions[i - 1])
+                * ((below + step) * (mHeights[i + 1] - mHeights[i]) / above
+                + (above - step) * (mHeights[i] - mHeights[i - 1]) / below);
+    }
+}
@@ -0,0 +1,63 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Identifiers for the decoded reading channels that are stored and exported.
+ */
+public final class ReadingChannel {
+    public static final int TEMPERATURE = 0;
+    public static final int HUMIDITY = 1;
+    public static final int PRESSURE = 2;
+
+    // Derived by DerivedMetrics from the raw channels above
+    public static final int DEW_POINT = 3;
+    public static final int HEAT_INDEX = 4;
+    public static final int PRESSURE_TREND = 5;
+
+    // Number of known channels, channel ids are 0..COUNT-1
+    public static final int COUNT = 6;
+
+    private static final String[] NAMES = {
+            "temperature",
+            "humidity",
+            "pressure",
+            "dew_point",
+            "heat_index",
+            "pressure_trend"
+    };
+
+    private ReadingChannel() {
+    }
+
+    // Lookup method for the stable channel name used in file names and exports
+    public static String name(int channel) {
+        if (channel < 0 || channel >= COUNT) {
+            throw new IllegalArgumentException("Unknown channel: " + channel);
+        }
+        return NAMES[channel];
+    }
+
+    // Reverse lookup of name(int), returns -1 for unknown names
+    public static int fromName(String name) {
+        for (int i = 0; i < COUNT; i++) {
+            if (NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // True for channels computed from other channels rather than read from the sensor tag
+    public static boolean isDerived(int channel) {
+        return channel >= DEW_POINT && channel < COUNT;
+    }
+
+    // All channels in id order
+    public static int[] all() {
+        int[] channels = new int[COUNT];
+
+        for (int i = 0; i < COUNT; i++) {
+            channels[i] = i;
+        }
+        return channels;
+    }
+}
@@ -0,0 +1,396 @@
+package com.bryanford.weatherstation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Append-only history of decoded readings, one segment file per channel.
+ *
+ * A segment starts with a 16 byte file header (magic, version, origin) followed by a sequence
+ * of blocks.  Every block carries a 24 byte header (sample count, payload length, min time,
+ * max time) so that readers can skip whole blocks without touching their payload.  Samples
+ * are buffered in memory and written one full block at a time, with the payload compressed
+ * by a {@link GorillaEncoder}.
+ *
+ * Old blocks are removed by {@link #dropBefore(int, long)}, which rewrites the segment.  The
+ * origin is the stream offset of the first block, its position in everything ever written
+ * to the channel, so stream offsets stay valid across rewrites.  Version 2 segments have an
+ * 8 byte header without origin; they are still read and appended to, and upgraded when
+ * first rewritten.
+ *
+ * Times within a channel never go backwards, a sample older than its predecessor is stored
+ * with the predecessor's time.  Blocks are therefore ordered by time, which lets
+ * {@link #query(int, long, long)} binary search a {@link SegmentIndex}.
+ */
+public class ReadingLog {
+    static final int MAGIC = 0x57534C47;    // "WSLG"
+    static final int VERSION = 3;
+    static final int FILE_HEADER_SIZE = 16;
+    static final int VERSION_2 = 2;
+    static final int VERSION_2_HEADER_SIZE = 8;
+    static final int BLOCK_HEADER_SIZE = 24;
+
+    // Samples per block, also the granularity at which data becomes visible to readers
+    public static final int BLOCK_SAMPLES = 256;
+
+    // Bytes per transfer when a segment is rewritten
+    private static final long COPY_BYTES = 1024 * 1024;
+
+    private final File mDir;
+    private final Appender[] mAppenders = new Appender[ReadingChannel.COUNT];
+    private final SegmentIndex[] mIndexes = new SegmentIndex[ReadingChannel.COUNT];
+
+    // Held by dropBefore() for the whole rewrite, this only for its last step
+    private final Object mRewriteLock = new Object();
+
+    // Set by close(), appends fail from then on rather than reopen the segments
+    private boolean mClosed;
+
+    public ReadingLog(File dir) {
+        mDir = dir;
+    }
+
+    public File getDirectory() {
+        return mDir;
+    }
+
+    /**
+     * @param channel One of the {@link ReadingChannel} ids.
+     *
+     * @return The segment file backing the given channel.
+     */
+    public File segmentFile(int channel) {
+        return new File(mDir, ReadingChannel.name(channel) + ".seg");
+    }
+
+    /**
+     * Appends one sample to the channel.  The sample is buffered and reaches the disk once
+     * its block is full or {@link #flush()} is called.
+     *
+     * @param channel One of the {@link ReadingChannel} ids.
+     * @param time Sample time in milliseconds since the epoch.
+     * @param value Decoded sample value.
+     *
+     * @throws IOException If the log has been closed.
+     */
+    public synchronized void append(int channel, long time, double value) throws IOException {
+        if (mClosed) {
+            throw new IOException("Reading log is closed: " + mDir);
+        }
+        appender(channel).append(time, value);
+    }
+
+    /**
+     * Writes all partially filled blocks to disk.
+     */
+    public synchronized void flush() throws IOException {
+        for (Appender appender : mAppenders) {
+            if (appender != null) {
+                appender.writeBlock();
+            }
+        }
+    }
+
+    /**
+     * Flushes pending samples and releases the segment files.  Queries keep working, appends
+     * fail.
+     */
+    public synchronized void close() throws IOException {
+        IOException failure = null;
+
+        mClosed = true;
+
+        for (int i = 0; i < mAppenders.length; i++) {
+            if (mAppenders[i] != null) {
+                try {
+                    mAppenders[i].close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+                mAppenders[i] = null;
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Opens a cursor over the samples of a channel in [from, to).  Only the blocks whose
+     * time range overlaps the query are read.  Samples still buffered by
+     * {@link #append(int, long, double)} are not visible.
+     *
+     * @param channel One of the {@link ReadingChannel} ids.
+     * @param from Inclusive start time in milliseconds since the epoch.
+     * @param to Exclusive end time in milliseconds since the epoch.
+     *
+     * @return A cursor the caller must close, empty if nothing is stored for the channel.
+     */
+    public SampleCursor query(int channel, long from, long to) throws IOException {
+        File file = segmentFile(channel);
+
+        if (!file.exists()) {
+            return new SampleCursor(null, null, 0, from, to);
+        }
+
+        SegmentReader reader = null;
+        SegmentIndex index;
+        int blocks;
+
+        try {
+            synchronized (this) {
+                // Opened under the lock so a rewrite cannot come between reader and index
+                reader = new SegmentReader(file);
+
+                // Pick up blocks written since the last query, possibly by another instance
+                index = index(channel);
+                if (!index.refresh(reader.channel())) {
+                    // Rewritten since, possibly by another instance
+                    index = new SegmentIndex();
+                    index.refresh(reader.channel());
+                    mIndexes[channel] = index;
+                }
+                blocks = index.size();
+            }
+        } catch (IOException e) {
+            if (reader != null) {
+                reader.close();
+            }
+            throw e;
+        }
+        return new SampleCursor(reader, index, blocks, from, to);
+    }
+
+    /**
+     * Removes the blocks of a channel that end before the given time, by copying the rest
+     * to a new segment that then replaces the old one.  The remaining blocks keep their
+     * stream offsets, and cursors opened before go on reading the old segment.
+     *
+     * The bulk of the copy happens without holding the log, appends only wait while the
+     * blocks written during the copy are added and the new segment is swapped in.  Only
+     * the instance that appends to the channel may drop blocks from it.
+     *
+     * @param channel One of the {@link ReadingChannel} ids.
+     * @param time Blocks whose samples are all older are dropped.
+     *
+     * @return Number of bytes freed.
+     */
+    public long dropBefore(int channel, long time) throws IOException {
+        synchronized (mRewriteLock) {
+            final File file = segmentFile(channel);
+            if (!file.exists()) {
+                return 0;
+            }
+
+            final SegmentReader reader = new SegmentReader(file);
+            final FileChannel source = reader.channel();
+            final File temp = new File(mDir, file.getName() + ".tmp");
+            FileChannel target = null;
+
+            try {
+                final SegmentIndex index = new SegmentIndex();
+                index.refresh(source);
+
+                final int blocks = index.size();
+                final int first = index.firstBlockEndingAtOrAfter(time, blocks);
+                if (first == 0) {
+                    return 0;
+                }
+
+                final long start = first < blocks ? index.offset(first) : index.end();
+                final long origin = first < blocks ? index.streamOffset(first) : index.streamEnd();
+                final long freed;
+
+                target = new RandomAccessFile(temp, "rw").getChannel();
+                target.truncate(0);
+
+                final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(origin).flip();
+                target.write(header, 0);
+                target.position(FILE_HEADER_SIZE);
+                copy(source, start, index.end(), target);
+
+                // Synced now, so that under the lock only the tail is left to sync
+                target.force(true);
+
+                synchronized (this) {
+                    // Blocks are written under this lock, so the segment ends on a block
+                    final long size = source.size();
+                    copy(source, index.end(), size, target);
+                    freed = size - target.size();
+                    target.force(true);
+                    target.close();
+
+                    if (!temp.renameTo(file)) {
+                        throw new IOException("Unable to replace " + file);
+                    }
+                    if (mAppenders[channel] != null) {
+                        mAppenders[channel].reopen(file);
+                    }
+                    mIndexes[channel] = null;
+                }
+                return freed;
+            } finally {
+                reader.close();
+                if (target != null) {
+                    target.close();
+                }
+                temp.delete();
+            }
+        }
+    }
+
+    private SegmentIndex index(int channel) {
+        if (mIndexes[channel] == null) {
+            mIndexes[channel] = new SegmentIndex();
+        }
+        return mIndexes[channel];
+    }
+
+    private Appender appender(int channel) throws IOException {
+        Appender appender = mAppenders[channel];
+
+        if (appender == null) {
+            if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                throw new IOException("Unable to create " + mDir);
+            }
+            appender = new Appender(segmentFile(channel));
+            mAppenders[channel] = appender;
+        }
+        return appender;
+    }
+
+    /**
+     * Checks a file header of either version.
+     *
+     * @param header Up to {@link #FILE_HEADER_SIZE} bytes from the start of the segment.
+     * @param read Number of bytes read into the header.
+     */
+    static void checkFileHeader(ByteBuffer header, int read, File file) throws IOException {
+        if (read < VERSION_2_HEADER_SIZE || header.getInt(0) != MAGIC
+                || (header.getInt(4) != VERSION || read < FILE_HEADER_SIZE)
+                && header.getInt(4) != VERSION_2) {
+            throw new IOException("Not a reading segment: " + file);
+        }
+    }
+
+    // Size of a checked file header
+    static int headerSize(ByteBuffer header) {
+        return header.getInt(4) == VERSION_2 ? VERSION_2_HEADER_SIZE : FILE_HEADER_SIZE;
+    }
+
+    // Stream offset of the first block of a checked file header
+    static long origin(ByteBuffer header) {
+        return header.getInt(4) == VERSION_2 ? VERSION_2_HEADER_SIZE : header.getLong(8);
+    }
+
+    private static void copy(FileChannel source, long from, long to, FileChannel target)
+            throws IOException {
+        long position = from;
+
+        while (position < to) {
+            position += source.transferTo(position, Math.min(to - position, COPY_BYTES),
+                    target);
+        }
+    }
+
+    /**
+     * Buffers samples of a single channel and writes them out block by block.
+     */
+    private static class Appender {
+        private FileChannel mChannel;
+        private final long[] mTimes = new long[BLOCK_SAMPLES];
+        private final double[] mValues = new double[BLOCK_SAMPLES];
+        private final ByteBuffer mHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        private final GorillaEncoder mEncoder = new GorillaEncoder(BLOCK_SAMPLES);
+        private final ByteBuffer mPayload = ByteBuffer.wrap(mEncoder.buffer());
+        private long mLastTime = Long.MIN_VALUE;
+        private int mCount;
+
+        Appender(File file) throws IOException {
+            mChannel = new RandomAccessFile(file, "rw").getChannel();
+
+            if (mChannel.size() <= VERSION_2_HEADER_SIZE) {
+                // New, or a version 2 segment without blocks that is upgraded in passing
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                header.putInt(MAGIC).putInt(VERSION).putLong(FILE_HEADER_SIZE).flip();
+                mChannel.truncate(0);
+                mChannel.write(header, 0);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE);
+                checkFileHeader(header, mChannel.read(header, 0), file);
+
+                // Drop a block that was only partially written before a crash
+                SegmentIndex index = new SegmentIndex();
+                index.refresh(mChannel);
+                mChannel.truncate(index.end());
+
+                if (index.size() > 0) {
+                    mLastTime = index.maxTime(index.size() - 1);
+                }
+            }
+            mChannel.position(mChannel.size());
+        }
+
+        void append(long time, double value) throws IOException {
+            // Keep the segment ordered across wall clock adjustments
+            if (time < mLastTime) {
+                time = mLastTime;
+            }
+            mLastTime = time;
+
+            mTimes[mCount] = time;
+            mValues[mCount] = value;
+
+            if (++mCount == BLOCK_SAMPLES) {
+                writeBlock();
+            }
+        }
+
+        void writeBlock() throws IOException {
+            if (mCount == 0) {
+                return;
+            }
+
+            mEncoder.begin(mTimes[0]);
+            for (int i = 0; i < mCount; i++) {
+                mEncoder.add(mTimes[i], mValues[i]);
+            }
+
+            mHeader.clear();
+            mHeader.putInt(mCount).putInt(mEncoder.length())
+                    .putLong(mTimes[0]).putLong(mTimes[mCount - 1]);
+            mHeader.flip();
+
+            mPayload.clear();
+            mPayload.limit(mEncoder.length());
+
+            while (mHeader.hasRemaining()) {
+                mChannel.write(mHeader);
+            }
+            while (mPayload.hasRemaining()) {
+                mChannel.write(mPayload);
+            }
+            mCount = 0;
+        }
+
+        // Continues in the segment that replaced the one being appended to
+        void reopen(File file) throws IOException {
+            mChannel.close();
+            mChannel = new RandomAccessFile(file, "rw").getChannel();
+            mChannel.position(mChannel.size());
+        }
+
+        void close() throws IOException {
+            try {
+                writeBlock();
+            } finally {
+                mChannel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.bryanford.weatherstation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Immutable latest value and time of every {@link ReadingChannel} for one device.  Updates
+ * return a new snapshot, so a reference to one can be swapped atomically and read from any
+ * thread without locking.
+ *
+ * File layout, all values big endian:
+ * <pre>
+ *   int magic "WSLV", int version, modified UTF-8 device address ("" if none),
+ *   byte channel count, then per channel: long time, double value
+ * </pre>
+ */
+public final class ReadingSnapshot {
+    public static final int MAGIC = 0x57534C56;   // "WSLV"
+    public static final int VERSION = 1;
+
+    public static final ReadingSnapshot EMPTY = new ReadingSnapshot(null);
+
+    private final String mDeviceAddress;
+    private final long[] mTimes;
+    private final double[] mValues;
+
+    private ReadingSnapshot(String deviceAddress, long[] times, double[] values) {
+        mDeviceAddress = deviceAddress;
+        mTimes = times;
+        mValues = values;
+    }
+
+    /**
+     * @param deviceAddress Device the readings come from, may be null.
+     */
+    public ReadingSnapshot(String deviceAddress) {
+        this(deviceAddress, new long[ReadingChannel.COUNT], new double[ReadingChannel.COUNT]);
+        Arrays.fill(mValues, Double.NaN);
+    }
+
+    /**
+     * @return A copy of this snapshot with the channel set to the value, or this snapshot if
+     *         the value is older than the one already held.
+     */
+    public ReadingSnapshot with(int channel, long time, double value) {
+        if (time < mTimes[channel]) {
+            return this;
+        }
+
+        final long[] times = mTimes.clone();
+        final double[] values = mValues.clone();
+        times[channel] = time;
+        values[channel] = value;
+        return new ReadingSnapshot(mDeviceAddress, times, values);
+    }
+
+    public String getDeviceAddress() {
+        return mDeviceAddress;
+    }
+
+    public boolean has(int channel) {
+        return !Double.isNaN(mValues[channel]);
+    }
+
+    // Latest value, NaN if the channel has none
+    public double value(int channel) {
+        return mValues[channel];
+    }
+
+    // Time of the latest value in milliseconds since the epoch, 0 if the channel has none
+    public long time(int channel) {
+        return mTimes[channel];
+    }
+
+    // Time of the most recent value on any channel, 0 if there is none
+    public long latestTime() {
+        long latest = 0;
+
+        for (long time : mTimes) {
+            latest = Math.max(latest, time);
+        }
+        return latest;
+    }
+
+    /**
+     * Writes the snapshot to a temporary file and renames it over the destination, so a
+     * reader never sees a partial file.
+     */
+    public void save(File file) throws IOException {
+        final File temp = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp)));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(mDeviceAddress == null ? "" : mDeviceAddress);
+            out.writeByte(ReadingChannel.COUNT);
+            for (int channel = 0; channel < ReadingChannel.COUNT; channel++) {
+                out.writeLong(mTimes[channel]);
+                out.writeDouble(mValues[channel]);
+            }
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #save(File)}.  Channels the file does not know stay
+     * empty, channels this build does not know are skipped.
+     */
+    public static ReadingSnapshot load(File file) throws IOException {
+        final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a reading snapshot: " + file);
+            }
+
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+
+            final String address = in.readUTF();
+            final int count = in.readUnsignedByte();
+            final ReadingSnapshot snapshot =
+                    new ReadingSnapshot(address.isEmpty() ? null : address);
+
+            for (int channel = 0; channel < count; channel++) {
+                long time = in.readLong();
+                double value = in.readDouble();
+
+                if (channel < ReadingChannel.COUNT) {
+                    snapshot.mTimes[channel] = time;
+                    snapshot.mValues[channel] = value;
+                }
+            }
+            return snapshot;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.bryanford.weatherstation;
+
+/**
+ * How long {@link HistoryCompactor} keeps each tier of the history: raw samples, then
+ * one-minute means, then hourly means for good.  The disk budget overrides the ages, raw and
+ * then minute data go early once the history outgrows it.
+ */
+public class RetentionPolicy {
+    public static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    public static final long WEEK_MILLIS = 7 * DAY_MILLIS;
+
+    private final long mRawMillis;
+    private final long mMinuteMillis;
+    private final long mBudgetBytes;
+
+    /**
+     * @param rawMillis Age up to which raw samples are kept.
+     * @param minuteMillis Age up to which one-minute means are kept, at least rawMillis.
+     * @param budgetBytes Disk space all tiers together should stay within.
+     */
+    public RetentionPolicy(long rawMillis, long minuteMillis, long budgetBytes) {
+        if (rawMillis <= 0 || minuteMillis < rawMillis || budgetBytes <= 0) {
+            throw new IllegalArgumentException("Invalid retention: raw " + rawMillis
+                    + " ms, minutes " + minuteMillis + " ms, budget " + budgetBytes);
+        }
+        mRawMillis = rawMillis;
+        mMinuteMillis = minuteMillis;
+        mBudgetBytes = budgetBytes;
+    }
+
+    public long getRawMillis() {
+        return mRawMillis;
+    }
+
+    public long getMinuteMillis() {
+        return mMinuteMillis;
+    }
+
+    public long getBudgetBytes() {
+        return mBudgetBytes;
+    }
+}
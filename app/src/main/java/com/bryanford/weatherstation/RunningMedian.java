@@ -0,0 +1,225 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Median of the last N values.  The window is kept in an order statistic tree, a treap
+ * whose nodes live in primitive arrays indexed by window slot, so adding a value, evicting
+ * the oldest one and selecting by rank are all O(log n) and nothing is allocated after
+ * construction.
+ *
+ * {@link #select(int)} and {@link #countBelow(double)} expose the order statistics for
+ * robust estimators built on the same window, e.g. {@link HampelFilter}.
+ */
+public class RunningMedian implements StreamOperator {
+    private static final int NIL = -1;
+
+    private final int mWindow;
+
+    // Tree nodes, node i holds the value pushed into window slot i
+    private final double[] mValues;
+    private final long[] mSequence;
+    private final int[] mLeft;
+    private final int[] mRight;
+    private final int[] mSize;
+    private final int[] mPriority;
+
+    private int mRoot = NIL;
+    private long mCount;
+    private int mRandom = 0x2545F491;
+
+    // Results of split(), kept in fields so splitting does not allocate
+    private int mSplitLeft;
+    private int mSplitRight;
+
+    /**
+     * @param window Number of most recent values covered.
+     */
+    public RunningMedian(int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("Invalid window: " + window);
+        }
+        mWindow = window;
+        mValues = new double[window];
+        mSequence = new long[window];
+        mLeft = new int[window];
+        mRight = new int[window];
+        mSize = new int[window];
+        mPriority = new int[window];
+    }
+
+    @Override
+    public void push(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        int node = (int) (mCount % mWindow);
+
+        if (mCount >= mWindow) {
+            mRoot = remove(mRoot, node);
+        }
+
+        mValues[node] = value;
+        mSequence[node] = mCount;
+        mLeft[node] = NIL;
+        mRight[node] = NIL;
+        mSize[node] = 1;
+        mPriority[node] = nextPriority();
+        mRoot = insert(mRoot, node);
+        mCount++;
+    }
+
+    @Override
+    public double value() {
+        int size = size();
+
+        if (size == 0) {
+            return Double.NaN;
+        }
+        if (size % 2 == 1) {
+            return select(size / 2);
+        }
+        return (select(size / 2 - 1) + select(size / 2)) / 2;
+    }
+
+    @Override
+    public void reset() {
+        mRoot = NIL;
+        mCount = 0;
+    }
+
+    // Number of values in the window
+    public int size() {
+        return mRoot == NIL ? 0 : mSize[mRoot];
+    }
+
+    /**
+     * @param rank 0 for the smallest value in the window, size() - 1 for the largest.
+     */
+    public double select(int rank) {
+        int node = mRoot;
+
+        while (node != NIL) {
+            int leftSize = size(mLeft[node]);
+
+            if (rank < leftSize) {
+                node = mLeft[node];
+            } else if (rank == leftSize) {
+                return mValues[node];
+            } else {
+                rank -= leftSize + 1;
+                node = mRight[node];
+            }
+        }
+        throw new IndexOutOfBoundsException("Rank out of range: " + rank);
+    }
+
+    // Number of values in the window strictly less than the given one
+    public int countBelow(double value) {
+        int node = mRoot;
+        int count = 0;
+
+        while (node != NIL) {
+            if (mValues[node] < value) {
+                count += size(mLeft[node]) + 1;
+                node = mRight[node];
+            } else {
+                node = mLeft[node];
+            }
+        }
+        return count;
+    }
+
+    private int insert(int tree, int node) {
+        if (tree == NIL) {
+            return node;
+        }
+
+        if (mPriority[node] > mPriority[tree]) {
+            split(tree, node);
+            mLeft[node] = mSplitLeft;
+            mRight[node] = mSplitRight;
+            update(node);
+            return node;
+        }
+
+        if (less(node, tree)) {
+            mLeft[tree] = insert(mLeft[tree], node);
+        } else {
+            mRight[tree] = insert(mRight[tree], node);
+        }
+        update(tree);
+        return tree;
+    }
+
+    private int remove(int tree, int node) {
+        if (tree == node) {
+            return merge(mLeft[node], mRight[node]);
+        }
+
+        if (less(node, tree)) {
+            mLeft[tree] = remove(mLeft[tree], node);
+        } else {
+            mRight[tree] = remove(mRight[tree], node);
+        }
+        update(tree);
+        return tree;
+    }
+
+    // Splits the tree into nodes ordered before the key node and nodes after it
+    private void split(int tree, int key) {
+        if (tree == NIL) {
+            mSplitLeft = NIL;
+            mSplitRight = NIL;
+        } else if (less(tree, key)) {
+            split(mRight[tree], key);
+            mRight[tree] = mSplitLeft;
+            update(tree);
+            mSplitLeft = tree;
+        } else {
+            split(mLeft[tree], key);
+            mLeft[tree] = mSplitRight;
+            update(tree);
+            mSplitRight = tree;
+        }
+    }
+
+    private int merge(int left, int right) {
+        if (left == NIL) {
+            return right;
+        }
+        if (right == NIL) {
+            return left;
+        }
+
+        if (mPriority[left] > mPriority[right]) {
+            mRight[left] = merge(mRight[left], right);
+            update(left);
+            return left;
+        }
+        mLeft[right] = merge(left, mLeft[right]);
+        update(right);
+        return right;
+    }
+
+    // Orders by value, ties by arrival so every node has a distinct key
+    private boolean less(int a, int b) {
+        return mValues[a] < mValues[b]
+                || (mValues[a] == mValues[b] && mSequence[a] < mSequence[b]);
+    }
+
+    private void update(int node) {
+        mSize[node] = size(mLeft[node]) + size(mRight[node]) + 1;
+    }
+
+    private int size(int node) {
+        return node == NIL ? 0 : mSize[node];
+    }
+
+    // Xorshift, good enough to keep the treap balanced
+    private int nextPriority() {
+        mRandom ^= mRandom << 13;
+        mRandom ^= mRandom >>> 17;
+        mRandom ^= mRandom << 5;
+        return mRandom;
+    }
+}
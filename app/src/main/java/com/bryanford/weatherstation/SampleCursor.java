@@ -0,0 +1,115 @@
+package com.bryanford.weatherstation;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Forward-only cursor over the stored samples of one channel within a time range.  Values
+ * are exposed as primitives, call {@link #next()} before reading each sample:
+ *
+ * <pre>
+ *   SampleCursor cursor = log.query(ReadingChannel.PRESSURE, from, to);
+ *   try {
+ *       while (cursor.next()) {
+ *           plot(cursor.time(), cursor.value());
+ *       }
+ *   } finally {
+ *       cursor.close();
+ *   }
+ * </pre>
+ */
+public class SampleCursor implements Closeable {
+    private final SegmentReader mReader;
+    private final SegmentIndex mIndex;
+    private final int mBlocks;
+    private final long mFrom;
+    private final long mTo;
+
+    private int mBlock;
+    private int mPosition;
+    private boolean mDone;
+
+    /**
+     * @param reader Reader of the segment, closed with the cursor.  Null for an empty cursor.
+     * @param index Index of the segment.
+     * @param blocks Number of index entries visible to this cursor.
+     * @param from Inclusive start time in milliseconds since the epoch.
+     * @param to Exclusive end time in milliseconds since the epoch.
+     */
+    SampleCursor(SegmentReader reader, SegmentIndex index, int blocks, long from, long to) {
+        mReader = reader;
+        mIndex = index;
+        mBlocks = blocks;
+        mFrom = from;
+        mTo = to;
+        mDone = reader == null;
+
+        if (!mDone) {
+            // Only the blocks from here on can overlap the range
+            mBlock = index.firstBlockEndingAtOrAfter(from, blocks) - 1;
+        }
+    }
+
+    /**
+     * Moves to the next sample in range.
+     *
+     * @return False once the range is exhausted.
+     */
+    public boolean next() throws IOException {
+        if (mDone) {
+            return false;
+        }
+
+        while (++mPosition >= mReader.count()) {
+            if (++mBlock >= mBlocks || mIndex.minTime(mBlock) >= mTo) {
+                mDone = true;
+                return false;
+            }
+
+            mReader.readBlock(mIndex, mBlock);
+            mPosition = lowerBound(mReader.times(), mReader.count(), mFrom) - 1;
+        }
+
+        if (mReader.times()[mPosition] >= mTo) {
+            mDone = true;
+            return false;
+        }
+        return true;
+    }
+
+    // Time of the current sample in milliseconds since the epoch
+    public long time() {
+        return mReader.times()[mPosition];
+    }
+
+    // Value of the current sample
+    public double value() {
+        return mReader.values()[mPosition];
+    }
+
+    @Override
+    public void close() throws IOException {
+        mDone = true;
+
+        if (mReader != null) {
+            mReader.close();
+        }
+    }
+
+    // First position whose time is at or after the given time
+    private static int lowerBound(long[] times, int count, long time) {
+        int low = 0;
+        int high = count;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (times[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,16 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Receives decoded samples as they are published by {@link BluetoothService}, raw and
+ * derived alike.  Called on the service's decode thread, so implementations must return
+ * quickly and should not allocate per sample.
+ */
+public interface SampleListener {
+    /**
+     * @param channel One of the {@link ReadingChannel} ids.
+     * @param time Sample time in milliseconds since the epoch, taken from the monotonic
+     *             clock when the delivering GATT callback was entered.
+     * @param value Decoded sample value.
+     */
+    void onSample(int channel, long time, double value);
+}
@@ -0,0 +1,163 @@
+package com.bryanford.weatherstation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Sparse in-memory index over the blocks of a {@link ReadingLog} segment.  Holds one entry
+ * per block (file offset and time range) so a range query can binary search its first
+ * block and then read only the blocks it needs.
+ *
+ * Entries are only ever appended by {@link #refresh(FileChannel)}, which callers serialize.
+ * Readers take {@link #size()} once and may then use every entry below it without locking.
+ *
+ * Offsets are positions in the segment file.  Stream offsets add the segment's origin, they
+ * do not change when {@link ReadingLog#dropBefore(int, long)} rewrites the segment.
+ */
+public class SegmentIndex {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ByteBuffer mFileHeader = ByteBuffer.allocate(ReadingLog.FILE_HEADER_SIZE);
+    private final ByteBuffer mHeader = ByteBuffer.allocate(ReadingLog.BLOCK_HEADER_SIZE);
+
+    private long[] mOffsets = new long[INITIAL_CAPACITY];
+    private long[] mMinTimes = new long[INITIAL_CAPACITY];
+    private long[] mMaxTimes = new long[INITIAL_CAPACITY];
+    private int[] mCounts = new int[INITIAL_CAPACITY];
+    private int[] mLengths = new int[INITIAL_CAPACITY];
+    private volatile int mSize;
+
+    // File header of the indexed segment, mHeaderSize is 0 until the first refresh
+    private int mHeaderSize;
+    private long mOrigin;
+
+    // File offset just past the last indexed block
+    private long mEnd;
+
+    /**
+     * Indexes the complete blocks appended to the segment since the last refresh.  Only the
+     * block headers are read.
+     *
+     * @return False, leaving the index as it was, if the channel is not the segment the
+     *         index was built from, as after a rewrite.
+     */
+    public boolean refresh(FileChannel channel) throws IOException {
+        mFileHeader.clear();
+        channel.read(mFileHeader, 0);
+
+        int headerSize = ReadingLog.headerSize(mFileHeader);
+        long origin = ReadingLog.origin(mFileHeader);
+        if (mHeaderSize == 0) {
+            mHeaderSize = headerSize;
+            mOrigin = origin;
+            mEnd = headerSize;
+        } else if (headerSize != mHeaderSize || origin != mOrigin) {
+            return false;
+        }
+
+        long size = channel.size();
+
+        while (mEnd + ReadingLog.BLOCK_HEADER_SIZE <= size) {
+            mHeader.clear();
+            channel.read(mHeader, mEnd);
+
+            int length = mHeader.getInt(4);
+            long next = mEnd + ReadingLog.BLOCK_HEADER_SIZE + length;
+
+            if (next > size) {
+                // Block is still being written
+                break;
+            }
+
+            add(mEnd, mHeader.getInt(0), length, mHeader.getLong(8), mHeader.getLong(16));
+            mEnd = next;
+        }
+        return true;
+    }
+
+    // File offset just past the last complete block
+    public long end() {
+        return mEnd;
+    }
+
+    // Stream offset just past the last complete block
+    public long streamEnd() {
+        return mOrigin + mEnd - mHeaderSize;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public long offset(int block) {
+        return mOffsets[block];
+    }
+
+    public long streamOffset(int block) {
+        return mOrigin + mOffsets[block] - mHeaderSize;
+    }
+
+    public int count(int block) {
+        return mCounts[block];
+    }
+
+    public int length(int block) {
+        return mLengths[block];
+    }
+
+    public long minTime(int block) {
+        return mMinTimes[block];
+    }
+
+    public long maxTime(int block) {
+        return mMaxTimes[block];
+    }
+
+    /**
+     * Binary searches the first block that may hold samples at or after the given time.
+     *
+     * @param time Time in milliseconds since the epoch.
+     * @param size Number of entries to search, as returned by {@link #size()}.
+     *
+     * @return The block index, or size if every block ends before the time.
+     */
+    public int firstBlockEndingAtOrAfter(long time, int size) {
+        int low = 0;
+        int high = size;
+
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+
+            if (mMaxTimes[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private void add(long offset, int count, int length, long minTime, long maxTime) {
+        int size = mSize;
+
+        if (size == mOffsets.length) {
+            int capacity = size * 2;
+            mOffsets = Arrays.copyOf(mOffsets, capacity);
+            mMinTimes = Arrays.copyOf(mMinTimes, capacity);
+            mMaxTimes = Arrays.copyOf(mMaxTimes, capacity);
+            mCounts = Arrays.copyOf(mCounts, capacity);
+            mLengths = Arrays.copyOf(mLengths, capacity);
+        }
+
+        mOffsets[size] = offset;
+        mMinTimes[size] = minTime;
+        mMaxTimes[size] = maxTime;
+        mCounts[size] = count;
+        mLengths[size] = length;
+
+        // Publish the entry to readers
+        mSize = size + 1;
+    }
+}
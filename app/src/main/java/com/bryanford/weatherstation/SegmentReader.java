@@ -0,0 +1,81 @@
+package com.bryanford.weatherstation;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads single blocks of a {@link ReadingLog} segment into reusable primitive arrays, so
+ * memory use is bounded by the block size regardless of the history length.
+ */
+public class SegmentReader implements Closeable {
+    private final FileChannel mChannel;
+    private final ByteBuffer mPayload =
+            ByteBuffer.allocate(GorillaEncoder.maxBytes(ReadingLog.BLOCK_SAMPLES));
+    private final GorillaDecoder mDecoder = new GorillaDecoder();
+    private final long[] mTimes = new long[ReadingLog.BLOCK_SAMPLES];
+    private final double[] mValues = new double[ReadingLog.BLOCK_SAMPLES];
+    private int mCount;
+
+    public SegmentReader(File file) throws IOException {
+        mChannel = new RandomAccessFile(file, "r").getChannel();
+
+        ByteBuffer header = ByteBuffer.allocate(ReadingLog.FILE_HEADER_SIZE);
+        try {
+            ReadingLog.checkFileHeader(header, mChannel.read(header, 0), file);
+        } catch (IOException e) {
+            mChannel.close();
+            throw e;
+        }
+    }
+
+    FileChannel channel() {
+        return mChannel;
+    }
+
+    /**
+     * Loads the payload of an indexed block.
+     *
+     * @param index Index of this reader's segment.
+     * @param block Block number, below the index size.
+     */
+    public void readBlock(SegmentIndex index, int block) throws IOException {
+        long payloadStart = index.offset(block) + ReadingLog.BLOCK_HEADER_SIZE;
+        int count = index.count(block);
+
+        mPayload.clear();
+        mPayload.limit(index.length(block));
+        while (mPayload.hasRemaining()) {
+            if (mChannel.read(mPayload, payloadStart + mPayload.position()) < 0) {
+                throw new IOException("Unexpected end of reading segment");
+            }
+        }
+
+        mDecoder.begin(mPayload.array(), index.minTime(block));
+        mDecoder.decode(mTimes, mValues, count);
+        mCount = count;
+    }
+
+    // Number of samples in the current block
+    public int count() {
+        return mCount;
+    }
+
+    // Sample times of the current block, valid up to count()
+    public long[] times() {
+        return mTimes;
+    }
+
+    // Sample values of the current block, valid up to count()
+    public double[] values() {
+        return mValues;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mChannel.close();
+    }
+}
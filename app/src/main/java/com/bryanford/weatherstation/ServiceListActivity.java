@@ -4,11 +4,15 @@ import android.app.AlertDialog;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.os.IBinder;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v7.app.AppCompatActivity;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -18,17 +22,25 @@ import android.widget.ListAdapter;
 import android.widget.ListView;
 
 import java.util.List;
+import java.util.UUID;
 
 public class ServiceListActivity extends AppCompatActivity implements ServiceListFragment.OnItemSelectedListener{
     // Constant to get bt service list to display
     public static final String EXTRA_LIST_VIEW
             = "com.bryanford.weatherstation.list_view";
 
+    // Cached characteristic values younger than this are not read again
+    private static final long VALUE_MAX_AGE = 5000;
+
     private List<BluetoothGattService> mGattServices;
     private ServiceListFragment mServiceListFragment;
     private BluetoothService mBluetoothService;
     private String gattServicesNames[];
 
+    // Characteristic dialog of the selected service, updated as reads complete
+    private BluetoothGattService mSelectedService;
+    private AlertDialog mCharDialog;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -43,6 +55,10 @@ public class ServiceListActivity extends AppCompatActivity implements ServiceLis
         Intent gattServiceIntent = new Intent(this, BluetoothService.class);
         bindService(gattServiceIntent, mServiceConnection, BIND_AUTO_CREATE);
 
+        // Listen for completed characteristic reads
+        registerReceiver(mReadReceiver,
+                new IntentFilter(BluetoothService.ACTION_CHARACTERISTIC_READ));
+
         mServiceListFragment = new ServiceListFragment();
         getFragmentManager().beginTransaction().replace(R.id.service_list_frame, mServiceListFragment).commit();
     }
@@ -51,6 +67,11 @@ public class ServiceListActivity extends AppCompatActivity implements ServiceLis
     protected void onDestroy() {
         super.onDestroy();
 
+        if (mCharDialog != null) {
+            mCharDialog.dismiss();
+        }
+
+        unregisterReceiver(mReadReceiver);
         unbindService(mServiceConnection);
         mBluetoothService = null;
     }
@@ -106,6 +127,9 @@ public class ServiceListActivity extends AppCompatActivity implements ServiceLis
                 }
 
                 mServiceListFragment.setListAdapter(gattServicesNames);
+
+                // Fetch the values of everything readable in one pipelined pass
+                mBluetoothService.readAllCharacteristics(null, VALUE_MAX_AGE);
             }
         }
 
@@ -115,26 +139,66 @@ public class ServiceListActivity extends AppCompatActivity implements ServiceLis
         }
     };
 
+    // Re-render the open dialog when one of its characteristics has been read
+    private final BroadcastReceiver mReadReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (mCharDialog == null || !mCharDialog.isShowing() || mSelectedService == null) {
+                return;
+            }
+
+            UUID uuid = UUID.fromString(intent.getStringExtra(BluetoothService.EXTRA_UUID));
+            if (mSelectedService.getCharacteristic(uuid) != null) {
+                mCharDialog.setMessage(buildCharacteristicText(mSelectedService));
+            }
+        }
+    };
+
     @Override
     public void onDeviceListItemSelected(ListView l, View v, int position, long id) {
         AlertDialog.Builder charDialog = new AlertDialog.Builder(this);
-        BluetoothGattService service = mGattServices.get(position);
-        String charListText = "";
-        AlertDialog charNotify;
-        int count = 0;
 
-
-        // Build the output string
-        for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
-            charListText += ++count + ". " + characteristic.getUuid().toString() + "\n";
-        }
+        mSelectedService = mGattServices.get(position);
 
         charDialog.setTitle("Characteristics");
-        charDialog.setMessage(charListText);
+        charDialog.setMessage(buildCharacteristicText(mSelectedService));
         charDialog.setCancelable(true);
 
-        charNotify = charDialog.create();
-        charNotify.show();
+        mCharDialog = charDialog.create();
+        mCharDialog.show();
+
+        // Refresh stale values, the dialog updates as they arrive
+        if (mBluetoothService != null) {
+            mBluetoothService.readAllCharacteristics(mSelectedService, VALUE_MAX_AGE);
+        }
     }
-}
 
+    // One line per characteristic with its decoded value and age
+    private String buildCharacteristicText(BluetoothGattService service) {
+        final StringBuilder text = new StringBuilder();
+        final long now = SystemClock.elapsedRealtime();
+        CharacteristicCache.Entry entry;
+        String name;
+        int count = 0;
+
+        for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+            name = DeviceTags.lookup(characteristic.getUuid());
+            entry = mBluetoothService != null
+                    ? mBluetoothService.getCharacteristicCache().get(characteristic.getUuid())
+                    : null;
+
+            text.append(++count).append(". ")
+                    .append(name != null ? name : characteristic.getUuid().toString());
+
+            if (entry != null) {
+                text.append("\n    ").append(entry.value)
+                        .append(" (").append((now - entry.time) / 1000).append(" s ago)");
+            } else if ((characteristic.getProperties()
+                    & BluetoothGattCharacteristic.PROPERTY_READ) != 0) {
+                text.append("\n    reading...");
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+}
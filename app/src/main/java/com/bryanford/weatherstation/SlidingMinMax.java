@@ -0,0 +1,81 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Minimum or maximum of the last N values, kept in a monotonic deque.  Each value enters
+ * and leaves the deque once, so pushes are amortized O(1).  The deque lives in fixed
+ * arrays sized to the window.
+ */
+public class SlidingMinMax implements StreamOperator {
+    public static final int MIN = 0;
+    public static final int MAX = 1;
+
+    private final int mWindow;
+    private final boolean mMax;
+
+    // Candidates in arrival order, values monotonic from head to tail
+    private final long[] mIndexes;
+    private final double[] mValues;
+    private int mHead;
+    private int mSize;
+
+    // Number of values pushed so far, also the index of the next one
+    private long mCount;
+
+    /**
+     * @param window Number of most recent values covered.
+     * @param kind {@link #MIN} or {@link #MAX}.
+     */
+    public SlidingMinMax(int window, int kind) {
+        if (window < 1 || (kind != MIN && kind != MAX)) {
+            throw new IllegalArgumentException("Invalid window " + window + " or kind " + kind);
+        }
+        mWindow = window;
+        mMax = kind == MAX;
+        mIndexes = new long[window];
+        mValues = new double[window];
+    }
+
+    @Override
+    public void push(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        // Expire the head before it would fall out of the window, which also makes room
+        if (mSize > 0 && mIndexes[mHead] <= mCount - mWindow) {
+            mHead = (mHead + 1) % mWindow;
+            mSize--;
+        }
+
+        // Drop candidates the new value dominates for as long as they would stay
+        while (mSize > 0) {
+            double last = mValues[slot(mSize - 1)];
+            if (mMax ? last > value : last < value) {
+                break;
+            }
+            mSize--;
+        }
+
+        int tail = slot(mSize);
+        mIndexes[tail] = mCount;
+        mValues[tail] = value;
+        mSize++;
+        mCount++;
+    }
+
+    @Override
+    public double value() {
+        return mSize > 0 ? mValues[mHead] : Double.NaN;
+    }
+
+    @Override
+    public void reset() {
+        mHead = 0;
+        mSize = 0;
+        mCount = 0;
+    }
+
+    private int slot(int offset) {
+        return (mHead + offset) % mWindow;
+    }
+}
@@ -0,0 +1,134 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Least squares line through the samples of a sliding time window, maintained with running
+ * sums.  Adding a sample and evicting the ones that left the window are O(1) each, the
+ * window is never rescanned.
+ *
+ * Times and values are kept relative to an origin to limit cancellation in the sums.  When
+ * the window drifts far from the origin the sums are shifted algebraically, which is also
+ * O(1).  Not thread safe.
+ */
+public class SlidingRegression {
+    private final long mWindow;
+    private final long[] mTimes;
+    private final double[] mValues;
+
+    private int mHead;
+    private int mCount;
+
+    // Origin of the sums, times are in milliseconds relative to mOriginTime
+    private long mOriginTime;
+    private double mOriginValue;
+
+    private double mSumT;
+    private double mSumY;
+    private double mSumTT;
+    private double mSumTY;
+
+    /**
+     * @param window Samples older than the newest one by more than this many milliseconds
+     *               are evicted.
+     * @param capacity Most samples held; the oldest is evicted early when it is reached.
+     */
+    public SlidingRegression(long window, int capacity) {
+        mWindow = window;
+        mTimes = new long[capacity];
+        mValues = new double[capacity];
+    }
+
+    /**
+     * Adds a sample and evicts those that fell out of the window.  Times should not go
+     * backwards.
+     */
+    public void add(long time, double value) {
+        while (mCount > 0 && (mCount == mTimes.length || time - mTimes[mHead] > mWindow)) {
+            removeOldest();
+        }
+
+        if (mCount == 0) {
+            // Also drops any rounding left in the sums
+            mOriginTime = time;
+            mOriginValue = value;
+            mSumT = mSumY = mSumTT = mSumTY = 0;
+        } else if (time - mOriginTime > 2 * mWindow) {
+            rebase(mTimes[mHead]);
+        }
+
+        int tail = (mHead + mCount) % mTimes.length;
+        mTimes[tail] = time;
+        mValues[tail] = value;
+        mCount++;
+
+        double t = time - mOriginTime;
+        double y = value - mOriginValue;
+        mSumT += t;
+        mSumY += y;
+        mSumTT += t * t;
+        mSumTY += t * y;
+    }
+
+    public void clear() {
+        mHead = 0;
+        mCount = 0;
+    }
+
+    public int count() {
+        return mCount;
+    }
+
+    // Milliseconds between the oldest and newest sample in the window
+    public long span() {
+        return mCount > 0 ? mTimes[(mHead + mCount - 1) % mTimes.length] - mTimes[mHead] : 0;
+    }
+
+    /**
+     * @return Slope in value units per millisecond, NaN with fewer than two distinct times.
+     */
+    public double slope() {
+        double denominator = mCount * mSumTT - mSumT * mSumT;
+
+        if (mCount < 2 || denominator <= 0) {
+            return Double.NaN;
+        }
+        return (mCount * mSumTY - mSumT * mSumY) / denominator;
+    }
+
+    /**
+     * @return The fitted value at the given time, NaN with fewer than two distinct times.
+     */
+    public double valueAt(long time) {
+        double slope = slope();
+
+        if (Double.isNaN(slope)) {
+            return Double.NaN;
+        }
+
+        double meanT = mSumT / mCount;
+        double meanY = mSumY / mCount;
+        return mOriginValue + meanY + slope * ((time - mOriginTime) - meanT);
+    }
+
+    private void removeOldest() {
+        double t = mTimes[mHead] - mOriginTime;
+        double y = mValues[mHead] - mOriginValue;
+
+        mSumT -= t;
+        mSumY -= y;
+        mSumTT -= t * t;
+        mSumTY -= t * y;
+
+        mHead = (mHead + 1) % mTimes.length;
+        mCount--;
+    }
+
+    // Moves the time origin, sum(t - d)^2 = sum(t^2) - 2d sum(t) + n d^2 and so on
+    private void rebase(long originTime) {
+        double d = originTime - mOriginTime;
+
+        mSumTT += -2 * d * mSumT + mCount * d * d;
+        mSumTY -= d * mSumY;
+        mSumT -= mCount * d;
+        mOriginTime = originTime;
+    }
+}
@@ -0,0 +1,237 @@
+package com.bryanford.weatherstation;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Durable FIFO of payloads, one file per entry named after its sequence number.  Entries are
+ * written to a temporary file and renamed, so a crash leaves either the whole entry or
+ * nothing, and entries left by an earlier run are picked up again when the queue is opened.
+ *
+ * The queue is bounded by size: adding an entry that takes it over the limit deletes the
+ * oldest entries, as recent readings are worth more than old ones.
+ *
+ * Sequence numbers are never reused, even once the queue has drained: a high-water mark is
+ * kept in a file of its own and raised a block of {@link #SEQUENCE_BLOCK} ahead of use.
+ */
+public class SpoolQueue {
+    private static final String SUFFIX = ".batch";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    // Holds the sequence number below which every number may have been handed out
+    private static final String SEQUENCE_FILE = "sequence";
+    public static final int SEQUENCE_BLOCK = 1024;
+
+    private final File mDir;
+    private final long mMaxBytes;
+
+    // Sequence to entry size, oldest first
+    private final TreeMap<Long, Integer> mEntries = new TreeMap<>();
+    private long mBytes;
+    private long mNextSequence;
+    private long mReservedSequence;
+    private long mDropped;
+
+    /**
+     * @param dir Directory holding the entries, created if needed.
+     * @param maxBytes Total size of the entries above which the oldest are dropped.
+     */
+    public SpoolQueue(File dir, long maxBytes) throws IOException {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Unable to list " + dir);
+        }
+
+        for (File file : files) {
+            final String name = file.getName();
+
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Interrupted write
+                file.delete();
+            } else if (name.endsWith(SUFFIX)) {
+                try {
+                    long sequence = Long.parseLong(
+                            name.substring(0, name.length() - SUFFIX.length()), 16);
+                    mEntries.put(sequence, (int) file.length());
+                    mBytes += file.length();
+                    mNextSequence = Math.max(mNextSequence, sequence + 1);
+                } catch (NumberFormatException e) {
+                    // Not ours
+                }
+            }
+        }
+
+        final File sequenceFile = new File(dir, SEQUENCE_FILE);
+        if (sequenceFile.exists()) {
+            final DataInputStream in = new DataInputStream(new FileInputStream(sequenceFile));
+            try {
+                mReservedSequence = in.readLong();
+            } finally {
+                in.close();
+            }
+        }
+        mNextSequence = Math.max(mNextSequence, mReservedSequence);
+    }
+
+    /**
+     * Writes an entry, dropping the oldest entries if the queue grows over its limit.
+     *
+     * @return Sequence number of the new entry.
+     */
+    public long add(byte[] payload) throws IOException {
+        final long sequence;
+
+        synchronized (this) {
+            // Raised before the number is used, so a restart never hands it out again
+            if (mNextSequence >= mReservedSequence) {
+                reserve(mNextSequence + SEQUENCE_BLOCK);
+            }
+            sequence = mNextSequence++;
+        }
+
+        final File file = file(sequence);
+        final File temp = new File(file.getPath() + TEMP_SUFFIX);
+        final FileOutputStream out = new FileOutputStream(temp);
+
+        try {
+            out.write(payload);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to write " + file);
+        }
+
+        synchronized (this) {
+            mEntries.put(sequence, payload.length);
+            mBytes += payload.length;
+
+            while (mBytes > mMaxBytes && mEntries.size() > 1) {
+                Map.Entry<Long, Integer> oldest = mEntries.firstEntry();
+                delete(oldest.getKey());
+                mDropped++;
+            }
+        }
+        return sequence;
+    }
+
+    /**
+     * @return Payload of the entry, or null if it has been removed or dropped.
+     */
+    public byte[] read(long sequence) throws IOException {
+        final Integer length;
+
+        synchronized (this) {
+            length = mEntries.get(sequence);
+        }
+        if (length == null) {
+            return null;
+        }
+
+        final byte[] payload = new byte[length];
+        try {
+            final DataInputStream in = new DataInputStream(new FileInputStream(file(sequence)));
+            try {
+                in.readFully(payload);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                if (!mEntries.containsKey(sequence)) {
+                    // Dropped while being read
+                    return null;
+                }
+            }
+            throw e;
+        }
+        return payload;
+    }
+
+    public synchronized void remove(long sequence) {
+        if (mEntries.containsKey(sequence)) {
+            delete(sequence);
+        }
+    }
+
+    /**
+     * @param max Most sequence numbers to return.
+     * @param skip Sequence numbers to leave out, e.g. those already being sent.
+     *
+     * @return Sequence numbers of the oldest entries, oldest first.
+     */
+    public synchronized List<Long> oldest(int max, Collection<Long> skip) {
+        final List<Long> sequences = new ArrayList<>(max);
+
+        for (Long sequence : mEntries.keySet()) {
+            if (sequences.size() == max) {
+                break;
+            }
+            if (!skip.contains(sequence)) {
+                sequences.add(sequence);
+            }
+        }
+        return sequences;
+    }
+
+    // Number of entries
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long bytes() {
+        return mBytes;
+    }
+
+    // Entries deleted to stay within the size limit
+    public synchronized long dropped() {
+        return mDropped;
+    }
+
+    private void reserve(long sequence) throws IOException {
+        final File file = new File(mDir, SEQUENCE_FILE);
+        final File temp = new File(file.getPath() + TEMP_SUFFIX);
+        final FileOutputStream out = new FileOutputStream(temp);
+
+        try {
+            new DataOutputStream(out).writeLong(sequence);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to write " + file);
+        }
+        mReservedSequence = sequence;
+    }
+
+    private void delete(long sequence) {
+        mBytes -= mEntries.remove(sequence);
+        file(sequence).delete();
+    }
+
+    private File file(long sequence) {
+        return new File(mDir, String.format("%016x", sequence) + SUFFIX);
+    }
+}
@@ -0,0 +1,436 @@
+package com.bryanford.weatherstation;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SQLite persistence of decoded readings, for code that would rather query SQL than a
+ * {@link ReadingLog}.
+ *
+ * {@link #offer} only copies the sample into an in-memory batch, so the decode thread never
+ * waits for the disk.  Full batches, and partial ones after {@link #MAX_BATCH_AGE_MILLIS},
+ * are written by a writer thread in a single transaction using precompiled multi-row
+ * inserts.  The database runs in WAL mode, so queries read alongside the writer.  It is
+ * also opened on the writer thread, so creating a store costs the caller no disk access.
+ *
+ * Schema:
+ * <pre>
+ *   devices (id INTEGER PRIMARY KEY, address TEXT UNIQUE)
+ *   readings (device INTEGER, channel INTEGER, time INTEGER, value REAL)
+ *   readings_by_time ON readings (device, channel, time, value)
+ * </pre>
+ * The index includes the value, so range queries of a channel never touch the table.
+ */
+public class SqliteReadingStore {
+    private static final String TAG = SqliteReadingStore.class.getSimpleName();
+
+    public static final String DATABASE_NAME = "readings.db";
+    private static final int DATABASE_VERSION = 1;
+
+    // Rows buffered before they are handed to the writer thread
+    public static final int BATCH_ROWS = 1024;
+
+    // Longest a sample waits in a partial batch
+    public static final long MAX_BATCH_AGE_MILLIS = 5000;
+
+    // Full batches queued for the writer before offer() blocks
+    private static final int MAX_PENDING_BATCHES = 64;
+
+    // Rows per multi-row insert, at 4 arguments each well within SQLite's 999 limit
+    private static final int INSERT_ROWS = 128;
+
+    private static final String INSERT_ROW = "(?, ?, ?, ?)";
+
+    // Queued by close() behind the last batch
+    private static final Batch STOP = new Batch();
+
+    private static class Batch {
+        final String[] addresses = new String[BATCH_ROWS];
+        final int[] channels = new int[BATCH_ROWS];
+        final long[] times = new long[BATCH_ROWS];
+        final double[] values = new double[BATCH_ROWS];
+        int count;
+    }
+
+    private static class Helper extends SQLiteOpenHelper {
+        Helper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+            setWriteAheadLoggingEnabled(true);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE devices (id INTEGER PRIMARY KEY, "
+                    + "address TEXT NOT NULL UNIQUE)");
+            db.execSQL("CREATE TABLE readings (device INTEGER NOT NULL, "
+                    + "channel INTEGER NOT NULL, time INTEGER NOT NULL, value REAL NOT NULL)");
+            db.execSQL("CREATE INDEX readings_by_time ON readings (device, channel, time, value)");
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            // With WAL, NORMAL only risks the last transactions on power loss, not corruption
+            db.execSQL("PRAGMA synchronous = NORMAL");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        }
+    }
+
+    private final Helper mHelper;
+    private final Thread mWriter;
+
+    private final BlockingQueue<Batch> mPending = new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+    private final BlockingQueue<Batch> mFree = new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+
+    // Batch being filled, guarded by this
+    private Batch mCurrent;
+    private long mCurrentStartMillis;
+    private long mBatchesSealed;
+    private boolean mRunning = true;
+
+    // Batches sealed by offer() and not queued yet, close() waits for them
+    private int mEnqueuing;
+
+    // Writer thread only, mDb is null if the database could not be opened
+    private SQLiteDatabase mDb;
+    private final Map<String, Long> mDeviceIds = new HashMap<>();
+    private SQLiteStatement mInsertMany;
+    private SQLiteStatement mInsertOne;
+    private SQLiteStatement mFindDevice;
+    private SQLiteStatement mInsertDevice;
+
+    // Writer progress, guarded by mProgress
+    private final Object mProgress = new Object();
+    private long mBatchesWritten;
+    private long mRowsWritten;
+    private long mFailures;
+
+    /**
+     * Starts the writer thread, which opens or creates the database.
+     *
+     * @param name Database name below the app's database directory, e.g. {@link #DATABASE_NAME}.
+     */
+    public SqliteReadingStore(Context context, String name) {
+        mHelper = new Helper(context, name);
+
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "SqliteWriter");
+        mWriter.start();
+    }
+
+    /**
+     * Queues a sample for writing.  Blocks only if the writer has fallen
+     * {@link #MAX_PENDING_BATCHES} batches behind.
+     */
+    public void offer(String address, int channel, long time, double value) {
+        Batch full = null;
+
+        synchronized (this) {
+            if (!mRunning) {
+                return;
+            }
+
+            if (mCurrent == null) {
+                mCurrent = mFree.poll();
+                if (mCurrent == null) {
+                    mCurrent = new Batch();
+                }
+                mCurrentStartMillis = System.currentTimeMillis();
+            }
+
+            final Batch batch = mCurrent;
+            final int i = batch.count++;
+            batch.addresses[i] = address;
+            batch.channels[i] = channel;
+            batch.times[i] = time;
+            batch.values[i] = value;
+
+            if (batch.count == BATCH_ROWS) {
+                full = seal();
+                mEnqueuing++;
+            }
+        }
+
+        // Queued outside the lock, as it blocks while the writer is far behind
+        if (full != null) {
+            enqueue(full);
+
+            synchronized (this) {
+                mEnqueuing--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes every queued sample and waits until it is committed.
+     */
+    public void flush() throws InterruptedException {
+        final Batch partial;
+        final long sealed;
+
+        synchronized (this) {
+            partial = mCurrent != null ? seal() : null;
+            sealed = mBatchesSealed;
+        }
+        if (partial != null) {
+            enqueue(partial);
+        }
+
+        synchronized (mProgress) {
+            while (mBatchesWritten < sealed) {
+                mProgress.wait();
+            }
+        }
+    }
+
+    /**
+     * Writes the queued samples, stops the writer and closes the database.
+     */
+    public void close() {
+        final Batch partial;
+
+        synchronized (this) {
+            if (!mRunning) {
+                return;
+            }
+            partial = mCurrent != null ? seal() : null;
+            mRunning = false;
+        }
+        if (partial != null) {
+            enqueue(partial);
+        }
+
+        try {
+            synchronized (this) {
+                while (mEnqueuing > 0) {
+                    wait();
+                }
+            }
+            enqueue(STOP);
+            mWriter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mHelper.close();
+    }
+
+    /**
+     * Copies samples of a channel in [from, to), oldest first, into the arrays.  Answered from
+     * the covering index alone.
+     *
+     * @return Number of samples copied, at most the length of the arrays.
+     */
+    public int query(String address, int channel, long from, long to, long[] times,
+                     double[] values) {
+        final Cursor cursor = getDatabase().rawQuery("SELECT time, value FROM readings "
+                        + "WHERE device = (SELECT id FROM devices WHERE address = ?) "
+                        + "AND channel = ? AND time >= ? AND time < ? ORDER BY time LIMIT ?",
+                new String[]{address, Integer.toString(channel), Long.toString(from),
+                        Long.toString(to), Integer.toString(times.length)});
+        int rows = 0;
+
+        try {
+            while (cursor.moveToNext()) {
+                times[rows] = cursor.getLong(0);
+                values[rows] = cursor.getDouble(1);
+                rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    // Committed rows in the database
+    public long count() {
+        return DatabaseUtils.queryNumEntries(getDatabase(), "readings");
+    }
+
+    /**
+     * For ad hoc SQL; writes should go through offer() to keep the batching.  Opens the
+     * database on the calling thread if the writer has not yet.
+     */
+    public SQLiteDatabase getDatabase() {
+        return mHelper.getWritableDatabase();
+    }
+
+    public long rowsWritten() {
+        synchronized (mProgress) {
+            return mRowsWritten;
+        }
+    }
+
+    // Batches lost to a failed transaction or a database that would not open
+    public long failures() {
+        synchronized (mProgress) {
+            return mFailures;
+        }
+    }
+
+    // Caller holds this
+    private Batch seal() {
+        final Batch batch = mCurrent;
+
+        mCurrent = null;
+        mBatchesSealed++;
+        return batch;
+    }
+
+    private void enqueue(Batch batch) {
+        try {
+            mPending.put(batch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.w(TAG, "Interrupted, dropping " + batch.count + " readings");
+            written(batch, false);
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            mDb = mHelper.getWritableDatabase();
+            compileStatements();
+        } catch (SQLException e) {
+            // Keep taking batches so neither offer() nor flush() waits on a dead writer
+            Log.e(TAG, "Unable to open readings database", e);
+            mDb = null;
+        }
+
+        try {
+            while (true) {
+                final Batch batch = mPending.poll(MAX_BATCH_AGE_MILLIS, TimeUnit.MILLISECONDS);
+
+                if (batch == STOP) {
+                    break;
+                }
+                if (batch != null) {
+                    written(batch, mDb != null && write(batch));
+                    continue;
+                }
+
+                // Nothing full for a while, write the partial batch if it is old enough
+                final Batch partial;
+                synchronized (this) {
+                    partial = mCurrent != null && System.currentTimeMillis()
+                            - mCurrentStartMillis >= MAX_BATCH_AGE_MILLIS ? seal() : null;
+                }
+                if (partial != null) {
+                    written(partial, mDb != null && write(partial));
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(TAG, "Writer interrupted");
+        } finally {
+            if (mDb != null) {
+                mInsertMany.close();
+                mInsertOne.close();
+                mFindDevice.close();
+                mInsertDevice.close();
+            }
+        }
+    }
+
+    private void compileStatements() {
+        final StringBuilder sql = new StringBuilder(
+                "INSERT INTO readings (device, channel, time, value) VALUES ");
+
+        for (int i = 0; i < INSERT_ROWS; i++) {
+            sql.append(i == 0 ? INSERT_ROW : "," + INSERT_ROW);
+        }
+        mInsertMany = mDb.compileStatement(sql.toString());
+        mInsertOne = mDb.compileStatement(
+                "INSERT INTO readings (device, channel, time, value) VALUES " + INSERT_ROW);
+        mFindDevice = mDb.compileStatement("SELECT id FROM devices WHERE address = ?");
+        mInsertDevice = mDb.compileStatement("INSERT INTO devices (address) VALUES (?)");
+    }
+
+    // Writes the batch in one transaction, returns false if it was rolled back
+    private boolean write(Batch batch) {
+        try {
+            // Non-exclusive, so WAL readers are not blocked while the batch commits
+            mDb.beginTransactionNonExclusive();
+            try {
+                int i = 0;
+
+                for (; i + INSERT_ROWS <= batch.count; i += INSERT_ROWS) {
+                    for (int row = 0; row < INSERT_ROWS; row++) {
+                        bind(mInsertMany, row * 4, batch, i + row);
+                    }
+                    mInsertMany.executeInsert();
+                }
+                for (; i < batch.count; i++) {
+                    bind(mInsertOne, 0, batch, i);
+                    mInsertOne.executeInsert();
+                }
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+            return true;
+        } catch (SQLException e) {
+            Log.e(TAG, "Unable to write " + batch.count + " readings", e);
+
+            // Devices added by the rolled back transaction are gone again
+            mDeviceIds.clear();
+            return false;
+        }
+    }
+
+    private void bind(SQLiteStatement statement, int offset, Batch batch, int row) {
+        statement.bindLong(offset + 1, deviceId(batch.addresses[row]));
+        statement.bindLong(offset + 2, batch.channels[row]);
+        statement.bindLong(offset + 3, batch.times[row]);
+        statement.bindDouble(offset + 4, batch.values[row]);
+    }
+
+    private long deviceId(String address) {
+        Long id = mDeviceIds.get(address);
+
+        if (id == null) {
+            mFindDevice.bindString(1, address);
+            try {
+                id = mFindDevice.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                mInsertDevice.bindString(1, address);
+                id = mInsertDevice.executeInsert();
+            }
+            mDeviceIds.put(address, id);
+        }
+        return id;
+    }
+
+    private void written(Batch batch, boolean committed) {
+        synchronized (mProgress) {
+            mBatchesWritten++;
+            if (committed) {
+                mRowsWritten += batch.count;
+            } else {
+                mFailures++;
+            }
+            mProgress.notifyAll();
+        }
+
+        batch.count = 0;
+        mFree.offer(batch);
+    }
+}
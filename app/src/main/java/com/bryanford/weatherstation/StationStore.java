@@ -0,0 +1,204 @@
+package com.bryanford.weatherstation;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Latest readings of several stations, one {@link ReadingSnapshot} per device address.
+ *
+ * Devices are spread over shards by address.  Each shard is an immutable array of station
+ * snapshots that an update replaces with a compare-and-set, so decode threads of different
+ * stations rarely touch the same shard and readers never take a lock.  Each station is
+ * expected to have a single writer, its decode thread; concurrent writers to one station are
+ * safe but may lose the race for the newest value.
+ *
+ * {@link #snapshot()} reads every shard twice and retries until nothing changed in between,
+ * which makes the returned stations a consistent cut across devices: if one station was
+ * updated before another, a snapshot that shows the second update shows the first too.
+ */
+public class StationStore {
+    public static final int DEFAULT_SHARDS = 16;
+
+    private static final ReadingSnapshot[] NONE = new ReadingSnapshot[0];
+
+    private static final Comparator<ReadingSnapshot> BY_ADDRESS =
+            new Comparator<ReadingSnapshot>() {
+                @Override
+                public int compare(ReadingSnapshot a, ReadingSnapshot b) {
+                    return a.getDeviceAddress().compareTo(b.getDeviceAddress());
+                }
+            };
+
+    private final AtomicReferenceArray<ReadingSnapshot[]> mShards;
+    private final int mMask;
+
+    public StationStore() {
+        this(DEFAULT_SHARDS);
+    }
+
+    /**
+     * @param shards Number of shards, a power of two.
+     */
+    public StationStore(int shards) {
+        if (shards < 1 || Integer.bitCount(shards) != 1) {
+            throw new IllegalArgumentException("Shard count must be a power of two: " + shards);
+        }
+        mShards = new AtomicReferenceArray<>(shards);
+        mMask = shards - 1;
+
+        for (int i = 0; i < shards; i++) {
+            mShards.set(i, NONE);
+        }
+    }
+
+    /**
+     * Sets a channel of the station, adding the station if it is new.
+     */
+    public void update(String address, int channel, long time, double value) {
+        final int shard = shardOf(address);
+
+        while (true) {
+            final ReadingSnapshot[] stations = mShards.get(shard);
+            final int index = indexOf(stations, address);
+            final ReadingSnapshot current =
+                    index < 0 ? new ReadingSnapshot(address) : stations[index];
+            final ReadingSnapshot next = current.with(channel, time, value);
+
+            if (next == current && index >= 0) {
+                return;
+            }
+            if (mShards.compareAndSet(shard, stations, replace(stations, index, next))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds or replaces a whole station, e.g. one restored from a saved snapshot.
+     */
+    public void put(ReadingSnapshot station) {
+        final String address = station.getDeviceAddress();
+        final int shard = shardOf(address);
+
+        while (true) {
+            final ReadingSnapshot[] stations = mShards.get(shard);
+            final int index = indexOf(stations, address);
+
+            if (mShards.compareAndSet(shard, stations, replace(stations, index, station))) {
+                return;
+            }
+        }
+    }
+
+    public void remove(String address) {
+        final int shard = shardOf(address);
+
+        while (true) {
+            final ReadingSnapshot[] stations = mShards.get(shard);
+            final int index = indexOf(stations, address);
+
+            if (index < 0) {
+                return;
+            }
+
+            final ReadingSnapshot[] next = new ReadingSnapshot[stations.length - 1];
+            System.arraycopy(stations, 0, next, 0, index);
+            System.arraycopy(stations, index + 1, next, index, next.length - index);
+
+            if (mShards.compareAndSet(shard, stations, next)) {
+                return;
+            }
+        }
+    }
+
+    // Latest readings of one station, null if it is unknown
+    public ReadingSnapshot get(String address) {
+        final ReadingSnapshot[] stations = mShards.get(shardOf(address));
+        final int index = indexOf(stations, address);
+
+        return index < 0 ? null : stations[index];
+    }
+
+    /**
+     * @return Every station, ordered by address, as of a single point in time.
+     */
+    public ReadingSnapshot[] snapshot() {
+        final int shards = mShards.length();
+        final ReadingSnapshot[][] seen = new ReadingSnapshot[shards][];
+
+        for (int i = 0; i < shards; i++) {
+            seen[i] = mShards.get(i);
+        }
+
+        // Shard arrays are never reused, so an unchanged reference means an unchanged shard
+        boolean changed;
+        do {
+            changed = false;
+            for (int i = 0; i < shards; i++) {
+                ReadingSnapshot[] stations = mShards.get(i);
+
+                if (stations != seen[i]) {
+                    seen[i] = stations;
+                    changed = true;
+                }
+            }
+        } while (changed);
+
+        int count = 0;
+        for (ReadingSnapshot[] stations : seen) {
+            count += stations.length;
+        }
+
+        final ReadingSnapshot[] all = new ReadingSnapshot[count];
+        int offset = 0;
+        for (ReadingSnapshot[] stations : seen) {
+            System.arraycopy(stations, 0, all, offset, stations.length);
+            offset += stations.length;
+        }
+        Arrays.sort(all, BY_ADDRESS);
+        return all;
+    }
+
+    // Number of stations
+    public int size() {
+        int count = 0;
+
+        for (int i = 0; i < mShards.length(); i++) {
+            count += mShards.get(i).length;
+        }
+        return count;
+    }
+
+    private int shardOf(String address) {
+        int hash = address.hashCode();
+
+        // Spread the high bits, addresses often differ only in their last characters
+        hash ^= hash >>> 16;
+        return hash & mMask;
+    }
+
+    private static int indexOf(ReadingSnapshot[] stations, String address) {
+        for (int i = 0; i < stations.length; i++) {
+            if (stations[i].getDeviceAddress().equals(address)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Copy of the shard with the station at index replaced, or appended if index is -1
+    private static ReadingSnapshot[] replace(ReadingSnapshot[] stations, int index,
+                                             ReadingSnapshot station) {
+        final ReadingSnapshot[] next;
+
+        if (index < 0) {
+            next = Arrays.copyOf(stations, stations.length + 1);
+            next[stations.length] = station;
+        } else {
+            next = stations.clone();
+            next[index] = station;
+        }
+        return next;
+    }
+}
@@ -0,0 +1,20 @@
+package com.bryanford.weatherstation;
+
+/**
+ * A statistic maintained over a stream of doubles, one value pushed at a time.  Operators
+ * work on primitives and do not allocate per value, so they can run on the sample path.
+ * NaN inputs are ignored, and {@link #value()} is NaN until the statistic is defined.
+ * Operators are not thread safe.
+ *
+ * Operators can be chained with {@link OperatorChain} and attached to a reading channel
+ * with {@link OperatorStage}.
+ */
+public interface StreamOperator {
+    void push(double value);
+
+    // The current statistic, NaN until enough values have been pushed
+    double value();
+
+    // Forgets every value pushed so far
+    void reset();
+}
@@ -0,0 +1,50 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Counts bytes moved over a measurement window and reports the effective rate.  Times are
+ * monotonic nanoseconds, e.g. from SystemClock.elapsedRealtimeNanos().
+ */
+public class ThroughputMeter {
+    private long mStartNanos;
+    private long mEndNanos;
+    private long mBytes;
+    private boolean mRunning;
+
+    public synchronized void start(long nanos) {
+        mStartNanos = nanos;
+        mEndNanos = nanos;
+        mBytes = 0;
+        mRunning = true;
+    }
+
+    public synchronized void add(int bytes, long nanos) {
+        if (mRunning) {
+            mBytes += bytes;
+            mEndNanos = nanos;
+        }
+    }
+
+    public synchronized void stop(long nanos) {
+        if (mRunning) {
+            mEndNanos = nanos;
+            mRunning = false;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return mRunning;
+    }
+
+    public synchronized long bytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return Bytes per second between start and the last byte (or stop), 0 if no time has
+     *         passed yet.
+     */
+    public synchronized double bytesPerSecond() {
+        long elapsed = mEndNanos - mStartNanos;
+        return elapsed > 0 ? mBytes * 1e9 / elapsed : 0;
+    }
+}
@@ -0,0 +1,217 @@
+package com.bryanford.weatherstation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the most recent trace events in a fixed size ring and writes them out in the Chrome
+ * trace event JSON format, which chrome://tracing and Perfetto open directly.
+ *
+ * Duration events nest per thread; {@link #end()} closes the innermost open
+ * {@link #begin(String)} of the calling thread.  Async events cover work that starts on one
+ * thread and finishes in a callback on another, they are paired by name and id.  When the
+ * ring is full the oldest events are overwritten.
+ */
+public class TraceRecorder {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final String CATEGORY = "weatherstation";
+
+    private static final char BEGIN = 'B';
+    private static final char END = 'E';
+    private static final char ASYNC_BEGIN = 'b';
+    private static final char ASYNC_END = 'e';
+    private static final char INSTANT = 'i';
+
+    private final int mCapacity;
+    private final char[] mPhases;
+    private final String[] mNames;
+    private final long[] mNanos;
+    private final long[] mIds;
+    private final Thread[] mThreads;
+
+    // Total events recorded, the ring holds the last mCapacity of them
+    private long mCount;
+
+    public TraceRecorder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public TraceRecorder(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        mCapacity = capacity;
+        mPhases = new char[capacity];
+        mNames = new String[capacity];
+        mNanos = new long[capacity];
+        mIds = new long[capacity];
+        mThreads = new Thread[capacity];
+    }
+
+    // Opens a section on the calling thread
+    public void begin(String name) {
+        record(BEGIN, name, 0);
+    }
+
+    // Closes the innermost open section of the calling thread
+    public void end() {
+        record(END, null, 0);
+    }
+
+    /**
+     * Opens a section that may be closed from another thread.
+     *
+     * @param id Distinguishes concurrent sections of the same name.
+     */
+    public void beginAsync(String name, long id) {
+        record(ASYNC_BEGIN, name, id);
+    }
+
+    public void endAsync(String name, long id) {
+        record(ASYNC_END, name, id);
+    }
+
+    // Marks a point in time on the calling thread
+    public void instant(String name) {
+        record(INSTANT, name, 0);
+    }
+
+    // Events currently held
+    public synchronized int size() {
+        return (int) Math.min(mCount, mCapacity);
+    }
+
+    public synchronized void clear() {
+        mCount = 0;
+    }
+
+    private void record(char phase, String name, long id) {
+        final long nanos = System.nanoTime();
+        final Thread thread = Thread.currentThread();
+
+        synchronized (this) {
+            int slot = (int) (mCount % mCapacity);
+            mPhases[slot] = phase;
+            mNames[slot] = name;
+            mNanos[slot] = nanos;
+            mIds[slot] = id;
+            mThreads[slot] = thread;
+            mCount++;
+        }
+    }
+
+    /**
+     * Writes the recorded events as a JSON object with a traceEvents array, oldest first,
+     * followed by the names of the threads they were recorded on.  Times are microseconds on
+     * the monotonic clock used by systrace, so the two can be lined up.
+     *
+     * @param out Destination, not closed by this method.
+     *
+     * @return Number of events written.
+     */
+    public int writeJson(Writer out) throws IOException {
+        final int size;
+        final char[] phases;
+        final String[] names;
+        final long[] nanos;
+        final long[] ids;
+        final Thread[] threads;
+
+        // Copy out so recording is not held up by the writer
+        synchronized (this) {
+            size = size();
+            phases = new char[size];
+            names = new String[size];
+            nanos = new long[size];
+            ids = new long[size];
+            threads = new Thread[size];
+
+            for (int i = 0; i < size; i++) {
+                int slot = (int) ((mCount - size + i) % mCapacity);
+                phases[i] = mPhases[slot];
+                names[i] = mNames[slot];
+                nanos[i] = mNanos[slot];
+                ids[i] = mIds[slot];
+                threads[i] = mThreads[slot];
+            }
+        }
+
+        final StringBuilder line = new StringBuilder(128);
+        final Map<Long, String> threadNames = new LinkedHashMap<>();
+        boolean first = true;
+
+        out.write("{\"traceEvents\":[");
+        for (int i = 0; i < size; i++) {
+            final long tid = threads[i].getId();
+            threadNames.put(tid, threads[i].getName());
+
+            line.setLength(0);
+            line.append(first ? "\n" : ",\n");
+            first = false;
+            line.append("{\"ph\":\"").append(phases[i]).append('"');
+            if (names[i] != null) {
+                line.append(",\"name\":");
+                appendString(line, names[i]);
+            }
+            line.append(",\"cat\":\"").append(CATEGORY).append('"');
+            line.append(",\"ts\":");
+            appendMicros(line, nanos[i]);
+            line.append(",\"pid\":1,\"tid\":").append(tid);
+
+            if (phases[i] == ASYNC_BEGIN || phases[i] == ASYNC_END) {
+                line.append(",\"id\":\"0x").append(Long.toHexString(ids[i])).append('"');
+            } else if (phases[i] == INSTANT) {
+                line.append(",\"s\":\"t\"");
+            }
+            line.append('}');
+            out.write(line.toString());
+        }
+
+        // Metadata events give the timeline rows readable names
+        for (Map.Entry<Long, String> thread : threadNames.entrySet()) {
+            line.setLength(0);
+            line.append(first ? "\n" : ",\n");
+            first = false;
+            line.append("{\"ph\":\"M\",\"name\":\"thread_name\",\"pid\":1,\"tid\":")
+                    .append(thread.getKey()).append(",\"args\":{\"name\":");
+            appendString(line, thread.getValue());
+            line.append("}}");
+            out.write(line.toString());
+        }
+
+        out.write("\n],\"displayTimeUnit\":\"ms\"}\n");
+        return size;
+    }
+
+    private static void appendMicros(StringBuilder out, long nanos) {
+        final long fraction = nanos % 1000;
+
+        out.append(nanos / 1000).append('.');
+        if (fraction < 100) {
+            out.append('0');
+        }
+        if (fraction < 10) {
+            out.append('0');
+        }
+        out.append(fraction);
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
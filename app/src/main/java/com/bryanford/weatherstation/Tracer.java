@@ -0,0 +1,45 @@
+package com.bryanford.weatherstation;
+
+import android.os.Trace;
+
+/**
+ * Trace sections for the startup and connect path.  Sections go to systrace through
+ * {@link Trace} and to an in-app {@link TraceRecorder}, so a timeline can also be exported
+ * from a device without a host attached.
+ *
+ * Async sections are only recorded in-app, the platform has no public async trace API
+ * below API 29.
+ */
+public final class Tracer {
+    private static final TraceRecorder sRecorder = new TraceRecorder();
+
+    private Tracer() {
+    }
+
+    public static void begin(String name) {
+        Trace.beginSection(name);
+        sRecorder.begin(name);
+    }
+
+    // Closes the innermost section opened by begin() on the calling thread
+    public static void end() {
+        sRecorder.end();
+        Trace.endSection();
+    }
+
+    public static void beginAsync(String name, long id) {
+        sRecorder.beginAsync(name, id);
+    }
+
+    public static void endAsync(String name, long id) {
+        sRecorder.endAsync(name, id);
+    }
+
+    public static void instant(String name) {
+        sRecorder.instant(name);
+    }
+
+    public static TraceRecorder getRecorder() {
+        return sRecorder;
+    }
+}
@@ -0,0 +1,210 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Byte ring buffer that reassembles frames from UART notifications.  Chunks are copied into
+ * the ring as they arrive and complete frames are handed to a {@link FrameListener} as
+ * slices of the ring, without creating Strings or arrays per chunk.
+ *
+ * Two framings are supported:
+ * <ul>
+ *   <li>{@link #MODE_LINE}: frames end with '\n', a preceding '\r' is dropped.</li>
+ *   <li>{@link #MODE_LENGTH_PREFIXED}: a little endian uint16 payload length, then the
+ *       payload.</li>
+ * </ul>
+ * A frame that does not fit the ring is discarded, line mode resynchronizes at the next
+ * delimiter.  Not thread safe, feed it from the UART receive thread only.
+ */
+public class UartFrameBuffer {
+    public static final int MODE_LINE = 0;
+    public static final int MODE_LENGTH_PREFIXED = 1;
+
+    private static final int LENGTH_HEADER_SIZE = 2;
+
+    /**
+     * Receives complete frames.  The slice is only valid during the call.
+     */
+    public interface FrameListener {
+        void onFrame(byte[] buffer, int offset, int length);
+    }
+
+    private final byte[] mRing;
+    private final int mMask;
+
+    // Frames wrapping around the end of the ring are copied here to hand out one slice
+    private final byte[] mScratch;
+
+    private int mMode;
+    private long mHead;
+    private long mTail;
+    private int mScanned;
+    private boolean mDiscarding;
+    private long mDroppedFrames;
+
+    /**
+     * @param capacity Ring size in bytes, rounded up to a power of two.  Bounds the largest
+     *                 frame that can be delivered.
+     * @param mode {@link #MODE_LINE} or {@link #MODE_LENGTH_PREFIXED}.
+     */
+    public UartFrameBuffer(int capacity, int mode) {
+        int size = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+
+        mRing = new byte[size];
+        mScratch = new byte[size];
+        mMask = size - 1;
+        setMode(mode);
+    }
+
+    /**
+     * Switches the framing and drops any partially received frame.
+     */
+    public void setMode(int mode) {
+        if (mode != MODE_LINE && mode != MODE_LENGTH_PREFIXED) {
+            throw new IllegalArgumentException("Unknown frame mode: " + mode);
+        }
+        mMode = mode;
+        clear();
+    }
+
+    public int getMode() {
+        return mMode;
+    }
+
+    // Drops all buffered bytes
+    public void clear() {
+        mTail = mHead;
+        mScanned = 0;
+        mDiscarding = false;
+    }
+
+    /**
+     * Drops the partial frame after received bytes were lost.  Line mode also skips to the
+     * next delimiter, length prefixed mode takes the next chunk to start a frame.
+     */
+    public void resync() {
+        mDroppedFrames++;
+        clearBuffered();
+        mDiscarding = mMode == MODE_LINE;
+    }
+
+    // Number of bytes waiting for the rest of their frame
+    public int buffered() {
+        return (int) (mHead - mTail);
+    }
+
+    // Frames discarded because they did not fit the ring or had an invalid length
+    public long droppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * Adds a received chunk and delivers every frame it completes.
+     *
+     * @return The number of frames delivered.
+     */
+    public int append(byte[] data, int offset, int length, FrameListener listener) {
+        int frames = 0;
+
+        while (length > 0) {
+            int free = mRing.length - buffered();
+
+            if (free == 0) {
+                // Buffered frame can never complete
+                mDroppedFrames++;
+                mDiscarding = mMode == MODE_LINE;
+                clearBuffered();
+                free = mRing.length;
+            }
+
+            int count = Math.min(free, length);
+            write(data, offset, count);
+            offset += count;
+            length -= count;
+
+            frames += mMode == MODE_LINE ? parseLines(listener) : parseLengthPrefixed(listener);
+        }
+        return frames;
+    }
+
+    private void write(byte[] data, int offset, int length) {
+        int start = (int) (mHead & mMask);
+        int first = Math.min(length, mRing.length - start);
+
+        System.arraycopy(data, offset, mRing, start, first);
+        System.arraycopy(data, offset + first, mRing, 0, length - first);
+        mHead += length;
+    }
+
+    private int parseLines(FrameListener listener) {
+        int frames = 0;
+
+        while (mTail + mScanned < mHead) {
+            long position = mTail + mScanned;
+
+            if (mRing[(int) (position & mMask)] != '\n') {
+                mScanned++;
+                continue;
+            }
+
+            int length = mScanned;
+            if (length > 0 && mRing[(int) ((position - 1) & mMask)] == '\r') {
+                length--;
+            }
+
+            if (mDiscarding) {
+                // Tail of an oversized line, resume with the next one
+                mDiscarding = false;
+            } else {
+                deliver(mTail, length, listener);
+                frames++;
+            }
+
+            mTail = position + 1;
+            mScanned = 0;
+        }
+        return frames;
+    }
+
+    private int parseLengthPrefixed(FrameListener listener) {
+        int frames = 0;
+
+        while (buffered() >= LENGTH_HEADER_SIZE) {
+            int length = (mRing[(int) (mTail & mMask)] & 0xFF)
+                    | (mRing[(int) ((mTail + 1) & mMask)] & 0xFF) << 8;
+
+            if (length > mRing.length - LENGTH_HEADER_SIZE) {
+                // Cannot be a valid frame, nothing to resynchronize on
+                mDroppedFrames++;
+                clearBuffered();
+                break;
+            }
+
+            if (buffered() < LENGTH_HEADER_SIZE + length) {
+                break;
+            }
+
+            deliver(mTail + LENGTH_HEADER_SIZE, length, listener);
+            mTail += LENGTH_HEADER_SIZE + length;
+            frames++;
+        }
+        return frames;
+    }
+
+    private void deliver(long position, int length, FrameListener listener) {
+        int start = (int) (position & mMask);
+
+        if (start + length <= mRing.length) {
+            listener.onFrame(mRing, start, length);
+        } else {
+            int first = mRing.length - start;
+
+            System.arraycopy(mRing, start, mScratch, 0, first);
+            System.arraycopy(mRing, 0, mScratch, first, length - first);
+            listener.onFrame(mScratch, 0, length);
+        }
+    }
+
+    private void clearBuffered() {
+        mTail = mHead;
+        mScanned = 0;
+    }
+}
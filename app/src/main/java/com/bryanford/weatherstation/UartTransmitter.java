@@ -0,0 +1,183 @@
+package com.bryanford.weatherstation;
+
+import java.io.IOException;
+
+/**
+ * Flow controlled transmit queue for the UART characteristic.  Payloads are split into
+ * MTU sized chunks and held in a fixed window of reusable chunk buffers.  A new chunk is
+ * written as soon as the previous write completes, and {@link #send} blocks the calling
+ * thread while the window is full, so producers can never run ahead of the link.
+ *
+ * Only one write is handed to the {@link ChunkWriter} at a time because the characteristic
+ * value is set per write.  With write-without-response the stack completes writes as soon
+ * as it has buffered them, which still lets several chunks go out per connection event.
+ */
+public class UartTransmitter {
+    /**
+     * Issues a single write.  Called with the transmitter locked; the chunk array must not
+     * be modified and is reused once {@link #onWriteComplete(boolean)} has been called.
+     */
+    public interface ChunkWriter {
+        void writeChunk(byte[] chunk);
+    }
+
+    private final ChunkWriter mWriter;
+    private final byte[][] mSlots;
+    private final int[] mLengths;
+
+    private int mHead;
+    private int mCount;
+    private boolean mInFlight;
+    private boolean mCancelled;
+
+    // Bumped by cancel() and reset(), senders from an earlier connection fail on a change
+    private int mGeneration;
+
+    private long mBytesSent;
+    private long mChunksSent;
+    private long mFailures;
+
+    /**
+     * @param window Chunks that may be queued or in flight before senders block.
+     * @param writer Issues the GATT writes.
+     */
+    public UartTransmitter(int window, ChunkWriter writer) {
+        mWriter = writer;
+        mSlots = new byte[window][];
+        mLengths = new int[window];
+    }
+
+    /**
+     * Queues a payload for transmission, blocking while the window is full.  Must not be
+     * called on the Bluetooth callback thread.
+     *
+     * @param chunkSize Largest write payload, normally the MTU less the ATT header.
+     *
+     * @throws IOException If the transmitter is cancelled or reset while the payload is queued.
+     */
+    public void send(byte[] data, int offset, int length, int chunkSize)
+            throws IOException, InterruptedException {
+        final int generation;
+
+        synchronized (this) {
+            generation = mGeneration;
+        }
+
+        while (length > 0) {
+            int size = Math.min(chunkSize, length);
+
+            synchronized (this) {
+                while (mCount == mSlots.length && !mCancelled && generation == mGeneration) {
+                    wait();
+                }
+                if (mCancelled || generation != mGeneration) {
+                    throw new IOException("UART transmit cancelled");
+                }
+
+                int slot = (mHead + mCount) % mSlots.length;
+
+                // The characteristic takes the whole array, so keep one exactly sized
+                if (mSlots[slot] == null || mSlots[slot].length != size) {
+                    mSlots[slot] = new byte[size];
+                }
+                System.arraycopy(data, offset, mSlots[slot], 0, size);
+                mLengths[slot] = size;
+                mCount++;
+
+                if (!mInFlight) {
+                    issue();
+                }
+            }
+
+            offset += size;
+            length -= size;
+        }
+    }
+
+    /**
+     * Blocks until everything queued so far has been written.
+     *
+     * @throws IOException If the transmitter is cancelled or reset first.
+     */
+    public synchronized void drain() throws IOException, InterruptedException {
+        final int generation = mGeneration;
+
+        while (mCount > 0 && !mCancelled && generation == mGeneration) {
+            wait();
+        }
+        if (mCancelled || generation != mGeneration) {
+            throw new IOException("UART transmit cancelled");
+        }
+    }
+
+    /**
+     * Called from the write callback, or when a write could not be started.
+     */
+    public synchronized void onWriteComplete(boolean success) {
+        if (!mInFlight) {
+            return;
+        }
+
+        if (success) {
+            mBytesSent += mLengths[mHead];
+            mChunksSent++;
+        } else {
+            mFailures++;
+        }
+
+        // Failed chunks are not retried, framing on the UART stream lets the peer resync
+        mHead = (mHead + 1) % mSlots.length;
+        mCount--;
+        mInFlight = false;
+        notifyAll();
+
+        if (mCount > 0) {
+            issue();
+        }
+    }
+
+    /**
+     * Drops everything queued and fails blocked senders, e.g. on disconnect.
+     */
+    public synchronized void cancel() {
+        mCancelled = true;
+        mCount = 0;
+        mInFlight = false;
+        mGeneration++;
+        notifyAll();
+    }
+
+    /**
+     * Re-arms the transmitter for a new connection.  Senders still blocked from the previous
+     * one fail rather than sending their bytes to the new device.
+     */
+    public synchronized void reset() {
+        mCancelled = false;
+        mCount = 0;
+        mInFlight = false;
+        mGeneration++;
+        notifyAll();
+    }
+
+    public synchronized long bytesSent() {
+        return mBytesSent;
+    }
+
+    public synchronized long chunksSent() {
+        return mChunksSent;
+    }
+
+    public synchronized long failures() {
+        return mFailures;
+    }
+
+    // Chunks queued or in flight
+    public synchronized int queued() {
+        return mCount;
+    }
+
+    private void issue() {
+        mInFlight = true;
+        mWriter.writeChunk(mSlots[mHead]);
+    }
+}
@@ -0,0 +1,52 @@
+package com.bryanford.weatherstation;
+
+/**
+ * Running mean and variance with Welford's update, which stays accurate where the naive sum
+ * of squares cancels.  {@link #value()} is the mean.
+ */
+public class WelfordStats implements StreamOperator {
+    private long mCount;
+    private double mMean;
+    private double mM2;
+
+    @Override
+    public void push(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+
+        mCount++;
+        double delta = value - mMean;
+        mMean += delta / mCount;
+        mM2 += delta * (value - mMean);
+    }
+
+    @Override
+    public double value() {
+        return mean();
+    }
+
+    @Override
+    public void reset() {
+        mCount = 0;
+        mMean = 0;
+        mM2 = 0;
+    }
+
+    public long count() {
+        return mCount;
+    }
+
+    public double mean() {
+        return mCount > 0 ? mMean : Double.NaN;
+    }
+
+    // Sample variance, NaN with fewer than two values
+    public double variance() {
+        return mCount > 1 ? mM2 / (mCount - 1) : Double.NaN;
+    }
+
+    public double standardDeviation() {
+        return Math.sqrt(variance());
+    }
+}
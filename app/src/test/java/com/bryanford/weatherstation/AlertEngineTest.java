@@ -0,0 +1,149 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AlertEngineTest {
+    private static final int T = ReadingChannel.TEMPERATURE;
+
+    // Calls to the sink as "id+" for a fire and "id-" for a clear
+    private final List<String> mEvents = new ArrayList<>();
+
+    private final AlertEngine mEngine = new AlertEngine(new AlertEngine.AlertSink() {
+        @Override
+        public void onAlert(AlertRule rule, boolean active, long time, double value) {
+            mEvents.add(rule.getId() + (active ? "+" : "-"));
+        }
+    });
+
+    private static AlertRule above(int id, double threshold, double hysteresis) {
+        return new AlertRule(id, T, AlertRule.ABOVE, threshold, hysteresis, "");
+    }
+
+    private static AlertRule below(int id, double threshold, double hysteresis) {
+        return new AlertRule(id, T, AlertRule.BELOW, threshold, hysteresis, "");
+    }
+
+    private void feed(double... values) {
+        for (double value : values) {
+            mEngine.onSample(T, 0, value);
+        }
+    }
+
+    @Test
+    public void firstSample_evaluatesAllRules() {
+        mEngine.setRules(Arrays.asList(above(1, 30, 1), below(2, 0, 1), above(3, 10, 1)));
+
+        feed(20);
+        assertEquals(Collections.singletonList("3+"), mEvents);
+    }
+
+    @Test
+    public void largeStep_visitsEdgesInOrder() {
+        // Given out of order, the tables are sorted by crossing point
+        mEngine.setRules(Arrays.asList(above(3, 30, 1), above(1, 10, 1), above(2, 20, 1)));
+
+        feed(0, 40);
+        assertEquals(Arrays.asList("1+", "2+", "3+"), mEvents);
+
+        mEvents.clear();
+        feed(0);
+        assertEquals(Arrays.asList("3-", "2-", "1-"), mEvents);
+    }
+
+    @Test
+    public void hysteresis_edgesAreExclusive() {
+        mEngine.setRules(Collections.singletonList(above(1, 10, 2)));
+
+        feed(0, 10);
+        assertTrue(mEvents.isEmpty());
+
+        feed(10.5);
+        assertEquals(Collections.singletonList("1+"), mEvents);
+
+        // Reaching the clear point does not clear, passing it does
+        feed(8);
+        assertEquals(1, mEvents.size());
+        feed(7.9);
+        assertEquals(Arrays.asList("1+", "1-"), mEvents);
+    }
+
+    @Test
+    public void belowRule_mirrorsAbove() {
+        mEngine.setRules(Collections.singletonList(below(1, 0, 1)));
+
+        feed(5, 0, -0.1, 0.5, 1, 1.1);
+        assertEquals(Arrays.asList("1+", "1-"), mEvents);
+    }
+
+    @Test
+    public void clearedRule_rearms() {
+        mEngine.setRules(Collections.singletonList(above(1, 10, 1)));
+
+        feed(0, 11, 8, 11, 8);
+        assertEquals(Arrays.asList("1+", "1-", "1+", "1-"), mEvents);
+    }
+
+    @Test
+    public void oscillation_firesAndClearsOncePerCrossing() {
+        mEngine.setRules(Arrays.asList(above(1, 10, 2), below(2, -10, 2)));
+
+        // Noise inside the hysteresis band between the crossings does not repeat the alerts
+        feed(0, 10.1, 9, 11, 8.5, 12, 7.9, 9.9, 8, 10.2, 20, -5, -10.1, -9, -11, -7.9, -8.5);
+        assertEquals(Arrays.asList("1+", "1-", "1+", "1-", "2+", "2-"), mEvents);
+    }
+
+    @Test
+    public void nanAndOtherChannels_areIgnored() {
+        mEngine.setRules(Collections.singletonList(above(1, 10, 1)));
+
+        feed(0, Double.NaN, 20);
+        mEngine.onSample(ReadingChannel.HUMIDITY, 0, 0);
+        feed(Double.NaN);
+        assertEquals(Collections.singletonList("1+"), mEvents);
+    }
+
+    @Test
+    public void setRules_keepsUnchangedActiveRule() {
+        AlertRule rule = above(1, 10, 2);
+        mEngine.setRules(Collections.singletonList(rule));
+        feed(0, 11);
+
+        // Still active inside the hysteresis band, clears once past it
+        mEngine.setRules(Arrays.asList(above(1, 10, 2), above(2, 30, 1)));
+        feed(9);
+        assertEquals(Collections.singletonList("1+"), mEvents);
+        feed(7);
+        assertEquals(Arrays.asList("1+", "1-"), mEvents);
+    }
+
+    @Test
+    public void setRules_clearsRemovedActiveRule() {
+        mEngine.setRules(Arrays.asList(above(1, 10, 1), above(2, 10, 1)));
+        feed(20);
+
+        mEvents.clear();
+        mEngine.setRules(Arrays.asList(above(2, 15, 1), above(3, 30, 1)));
+        assertEquals(Arrays.asList("1-", "2-"), mEvents);
+
+        // The changed rule is evaluated afresh
+        feed(20);
+        assertEquals(Arrays.asList("1-", "2-", "2+"), mEvents);
+    }
+
+    @Test
+    public void setRules_clearsNothingWhenInactive() {
+        mEngine.setRules(Collections.singletonList(above(1, 10, 1)));
+        feed(0);
+
+        mEngine.setRules(Collections.<AlertRule>emptyList());
+        assertTrue(mEvents.isEmpty());
+        assertTrue(mEngine.getRules().isEmpty());
+    }
+}
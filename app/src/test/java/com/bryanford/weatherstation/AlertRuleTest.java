@@ -0,0 +1,70 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AlertRuleTest {
+    @Test
+    public void toString_roundTripsThroughParse() {
+        List<AlertRule> rules = Arrays.asList(
+                new AlertRule(1, ReadingChannel.TEMPERATURE, AlertRule.ABOVE, 30.5, 1, "Hot"),
+                new AlertRule(2, ReadingChannel.PRESSURE, AlertRule.BELOW, 990, 0.25, ""));
+        StringBuilder text = new StringBuilder();
+
+        for (AlertRule rule : rules) {
+            text.append(rule).append('\n');
+        }
+        assertEquals(rules, AlertRule.parse(text.toString()));
+    }
+
+    @Test
+    public void parse_keepsCommasInLabelAndSkipsBlankLines() {
+        List<AlertRule> rules = AlertRule.parse(
+                "\n  \n3, humidity ,below,20,5,Dry, very dry\n4,dew_point,above,15,0\n");
+
+        assertEquals(2, rules.size());
+        assertEquals(3, rules.get(0).getId());
+        assertEquals(ReadingChannel.HUMIDITY, rules.get(0).getChannel());
+        assertEquals(AlertRule.BELOW, rules.get(0).getDirection());
+        assertEquals(20, rules.get(0).getThreshold(), 0);
+        assertEquals(5, rules.get(0).getHysteresis(), 0);
+        assertEquals("Dry, very dry", rules.get(0).getLabel());
+        assertEquals("", rules.get(1).getLabel());
+    }
+
+    @Test
+    public void parse_rejectsMalformedLines() {
+        String[] lines = {
+                "1,temperature,above,30",
+                "1,wind,above,30,1",
+                "1,temperature,sideways,30,1",
+                "x,temperature,above,30,1",
+                "1,temperature,above,hot,1",
+                "1,temperature,above,30,-1",
+                "1,temperature,above,NaN,1"
+        };
+
+        for (String line : lines) {
+            try {
+                AlertRule.parse(line);
+                fail("Parsed " + line);
+            } catch (IllegalArgumentException expected) {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void clearPoint_isPastThresholdByHysteresis() {
+        AlertRule above = new AlertRule(1, ReadingChannel.TEMPERATURE, AlertRule.ABOVE, 10, 2, "");
+        AlertRule below = new AlertRule(2, ReadingChannel.TEMPERATURE, AlertRule.BELOW, 10, 2, "");
+
+        assertEquals(10, above.firePoint(), 0);
+        assertEquals(8, above.clearPoint(), 0);
+        assertEquals(12, below.clearPoint(), 0);
+    }
+}
@@ -0,0 +1,189 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DerivedMetricsTest {
+    private static final long MINUTE = 60 * 1000;
+    private static final long START = 1450000000000L / MINUTE * MINUTE;
+
+    // Derived samples as {channel, time, value}
+    private final List<double[]> mDerived = new ArrayList<>();
+
+    private final DerivedMetrics mMetrics = new DerivedMetrics(new SampleListener() {
+        @Override
+        public void onSample(int channel, long time, double value) {
+            mDerived.add(new double[]{channel, time, value});
+        }
+    });
+
+    // Derived values of the channel, in order
+    private List<Double> derived(int channel) {
+        List<Double> values = new ArrayList<>();
+
+        for (double[] sample : mDerived) {
+            if (sample[0] == channel) {
+                values.add(sample[2]);
+            }
+        }
+        return values;
+    }
+
+    private void pressure(long minute, double value) {
+        mMetrics.onSample(ReadingChannel.PRESSURE, START + minute * MINUTE, value);
+    }
+
+    @Test
+    public void dewPoint_matchesReferenceValues() {
+        // 20 C at 50 %RH has a dew point of 9.3 C, saturated air is at its dew point
+        assertEquals(48.7, DerivedMetrics.dewPoint(68, 50), 0.1);
+        assertEquals(75.1, DerivedMetrics.dewPoint(86, 70), 0.1);
+        assertEquals(78.9, DerivedMetrics.dewPoint(90, 70), 0.1);
+        assertEquals(32, DerivedMetrics.dewPoint(32, 100), 1e-9);
+        assertEquals(DerivedMetrics.dewPoint(50, 100), DerivedMetrics.dewPoint(50, 101), 0);
+        assertFalse(Double.isInfinite(DerivedMetrics.dewPoint(50, 0)));
+    }
+
+    @Test
+    public void heatIndex_matchesNwsTable() {
+        // Values from the NWS heat index chart, rounded to whole degrees F
+        double[][] table = {
+                {80, 40, 80}, {86, 70, 95}, {90, 70, 106}, {96, 65, 121},
+                {100, 50, 118}, {104, 40, 119}, {86, 90, 105}, {84, 90, 98}
+        };
+
+        for (double[] row : table) {
+            assertEquals(row[0] + " F " + row[1] + " %", row[2],
+                    DerivedMetrics.heatIndex(row[0], row[1]), 0.5);
+        }
+    }
+
+    @Test
+    public void heatIndex_simpleFormulaAndAdjustments() {
+        // Below 80 F Steadman's formula applies, about equal to the air temperature
+        assertEquals(69.05, DerivedMetrics.heatIndex(70, 50), 1e-9);
+
+        // Dry heat is adjusted down and humid mild heat up from the plain regression
+        assertEquals(94.1, DerivedMetrics.heatIndex(100, 10), 0.1);
+        assertEquals(101.8, DerivedMetrics.heatIndex(85, 90), 0.1);
+    }
+
+    @Test
+    public void humidity_pairsWithRecentTemperature() {
+        mMetrics.onSample(ReadingChannel.HUMIDITY, START, 50);
+        assertTrue(mDerived.isEmpty());
+
+        mMetrics.onSample(ReadingChannel.TEMPERATURE, START, 68);
+        mMetrics.onSample(ReadingChannel.HUMIDITY, START + 5000, 50);
+        assertEquals(1, derived(ReadingChannel.DEW_POINT).size());
+        assertEquals(1, derived(ReadingChannel.HEAT_INDEX).size());
+
+        mMetrics.onSample(ReadingChannel.HUMIDITY, START + 5001, 50);
+        assertEquals(1, derived(ReadingChannel.DEW_POINT).size());
+
+        // Derived channels fed back in are ignored
+        mMetrics.onSample(ReadingChannel.DEW_POINT, START + 5002, 50);
+        assertEquals(2, mDerived.size());
+    }
+
+    @Test
+    public void trend_needsThreeHours() {
+        for (int minute = 0; minute < 180; minute++) {
+            pressure(minute, 100000 + minute);
+        }
+        assertTrue(derived(ReadingChannel.PRESSURE_TREND).isEmpty());
+
+        pressure(180, 100180);
+        assertEquals(180, derived(ReadingChannel.PRESSURE_TREND).get(0), 1e-9);
+    }
+
+    @Test
+    public void trend_acrossRingWraparound() {
+        // Several samples a minute for 10 hours, the ring wraps more than three times
+        for (int minute = 0; minute < 600; minute++) {
+            for (int i = 0; i < 4; i++) {
+                mMetrics.onSample(ReadingChannel.PRESSURE, START + minute * MINUTE + i * 15000,
+                        100000 + minute * 0.5 + (i - 1.5));
+            }
+        }
+
+        List<Double> trends = derived(ReadingChannel.PRESSURE_TREND);
+        assertEquals((600 - 180) * 4, trends.size());
+        for (int i = 0; i < trends.size(); i += 4) {
+            // The current bucket's mean is complete with its last sample
+            assertEquals(90, trends.get(i + 3), 1e-6);
+        }
+    }
+
+    @Test
+    public void trend_shortGapKeepsHistory() {
+        for (int minute = 0; minute < 200; minute++) {
+            pressure(minute, 100000 + minute);
+        }
+        mDerived.clear();
+
+        // Minutes 200 to 259 are missing, the bucket 3 hours back is still held
+        pressure(260, 100260);
+        assertEquals(180, derived(ReadingChannel.PRESSURE_TREND).get(0), 1e-9);
+
+        for (int minute = 261; minute < 380; minute++) {
+            pressure(minute, 100000 + minute);
+        }
+        mDerived.clear();
+
+        // The skipped buckets were cleared, not left with the samples of their ring slots
+        for (int minute = 380; minute < 440; minute++) {
+            pressure(minute, 100000 + minute);
+        }
+        assertTrue(derived(ReadingChannel.PRESSURE_TREND).isEmpty());
+
+        pressure(440, 100440);
+        assertEquals(180, derived(ReadingChannel.PRESSURE_TREND).get(0), 1e-9);
+    }
+
+    @Test
+    public void trend_gapLongerThanRingStartsOver() {
+        for (int minute = 0; minute < 200; minute++) {
+            pressure(minute, 100000);
+        }
+        mDerived.clear();
+
+        // Four hours later the old buckets would alias the new ones
+        for (int minute = 440; minute < 620; minute++) {
+            pressure(minute, 101000);
+        }
+        assertTrue(derived(ReadingChannel.PRESSURE_TREND).isEmpty());
+
+        pressure(620, 101000);
+        assertEquals(0, derived(ReadingChannel.PRESSURE_TREND).get(0), 1e-9);
+    }
+
+    @Test
+    public void trend_lateSampleJoinsNewestBucket() {
+        for (int minute = 0; minute <= 180; minute++) {
+            pressure(minute, 100000);
+        }
+        mDerived.clear();
+
+        // Belongs to minute 100 by its time but is averaged into minute 180
+        pressure(100, 100030);
+        assertEquals(15, derived(ReadingChannel.PRESSURE_TREND).get(0), 1e-9);
+    }
+
+    @Test
+    public void reset_forgetsTemperatureAndPressure() {
+        mMetrics.onSample(ReadingChannel.TEMPERATURE, START, 68);
+        for (int minute = 0; minute < 180; minute++) {
+            pressure(minute, 100000);
+        }
+
+        mMetrics.reset();
+        mMetrics.onSample(ReadingChannel.HUMIDITY, START, 50);
+        pressure(180, 100000);
+        assertTrue(mDerived.isEmpty());
+    }
+}
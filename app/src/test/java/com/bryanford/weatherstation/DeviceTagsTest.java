@@ -0,0 +1,57 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class DeviceTagsTest {
+    private static final UUID UNKNOWN = UUID.fromString("12345678-0000-1000-8000-00805f9b34fb");
+
+    @Test
+    public void format_defaultsToHex() {
+        assertEquals(DeviceTags.FORMAT_STRING, DeviceTags.format(DeviceTags.DEVICE_NAME_CHAR));
+        assertEquals(DeviceTags.FORMAT_UINT16, DeviceTags.format(DeviceTags.APPEARANCE_CHAR));
+        assertEquals(DeviceTags.FORMAT_UINT8, DeviceTags.format(DeviceTags.PRESSURE_CONFIG_CHAR));
+        assertEquals(DeviceTags.FORMAT_HEX, DeviceTags.format(UNKNOWN));
+    }
+
+    @Test
+    public void decode_uint8() {
+        assertEquals("1", DeviceTags.decode(DeviceTags.HUMIDITY_CONFIG_CHAR, new byte[]{1}));
+        assertEquals("255",
+                DeviceTags.decode(DeviceTags.HUMIDITY_CONFIG_CHAR, new byte[]{(byte) 0xFF, 7}));
+    }
+
+    @Test
+    public void decode_uint16LittleEndian() {
+        assertEquals("4660",
+                DeviceTags.decode(DeviceTags.APPEARANCE_CHAR, new byte[]{0x34, 0x12}));
+        assertEquals("65535", DeviceTags.decode(DeviceTags.APPEARANCE_CHAR,
+                new byte[]{(byte) 0xFF, (byte) 0xFF}));
+
+        // Too short for the format, shown as hex instead
+        assertEquals("0x34", DeviceTags.decode(DeviceTags.APPEARANCE_CHAR, new byte[]{0x34}));
+    }
+
+    @Test
+    public void decode_stringTrimmed() throws Exception {
+        assertEquals("SensorTag", DeviceTags.decode(DeviceTags.DEVICE_NAME_CHAR,
+                "SensorTag\0".getBytes("UTF-8")));
+        assertEquals("Stati\u00F8n", DeviceTags.decode(DeviceTags.MANUFACTURER_NAME_STRING,
+                " Stati\u00F8n ".getBytes("UTF-8")));
+    }
+
+    @Test
+    public void decode_hexForUnknown() {
+        assertEquals("0x00-A2-0F-FF",
+                DeviceTags.decode(UNKNOWN, new byte[]{0, (byte) 0xA2, 0x0F, (byte) 0xFF}));
+    }
+
+    @Test
+    public void decode_emptyValue() {
+        assertEquals("", DeviceTags.decode(UNKNOWN, null));
+        assertEquals("", DeviceTags.decode(DeviceTags.APPEARANCE_CHAR, new byte[0]));
+    }
+}
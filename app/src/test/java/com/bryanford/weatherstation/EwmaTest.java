@@ -0,0 +1,58 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EwmaTest {
+    @Test
+    public void firstValue_seedsAverage() {
+        Ewma ewma = new Ewma(0.1);
+
+        assertTrue(Double.isNaN(ewma.value()));
+        ewma.push(42);
+        assertEquals(42, ewma.value(), 0);
+    }
+
+    @Test
+    public void matchesRecurrence() {
+        Ewma ewma = new Ewma(0.25);
+        double expected = 10;
+
+        ewma.push(10);
+        for (int i = 0; i < 100; i++) {
+            double value = Math.sin(i) * 5;
+            expected = 0.25 * value + 0.75 * expected;
+            ewma.push(value);
+        }
+        assertEquals(expected, ewma.value(), 1e-12);
+    }
+
+    @Test
+    public void halfLife_halvesStepResponse() {
+        Ewma ewma = Ewma.withHalfLife(8);
+
+        ewma.push(0);
+        for (int i = 0; i < 8; i++) {
+            ewma.push(1);
+        }
+        assertEquals(0.5, ewma.value(), 1e-12);
+    }
+
+    @Test
+    public void nan_isIgnoredAndResetClears() {
+        Ewma ewma = new Ewma(0.5);
+
+        ewma.push(4);
+        ewma.push(Double.NaN);
+        assertEquals(4, ewma.value(), 0);
+
+        ewma.reset();
+        assertTrue(Double.isNaN(ewma.value()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidAlpha_isRejected() {
+        new Ewma(0);
+    }
+}
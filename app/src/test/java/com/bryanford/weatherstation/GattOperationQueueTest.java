@@ -0,0 +1,183 @@
+package com.bryanford.weatherstation;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattOperationQueueTest {
+    private final GattOperationQueue mQueue = new GattOperationQueue();
+
+    // Operations started on the connection, MTU requests recorded by their value
+    private final List<Object> mStarted = new ArrayList<>();
+
+    // MTU values whose request fails to start
+    private final Set<Integer> mRefused = new HashSet<>();
+
+    private final List<GattOperationQueue.Operation> mFailed = new ArrayList<>();
+
+    private final GattOperationQueue.Connection mConnection =
+            new GattOperationQueue.Connection() {
+                @Override
+                public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+                    mStarted.add(characteristic);
+                    return true;
+                }
+
+                @Override
+                public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+                    mStarted.add(characteristic);
+                    return true;
+                }
+
+                @Override
+                public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+                    mStarted.add(descriptor);
+                    return true;
+                }
+
+                @Override
+                public boolean requestMtu(int mtu) {
+                    mStarted.add(mtu);
+                    return !mRefused.contains(mtu);
+                }
+            };
+
+    private static BluetoothGattCharacteristic characteristic() {
+        return new BluetoothGattCharacteristic(UUID.randomUUID(),
+                BluetoothGattCharacteristic.PROPERTY_READ, 0);
+    }
+
+    @Before
+    public void setUp() {
+        mQueue.attach(mConnection);
+        mQueue.setFailureListener(new GattOperationQueue.FailureListener() {
+            @Override
+            public void onOperationFailed(GattOperationQueue.Operation operation) {
+                mFailed.add(operation);
+            }
+        });
+    }
+
+    @Test
+    public void issuesOneAtATimeInOrder() {
+        for (int mtu = 100; mtu < 105; mtu++) {
+            mQueue.requestMtu(mtu);
+        }
+        assertEquals(Arrays.<Object>asList(100), mStarted);
+        assertEquals(4, mQueue.pending());
+        assertEquals(GattOperationQueue.REQUEST_MTU, mQueue.current().getType());
+
+        for (int i = 0; i < 4; i++) {
+            mQueue.complete();
+        }
+        assertEquals(Arrays.<Object>asList(100, 101, 102, 103, 104), mStarted);
+        assertEquals(0, mQueue.pending());
+
+        mQueue.complete();
+        assertNull(mQueue.current());
+    }
+
+    @Test
+    public void failedStart_releasedThroughListenerAndSkipped() {
+        mRefused.add(101);
+        mRefused.add(102);
+
+        mQueue.requestMtu(100);
+        mQueue.requestMtu(101);
+        mQueue.requestMtu(102);
+        mQueue.requestMtu(103);
+        assertTrue(mFailed.isEmpty());
+
+        // The next two cannot start, the one after them is issued in the same call
+        mQueue.complete();
+        assertEquals(2, mFailed.size());
+        assertEquals(Arrays.<Object>asList(100, 101, 102, 103), mStarted);
+        assertNotNull(mQueue.current());
+        assertEquals(0, mQueue.pending());
+    }
+
+    @Test
+    public void listenerMayEnqueue() {
+        final BluetoothGattCharacteristic retry = characteristic();
+
+        mRefused.add(100);
+        mQueue.setFailureListener(new GattOperationQueue.FailureListener() {
+            @Override
+            public void onOperationFailed(GattOperationQueue.Operation operation) {
+                mFailed.add(operation);
+                mQueue.read(retry, false);
+            }
+        });
+
+        mQueue.requestMtu(100);
+        assertEquals(1, mFailed.size());
+        assertEquals(Arrays.<Object>asList(100, retry), mStarted);
+    }
+
+    @Test
+    public void write_setsValueWhenIssued() {
+        BluetoothGattCharacteristic first = characteristic();
+        BluetoothGattCharacteristic second = characteristic();
+
+        mQueue.write(first, new byte[]{1});
+        mQueue.write(second, new byte[]{2});
+        assertEquals(Arrays.<Object>asList(first), mStarted);
+        assertArrayEquals(new byte[]{1}, mQueue.current().getValue());
+
+        mQueue.complete();
+        assertEquals(Arrays.<Object>asList(first, second), mStarted);
+        assertEquals(GattOperationQueue.WRITE_CHARACTERISTIC, mQueue.current().getType());
+    }
+
+    @Test
+    public void reset_dropsQueuedOperations() {
+        mQueue.requestMtu(100);
+        mQueue.requestMtu(101);
+
+        mQueue.attach(null);
+        assertNull(mQueue.current());
+        assertEquals(0, mQueue.pending());
+
+        // Nothing is issued without a connection
+        mQueue.requestMtu(102);
+        assertEquals(1, mQueue.pending());
+
+        mQueue.attach(mConnection);
+        mQueue.requestMtu(103);
+        assertEquals(Arrays.<Object>asList(100, 103), mStarted);
+    }
+
+    @Test
+    public void isReadPending_queuedAndInFlight() {
+        BluetoothGattCharacteristic first = characteristic();
+        BluetoothGattCharacteristic second = characteristic();
+
+        mQueue.read(first, true);
+        mQueue.read(second, true);
+        assertTrue(mQueue.isReadPending(first));
+        assertTrue(mQueue.isReadPending(second));
+
+        mQueue.complete();
+        assertFalse(mQueue.isReadPending(first));
+        assertTrue(mQueue.isReadPending(second));
+        assertTrue(mQueue.current().isBulk());
+
+        mQueue.complete();
+        assertFalse(mQueue.isReadPending(second));
+
+        // A write of the characteristic is not a read
+        mQueue.write(first, new byte[]{1});
+        assertFalse(mQueue.isReadPending(first));
+    }
+}
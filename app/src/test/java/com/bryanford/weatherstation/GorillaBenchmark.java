@@ -0,0 +1,90 @@
+package com.bryanford.weatherstation;
+
+import java.util.Random;
+
+/**
+ * Reports the compression ratio and decode throughput of the Gorilla block encoding on
+ * synthetic weather series.  Values are produced from 16 bit raw readings with the same
+ * conversions BluetoothService applies, sampled about once a second with notification
+ * jitter.  Run the main method from the IDE or with the unit test classpath.
+ */
+public class GorillaBenchmark {
+    private static final int SAMPLES = 2000000;
+    private static final int BLOCK = ReadingLog.BLOCK_SAMPLES;
+    private static final int RAW_BYTES_PER_SAMPLE = 16;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        long[] times = new long[SAMPLES];
+        double[] temperature = new double[SAMPLES];
+        double[] humidity = new double[SAMPLES];
+        double[] pressure = new double[SAMPLES];
+
+        long time = 1450000000000L;
+        double drift = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            double day = Math.sin(i * 2 * Math.PI / 86400);
+            drift += random.nextGaussian() * 0.01;
+
+            int rawTemp = (int) ((20 + 8 * day + drift + 46.85) * 65536 / 175.72)
+                    + random.nextInt(3) - 1;
+            int rawHumid = (int) ((55 - 20 * day + 6) * 65535 / 125) + random.nextInt(9) - 4;
+            double temp = -46.85 + 175.72 / 65536 * rawTemp;
+            double humid = rawHumid - (rawHumid % 4);
+
+            times[i] = time;
+            temperature[i] = (temp * 9 / 5) + 32;
+            humidity[i] = -6f + 125f * (humid / 65535f);
+            pressure[i] = 101325 + 250 * day + 20 * drift + random.nextInt(5) * 0.25;
+
+            time += 1000 + random.nextInt(21) - 10;
+        }
+
+        run("temperature", times, temperature);
+        run("humidity", times, humidity);
+        run("pressure", times, pressure);
+    }
+
+    private static void run(String name, long[] times, double[] values) {
+        GorillaEncoder encoder = new GorillaEncoder(BLOCK);
+        GorillaDecoder decoder = new GorillaDecoder();
+        int blocks = SAMPLES / BLOCK;
+        byte[][] encoded = new byte[blocks][];
+        long bytes = 0;
+
+        for (int b = 0; b < blocks; b++) {
+            int start = b * BLOCK;
+
+            encoder.begin(times[start]);
+            for (int i = start; i < start + BLOCK; i++) {
+                encoder.add(times[i], values[i]);
+            }
+
+            encoded[b] = new byte[encoder.length()];
+            System.arraycopy(encoder.buffer(), 0, encoded[b], 0, encoder.length());
+            bytes += encoder.length() + ReadingLog.BLOCK_HEADER_SIZE;
+        }
+
+        long[] outTimes = new long[BLOCK];
+        double[] outValues = new double[BLOCK];
+        double checksum = 0;
+        long best = Long.MAX_VALUE;
+
+        for (int run = 0; run < 10; run++) {
+            long start = System.nanoTime();
+
+            for (int b = 0; b < blocks; b++) {
+                decoder.begin(encoded[b], times[b * BLOCK]);
+                decoder.decode(outTimes, outValues, BLOCK);
+                checksum += outValues[BLOCK - 1];
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        long samples = (long) blocks * BLOCK;
+        System.out.println(String.format(
+                "%-12s %.2f bytes/sample, ratio %.1fx, decode %.1f M samples/s (%.0f)",
+                name, (double) bytes / samples, (double) samples * RAW_BYTES_PER_SAMPLE / bytes,
+                samples / (best / 1e9) / 1e6, checksum));
+    }
+}
@@ -0,0 +1,130 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GorillaEncoderTest {
+    // Round trips a block and compares times and raw value bits
+    private static void assertRoundTrip(GorillaEncoder encoder, long firstTime, long[] times,
+                                        double[] values) {
+        encoder.begin(firstTime);
+        for (int i = 0; i < times.length; i++) {
+            encoder.add(times[i], values[i]);
+        }
+
+        byte[] block = Arrays.copyOf(encoder.buffer(), encoder.length());
+        long[] decodedTimes = new long[times.length];
+        double[] decodedValues = new double[values.length];
+        GorillaDecoder decoder = new GorillaDecoder();
+
+        decoder.begin(block, firstTime);
+        decoder.decode(decodedTimes, decodedValues, times.length);
+
+        assertArrayEquals(times, decodedTimes);
+        for (int i = 0; i < values.length; i++) {
+            assertEquals("value " + i, Double.doubleToRawLongBits(values[i]),
+                    Double.doubleToRawLongBits(decodedValues[i]));
+        }
+    }
+
+    @Test
+    public void jitteredTimes_roundTrip() {
+        Random random = new Random(7);
+        long[] times = new long[ReadingLog.BLOCK_SAMPLES];
+        double[] values = new double[times.length];
+        long time = 1450000000000L;
+
+        for (int i = 0; i < times.length; i++) {
+            times[i] = time;
+            values[i] = 20 + Math.sin(i / 50.0) * 5 + random.nextInt(3) * 0.01;
+            time += 1000 + random.nextInt(41) - 20;
+        }
+        assertRoundTrip(new GorillaEncoder(times.length), times[0], times, values);
+    }
+
+    @Test
+    public void everyDeltaOfDeltaBucket_roundTrips() {
+        // Bucket edges on both sides, then out of range and extreme deltas
+        long[] deltaOfDeltas = {0, 1, -1, -63, 64, -64, 65, -255, 256, -256, 257, -2047, 2048,
+                -2048, 2049, 1000000, -1000000, Long.MAX_VALUE / 4, Long.MIN_VALUE / 4};
+        long[] times = new long[deltaOfDeltas.length + 1];
+        double[] values = new double[times.length];
+        long delta = 1000;
+
+        times[0] = 1000000;
+        for (int i = 0; i < deltaOfDeltas.length; i++) {
+            delta += deltaOfDeltas[i];
+            times[i + 1] = times[i] + delta;
+        }
+        assertRoundTrip(new GorillaEncoder(times.length), times[0], times, values);
+
+        // The first sample is itself a delta from the block header time
+        assertRoundTrip(new GorillaEncoder(times.length), times[0] - 5000, times, values);
+    }
+
+    @Test
+    public void specialValues_roundTripBitExact() {
+        double[] values = {
+                1.5, 1.5, 1.5,                                  // repeated
+                0.0, -0.0, 0.0, -0.0,                           // sign bit only
+                Double.NaN, Double.longBitsToDouble(0x7FF8000000000123L), Double.NaN,
+                Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                1.0, -Double.MAX_VALUE, Double.MIN_VALUE,       // XOR with no leading zeros
+                Double.longBitsToDouble(0xFFFFFFFFFFFFFFFFL), 0.0,
+                101325.25, 101325.5, 101325.25, 1e-300, 1e300
+        };
+        long[] times = new long[values.length];
+
+        for (int i = 0; i < times.length; i++) {
+            times[i] = i * 1000L;
+        }
+        assertRoundTrip(new GorillaEncoder(times.length), 0, times, values);
+    }
+
+    @Test
+    public void firstValue_isWrittenRaw() {
+        double[] values = {Double.longBitsToDouble(0x8000000000000001L)};
+
+        assertRoundTrip(new GorillaEncoder(1), 0, new long[]{0}, values);
+    }
+
+    @Test
+    public void reusedEncoder_startsCleanBlocks() {
+        GorillaEncoder encoder = new GorillaEncoder(64);
+        Random random = new Random(11);
+
+        for (int block = 0; block < 10; block++) {
+            long[] times = new long[1 + random.nextInt(64)];
+            double[] values = new double[times.length];
+            long time = random.nextInt(100000);
+
+            for (int i = 0; i < times.length; i++) {
+                times[i] = time;
+                values[i] = Double.longBitsToDouble(random.nextLong());
+                time += random.nextInt(5000);
+            }
+            assertRoundTrip(encoder, times[0], times, values);
+        }
+    }
+
+    @Test
+    public void worstCase_fitsBuffer() {
+        int samples = 100;
+        Random random = new Random(3);
+        long[] times = new long[samples];
+        double[] values = new double[samples];
+
+        for (int i = 0; i < samples; i++) {
+            times[i] = (i % 2 == 0 ? 1 : -1) * (Long.MAX_VALUE / 8) + i;
+            values[i] = Double.longBitsToDouble(random.nextLong() | 0x8000000000000001L);
+        }
+
+        GorillaEncoder encoder = new GorillaEncoder(samples);
+        assertRoundTrip(encoder, 0, times, values);
+        assertTrue(encoder.length() <= GorillaEncoder.maxBytes(samples));
+    }
+}
@@ -0,0 +1,74 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class HampelFilterTest {
+    @Test
+    public void replacesSpikesWithMedian() {
+        // The floor keeps ordinary noise from tripping the small window's MAD
+        HampelFilter filter = new HampelFilter(9, 3, 1);
+        Random random = new Random(9);
+
+        for (int i = 0; i < 200; i++) {
+            double value = 40 + random.nextGaussian() * 0.2;
+
+            if (i > 20 && i % 25 == 0) {
+                filter.push(95);
+                assertEquals(40, filter.value(), 1);
+            } else {
+                filter.push(value);
+                assertEquals(value, filter.value(), 0);
+            }
+        }
+        assertEquals(7, filter.rejected());
+    }
+
+    @Test
+    public void stepPassesAfterHalfWindow() {
+        HampelFilter filter = new HampelFilter(9, 3, 0.1);
+
+        for (int i = 0; i < 20; i++) {
+            filter.push(i % 2 == 0 ? 100 : 100.05);
+        }
+        for (int i = 0; i < 5; i++) {
+            filter.push(110);
+        }
+        assertEquals(110, filter.value(), 0);
+    }
+
+    @Test
+    public void madMatchesBruteForce() {
+        Random random = new Random(13);
+        int window = 11;
+        HampelFilter filter = new HampelFilter(window, 2, 0);
+        double[] values = new double[2000];
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(4) == 0 ? random.nextGaussian() * 10 : random.nextInt(5);
+            filter.push(values[i]);
+
+            double[] sorted = Arrays.copyOfRange(values, Math.max(0, i - window + 1), i + 1);
+            Arrays.sort(sorted);
+            double median = median(sorted);
+
+            double[] deviations = new double[sorted.length];
+            for (int j = 0; j < sorted.length; j++) {
+                deviations[j] = Math.abs(sorted[j] - median);
+            }
+            Arrays.sort(deviations);
+
+            boolean outlier = Math.abs(values[i] - median) > 2 * 1.4826 * median(deviations);
+            assertEquals("at " + i, outlier ? median : values[i], filter.value(), 1e-9);
+        }
+    }
+
+    private static double median(double[] sorted) {
+        int n = sorted.length;
+        return n % 2 == 1 ? sorted[n / 2] : (sorted[n / 2 - 1] + sorted[n / 2]) / 2;
+    }
+}
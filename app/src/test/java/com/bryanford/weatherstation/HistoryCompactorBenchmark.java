@@ -0,0 +1,148 @@
+package com.bryanford.weatherstation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compacts two weeks of once-a-second history down to a week of raw samples and logs the
+ * compaction throughput, together with the latency of appends made by a live writer thread
+ * meanwhile, compared to the same writer beforehand without compaction.  Run the main method
+ * from the IDE or with the unit test classpath.
+ */
+public class HistoryCompactorBenchmark {
+    private static final long DAY = RetentionPolicy.DAY_MILLIS;
+    private static final long START = 1450000000000L;
+    private static final int DAYS = 14;
+
+    // Live writer, appends per second in bursts of 100
+    private static final int APPENDS_PER_SECOND = 20000;
+    private static final int MAX_APPENDS = 4000000;
+    private static final long BASELINE_NANOS = 3000000000L;
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "compactor-benchmark");
+        deleteRecursively(dir);
+
+        final ReadingLog log = new ReadingLog(dir);
+        generate(log);
+        final long before = directoryBytes(dir);
+
+        final HistoryCompactor compactor = new HistoryCompactor(log,
+                new RetentionPolicy(7 * DAY, 4 * RetentionPolicy.WEEK_MILLIS, Long.MAX_VALUE));
+        final long now = START + DAYS * DAY;
+        final long[] compactNanos = new long[1];
+        final int[] steps = new int[1];
+
+        Thread compaction = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    long start = System.nanoTime();
+                    while (compactor.step(now)) {
+                        steps[0]++;
+                    }
+                    compactNanos[0] = System.nanoTime() - start;
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, "HistoryCompactor");
+
+        // Same writer first without compaction, which also warms it up
+        Thread idle = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                LockSupport.parkNanos(BASELINE_NANOS);
+            }
+        });
+        idle.start();
+        long[] without = write(log, now, idle);
+        idle.join();
+
+        compaction.start();
+        long[] during = write(log, now + DAY, compaction);
+        compaction.join();
+
+        compactor.close();
+        log.close();
+
+        System.out.println(String.format("Compaction: %d steps in %.1f s, %d samples rolled up "
+                        + "(%.0f/s), %.1f MB freed, history %.1f -> %.1f MB",
+                steps[0], compactNanos[0] / 1e9, compactor.samplesRolledUp(),
+                compactor.samplesRolledUp() / (compactNanos[0] / 1e9),
+                compactor.bytesFreed() / 1e6, before / 1e6, directoryBytes(dir) / 1e6));
+        report("Appends during compaction", during);
+        report("Appends without compaction", without);
+
+        deleteRecursively(dir);
+    }
+
+    // Appends at a steady rate until the thread ends, returns the latency of every append
+    private static long[] write(ReadingLog log, long time, Thread until) throws IOException {
+        final long[] latencies = new long[MAX_APPENDS];
+        final long burstNanos = 1000000000L / APPENDS_PER_SECOND * 100;
+        long next = System.nanoTime();
+        int count = 0;
+
+        while (until.isAlive() && count < MAX_APPENDS) {
+            for (int i = 0; i < 100 && count < MAX_APPENDS; i++) {
+                final long start = System.nanoTime();
+                log.append(ReadingChannel.TEMPERATURE + count % 3, time, 20 + count % 50);
+                latencies[count++] = System.nanoTime() - start;
+                time += 50;
+            }
+            next += burstNanos;
+            LockSupport.parkNanos(next - System.nanoTime());
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private static void report(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        final int n = latencies.length;
+
+        System.out.println(String.format("%s: %d, p50 %.2f us, p99.9 %.1f us, max %.2f ms",
+                name, n, latencies[n / 2] / 1e3, latencies[(int) (n * 0.999)] / 1e3,
+                latencies[n - 1] / 1e6));
+    }
+
+    // Slowly varying weather-like values sampled once a second
+    private static void generate(ReadingLog log) throws IOException {
+        long time = START;
+
+        for (int i = 0; i < DAYS * 86400; i++) {
+            double day = Math.sin(i * 2 * Math.PI / 86400);
+
+            log.append(ReadingChannel.TEMPERATURE, time, 65 + 15 * day + Math.random() * 0.2);
+            log.append(ReadingChannel.HUMIDITY, time, 55 - 20 * day + Math.random() * 0.5);
+            log.append(ReadingChannel.PRESSURE, time + 500, 101325 + 300 * day);
+            time += 1000;
+        }
+        log.flush();
+    }
+
+    private static long directoryBytes(File file) {
+        File[] children = file.listFiles();
+        long bytes = file.isFile() ? file.length() : 0;
+
+        if (children != null) {
+            for (File child : children) {
+                bytes += directoryBytes(child);
+            }
+        }
+        return bytes;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,194 @@
+package com.bryanford.weatherstation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HistoryCompactorTest {
+    private static final long MINUTE = HistoryCompactor.MINUTE_MILLIS;
+    private static final long HOUR = HistoryCompactor.HOUR_MILLIS;
+    private static final long DAY = RetentionPolicy.DAY_MILLIS;
+
+    // Start of the history, on an hour
+    private static final long START = 1600000000000L / HOUR * HOUR;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ReadingLog mLog;
+
+    static class Samples {
+        final List<Long> times = new ArrayList<>();
+        final List<Double> values = new ArrayList<>();
+
+        Samples(ReadingLog log, int channel) throws IOException {
+            final SampleCursor cursor = log.query(channel, Long.MIN_VALUE, Long.MAX_VALUE);
+
+            try {
+                while (cursor.next()) {
+                    times.add(cursor.time());
+                    values.add(cursor.value());
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        int size() {
+            return times.size();
+        }
+
+        long first() {
+            return times.get(0);
+        }
+
+        long last() {
+            return times.get(times.size() - 1);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mLog = new ReadingLog(mFolder.getRoot());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mLog.close();
+    }
+
+    @Test
+    public void rollsUpIntoTiersAndDropsOldData() throws IOException {
+        append(ReadingChannel.TEMPERATURE, START, 3 * DAY, 10000);
+        mLog.flush();
+        final long now = START + 3 * DAY;
+
+        final HistoryCompactor compactor = new HistoryCompactor(mLog,
+                new RetentionPolicy(DAY, 2 * DAY, Long.MAX_VALUE));
+        compactAll(compactor, now);
+        compactor.close();
+
+        // Raw data from a day back, and at most a block before that
+        final Samples raw = new Samples(mLog, ReadingChannel.TEMPERATURE);
+        assertTrue(raw.first() <= now - DAY);
+        assertTrue(raw.first() > now - DAY - ReadingLog.BLOCK_SAMPLES * 10000);
+        assertEquals(now - 10000, raw.last());
+
+        // Minute means up to where raw data is kept in full
+        final Samples minutes = new Samples(tier(HistoryCompactor.MINUTE_DIR),
+                ReadingChannel.TEMPERATURE);
+        assertEquals(now - DAY - MINUTE, minutes.last());
+        assertTrue(minutes.first() <= now - 2 * DAY);
+        for (int i = 0; i < minutes.size(); i++) {
+            final long time = minutes.times.get(i);
+            assertEquals(minutes.first() + i * MINUTE, time);
+            assertEquals((time - START) / MINUTE, minutes.values.get(i), 0);
+        }
+
+        // Hourly means of the first day, the mean of the minute values of each hour
+        final Samples hours = new Samples(tier(HistoryCompactor.HOUR_DIR),
+                ReadingChannel.TEMPERATURE);
+        assertEquals(24, hours.size());
+        for (int i = 0; i < hours.size(); i++) {
+            assertEquals(START + i * HOUR, (long) hours.times.get(i));
+            assertEquals(i * 60 + 29.5, hours.values.get(i), 1e-9);
+        }
+        assertTrue(compactor.bytesFreed() > 0);
+    }
+
+    @Test
+    public void stepsAreBounded() throws IOException {
+        append(ReadingChannel.HUMIDITY, START, DAY, 1000);
+        mLog.flush();
+
+        final HistoryCompactor compactor = new HistoryCompactor(mLog,
+                new RetentionPolicy(HOUR, HOUR, Long.MAX_VALUE));
+        assertTrue(compactor.step(START + DAY + HOUR));
+        assertTrue(compactor.samplesRolledUp() >= HistoryCompactor.CHUNK_SAMPLES);
+        assertTrue(compactor.samplesRolledUp() <= HistoryCompactor.CHUNK_SAMPLES + 60);
+
+        // Nothing was dropped yet, so the raw data is all there
+        assertEquals(DAY / 1000, new Samples(mLog, ReadingChannel.HUMIDITY).size());
+        compactor.close();
+    }
+
+    @Test
+    public void resumesWithoutCountingTwice() throws IOException {
+        append(ReadingChannel.PRESSURE, START, 2 * DAY, 1000);
+        mLog.flush();
+        final long now = START + 2 * DAY;
+        final RetentionPolicy policy = new RetentionPolicy(HOUR, 30 * DAY, Long.MAX_VALUE);
+
+        // Stops without closing, the minute means it held in memory are lost
+        final HistoryCompactor first = new HistoryCompactor(mLog, policy);
+        for (int i = 0; i < 6; i++) {
+            first.step(now);
+        }
+
+        final HistoryCompactor second = new HistoryCompactor(mLog, policy);
+        compactAll(second, now);
+        second.close();
+
+        final Samples minutes = new Samples(tier(HistoryCompactor.MINUTE_DIR),
+                ReadingChannel.PRESSURE);
+        assertEquals(START, minutes.first());
+        assertEquals(now - HOUR - MINUTE, minutes.last());
+        assertEquals((2 * DAY - HOUR) / MINUTE, minutes.size());
+    }
+
+    @Test
+    public void staysWithinBudget() throws IOException {
+        for (int channel : ReadingChannel.all()) {
+            append(channel, START, 2 * DAY, 1000);
+        }
+        mLog.flush();
+        final long now = START + 2 * DAY;
+
+        final HistoryCompactor compactor = new HistoryCompactor(mLog,
+                new RetentionPolicy(30 * DAY, 60 * DAY, 1));
+        final long budget = compactor.diskBytes() / 4;
+        compactor.close();
+
+        final HistoryCompactor limited = new HistoryCompactor(mLog,
+                new RetentionPolicy(30 * DAY, 60 * DAY, budget));
+        compactAll(limited, now);
+        limited.close();
+
+        assertTrue(limited.diskBytes() + " bytes", limited.diskBytes() <= budget);
+        for (int channel : ReadingChannel.all()) {
+            // The latest raw data stays, and what went early is kept as minute means
+            final Samples raw = new Samples(mLog, channel);
+            assertEquals(now - 1000, raw.last());
+
+            final Samples minutes = new Samples(tier(HistoryCompactor.MINUTE_DIR), channel);
+            assertEquals(START, minutes.first());
+            assertTrue(minutes.last() + MINUTE >= raw.first());
+        }
+    }
+
+    private void compactAll(HistoryCompactor compactor, long now) throws IOException {
+        for (int i = 0; compactor.step(now); i++) {
+            assertTrue("Compaction does not finish", i < 10000);
+        }
+    }
+
+    // Samples with the minute since START as value, so minute means are exact
+    private void append(int channel, long from, long span, long interval) throws IOException {
+        for (long time = from; time < from + span; time += interval) {
+            mLog.append(channel, time, (time - START) / MINUTE);
+        }
+    }
+
+    private ReadingLog tier(String name) {
+        return new ReadingLog(new File(mFolder.getRoot(), name));
+    }
+}
@@ -0,0 +1,177 @@
+package com.bryanford.weatherstation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class HistoryDecimatorTest {
+    private static final int CHANNEL = ReadingChannel.PRESSURE;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ReadingLog mLog;
+    private final HistoryDecimator mDecimator = new HistoryDecimator();
+
+    @Before
+    public void setUp() {
+        mLog = new ReadingLog(mFolder.getRoot());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mLog.close();
+    }
+
+    // Sample i is at i * 10 ms
+    private static double value(int i) {
+        return Math.sin(i * 0.37) * 100 + (i % 7);
+    }
+
+    private void appendSamples(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            mLog.append(CHANNEL, i * 10L, value(i));
+        }
+        mLog.flush();
+    }
+
+    private void load(long queryFrom, long queryTo, long from, long to, int buckets)
+            throws IOException {
+        SampleCursor cursor = mLog.query(CHANNEL, queryFrom, queryTo);
+        try {
+            mDecimator.load(cursor, from, to, buckets);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Min and max of the stored samples in [from, to), NaN if there are none
+    private static float[] range(long from, long to, int count) {
+        float min = Float.NaN;
+        float max = Float.NaN;
+
+        for (int i = 0; i < count; i++) {
+            if (i * 10L >= from && i * 10L < to) {
+                float value = (float) value(i);
+                min = !(value >= min) ? value : min;
+                max = !(value <= max) ? value : max;
+            }
+        }
+        return new float[]{min, max};
+    }
+
+    @Test
+    public void render_minMaxPerBucket() throws IOException {
+        appendSamples(1000);
+        load(0, 10000, 0, 10000, 100);
+
+        float[] min = new float[100];
+        float[] max = new float[100];
+        mDecimator.render(0, 10000, 100, min, max);
+
+        for (int pixel = 0; pixel < 100; pixel++) {
+            float[] expected = range(pixel * 100L, pixel * 100L + 100, 1000);
+            assertEquals(expected[0], min[pixel], 0);
+            assertEquals(expected[1], max[pixel], 0);
+        }
+    }
+
+    @Test
+    public void load_skipsSamplesOutsideTheRange() throws IOException {
+        appendSamples(1000);
+
+        // The cursor returns whole blocks, more than the loaded range
+        load(0, Long.MAX_VALUE, 2000, 4000, 20);
+
+        float[] min = new float[20];
+        float[] max = new float[20];
+        mDecimator.render(2000, 4000, 20, min, max);
+
+        for (int pixel = 0; pixel < 20; pixel++) {
+            float[] expected = range(2000 + pixel * 100L, 2100 + pixel * 100L, 1000);
+            assertEquals(expected[0], min[pixel], 0);
+            assertEquals(expected[1], max[pixel], 0);
+        }
+    }
+
+    @Test
+    public void render_gapsAndNaNSamplesAreNaN() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            // Nothing from 300 to 600 ms, only NaN from 600 to 700 ms
+            if (i < 30 || i >= 60) {
+                mLog.append(CHANNEL, i * 10L, i >= 60 && i < 70 ? Double.NaN : i);
+            }
+        }
+        mLog.flush();
+        load(0, 1000, 0, 1000, 10);
+
+        float[] min = new float[10];
+        float[] max = new float[10];
+        mDecimator.render(0, 1000, 10, min, max);
+
+        for (int pixel = 0; pixel < 10; pixel++) {
+            if (pixel >= 3 && pixel < 7) {
+                assertTrue(Float.isNaN(min[pixel]));
+                assertTrue(Float.isNaN(max[pixel]));
+            } else {
+                assertEquals(pixel * 10, min[pixel], 0);
+                assertEquals(pixel * 10 + 9, max[pixel], 0);
+            }
+        }
+    }
+
+    @Test
+    public void panAndZoom_servedFromTheCache() throws IOException {
+        appendSamples(3000);
+        load(0, 30000, 0, 30000, 3000);
+
+        // The log is gone, only the cache can answer
+        mLog.close();
+        assertTrue(mLog.segmentFile(CHANNEL).delete());
+
+        long[][] windows = {{10000, 20000}, {12000, 22000}, {15000, 17000}, {0, 30000}};
+        int[] pixels = {100, 100, 50, 300};
+
+        for (int w = 0; w < windows.length; w++) {
+            long from = windows[w][0];
+            long to = windows[w][1];
+            long pixelWidth = (to - from) / pixels[w];
+            float[] min = new float[pixels[w]];
+            float[] max = new float[pixels[w]];
+
+            assertTrue(mDecimator.covers(from, to, pixels[w]));
+            mDecimator.render(from, to, pixels[w], min, max);
+
+            for (int pixel = 0; pixel < pixels[w]; pixel++) {
+                long start = from + pixel * pixelWidth;
+                float[] expected = range(start, start + pixelWidth, 3000);
+                assertEquals(expected[0], min[pixel], 0);
+                assertEquals(expected[1], max[pixel], 0);
+            }
+        }
+    }
+
+    @Test
+    public void covers_limits() throws IOException {
+        assertFalse(mDecimator.covers(0, 1000, 1));
+
+        load(0, 0, 0, 1000, 100);
+
+        // One 10 ms bucket per pixel at most
+        assertTrue(mDecimator.covers(0, 1000, 100));
+        assertTrue(mDecimator.covers(0, 1000, 10));
+        assertFalse(mDecimator.covers(0, 1000, 101));
+        assertTrue(mDecimator.covers(500, 1000, 50));
+        assertFalse(mDecimator.covers(500, 1000, 51));
+
+        // Panned past either end
+        assertFalse(mDecimator.covers(-10, 990, 10));
+        assertFalse(mDecimator.covers(10, 1010, 10));
+    }
+}
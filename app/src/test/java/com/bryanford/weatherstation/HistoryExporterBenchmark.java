@@ -0,0 +1,103 @@
+package com.bryanford.weatherstation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * Measures export throughput in rows per second over a generated multi-million-sample
+ * history.  Run the main method from the IDE or with the unit test classpath.
+ */
+public class HistoryExporterBenchmark {
+    private static final int SAMPLES_PER_CHANNEL = 1000000;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "export-benchmark");
+        ReadingLog log = new ReadingLog(dir);
+
+        deleteRecursively(dir);
+        generate(log);
+
+        HistoryExporter exporter = new HistoryExporter(log);
+        int[] channels = ReadingChannel.all();
+
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            long rows = exporter.exportCsv(new NullWriter(), channels, 0, Long.MAX_VALUE);
+            report("csv", rows, System.nanoTime() - start);
+
+            CountingStream columnar = new CountingStream();
+            start = System.nanoTime();
+            rows = exporter.exportColumnar(columnar, channels, 0, Long.MAX_VALUE);
+            report("columnar", rows, System.nanoTime() - start);
+            System.out.println("  columnar bytes/row: " + (double) columnar.mCount / rows);
+        }
+
+        deleteRecursively(dir);
+    }
+
+    // Slowly varying weather-like values sampled once a second
+    private static void generate(ReadingLog log) throws IOException {
+        long time = 1450000000000L;
+
+        for (int i = 0; i < SAMPLES_PER_CHANNEL; i++) {
+            double day = Math.sin(i * 2 * Math.PI / 86400);
+
+            log.append(ReadingChannel.TEMPERATURE, time, 65 + 15 * day + Math.random() * 0.2);
+            log.append(ReadingChannel.HUMIDITY, time, 55 - 20 * day + Math.random() * 0.5);
+            log.append(ReadingChannel.PRESSURE, time + 500, 101325 + 300 * day);
+            time += 1000;
+        }
+        log.close();
+    }
+
+    private static void report(String name, long rows, long nanos) {
+        System.out.println(String.format("%-8s %d rows in %.1f ms, %.0f rows/s",
+                name, rows, nanos / 1e6, rows / (nanos / 1e9)));
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static class NullWriter extends Writer {
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void write(String string) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class CountingStream extends OutputStream {
+        long mCount;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            mCount += length;
+        }
+    }
+}
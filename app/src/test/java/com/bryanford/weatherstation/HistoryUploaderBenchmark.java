@@ -0,0 +1,97 @@
+package com.bryanford.weatherstation;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Measures upload throughput of a generated multi-million-sample history to the localhost
+ * stand-in server, from scratch and resumed after an interruption.  Run the main method from
+ * the IDE or with the unit test classpath.
+ */
+public class HistoryUploaderBenchmark {
+    private static final int SAMPLES_PER_CHANNEL = 1000000;
+    private static final int[] CHUNK_BLOCKS = {16, 64, 256};
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "upload-benchmark");
+        deleteRecursively(dir);
+
+        ReadingLog log = new ReadingLog(dir);
+        generate(log);
+
+        for (int blocks : CHUNK_BLOCKS) {
+            run(log, blocks);
+        }
+
+        log.close();
+        deleteRecursively(dir);
+    }
+
+    private static void run(ReadingLog log, int chunkBlocks) throws IOException {
+        HistoryUploaderTest.StandInServer server = new HistoryUploaderTest.StandInServer();
+        server.keepRows = false;
+
+        try {
+            // Cut the first upload off part way, then resume it
+            server.chunksBeforeLostAck = SAMPLES_PER_CHANNEL / ReadingLog.BLOCK_SAMPLES
+                    / chunkBlocks / 2;
+
+            HistoryUploader first = new HistoryUploader(log, server.url(),
+                    HistoryUploaderTest.SOURCE);
+            first.setChunkBlocks(chunkBlocks);
+
+            long start = System.nanoTime();
+            try {
+                first.uploadAll();
+            } catch (IOException e) {
+                // Interrupted as planned
+            }
+
+            HistoryUploader second = new HistoryUploader(log, server.url(),
+                    HistoryUploaderTest.SOURCE);
+            second.setChunkBlocks(chunkBlocks);
+            second.uploadAll();
+            long nanos = System.nanoTime() - start;
+
+            long rows = first.rowsSent() + second.rowsSent();
+            long bytes = first.bytesSent() + second.bytesSent();
+            long uncompressed = first.uncompressedBytes() + second.uncompressedBytes();
+
+            System.out.println(String.format(
+                    "%3d blocks/chunk: %d rows (%d on server) in %d chunks, %.1f ms, "
+                            + "%.0f rows/s, %.1f MB/s sent, %.1f bytes/row, gzip %.1fx",
+                    chunkBlocks, rows, server.received,
+                    first.chunksSent() + second.chunksSent(), nanos / 1e6,
+                    rows / (nanos / 1e9), bytes / (nanos / 1e9) / 1e6,
+                    (double) bytes / rows, (double) uncompressed / bytes));
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Slowly varying weather-like values sampled once a second
+    private static void generate(ReadingLog log) throws IOException {
+        long time = 1450000000000L;
+
+        for (int i = 0; i < SAMPLES_PER_CHANNEL; i++) {
+            double day = Math.sin(i * 2 * Math.PI / 86400);
+
+            log.append(ReadingChannel.TEMPERATURE, time, 65 + 15 * day + Math.random() * 0.2);
+            log.append(ReadingChannel.HUMIDITY, time, 55 - 20 * day + Math.random() * 0.5);
+            log.append(ReadingChannel.PRESSURE, time + 500, 101325 + 300 * day);
+            time += 1000;
+        }
+        log.flush();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
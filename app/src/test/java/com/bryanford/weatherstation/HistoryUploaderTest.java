@@ -0,0 +1,373 @@
+package com.bryanford.weatherstation;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class HistoryUploaderTest {
+    static final String SOURCE = "6f1c2b9e-58a4-4c1b-9d3e-2a7f0c8b5e41";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ReadingLog mLog;
+    private StandInServer mServer;
+
+    /**
+     * Localhost stand-in for the backend, keeping the acknowledged offset and the received
+     * rows of every channel path.
+     */
+    static class StandInServer implements HttpHandler {
+        final HttpServer server;
+        final Map<String, Long> offsets = new HashMap<>();
+        final Map<String, List<String>> rows = new HashMap<>();
+
+        // Stream bytes the uploader said were dropped before it could send them
+        long gapBytes;
+        int posts;
+
+        // Answers every post with a 409 at the current offset
+        volatile boolean refuse;
+
+        // Chunks to accept before the answers to the next posts are lost
+        volatile int chunksBeforeLostAck = -1;
+        volatile int lostAcks = 1;
+
+        // Whether to keep the rows or only count them, as the benchmark does
+        volatile boolean keepRows = true;
+        long received;
+
+        StandInServer() throws IOException {
+            server = HttpServer.create(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            server.createContext("/", this);
+            server.start();
+        }
+
+        URL url() throws IOException {
+            return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/upload");
+        }
+
+        synchronized List<String> rows(int channel) throws IOException {
+            final List<String> channelRows =
+                    rows.get("/upload/" + SOURCE + "/" + ReadingChannel.name(channel));
+            return channelRows == null ? new ArrayList<String>() : channelRows;
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            final String path = exchange.getRequestURI().getPath();
+            final Long current;
+
+            synchronized (this) {
+                current = offsets.get(path);
+            }
+
+            if (exchange.getRequestMethod().equals("GET")) {
+                if (current == null) {
+                    respond(exchange, 404, null);
+                } else {
+                    respond(exchange, 200, current);
+                }
+                return;
+            }
+
+            final long start = Long.parseLong(
+                    exchange.getRequestHeaders().getFirst(HistoryUploader.OFFSET_HEADER));
+            final long end = Long.parseLong(
+                    exchange.getRequestHeaders().getFirst(HistoryUploader.END_HEADER));
+            final String gapEnd =
+                    exchange.getRequestHeaders().getFirst(HistoryUploader.GAP_END_HEADER);
+            final String body = gunzip(exchange.getRequestBody());
+            final long offset = current == null ? 0 : current;
+
+            synchronized (this) {
+                posts++;
+            }
+
+            // As documented, an unseen channel is at offset 0 like any other
+            if (start != offset || refuse) {
+                loseAck();
+                respond(exchange, 409, offset);
+                return;
+            }
+
+            final String[] lines = body.split("\n");
+            assertEquals("time,value", lines[0]);
+            synchronized (this) {
+                List<String> channelRows = rows.get(path);
+                if (channelRows == null) {
+                    channelRows = new ArrayList<>();
+                    rows.put(path, channelRows);
+                }
+                for (int i = 1; i < lines.length && keepRows; i++) {
+                    channelRows.add(lines[i]);
+                }
+                received += lines.length - 1;
+                offsets.put(path, end);
+                if (gapEnd != null) {
+                    gapBytes += Long.parseLong(gapEnd) - start;
+                }
+            }
+
+            loseAck();
+            if (chunksBeforeLostAck > 0) {
+                chunksBeforeLostAck--;
+            }
+            respond(exchange, 200, end);
+        }
+
+        // Throwing makes the server drop the connection before the client hears the answer
+        private void loseAck() throws IOException {
+            if (chunksBeforeLostAck != 0) {
+                return;
+            }
+            if (--lostAcks == 0) {
+                chunksBeforeLostAck = -1;
+            }
+            throw new IOException("Answer lost");
+        }
+
+        private static void respond(HttpExchange exchange, int status, Long offset)
+                throws IOException {
+            if (offset != null) {
+                exchange.getResponseHeaders().set(HistoryUploader.OFFSET_HEADER,
+                        Long.toString(offset));
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        }
+
+        private static String gunzip(InputStream body) throws IOException {
+            final InputStream in = new GZIPInputStream(body);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[8192];
+            int read;
+
+            while ((read = in.read(buffer)) > 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mLog = new ReadingLog(mFolder.getRoot());
+        mServer = new StandInServer();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.stop();
+        mLog.close();
+    }
+
+    @Test
+    public void uploadsEveryChannelInChunks() throws IOException {
+        append(0, 5000);
+
+        final HistoryUploader uploader = new HistoryUploader(mLog, mServer.url(), SOURCE);
+        uploader.setChunkBlocks(4);
+
+        assertEquals(15000, uploader.uploadAll());
+        for (int channel : channels()) {
+            assertEquals(stored(channel), mServer.rows(channel));
+        }
+
+        // 5000 samples make 20 blocks, 19 full and one flushed, sent 4 at a time
+        assertEquals(15, uploader.chunksSent());
+        assertTrue(uploader.bytesSent() < uploader.uncompressedBytes() / 2);
+
+        // Nothing new to send
+        assertEquals(0, new HistoryUploader(mLog, mServer.url(), SOURCE).uploadAll());
+    }
+
+    @Test
+    public void resendsChunkAfterLostAcknowledgement() throws IOException {
+        append(0, 5000);
+        mServer.chunksBeforeLostAck = 2;
+
+        final HistoryUploader uploader = new HistoryUploader(mLog, mServer.url(), SOURCE);
+        uploader.setChunkBlocks(4);
+
+        // The third chunk is sent again and answered with a 409 at its end
+        assertEquals(5000, uploader.upload(ReadingChannel.TEMPERATURE));
+        assertEquals(5, uploader.chunksSent());
+        assertEquals(stored(ReadingChannel.TEMPERATURE),
+                mServer.rows(ReadingChannel.TEMPERATURE));
+    }
+
+    @Test
+    public void resumesAfterInterruption() throws IOException {
+        append(0, 5000);
+        mServer.chunksBeforeLostAck = 2;
+        mServer.lostAcks = 2;
+
+        final HistoryUploader first = new HistoryUploader(mLog, mServer.url(), SOURCE);
+        first.setChunkBlocks(4);
+        try {
+            first.upload(ReadingChannel.TEMPERATURE);
+            fail("Upload should have been interrupted");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(2, first.chunksSent());
+
+        // The server kept the third chunk, so the retry starts after it
+        final HistoryUploader second = new HistoryUploader(mLog, mServer.url(), SOURCE);
+        second.setChunkBlocks(4);
+        assertEquals(5000 - 3 * 4 * ReadingLog.BLOCK_SAMPLES,
+                second.upload(ReadingChannel.TEMPERATURE));
+        assertEquals(stored(ReadingChannel.TEMPERATURE),
+                mServer.rows(ReadingChannel.TEMPERATURE));
+    }
+
+    @Test
+    public void uploadsOnlyNewBlocks() throws IOException {
+        append(0, 1000);
+        assertEquals(3000, new HistoryUploader(mLog, mServer.url(), SOURCE).uploadAll());
+
+        append(1000, 600);
+        assertEquals(1800, new HistoryUploader(mLog, mServer.url(), SOURCE).uploadAll());
+
+        for (int channel : channels()) {
+            assertEquals(1600, mServer.rows(channel).size());
+            assertEquals(stored(channel), mServer.rows(channel));
+        }
+    }
+
+    @Test
+    public void resumesAfterOldBlocksAreDropped() throws IOException {
+        append(0, 1000);
+        new HistoryUploader(mLog, mServer.url(), SOURCE).upload(ReadingChannel.TEMPERATURE);
+
+        // Retention rewrites the segment, the server's offset still points past what it has
+        append(1000, 600);
+        mLog.dropBefore(ReadingChannel.TEMPERATURE, 1000L * 900);
+        assertEquals(600, new HistoryUploader(mLog, mServer.url(), SOURCE)
+                .upload(ReadingChannel.TEMPERATURE));
+
+        final List<String> rows = mServer.rows(ReadingChannel.TEMPERATURE);
+        assertEquals(1600, rows.size());
+        assertEquals("1599000," + (60 + 1599 % 50 * 0.25), rows.get(1599));
+    }
+
+    @Test
+    public void skipsBlocksDroppedBeforeTheFirstUpload() throws IOException {
+        append(0, 2000);
+        mLog.dropBefore(ReadingChannel.TEMPERATURE, 1000L * 1000);
+
+        // The server is at 0 for a channel it has never seen, the data starts much later
+        final HistoryUploader uploader = new HistoryUploader(mLog, mServer.url(), SOURCE);
+        uploader.setChunkBlocks(2);
+        assertEquals(stored(ReadingChannel.TEMPERATURE).size(),
+                uploader.upload(ReadingChannel.TEMPERATURE));
+        assertEquals(stored(ReadingChannel.TEMPERATURE),
+                mServer.rows(ReadingChannel.TEMPERATURE));
+        assertTrue(mServer.gapBytes > 0);
+        assertEquals(uploader.chunksSent(), mServer.posts);
+    }
+
+    @Test
+    public void skipsBlocksDroppedBetweenUploads() throws IOException {
+        append(0, 1000);
+        new HistoryUploader(mLog, mServer.url(), SOURCE).upload(ReadingChannel.TEMPERATURE);
+
+        // Everything the server has and more is gone before the next upload
+        append(1000, 2000);
+        mLog.dropBefore(ReadingChannel.TEMPERATURE, 1000L * 2000);
+        final List<String> kept = stored(ReadingChannel.TEMPERATURE);
+        assertEquals(kept.size(), new HistoryUploader(mLog, mServer.url(), SOURCE)
+                .upload(ReadingChannel.TEMPERATURE));
+
+        final List<String> rows = mServer.rows(ReadingChannel.TEMPERATURE);
+        assertEquals(1000 + kept.size(), rows.size());
+        assertEquals(kept, rows.subList(1000, rows.size()));
+    }
+
+    @Test
+    public void failsWhenTheServerOffsetDoesNotMove() throws IOException {
+        append(0, 1000);
+        mLog.dropBefore(ReadingChannel.TEMPERATURE, 1000L * 600);
+
+        // The same chunk is not sent again and again to a server that keeps its offset
+        mServer.refuse = true;
+        try {
+            new HistoryUploader(mLog, mServer.url(), SOURCE).upload(ReadingChannel.TEMPERATURE);
+            fail("Upload should fail");
+        } catch (IOException e) {
+            // Expected
+        }
+        assertEquals(1, mServer.posts);
+    }
+
+    @Test
+    public void cancelStopsBetweenChunks() throws IOException {
+        append(0, 2000);
+
+        final HistoryUploader uploader = new HistoryUploader(mLog, mServer.url(), SOURCE);
+        uploader.cancel();
+        try {
+            uploader.uploadAll();
+            fail("Cancelled upload should throw");
+        } catch (IOException e) {
+            assertEquals(0, uploader.chunksSent());
+        }
+
+        assertEquals(6000, new HistoryUploader(mLog, mServer.url(), SOURCE).uploadAll());
+    }
+
+    private static int[] channels() {
+        return new int[]{ReadingChannel.TEMPERATURE, ReadingChannel.HUMIDITY,
+                ReadingChannel.PRESSURE};
+    }
+
+    private void append(int first, int count) throws IOException {
+        for (int i = first; i < first + count; i++) {
+            mLog.append(ReadingChannel.TEMPERATURE, 1000L * i, 60 + i % 50 * 0.25);
+            mLog.append(ReadingChannel.HUMIDITY, 1000L * i, 40 + i % 7);
+            mLog.append(ReadingChannel.PRESSURE, 1000L * i + 500, 101325 + i % 100);
+        }
+        mLog.flush();
+    }
+
+    // Stored samples of a channel as the CSV rows the server should have
+    private List<String> stored(int channel) throws IOException {
+        final List<String> rows = new ArrayList<>();
+        final SampleCursor cursor = mLog.query(channel, 0, Long.MAX_VALUE);
+
+        try {
+            while (cursor.next()) {
+                rows.add(cursor.time() + "," + cursor.value());
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,162 @@
+package com.bryanford.weatherstation;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+
+/**
+ * Load test of the live server over localhost: fan-out throughput and publish-to-receive
+ * latency of WebSocket clients, then /snapshot requests per second over kept-alive
+ * connections.  Run the main method from the IDE or with the unit test classpath.
+ */
+public class LiveServerBenchmark {
+    private static final int SOCKET_CLIENTS = 8;
+    private static final int MESSAGES = 200000;
+    private static final long PUBLISH_INTERVAL_NANOS = 20000;
+    private static final int HTTP_CLIENTS = 4;
+    private static final long HTTP_MILLIS = 3000;
+    private static final int STATIONS = 16;
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "live-benchmark");
+        StationStore stations = new StationStore();
+        ReadingLog log = new ReadingLog(dir);
+
+        for (int s = 0; s < STATIONS; s++) {
+            for (int channel : ReadingChannel.all()) {
+                stations.update(String.format("00:00:00:00:00:%02X", s), channel, 1000, 50 + s);
+            }
+        }
+
+        LiveServer server = new LiveServer(stations, log,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+
+        try {
+            fanOut(server);
+            snapshots(server);
+        } finally {
+            server.stop();
+            log.close();
+        }
+    }
+
+    private static void fanOut(LiveServer server) throws Exception {
+        final LiveServerTest.TestClient[] clients = new LiveServerTest.TestClient[SOCKET_CLIENTS];
+        final long[][] latencies = new long[SOCKET_CLIENTS][MESSAGES];
+        final int[] received = new int[SOCKET_CLIENTS];
+        Thread[] readers = new Thread[SOCKET_CLIENTS];
+
+        for (int c = 0; c < SOCKET_CLIENTS; c++) {
+            clients[c] = new LiveServerTest.TestClient(server.getPort());
+            clients[c].upgrade("YmVuY2htYXJrIGtleQ==");
+
+            final int client = c;
+            readers[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (true) {
+                            String text = clients[client].readText();
+                            int at = text.indexOf("\"time\":") + 7;
+                            long sent = Long.parseLong(text.substring(at, text.indexOf(',', at)));
+
+                            if (sent < 0) {
+                                return;
+                            }
+                            latencies[client][received[client]++] = System.nanoTime() - sent;
+                        }
+                    } catch (IOException e) {
+                        // Timed out waiting for dropped messages
+                    }
+                }
+            });
+            readers[c].start();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < MESSAGES; i++) {
+            // Paced, so latency is measured at a steady rate rather than behind a backlog
+            while (System.nanoTime() - start < i * PUBLISH_INTERVAL_NANOS) {
+                Thread.yield();
+            }
+
+            // Stamped with the publish time so readers can measure latency
+            server.publish("00:00:00:00:00:00", ReadingChannel.TEMPERATURE, System.nanoTime(), i);
+        }
+        server.publish("00:00:00:00:00:00", ReadingChannel.TEMPERATURE, -1, 0);
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int total = 0;
+        for (int count : received) {
+            total += count;
+        }
+
+        long[] all = new long[total];
+        int offset = 0;
+        for (int c = 0; c < SOCKET_CLIENTS; c++) {
+            System.arraycopy(latencies[c], 0, all, offset, received[c]);
+            offset += received[c];
+            clients[c].close();
+        }
+        Arrays.sort(all);
+
+        System.out.println(String.format(
+                "websocket    %d clients at %.0f k publishes/s, %.0f k messages/s delivered, "
+                        + "%d dropped, latency p50 %.0f us, p99 %.0f us",
+                SOCKET_CLIENTS, 1e6 / PUBLISH_INTERVAL_NANOS, total / (elapsed / 1e9) / 1e3,
+                server.messagesDropped(), percentile(all, 0.50) / 1e3,
+                percentile(all, 0.99) / 1e3));
+    }
+
+    private static void snapshots(final LiveServer server) throws Exception {
+        final long[] requests = new long[HTTP_CLIENTS];
+        final long deadline = System.currentTimeMillis() + HTTP_MILLIS;
+        Thread[] threads = new Thread[HTTP_CLIENTS];
+
+        for (int c = 0; c < HTTP_CLIENTS; c++) {
+            final int client = c;
+            threads[c] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        LiveServerTest.TestClient http =
+                                new LiveServerTest.TestClient(server.getPort());
+
+                        while (System.currentTimeMillis() < deadline) {
+                            http.get("/snapshot");
+                            requests[client]++;
+                        }
+                        http.close();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            threads[c].start();
+        }
+
+        long total = 0;
+        for (int c = 0; c < HTTP_CLIENTS; c++) {
+            threads[c].join();
+            total += requests[c];
+        }
+
+        System.out.println(String.format(
+                "snapshot     %d kept-alive clients, %d stations, %.0f requests/s",
+                HTTP_CLIENTS, STATIONS, total / (HTTP_MILLIS / 1e3)));
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, sorted.length * p)];
+    }
+}
@@ -0,0 +1,331 @@
+package com.bryanford.weatherstation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+public class LiveServerTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private StationStore mStations;
+    private ReadingLog mLog;
+    private LiveServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mStations = new StationStore();
+        mLog = new ReadingLog(mFolder.getRoot());
+        mServer = new LiveServer(mStations, mLog,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.stop();
+        mLog.close();
+    }
+
+    /**
+     * Minimal blocking client, good enough to talk to the server in tests and benchmarks.
+     */
+    static class TestClient {
+        final Socket socket;
+        final DataInputStream in;
+        final OutputStream out;
+
+        TestClient(int port) throws IOException {
+            this(port, 0);
+        }
+
+        // A receive buffer set before connecting limits what the socket soaks up for a reader
+        TestClient(int port, int receiveBuffer) throws IOException {
+            socket = new Socket();
+            if (receiveBuffer > 0) {
+                socket.setReceiveBufferSize(receiveBuffer);
+            }
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(5000);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = socket.getOutputStream();
+        }
+
+        // Sends a GET and returns the status line and body
+        String[] get(String path) throws IOException {
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(UTF_8));
+            out.flush();
+
+            String head = readHead();
+            int length = 0;
+            for (String line : head.split("\r\n")) {
+                if (line.toLowerCase().startsWith("content-length:")) {
+                    length = Integer.parseInt(line.substring(15).trim());
+                }
+            }
+
+            byte[] body = new byte[length];
+            in.readFully(body);
+            return new String[]{head.substring(0, head.indexOf("\r\n")), new String(body, UTF_8)};
+        }
+
+        String readHead() throws IOException {
+            StringBuilder head = new StringBuilder();
+
+            while (head.length() < 4 || !head.substring(head.length() - 4).equals("\r\n\r\n")) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Connection closed");
+                }
+                head.append((char) b);
+            }
+            return head.toString();
+        }
+
+        String upgrade(String key) throws IOException {
+            out.write(("GET /live HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\nSec-WebSocket-Key: " + key + "\r\n"
+                    + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(UTF_8));
+            out.flush();
+            return readHead();
+        }
+
+        // Reads one server frame, returns the opcode in the first element and the payload
+        Object[] readFrame() throws IOException {
+            int first = in.readUnsignedByte();
+            long length = in.readUnsignedByte() & 0x7F;
+
+            if (length == 126) {
+                length = in.readUnsignedShort();
+            } else if (length == 127) {
+                length = in.readLong();
+            }
+
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            return new Object[]{first & 0x0F, new String(payload, UTF_8)};
+        }
+
+        String readText() throws IOException {
+            Object[] frame = readFrame();
+            assertEquals(1, frame[0]);
+            return (String) frame[1];
+        }
+
+        void sendFrame(int opcode, byte[] payload) throws IOException {
+            byte[] mask = {0x12, 0x34, 0x56, 0x78};
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+
+            frame.write(0x80 | opcode);
+            frame.write(0x80 | payload.length);
+            frame.write(mask);
+            for (int i = 0; i < payload.length; i++) {
+                frame.write(payload[i] ^ mask[i & 3]);
+            }
+            out.write(frame.toByteArray());
+            out.flush();
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void servesSnapshotOverKeptAliveConnection() throws IOException {
+        TestClient client = new TestClient(mServer.getPort());
+
+        String[] empty = client.get("/snapshot");
+        assertEquals("HTTP/1.1 200 OK", empty[0]);
+        assertEquals("{\"stations\":[]}\n", empty[1]);
+
+        mStations.update("AA:BB", ReadingChannel.TEMPERATURE, 1000, 71.5);
+        mStations.update("AA:BB", ReadingChannel.PRESSURE, 1000, 101325);
+
+        String[] one = client.get("/snapshot");
+        assertEquals("{\"stations\":[{\"address\":\"AA:BB\",\"readings\":{"
+                + "\"temperature\":{\"time\":1000,\"value\":71.5},"
+                + "\"pressure\":{\"time\":1000,\"value\":101325.0}}}]}\n", one[1]);
+
+        assertEquals("HTTP/1.1 404 Not Found", client.get("/nothing")[0]);
+        client.close();
+
+        assertEquals(3, mServer.requests());
+    }
+
+    @Test
+    public void servesHistoryRanges() throws IOException {
+        for (int i = 0; i < 100; i++) {
+            mLog.append(ReadingChannel.HUMIDITY, 1000 + i, i / 2.0);
+        }
+        mLog.flush();
+
+        TestClient client = new TestClient(mServer.getPort());
+
+        String[] range = client.get("/history?channel=humidity&from=1010&to=1013");
+        assertEquals("HTTP/1.1 200 OK", range[0]);
+        assertEquals("time,value\n1010,5.0\n1011,5.5\n1012,6.0\n", range[1]);
+
+        String[] limited = client.get("/history?channel=humidity&limit=2");
+        assertEquals("time,value\n1000,0.0\n1001,0.5\n", limited[1]);
+
+        assertEquals("HTTP/1.1 400 Bad Request", client.get("/history?channel=wind")[0]);
+        assertEquals("HTTP/1.1 400 Bad Request",
+                client.get("/history?channel=humidity&from=x")[0]);
+        client.close();
+    }
+
+    @Test
+    public void answersPipelinedRequestsInOrder() throws IOException {
+        for (int i = 0; i < 5000; i++) {
+            mLog.append(ReadingChannel.PRESSURE, i, 101000 + i);
+        }
+        mLog.flush();
+
+        // The history is read on another thread, the snapshot behind it must still come second
+        TestClient client = new TestClient(mServer.getPort());
+        client.out.write(("GET /history?channel=pressure HTTP/1.1\r\n\r\n"
+                + "GET /snapshot HTTP/1.1\r\n\r\n").getBytes(UTF_8));
+        client.out.flush();
+
+        String history = client.readHead();
+        assertTrue(history.contains("Content-Type: text/csv"));
+        int length = Integer.parseInt(history.replaceAll("(?s).*Content-Length: (\\d+).*", "$1"));
+        byte[] rows = new byte[length];
+        client.in.readFully(rows);
+        assertTrue(new String(rows, UTF_8).endsWith("4999,105999.0\n"));
+
+        assertTrue(client.readHead().contains("Content-Type: application/json"));
+        client.close();
+    }
+
+    @Test
+    public void pushesLiveReadingsOverWebSocket() throws Exception {
+        TestClient client = new TestClient(mServer.getPort());
+
+        // Example handshake from RFC 6455
+        String head = client.upgrade("dGhlIHNhbXBsZSBub25jZQ==");
+        assertTrue(head.startsWith("HTTP/1.1 101 "));
+        assertTrue(head.contains("Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo=\r\n"));
+
+        mServer.publish("AA:BB", ReadingChannel.HUMIDITY, 2000, 48.25);
+        assertEquals("{\"address\":\"AA:BB\",\"channel\":\"humidity\",\"time\":2000,"
+                + "\"value\":48.25}", client.readText());
+
+        client.sendFrame(0x9, "hi".getBytes(UTF_8));
+        Object[] pong = client.readFrame();
+        assertEquals(0xA, pong[0]);
+        assertEquals("hi", pong[1]);
+
+        client.sendFrame(0x8, new byte[0]);
+        assertEquals(0x8, client.readFrame()[0]);
+        assertEquals(-1, client.in.read());
+        client.close();
+    }
+
+    @Test
+    public void publishWithoutLiveClientsSendsNothing() throws Exception {
+        mServer.publish("AA:BB", ReadingChannel.HUMIDITY, 1000, 40);
+        assertEquals(0, mServer.liveClients());
+
+        TestClient client = new TestClient(mServer.getPort());
+        client.upgrade("bGF0ZQ==");
+        assertEquals(1, mServer.liveClients());
+
+        // Readings from before the client connected were never queued for it
+        mServer.publish("AA:BB", ReadingChannel.HUMIDITY, 2000, 41);
+        assertTrue(client.readText().contains("\"time\":2000,"));
+        assertEquals(1, mServer.messagesSent());
+
+        client.sendFrame(0x8, new byte[0]);
+        assertEquals(0x8, client.readFrame()[0]);
+        client.close();
+    }
+
+    @Test
+    public void oversizedFrameClosesOnlyItsClient() throws IOException {
+        TestClient bad = new TestClient(mServer.getPort());
+        bad.upgrade("YmFk");
+
+        // 64-bit length with the top bit set, negative when read as a long
+        bad.out.write(new byte[]{(byte) 0x81, (byte) (0x80 | 127),
+                (byte) 0xFF, 0, 0, 0, 0, 0, 0, 1, 0x12, 0x34, 0x56, 0x78});
+        bad.out.flush();
+        assertEquals(-1, bad.in.read());
+        bad.close();
+
+        TestClient good = new TestClient(mServer.getPort());
+        assertEquals("HTTP/1.1 200 OK", good.get("/snapshot")[0]);
+        good.close();
+    }
+
+    @Test
+    public void slowClientDoesNotHoldUpOthers() throws Exception {
+        final int messages = 50000;
+        final TestClient slow = new TestClient(mServer.getPort(), 4096);
+        final TestClient fast = new TestClient(mServer.getPort());
+        final int[] received = new int[1];
+        final Exception[] failure = new Exception[1];
+
+        slow.upgrade("c2xvdw==");
+        fast.upgrade("ZmFzdA==");
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (; received[0] < messages; received[0]++) {
+                        String text = fast.readText();
+                        if (!text.contains("\"time\":" + received[0] + ",")) {
+                            throw new AssertionError("Out of order: " + text);
+                        }
+                    }
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        reader.start();
+
+        // Far more than the slow client's buffer and socket can hold
+        for (int i = 0; i < messages; i++) {
+            mServer.publish("AA:BB", ReadingChannel.PRESSURE, i, i);
+            if (i % 250 == 0) {
+                // Paced like a busy station, so the fast client can keep up
+                Thread.sleep(1);
+            }
+        }
+        reader.join(10000);
+
+        assertNull(failure[0]);
+        assertEquals(messages, received[0]);
+        assertTrue(mServer.messagesDropped() > 0);
+        assertTrue(mServer.messagesDropped() < messages);
+
+        // The server still answers new requests
+        TestClient other = new TestClient(mServer.getPort());
+        assertEquals("HTTP/1.1 200 OK", other.get("/snapshot")[0]);
+
+        other.close();
+        fast.close();
+        slow.close();
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OperatorChainTest {
+    @Test
+    public void chain_feedsEachOperatorThePreviousValue() {
+        Ewma ewma = new Ewma(0.5);
+        SlidingMinMax max = new SlidingMinMax(2, SlidingMinMax.MAX);
+        OperatorChain chain = new OperatorChain(ewma, max);
+
+        chain.push(0);
+        chain.push(8);
+        chain.push(0);
+
+        // Smoothed values are 0, 4, 2
+        assertEquals(2, ewma.value(), 0);
+        assertEquals(4, chain.value(), 0);
+
+        chain.reset();
+        assertTrue(Double.isNaN(chain.value()));
+    }
+
+    @Test
+    public void stage_transformsOnlyItsChannel() {
+        final List<double[]> out = new ArrayList<>();
+        OperatorStage stage = new OperatorStage(ReadingChannel.HUMIDITY, new WelfordStats(),
+                new SampleListener() {
+                    @Override
+                    public void onSample(int channel, long time, double value) {
+                        out.add(new double[]{channel, time, value});
+                    }
+                });
+
+        stage.onSample(ReadingChannel.HUMIDITY, 1, 40);
+        stage.onSample(ReadingChannel.TEMPERATURE, 2, 70);
+        stage.onSample(ReadingChannel.HUMIDITY, 3, 50);
+
+        assertEquals(3, out.size());
+        assertArrayEquals(new double[]{ReadingChannel.HUMIDITY, 1, 40}, out.get(0), 0);
+        assertArrayEquals(new double[]{ReadingChannel.TEMPERATURE, 2, 70}, out.get(1), 0);
+        assertArrayEquals(new double[]{ReadingChannel.HUMIDITY, 3, 45}, out.get(2), 0);
+    }
+}
@@ -0,0 +1,132 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PayloadRingTest {
+    @Test
+    public void pollReturnsPayloadsInOrder() {
+        PayloadRing ring = new PayloadRing(4, 8, PayloadRing.DROP_NEWEST);
+        PayloadRing.Entry entry = new PayloadRing.Entry(8);
+
+        assertFalse(ring.poll(entry));
+        assertTrue(ring.offer(1, 100, new byte[]{9, 1, 2, 3}, 1, 3));
+        assertTrue(ring.offer(2, 200, new byte[]{4}, 0, 1));
+        assertEquals(2, ring.depth());
+
+        assertTrue(ring.poll(entry));
+        assertEquals(1, entry.kind);
+        assertEquals(100, entry.nanos);
+        assertEquals(3, entry.length);
+        assertArrayEquals(new byte[]{1, 2, 3}, java.util.Arrays.copyOf(entry.data, 3));
+
+        assertTrue(ring.poll(entry));
+        assertEquals(2, entry.kind);
+        assertFalse(ring.poll(entry));
+    }
+
+    @Test
+    public void dropNewest_keepsQueuedPayloads() {
+        PayloadRing ring = new PayloadRing(2, 4, PayloadRing.DROP_NEWEST);
+        PayloadRing.Entry entry = new PayloadRing.Entry(4);
+
+        for (int i = 0; i < 5; i++) {
+            ring.offer(i, i, new byte[1], 0, 1);
+        }
+
+        assertEquals(3, ring.dropped());
+        assertTrue(ring.poll(entry));
+        assertEquals(0, entry.kind);
+        assertTrue(ring.poll(entry));
+        assertEquals(1, entry.kind);
+    }
+
+    @Test
+    public void dropOldest_keepsLatestPayloads() {
+        PayloadRing ring = new PayloadRing(2, 4, PayloadRing.DROP_OLDEST);
+        PayloadRing.Entry entry = new PayloadRing.Entry(4);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(ring.offer(i, i, new byte[1], 0, 1));
+        }
+
+        assertEquals(3, ring.dropped());
+        assertEquals(2, ring.maxDepth());
+        assertTrue(ring.poll(entry));
+        assertEquals(3, entry.kind);
+        assertTrue(ring.poll(entry));
+        assertEquals(4, entry.kind);
+    }
+
+    @Test
+    public void oversizedPayload_isDropped() {
+        PayloadRing ring = new PayloadRing(2, 4, PayloadRing.BLOCK);
+
+        assertFalse(ring.offer(0, 0, new byte[5], 0, 5));
+        assertEquals(1, ring.dropped());
+        assertEquals(0, ring.depth());
+    }
+
+    @Test
+    public void concurrentConsumer_seesIntactPayloadsUnderEveryPolicy() throws Exception {
+        for (int policy : new int[]{PayloadRing.DROP_OLDEST, PayloadRing.DROP_NEWEST,
+                PayloadRing.BLOCK}) {
+            final PayloadRing ring = new PayloadRing(8, 64, policy);
+            final int count = 200000;
+            final long[] received = new long[1];
+            final String[] failure = new String[1];
+
+            Thread consumer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    PayloadRing.Entry entry = new PayloadRing.Entry(64);
+                    long last = -1;
+
+                    while (last < count - 1 && failure[0] == null
+                            && !Thread.currentThread().isInterrupted()) {
+                        if (!ring.poll(entry)) {
+                            ring.await();
+                            continue;
+                        }
+
+                        // Every byte of a payload carries its sequence number
+                        for (int i = 0; i < entry.length; i++) {
+                            if (entry.data[i] != (byte) entry.nanos) {
+                                failure[0] = "torn payload " + entry.nanos;
+                            }
+                        }
+                        if (entry.nanos <= last) {
+                            failure[0] = "out of order " + entry.nanos + " after " + last;
+                        }
+                        last = entry.nanos;
+                        received[0]++;
+                    }
+                }
+            });
+            consumer.start();
+
+            byte[] payload = new byte[64];
+            for (int i = 0; i < count; i++) {
+                java.util.Arrays.fill(payload, (byte) i);
+                ring.offer(0, i, payload, 0, 1 + i % 64);
+            }
+
+            // The last payload is never dropped by DROP_OLDEST or BLOCK, DROP_NEWEST may lose it
+            if (policy == PayloadRing.DROP_NEWEST) {
+                while (ring.depth() > 0 && consumer.isAlive()) {
+                    Thread.sleep(1);
+                }
+                consumer.interrupt();
+            }
+            consumer.join(10000);
+
+            assertNull(failure[0], failure[0]);
+            assertFalse(consumer.isAlive());
+            assertEquals(count, received[0] + ring.dropped());
+            if (policy == PayloadRing.BLOCK) {
+                assertEquals(0, ring.dropped());
+            }
+        }
+    }
+}
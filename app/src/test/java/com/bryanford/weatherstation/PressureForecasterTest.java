@@ -0,0 +1,97 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PressureForecasterTest {
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void zambretti_fallingRange() {
+        assertEquals(1, PressureForecaster.zambretti(1100, PressureForecaster.FALLING));
+        assertEquals(1, PressureForecaster.zambretti(1050, PressureForecaster.FALLING));
+        assertEquals(6, PressureForecaster.zambretti(1012.4, PressureForecaster.FALLING));
+        assertEquals(5, PressureForecaster.zambretti(1012.6, PressureForecaster.FALLING));
+        assertEquals(9, PressureForecaster.zambretti(985, PressureForecaster.FALLING));
+        assertEquals(9, PressureForecaster.zambretti(950, PressureForecaster.FALLING));
+    }
+
+    @Test
+    public void zambretti_steadyRange() {
+        assertEquals(10, PressureForecaster.zambretti(1060, PressureForecaster.STEADY));
+        assertEquals(10, PressureForecaster.zambretti(1030, PressureForecaster.STEADY));
+        assertEquals(14, PressureForecaster.zambretti(1000, PressureForecaster.STEADY));
+        assertEquals(19, PressureForecaster.zambretti(960, PressureForecaster.STEADY));
+        assertEquals(19, PressureForecaster.zambretti(930, PressureForecaster.STEADY));
+    }
+
+    @Test
+    public void zambretti_risingRange() {
+        assertEquals(20, PressureForecaster.zambretti(1060, PressureForecaster.RISING));
+        assertEquals(20, PressureForecaster.zambretti(1030, PressureForecaster.RISING));
+        assertEquals(25, PressureForecaster.zambretti(1000, PressureForecaster.RISING));
+        assertEquals(31, PressureForecaster.zambretti(960, PressureForecaster.RISING));
+        assertEquals(32, PressureForecaster.zambretti(947, PressureForecaster.RISING));
+    }
+
+    // Feeds minute samples with the given tendency in hPa per 3 hours
+    private static void feed(PressureForecaster forecaster, double hpa, double tendency,
+                             int minutes) {
+        for (int i = 0; i <= minutes; i++) {
+            forecaster.update(i * MINUTE, (hpa + tendency * i / 180) * 100);
+        }
+    }
+
+    @Test
+    public void unknown_untilAnHourOfSamples() {
+        PressureForecaster forecaster = new PressureForecaster();
+
+        feed(forecaster, 1000, -3, 59);
+        assertEquals(PressureForecaster.UNKNOWN, forecaster.getForecast());
+        assertTrue(Double.isNaN(forecaster.getTendency()));
+
+        assertTrue(forecaster.update(60 * MINUTE, (1000 - 1) * 100));
+        assertEquals(PressureForecaster.FALLING, forecaster.getTrend());
+        assertEquals(-3, forecaster.getTendency(), 1e-6);
+    }
+
+    @Test
+    public void trend_thresholds() {
+        double[] tendencies = {-1.7, -1.5, 1.5, 1.7};
+        int[] trends = {PressureForecaster.FALLING, PressureForecaster.STEADY,
+                PressureForecaster.STEADY, PressureForecaster.RISING};
+
+        for (int i = 0; i < tendencies.length; i++) {
+            PressureForecaster forecaster = new PressureForecaster();
+
+            feed(forecaster, 1000, tendencies[i], 120);
+            assertEquals(trends[i], forecaster.getTrend());
+            assertEquals(PressureForecaster.zambretti(forecaster.getSeaLevelPressure(),
+                    trends[i]), forecaster.getForecast());
+        }
+    }
+
+    @Test
+    public void altitude_reducesToSeaLevel() {
+        PressureForecaster forecaster = new PressureForecaster();
+
+        // The standard atmosphere has 954.61 hPa at 500 m for 1013.25 hPa at sea level
+        forecaster.setAltitude(500);
+        forecaster.update(0, 95461);
+        assertEquals(1013.25, forecaster.getSeaLevelPressure(), 0.05);
+    }
+
+    @Test
+    public void clear_forgetsHistory() {
+        PressureForecaster forecaster = new PressureForecaster();
+
+        feed(forecaster, 1000, 3, 120);
+        assertNotEquals(PressureForecaster.UNKNOWN, forecaster.getForecast());
+
+        forecaster.clear();
+        assertEquals(PressureForecaster.UNKNOWN, forecaster.getForecast());
+        forecaster.update(121 * MINUTE, 100000);
+        assertEquals(PressureForecaster.UNKNOWN, forecaster.getForecast());
+    }
+}
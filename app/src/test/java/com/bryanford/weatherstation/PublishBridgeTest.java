@@ -0,0 +1,241 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+public class PublishBridgeTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * In-process stand-in for the broker that can be taken offline and slowed down.
+     */
+    static class Broker implements PublishBridge.Transport {
+        volatile boolean online = true;
+        volatile long delayMillis;
+
+        final List<String> rows = Collections.synchronizedList(new ArrayList<String>());
+        final Set<Long> sequences = Collections.synchronizedSet(new HashSet<Long>());
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        @Override
+        public void publish(long sequence, byte[] payload) throws IOException {
+            if (!online) {
+                throw new IOException("Broker unreachable");
+            }
+
+            final int current = inFlight.incrementAndGet();
+            try {
+                while (true) {
+                    int max = maxInFlight.get();
+                    if (current <= max || maxInFlight.compareAndSet(max, current)) {
+                        break;
+                    }
+                }
+
+                Thread.sleep(delayMillis);
+
+                final String[] lines = gunzip(payload).split("\n");
+                assertEquals("address,channel,time,value", lines[0]);
+                if (!sequences.add(sequence)) {
+                    throw new AssertionError("Batch " + sequence + " delivered twice");
+                }
+                rows.addAll(Arrays.asList(lines).subList(1, lines.length));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    @Test
+    public void deliversCompressedBatches() throws Exception {
+        final Broker broker = new Broker();
+        final PublishBridge bridge = new PublishBridge(spool(1 << 20), broker, 2);
+        bridge.setBatching(10, 60000);
+
+        for (int i = 0; i < 25; i++) {
+            bridge.offer("AA:BB", ReadingChannel.TEMPERATURE, 1000 + i, 70.5);
+        }
+        awaitRows(broker, 20);
+
+        // The partial batch goes out when asked
+        bridge.retryNow();
+        awaitSent(bridge, 3);
+        bridge.close();
+
+        assertEquals(25, broker.rows.size());
+        assertTrue(broker.rows.contains("AA:BB,temperature,1000,70.5"));
+        assertEquals(0, bridge.queueDepth());
+        assertEquals(0, bridge.failures());
+    }
+
+    @Test
+    public void sealsBatchesByAge() throws Exception {
+        final Broker broker = new Broker();
+        final PublishBridge bridge = new PublishBridge(spool(1 << 20), broker, 1);
+        bridge.setBatching(1000, 50);
+
+        bridge.offer("AA:BB", ReadingChannel.HUMIDITY, 1000, 40);
+        awaitRows(broker, 1);
+        bridge.close();
+    }
+
+    @Test
+    public void spoolsWhileUnreachableAndDrainsWithBoundedConcurrency() throws Exception {
+        final Broker broker = new Broker();
+        final PublishBridge bridge = new PublishBridge(spool(1 << 20), broker, 3);
+        bridge.setBatching(10, 60000);
+        bridge.setRetryDelay(10, 40);
+
+        broker.online = false;
+        for (int i = 0; i < 400; i++) {
+            bridge.offer("AA:BB", ReadingChannel.PRESSURE, i, 101325 + i);
+        }
+
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (bridge.failures() == 0 || bridge.queueDepth() < 40) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+        assertFalse(bridge.isReachable());
+        assertTrue(bridge.queuedBytes() > 0);
+
+        broker.delayMillis = 5;
+        broker.online = true;
+        bridge.retryNow();
+        awaitSent(bridge, 40);
+
+        assertEquals(0, bridge.queueDepth());
+        assertTrue(bridge.isReachable());
+        assertTrue(broker.maxInFlight.get() > 1);
+        assertTrue(broker.maxInFlight.get() <= 3);
+        assertTrue(bridge.drainBytesPerSecond() > 0);
+        bridge.close();
+
+        // Every sample exactly once
+        final Set<String> rows = new HashSet<>(broker.rows);
+        assertEquals(400, rows.size());
+        assertTrue(rows.contains("AA:BB,pressure,399,101724.0"));
+    }
+
+    @Test
+    public void resumesSpoolAfterRestart() throws Exception {
+        final Broker broker = new Broker();
+        broker.online = false;
+
+        PublishBridge bridge = new PublishBridge(spool(1 << 20), broker, 2);
+        bridge.setBatching(10, 60000);
+        for (int i = 0; i < 35; i++) {
+            bridge.offer("AA:BB", ReadingChannel.HUMIDITY, i, 50);
+        }
+        bridge.close();
+
+        final SpoolQueue spool = spool(1 << 20);
+        assertEquals(4, spool.size());
+
+        broker.online = true;
+        bridge = new PublishBridge(spool, broker, 2);
+        awaitSent(bridge, 4);
+        bridge.close();
+
+        assertEquals(35, broker.rows.size());
+
+        assertEquals(0, spool(1 << 20).size());
+    }
+
+    @Test
+    public void spoolDropsOldestOverLimit() throws Exception {
+        final SpoolQueue spool = spool(250);
+
+        final long first = spool.add(new byte[100]);
+        spool.add(new byte[100]);
+        final long third = spool.add(new byte[100]);
+
+        assertEquals(2, spool.size());
+        assertEquals(200, spool.bytes());
+        assertEquals(1, spool.dropped());
+        assertNull(spool.read(first));
+        assertEquals(100, spool.read(third).length);
+        assertEquals(Collections.singletonList(third),
+                spool.oldest(5, Collections.singleton(third - 1)));
+
+        // Sequence numbers keep increasing across reopening
+        assertTrue(spool(250).add(new byte[1]) > third);
+    }
+
+    @Test
+    public void spoolNeverReusesSequencesAfterDraining() throws Exception {
+        SpoolQueue spool = spool(1 << 20);
+        long last = -1;
+
+        // Across several restarts with an empty spool, and past a reserved block
+        for (int run = 0; run < 3; run++) {
+            for (int i = 0; i < SpoolQueue.SEQUENCE_BLOCK / 2 + 1; i++) {
+                final long sequence = spool.add(new byte[1]);
+                assertTrue(sequence > last);
+                spool.remove(sequence);
+                last = sequence;
+            }
+            assertEquals(0, spool.size());
+            spool = spool(1 << 20);
+        }
+    }
+
+    private SpoolQueue spool(long maxBytes) throws IOException {
+        return new SpoolQueue(new File(mFolder.getRoot(), "spool"), maxBytes);
+    }
+
+    private static void awaitRows(Broker broker, int rows) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+        while (broker.rows.size() < rows) {
+            assertTrue("Only " + broker.rows.size() + " rows delivered",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitSent(PublishBridge bridge, int batches) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+        while (bridge.batchesSent() < batches) {
+            assertTrue("Only " + bridge.batchesSent() + " batches sent",
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static String gunzip(byte[] payload) throws IOException {
+        final InputStream in = new GZIPInputStream(new ByteArrayInputStream(payload));
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[4096];
+        int read;
+
+        while ((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,54 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QuantileSketchTest {
+    @Test
+    public void exactForFirstValues() {
+        QuantileSketch median = new QuantileSketch(0.5);
+
+        assertTrue(Double.isNaN(median.value()));
+        median.push(5);
+        median.push(1);
+        median.push(3);
+        assertEquals(3, median.value(), 0);
+    }
+
+    @Test
+    public void estimatesQuantilesOfKnownDistributions() {
+        Random random = new Random(3);
+
+        for (double quantile : new double[]{0.05, 0.5, 0.9, 0.99}) {
+            QuantileSketch uniform = new QuantileSketch(quantile);
+            QuantileSketch normal = new QuantileSketch(quantile);
+            double[] normals = new double[100000];
+
+            for (int i = 0; i < normals.length; i++) {
+                uniform.push(random.nextDouble());
+                normals[i] = random.nextGaussian();
+                normal.push(normals[i]);
+            }
+
+            Arrays.sort(normals);
+            double exact = normals[(int) (quantile * (normals.length - 1))];
+
+            assertEquals("uniform " + quantile, quantile, uniform.value(), 0.01);
+            assertEquals("normal " + quantile, exact, normal.value(), 0.05);
+        }
+    }
+
+    @Test
+    public void staysWithinRangeOfInput() {
+        QuantileSketch sketch = new QuantileSketch(0.75);
+
+        for (int i = 0; i < 10000; i++) {
+            sketch.push(i % 2 == 0 ? 1 : 2);
+            assertTrue(sketch.value() >= 1 && sketch.value() <= 2);
+        }
+    }
+}
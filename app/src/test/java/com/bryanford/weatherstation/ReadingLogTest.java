@@ -0,0 +1,248 @@
+package com.bryanford.weatherstation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class ReadingLogTest {
+    private static final int CHANNEL = ReadingChannel.TEMPERATURE;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ReadingLog mLog;
+
+    @Before
+    public void setUp() {
+        mLog = new ReadingLog(mFolder.getRoot());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mLog.close();
+    }
+
+    @Test
+    public void dropBeforeKeepsNewerBlocksAndStreamOffsets() throws IOException {
+        append(mLog, 0, 10 * ReadingLog.BLOCK_SAMPLES);
+        mLog.flush();
+
+        final SegmentIndex before = index(mLog);
+        final long length = mLog.segmentFile(CHANNEL).length();
+
+        // Cutting into the fourth block keeps it whole
+        final long cutoff = 1000L * (3 * ReadingLog.BLOCK_SAMPLES + 10);
+        assertEquals(before.offset(3) - ReadingLog.FILE_HEADER_SIZE,
+                mLog.dropBefore(CHANNEL, cutoff));
+        assertEquals(length - (before.offset(3) - ReadingLog.FILE_HEADER_SIZE),
+                mLog.segmentFile(CHANNEL).length());
+
+        final SegmentIndex after = index(mLog);
+        assertEquals(7, after.size());
+        assertEquals(before.streamOffset(3), after.streamOffset(0));
+        assertEquals(before.streamEnd(), after.streamEnd());
+
+        final List<Long> times = times(mLog, 0, Long.MAX_VALUE);
+        assertEquals(7 * ReadingLog.BLOCK_SAMPLES, times.size());
+        assertEquals(1000L * 3 * ReadingLog.BLOCK_SAMPLES, (long) times.get(0));
+
+        // Nothing left to drop
+        assertEquals(0, mLog.dropBefore(CHANNEL, cutoff));
+    }
+
+    @Test
+    public void appendsGoToTheNewSegment() throws IOException {
+        append(mLog, 0, 1000);
+        mLog.dropBefore(CHANNEL, 1000L * 600);
+        append(mLog, 1000, 1000);
+        mLog.close();
+
+        mLog = new ReadingLog(mFolder.getRoot());
+        final List<Long> times = times(mLog, 0, Long.MAX_VALUE);
+        assertEquals(2000 - 2 * ReadingLog.BLOCK_SAMPLES, times.size());
+        assertEquals(1999000L, (long) times.get(times.size() - 1));
+    }
+
+    @Test
+    public void otherInstanceSeesRewrite() throws IOException {
+        append(mLog, 0, 7 * ReadingLog.BLOCK_SAMPLES);
+        mLog.flush();
+
+        final ReadingLog reader = new ReadingLog(mFolder.getRoot());
+        assertEquals(7 * ReadingLog.BLOCK_SAMPLES, times(reader, 0, Long.MAX_VALUE).size());
+
+        // A cursor opened before the rewrite reads the old segment to its end
+        final SampleCursor open = reader.query(CHANNEL, 0, Long.MAX_VALUE);
+        mLog.dropBefore(CHANNEL, 1000L * 1000);
+        append(mLog, 2000, 2 * ReadingLog.BLOCK_SAMPLES);
+
+        int count = 0;
+        try {
+            while (open.next()) {
+                count++;
+            }
+        } finally {
+            open.close();
+        }
+        assertEquals(7 * ReadingLog.BLOCK_SAMPLES, count);
+
+        final List<Long> times = times(reader, 0, Long.MAX_VALUE);
+        assertEquals(times(mLog, 0, Long.MAX_VALUE), times);
+        assertEquals(1000L * 3 * ReadingLog.BLOCK_SAMPLES, (long) times.get(0));
+    }
+
+    @Test
+    public void readsAndUpgradesVersion2Segments() throws IOException {
+        append(mLog, 0, 4 * ReadingLog.BLOCK_SAMPLES);
+        mLog.close();
+        downgrade(mLog.segmentFile(CHANNEL));
+
+        mLog = new ReadingLog(mFolder.getRoot());
+        assertEquals(4 * ReadingLog.BLOCK_SAMPLES, times(mLog, 0, Long.MAX_VALUE).size());
+        final SegmentIndex v2 = index(mLog);
+        assertEquals(ReadingLog.VERSION_2_HEADER_SIZE, v2.streamOffset(0));
+
+        // Appending keeps the version, dropping upgrades it with the same stream offsets
+        append(mLog, 4 * ReadingLog.BLOCK_SAMPLES, ReadingLog.BLOCK_SAMPLES);
+        mLog.flush();
+        assertEquals(ReadingLog.VERSION_2, version(mLog.segmentFile(CHANNEL)));
+
+        mLog.dropBefore(CHANNEL, 1000L * ReadingLog.BLOCK_SAMPLES);
+        assertEquals(ReadingLog.VERSION, version(mLog.segmentFile(CHANNEL)));
+        final SegmentIndex v3 = index(mLog);
+        assertEquals(v2.streamOffset(1), v3.streamOffset(0));
+        assertEquals(4 * ReadingLog.BLOCK_SAMPLES, times(mLog, 0, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void appendsContinueDuringRewrites() throws Exception {
+        final int samples = 200000;
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        append(mLog, 0, samples);
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // In bursts, so the rewrites overlap with appends throughout
+                    for (int i = samples; i < 2 * samples; i += 1000) {
+                        append(mLog, i, 1000);
+                        Thread.sleep(1);
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }
+        });
+        writer.start();
+
+        long cutoff = 0;
+        while (writer.isAlive()) {
+            cutoff += 1000L * 10 * ReadingLog.BLOCK_SAMPLES;
+            mLog.dropBefore(CHANNEL, Math.min(cutoff, 1000L * samples));
+        }
+        writer.join();
+        assertNull(failure.get());
+        mLog.flush();
+
+        // Every sample appended during the rewrites is there, once and in order
+        final List<Long> times = times(mLog, 1000L * samples, Long.MAX_VALUE);
+        assertEquals(samples, times.size());
+        for (int i = 0; i < samples; i++) {
+            assertEquals(1000L * (samples + i), (long) times.get(i));
+        }
+    }
+
+    @Test
+    public void appendAfterCloseFails() throws IOException {
+        append(mLog, 0, 10);
+        mLog.close();
+
+        try {
+            mLog.append(CHANNEL, 10000, 20);
+            fail("Appended to a closed log");
+        } catch (IOException expected) {
+            // Expected
+        }
+
+        // The closed log still reads, and nothing was reopened for writing
+        assertEquals(10, times(mLog, 0, Long.MAX_VALUE).size());
+        mLog.close();
+    }
+
+    private static void append(ReadingLog log, int first, int count) throws IOException {
+        for (int i = first; i < first + count; i++) {
+            log.append(CHANNEL, 1000L * i, 20 + i % 100 * 0.1);
+        }
+    }
+
+    private static List<Long> times(ReadingLog log, long from, long to) throws IOException {
+        final List<Long> times = new ArrayList<>();
+        final SampleCursor cursor = log.query(CHANNEL, from, to);
+
+        try {
+            while (cursor.next()) {
+                times.add(cursor.time());
+            }
+        } finally {
+            cursor.close();
+        }
+        return times;
+    }
+
+    private static SegmentIndex index(ReadingLog log) throws IOException {
+        final SegmentReader reader = new SegmentReader(log.segmentFile(CHANNEL));
+
+        try {
+            final SegmentIndex index = new SegmentIndex();
+            index.refresh(reader.channel());
+            return index;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int version(File file) throws IOException {
+        final RandomAccessFile in = new RandomAccessFile(file, "r");
+
+        try {
+            in.seek(4);
+            return in.readInt();
+        } finally {
+            in.close();
+        }
+    }
+
+    // Rewrites a segment with the 8 byte header of version 2
+    private static void downgrade(File file) throws IOException {
+        final FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+
+        try {
+            final ByteBuffer blocks = ByteBuffer.allocate(
+                    (int) channel.size() - ReadingLog.FILE_HEADER_SIZE);
+            channel.read(blocks, ReadingLog.FILE_HEADER_SIZE);
+            blocks.flip();
+
+            final ByteBuffer header = ByteBuffer.allocate(ReadingLog.VERSION_2_HEADER_SIZE);
+            header.putInt(ReadingLog.MAGIC).putInt(ReadingLog.VERSION_2).flip();
+            channel.truncate(0);
+            channel.write(header, 0);
+            channel.write(blocks, ReadingLog.VERSION_2_HEADER_SIZE);
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class ReadingSnapshotTest {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void withLeavesOriginalUnchanged() {
+        ReadingSnapshot empty = new ReadingSnapshot("00:11:22:33:44:55");
+        ReadingSnapshot one = empty.with(ReadingChannel.PRESSURE, 1000, 101325);
+        ReadingSnapshot two = one.with(ReadingChannel.HUMIDITY, 2000, 45.5);
+
+        assertFalse(empty.has(ReadingChannel.PRESSURE));
+        assertTrue(Double.isNaN(empty.value(ReadingChannel.PRESSURE)));
+        assertFalse(one.has(ReadingChannel.HUMIDITY));
+
+        assertEquals(101325, two.value(ReadingChannel.PRESSURE), 0);
+        assertEquals(1000, two.time(ReadingChannel.PRESSURE));
+        assertEquals(45.5, two.value(ReadingChannel.HUMIDITY), 0);
+        assertEquals(2000, two.latestTime());
+        assertEquals("00:11:22:33:44:55", two.getDeviceAddress());
+    }
+
+    @Test
+    public void withIgnoresOlderValues() {
+        ReadingSnapshot snapshot = ReadingSnapshot.EMPTY.with(ReadingChannel.TEMPERATURE, 2000, 70);
+
+        assertSame(snapshot, snapshot.with(ReadingChannel.TEMPERATURE, 1000, 60));
+        assertEquals(71, snapshot.with(ReadingChannel.TEMPERATURE, 2000, 71)
+                .value(ReadingChannel.TEMPERATURE), 0);
+    }
+
+    @Test
+    public void saveAndLoad() throws IOException {
+        File file = new File(mFolder.getRoot(), "latest.bin");
+        ReadingSnapshot snapshot = new ReadingSnapshot("AA:BB:CC:DD:EE:FF")
+                .with(ReadingChannel.TEMPERATURE, 1500, 68.5)
+                .with(ReadingChannel.DEW_POINT, 1500, 12.25);
+
+        snapshot.save(file);
+        ReadingSnapshot loaded = ReadingSnapshot.load(file);
+
+        assertEquals("AA:BB:CC:DD:EE:FF", loaded.getDeviceAddress());
+        for (int channel = 0; channel < ReadingChannel.COUNT; channel++) {
+            assertEquals(snapshot.has(channel), loaded.has(channel));
+            assertEquals(snapshot.time(channel), loaded.time(channel));
+        }
+        assertEquals(68.5, loaded.value(ReadingChannel.TEMPERATURE), 0);
+        assertEquals(12.25, loaded.value(ReadingChannel.DEW_POINT), 0);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        // Saving again replaces the file
+        ReadingSnapshot.EMPTY.save(file);
+        assertNull(ReadingSnapshot.load(file).getDeviceAddress());
+        assertFalse(ReadingSnapshot.load(file).has(ReadingChannel.TEMPERATURE));
+    }
+
+    @Test(expected = IOException.class)
+    public void loadRejectsOtherFiles() throws IOException {
+        File file = mFolder.newFile();
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        out.writeInt(HistoryExporter.COLUMNAR_MAGIC);
+        out.close();
+
+        ReadingSnapshot.load(file);
+    }
+}
@@ -0,0 +1,65 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RunningMedianTest {
+    @Test
+    public void matchesSortedWindow() {
+        Random random = new Random(5);
+
+        for (int window : new int[]{1, 2, 5, 16, 101}) {
+            RunningMedian median = new RunningMedian(window);
+            double[] values = new double[3000];
+
+            for (int i = 0; i < values.length; i++) {
+                // Plenty of duplicates to exercise tie ordering
+                values[i] = random.nextInt(3) == 0 ? random.nextGaussian() : random.nextInt(7);
+                median.push(values[i]);
+
+                double[] sorted = Arrays.copyOfRange(values, Math.max(0, i - window + 1), i + 1);
+                Arrays.sort(sorted);
+
+                assertEquals(sorted.length, median.size());
+                for (int rank = 0; rank < sorted.length; rank++) {
+                    assertEquals(sorted[rank], median.select(rank), 0);
+                }
+
+                double expected = sorted.length % 2 == 1 ? sorted[sorted.length / 2]
+                        : (sorted[sorted.length / 2 - 1] + sorted[sorted.length / 2]) / 2;
+                assertEquals("window " + window + " at " + i, expected, median.value(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void countBelow_countsStrictlySmaller() {
+        RunningMedian median = new RunningMedian(8);
+
+        for (double value : new double[]{3, 1, 2, 2, 5}) {
+            median.push(value);
+        }
+        assertEquals(0, median.countBelow(1));
+        assertEquals(1, median.countBelow(2));
+        assertEquals(3, median.countBelow(2.5));
+        assertEquals(5, median.countBelow(9));
+    }
+
+    @Test
+    public void resetEmptiesWindow() {
+        RunningMedian median = new RunningMedian(4);
+
+        median.push(1);
+        median.push(Double.NaN);
+        assertEquals(1, median.size());
+
+        median.reset();
+        assertTrue(Double.isNaN(median.value()));
+        median.push(7);
+        assertEquals(7, median.value(), 0);
+    }
+}
@@ -0,0 +1,133 @@
+package com.bryanford.weatherstation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SampleCursorTest {
+    private static final int CHANNEL = ReadingChannel.PRESSURE;
+    private static final int BLOCK = ReadingLog.BLOCK_SAMPLES;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ReadingLog mLog;
+
+    @Before
+    public void setUp() throws IOException {
+        mLog = new ReadingLog(mFolder.getRoot());
+
+        // Three full blocks, one sample a second
+        for (int i = 0; i < 3 * BLOCK; i++) {
+            mLog.append(CHANNEL, 1000L * i, i);
+        }
+        mLog.flush();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mLog.close();
+    }
+
+    @Test
+    public void missingChannelIsEmpty() throws IOException {
+        final SampleCursor cursor = mLog.query(ReadingChannel.HUMIDITY, 0, Long.MAX_VALUE);
+
+        assertFalse(cursor.next());
+        assertFalse(cursor.next());
+        cursor.close();
+    }
+
+    @Test
+    public void emptyRange() throws IOException {
+        // Empty and inverted ranges inside the data
+        assertTimes(1000L * 10, 1000L * 10, 0, 0);
+        assertTimes(1000L * 20, 1000L * 10, 0, 0);
+
+        // Between two samples
+        assertTimes(1000L * 10 + 1, 1000L * 11, 0, 0);
+
+        // After the last block
+        assertTimes(1000L * 3 * BLOCK, Long.MAX_VALUE, 0, 0);
+    }
+
+    @Test
+    public void rangeWithinOneBlock() throws IOException {
+        // From is inclusive, to is exclusive
+        assertTimes(1000L * (BLOCK + 10), 1000L * (BLOCK + 20), BLOCK + 10, 10);
+
+        // Not on sample boundaries
+        assertTimes(1000L * (BLOCK + 10) - 1, 1000L * (BLOCK + 20) + 1, BLOCK + 10, 11);
+    }
+
+    @Test
+    public void rangeAcrossBlocks() throws IOException {
+        assertTimes(1000L * (BLOCK - 5), 1000L * (2 * BLOCK + 5), BLOCK - 5, BLOCK + 10);
+
+        // Exactly one block
+        assertTimes(1000L * BLOCK, 1000L * 2 * BLOCK, BLOCK, BLOCK);
+    }
+
+    @Test
+    public void fromBeforeFirstBlock() throws IOException {
+        assertTimes(-1000, 1000L * 5, 0, 5);
+        assertTimes(Long.MIN_VALUE, Long.MAX_VALUE, 0, 3 * BLOCK);
+    }
+
+    @Test
+    public void fromBeforeFirstBlockAfterDropBefore() throws IOException {
+        mLog.dropBefore(CHANNEL, 1000L * BLOCK);
+
+        assertTimes(0, 1000L * (BLOCK + 5), BLOCK, 5);
+        assertTimes(0, 1000L * BLOCK, 0, 0);
+    }
+
+    @Test
+    public void valuesMatchTimes() throws IOException {
+        final SampleCursor cursor = mLog.query(CHANNEL, 1000L * (BLOCK - 2), 1000L * (BLOCK + 2));
+
+        try {
+            while (cursor.next()) {
+                assertEquals(cursor.time() / 1000, cursor.value(), 0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void nextAfterCloseIsFalse() throws IOException {
+        final SampleCursor cursor = mLog.query(CHANNEL, 0, Long.MAX_VALUE);
+
+        assertTrue(cursor.next());
+        cursor.close();
+        assertFalse(cursor.next());
+    }
+
+    // Checks the range holds exactly the consecutive samples first, first + 1, ...
+    private void assertTimes(long from, long to, int first, int count) throws IOException {
+        final List<Long> times = new ArrayList<>();
+        final SampleCursor cursor = mLog.query(CHANNEL, from, to);
+
+        try {
+            while (cursor.next()) {
+                times.add(cursor.time());
+            }
+        } finally {
+            cursor.close();
+        }
+
+        assertEquals(count, times.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(1000L * (first + i), (long) times.get(i));
+        }
+    }
+}
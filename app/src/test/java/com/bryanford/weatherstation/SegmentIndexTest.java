@@ -0,0 +1,136 @@
+package com.bryanford.weatherstation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class SegmentIndexTest {
+    private static final int CHANNEL = ReadingChannel.PRESSURE;
+    private static final int BLOCK = ReadingLog.BLOCK_SAMPLES;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private ReadingLog mLog;
+
+    @Before
+    public void setUp() {
+        mLog = new ReadingLog(mFolder.getRoot());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mLog.close();
+    }
+
+    @Test
+    public void refresh_indexesOneEntryPerBlock() throws IOException {
+        append(0, 3 * BLOCK);
+        mLog.flush();
+
+        final SegmentIndex index = index();
+        assertEquals(3, index.size());
+        assertEquals(ReadingLog.FILE_HEADER_SIZE, index.offset(0));
+
+        // A segment that was never rewritten has matching file and stream offsets
+        assertEquals(index.offset(0), index.streamOffset(0));
+        assertEquals(index.end(), index.streamEnd());
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(BLOCK, index.count(i));
+            assertEquals(1000L * i * BLOCK, index.minTime(i));
+            assertEquals(1000L * ((i + 1) * BLOCK - 1), index.maxTime(i));
+        }
+        assertEquals(index.offset(2) + ReadingLog.BLOCK_HEADER_SIZE + index.length(2),
+                index.end());
+    }
+
+    @Test
+    public void refresh_picksUpAppendedBlocks() throws IOException {
+        append(0, BLOCK);
+        mLog.flush();
+
+        final SegmentReader reader = new SegmentReader(mLog.segmentFile(CHANNEL));
+        try {
+            final SegmentIndex index = new SegmentIndex();
+            assertTrue(index.refresh(reader.channel()));
+            assertEquals(1, index.size());
+
+            append(BLOCK, BLOCK);
+            mLog.flush();
+            assertTrue(index.refresh(reader.channel()));
+            assertEquals(2, index.size());
+            assertEquals(1000L * BLOCK, index.minTime(1));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void firstBlockEndingAtOrAfter_findsBlockHoldingTime() throws IOException {
+        append(0, 4 * BLOCK);
+        mLog.flush();
+
+        final SegmentIndex index = index();
+        final int size = index.size();
+
+        // Before the first block and on its first sample
+        assertEquals(0, index.firstBlockEndingAtOrAfter(-1000, size));
+        assertEquals(0, index.firstBlockEndingAtOrAfter(0, size));
+
+        // Last sample of a block, then the first of the next
+        assertEquals(1, index.firstBlockEndingAtOrAfter(1000L * (2 * BLOCK - 1), size));
+        assertEquals(2, index.firstBlockEndingAtOrAfter(1000L * 2 * BLOCK, size));
+
+        // After the last block
+        assertEquals(size, index.firstBlockEndingAtOrAfter(1000L * 4 * BLOCK, size));
+
+        // Only the given number of entries is searched
+        assertEquals(2, index.firstBlockEndingAtOrAfter(1000L * 3 * BLOCK, 2));
+    }
+
+    @Test
+    public void firstBlockEndingAtOrAfter_emptyIndex() {
+        assertEquals(0, new SegmentIndex().firstBlockEndingAtOrAfter(0, 0));
+    }
+
+    @Test
+    public void streamOffsets_surviveDropBefore() throws IOException {
+        append(0, 4 * BLOCK);
+        mLog.flush();
+
+        final SegmentIndex before = index();
+        mLog.dropBefore(CHANNEL, 1000L * 2 * BLOCK);
+
+        final SegmentIndex after = index();
+        assertEquals(2, after.size());
+        assertEquals(ReadingLog.FILE_HEADER_SIZE, after.offset(0));
+        assertEquals(before.streamOffset(2), after.streamOffset(0));
+        assertEquals(before.streamEnd(), after.streamEnd());
+        assertEquals(before.minTime(2), after.minTime(0));
+    }
+
+    private void append(int first, int count) throws IOException {
+        for (int i = first; i < first + count; i++) {
+            mLog.append(CHANNEL, 1000L * i, 1000 + i % 50 * 0.1);
+        }
+    }
+
+    private SegmentIndex index() throws IOException {
+        final SegmentReader reader = new SegmentReader(mLog.segmentFile(CHANNEL));
+
+        try {
+            final SegmentIndex index = new SegmentIndex();
+            index.refresh(reader.channel());
+            return index;
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SlidingMinMaxTest {
+    @Test
+    public void matchesBruteForce() {
+        Random random = new Random(11);
+
+        for (int window : new int[]{1, 2, 3, 16, 100}) {
+            SlidingMinMax min = new SlidingMinMax(window, SlidingMinMax.MIN);
+            SlidingMinMax max = new SlidingMinMax(window, SlidingMinMax.MAX);
+            double[] values = new double[2000];
+
+            for (int i = 0; i < values.length; i++) {
+                // Few distinct values so ties are common
+                values[i] = random.nextInt(4) == 0 ? random.nextGaussian() : random.nextInt(5);
+                min.push(values[i]);
+                max.push(values[i]);
+
+                double expectedMin = Double.POSITIVE_INFINITY;
+                double expectedMax = Double.NEGATIVE_INFINITY;
+                for (int j = Math.max(0, i - window + 1); j <= i; j++) {
+                    expectedMin = Math.min(expectedMin, values[j]);
+                    expectedMax = Math.max(expectedMax, values[j]);
+                }
+
+                assertEquals("window " + window + " at " + i, expectedMin, min.value(), 0);
+                assertEquals("window " + window + " at " + i, expectedMax, max.value(), 0);
+            }
+        }
+    }
+
+    @Test
+    public void monotonicInput_evictsOldExtremes() {
+        SlidingMinMax max = new SlidingMinMax(3, SlidingMinMax.MAX);
+
+        for (int i = 10; i > 0; i--) {
+            max.push(i);
+        }
+        assertEquals(3, max.value(), 0);
+    }
+
+    @Test
+    public void emptyAndReset() {
+        SlidingMinMax min = new SlidingMinMax(4, SlidingMinMax.MIN);
+
+        assertTrue(Double.isNaN(min.value()));
+        min.push(Double.NaN);
+        assertTrue(Double.isNaN(min.value()));
+
+        min.push(2);
+        min.reset();
+        assertTrue(Double.isNaN(min.value()));
+        min.push(5);
+        assertEquals(5, min.value(), 0);
+    }
+}
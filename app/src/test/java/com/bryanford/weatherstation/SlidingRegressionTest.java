@@ -0,0 +1,109 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SlidingRegressionTest {
+    // Direct least squares slope over the samples, centred to keep it accurate
+    private static double fitSlope(ArrayDeque<long[]> times, ArrayDeque<double[]> values) {
+        long t0 = times.peekFirst()[0];
+        double meanT = 0;
+        double meanY = 0;
+
+        Iterator<double[]> v = values.iterator();
+        for (long[] t : times) {
+            meanT += t[0] - t0;
+            meanY += v.next()[0];
+        }
+        meanT /= times.size();
+        meanY /= values.size();
+
+        double stt = 0;
+        double sty = 0;
+        v = values.iterator();
+        for (long[] t : times) {
+            double dt = t[0] - t0 - meanT;
+            stt += dt * dt;
+            sty += dt * (v.next()[0] - meanY);
+        }
+        return sty / stt;
+    }
+
+    @Test
+    public void matchesDirectFitAcrossRebases() {
+        long window = 60000;
+        SlidingRegression regression = new SlidingRegression(window, 1000);
+        ArrayDeque<long[]> times = new ArrayDeque<>();
+        ArrayDeque<double[]> values = new ArrayDeque<>();
+        Random random = new Random(5);
+        long time = 1450000000000L;
+
+        // Many windows long, so the origin is moved many times
+        for (int i = 0; i < 20000; i++) {
+            time += 200 + random.nextInt(200);
+            double value = 101325 + time % 1000000 * 1e-3 + random.nextGaussian();
+
+            regression.add(time, value);
+            while (!times.isEmpty() && time - times.peekFirst()[0] > window) {
+                times.removeFirst();
+                values.removeFirst();
+            }
+            times.addLast(new long[]{time});
+            values.addLast(new double[]{value});
+
+            assertEquals(times.size(), regression.count());
+            if (i % 97 == 0 && times.size() > 2) {
+                double expected = fitSlope(times, values);
+                assertEquals(expected, regression.slope(), Math.abs(expected) * 1e-6 + 1e-9);
+            }
+        }
+        assertEquals(times.peekLast()[0] - times.peekFirst()[0], regression.span());
+    }
+
+    @Test
+    public void capacity_evictsOldest() {
+        SlidingRegression regression = new SlidingRegression(Long.MAX_VALUE / 4, 4);
+
+        for (int i = 0; i < 10; i++) {
+            regression.add(i * 1000, i < 6 ? 0 : (i - 6) * 2);
+        }
+        assertEquals(4, regression.count());
+        assertEquals(3000, regression.span());
+        assertEquals(0.002, regression.slope(), 1e-12);
+        assertEquals(8, regression.valueAt(10000), 1e-9);
+    }
+
+    @Test
+    public void exactLine_isRecovered() {
+        SlidingRegression regression = new SlidingRegression(10000, 100);
+
+        for (long t = 0; t < 100000; t += 500) {
+            regression.add(t, 3 - 0.25e-3 * t);
+        }
+        assertEquals(-0.25e-3, regression.slope(), 1e-12);
+        assertEquals(3 - 25, regression.valueAt(100000), 1e-6);
+    }
+
+    @Test
+    public void tooFewDistinctTimes_isNaN() {
+        SlidingRegression regression = new SlidingRegression(1000, 10);
+
+        assertTrue(Double.isNaN(regression.slope()));
+        regression.add(5, 1);
+        regression.add(5, 2);
+        assertTrue(Double.isNaN(regression.slope()));
+        assertTrue(Double.isNaN(regression.valueAt(5)));
+
+        regression.add(6, 3);
+        assertFalse(Double.isNaN(regression.slope()));
+
+        regression.clear();
+        assertEquals(0, regression.count());
+        assertTrue(Double.isNaN(regression.slope()));
+    }
+}
@@ -0,0 +1,57 @@
+package com.bryanford.weatherstation;
+
+import java.util.Random;
+
+/**
+ * Reports the per sample cost of the {@link RunningMedian} and {@link HampelFilter} spike
+ * filters for several window sizes, on a noisy humidity-like stream with occasional spikes.
+ * Run the main method from the IDE or with the unit test classpath.
+ */
+public class SpikeFilterBenchmark {
+    private static final int VALUES = 1 << 20;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        double[] values = new double[VALUES];
+
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = 50 + 5 * Math.sin(i / 3000.0) + random.nextGaussian() * 0.3;
+            if (random.nextInt(500) == 0) {
+                values[i] += 40;
+            }
+        }
+
+        for (int window : new int[]{5, 15, 101, 1001}) {
+            run("median " + window, new RunningMedian(window), values);
+            run("hampel " + window, new HampelFilter(window, 3, 0.5), values);
+        }
+    }
+
+    private static void run(String name, StreamOperator operator, double[] values) {
+        double sink = 0;
+
+        // Warm up
+        for (int round = 0; round < ROUNDS / 2; round++) {
+            sink += pushAll(operator, values);
+        }
+
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            sink += pushAll(operator, values);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-14s %7.1f ns/sample  %6.2f M samples/s  (%s)%n", name,
+                (double) elapsed / ((long) ROUNDS * values.length),
+                (long) ROUNDS * values.length * 1e3 / elapsed, sink != 0 ? "ok" : "-");
+    }
+
+    private static double pushAll(StreamOperator operator, double[] values) {
+        operator.reset();
+        for (double value : values) {
+            operator.push(value);
+        }
+        return operator.value();
+    }
+}
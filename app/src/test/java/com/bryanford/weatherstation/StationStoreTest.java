@@ -0,0 +1,151 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class StationStoreTest {
+    @Test
+    public void updateGetAndRemove() {
+        StationStore store = new StationStore(4);
+
+        assertNull(store.get("B"));
+        store.update("B", ReadingChannel.HUMIDITY, 10, 40);
+        store.update("A", ReadingChannel.PRESSURE, 10, 101000);
+        store.update("B", ReadingChannel.HUMIDITY, 20, 41);
+        store.update("B", ReadingChannel.HUMIDITY, 15, 39);
+
+        assertEquals(2, store.size());
+        assertEquals(41, store.get("B").value(ReadingChannel.HUMIDITY), 0);
+        assertFalse(store.get("B").has(ReadingChannel.PRESSURE));
+
+        ReadingSnapshot[] stations = store.snapshot();
+        assertEquals(2, stations.length);
+        assertEquals("A", stations[0].getDeviceAddress());
+        assertEquals("B", stations[1].getDeviceAddress());
+
+        store.put(new ReadingSnapshot("A"));
+        assertFalse(store.get("A").has(ReadingChannel.PRESSURE));
+
+        store.remove("A");
+        store.remove("C");
+        assertNull(store.get("A"));
+        assertEquals(1, store.snapshot().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsShardCountNotPowerOfTwo() {
+        new StationStore(12);
+    }
+
+    /**
+     * Each writer owns a group of stations and sets them to the same sequence number one after
+     * another.  A consistent cut must then show the group's values descending by at most one
+     * from first to last station, and no station may go backwards between snapshots.
+     */
+    @Test
+    public void snapshotsAreConsistentUnderConcurrentWrites() throws Exception {
+        final int writers = 4;
+        final int stationsPerWriter = 8;
+        final int rounds = 100000;
+        final StationStore store = new StationStore(8);
+        final AtomicInteger running = new AtomicInteger(writers);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final AtomicInteger snapshots = new AtomicInteger();
+
+        Thread[] threads = new Thread[writers + 2];
+
+        for (int w = 0; w < writers; w++) {
+            final String[] group = new String[stationsPerWriter];
+            for (int i = 0; i < stationsPerWriter; i++) {
+                group[i] = address(w, i);
+            }
+
+            threads[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int seq = 1; seq <= rounds; seq++) {
+                        for (String address : group) {
+                            store.update(address, ReadingChannel.TEMPERATURE, seq, seq);
+                        }
+                    }
+                    running.decrementAndGet();
+                }
+            }, "writer-" + w);
+        }
+
+        for (int r = 0; r < 2; r++) {
+            threads[writers + r] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    double[] last = new double[writers * stationsPerWriter];
+
+                    try {
+                        while (running.get() > 0) {
+                            checkSnapshot(store.snapshot(), writers, stationsPerWriter, last);
+                            snapshots.incrementAndGet();
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }, "reader-" + r);
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertTrue(snapshots.get() > 0);
+
+        ReadingSnapshot[] stations = store.snapshot();
+        assertEquals(writers * stationsPerWriter, stations.length);
+        for (ReadingSnapshot station : stations) {
+            assertEquals(rounds, station.value(ReadingChannel.TEMPERATURE), 0);
+        }
+    }
+
+    // Kept cheap so readers take many snapshots while the writers run
+    private static void checkSnapshot(ReadingSnapshot[] stations, int writers,
+                                      int stationsPerWriter, double[] last) {
+        double[] values = new double[last.length];
+
+        // Address order is writer major, so a station's position follows from its address
+        for (ReadingSnapshot station : stations) {
+            String address = station.getDeviceAddress();
+            int w = Integer.parseInt(address.substring(12, 14), 16);
+            int i = Integer.parseInt(address.substring(15, 17), 16);
+            values[w * stationsPerWriter + i] = station.value(ReadingChannel.TEMPERATURE);
+        }
+
+        for (int w = 0; w < writers; w++) {
+            double first = values[w * stationsPerWriter];
+
+            for (int i = 0; i < stationsPerWriter; i++) {
+                int index = w * stationsPerWriter + i;
+
+                // Stations not yet added count as sequence 0
+                assertTrue("went backwards", values[index] >= last[index]);
+                if (i > 0) {
+                    assertTrue("station written later is ahead",
+                            values[index] <= values[index - 1]);
+                    assertTrue("station written later is behind", values[index] >= first - 1);
+                }
+            }
+        }
+        System.arraycopy(values, 0, last, 0, last.length);
+    }
+
+    private static String address(int writer, int station) {
+        return String.format("00:00:00:00:%02X:%02X", writer, station);
+    }
+}
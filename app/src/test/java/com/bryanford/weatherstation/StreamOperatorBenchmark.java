@@ -0,0 +1,56 @@
+package com.bryanford.weatherstation;
+
+import java.util.Random;
+
+/**
+ * Reports the per value cost of each {@link StreamOperator} and of a chain of them over a
+ * synthetic reading stream.  Every operator is warmed up before it is timed.  Run the main
+ * method from the IDE or with the unit test classpath.
+ */
+public class StreamOperatorBenchmark {
+    private static final int VALUES = 1 << 20;
+    private static final int ROUNDS = 20;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        double[] values = new double[VALUES];
+
+        for (int i = 0; i < VALUES; i++) {
+            values[i] = 70 + 10 * Math.sin(i / 5000.0) + random.nextGaussian();
+        }
+
+        run("ewma", new Ewma(0.1), values);
+        run("welford", new WelfordStats(), values);
+        run("sliding max 60", new SlidingMinMax(60, SlidingMinMax.MAX), values);
+        run("sliding max 3600", new SlidingMinMax(3600, SlidingMinMax.MAX), values);
+        run("p2 quantile 0.95", new QuantileSketch(0.95), values);
+        run("chain ewma > max > p50", new OperatorChain(new Ewma(0.1),
+                new SlidingMinMax(60, SlidingMinMax.MAX), new QuantileSketch(0.5)), values);
+    }
+
+    private static void run(String name, StreamOperator operator, double[] values) {
+        double sink = 0;
+
+        // Warm up
+        for (int round = 0; round < ROUNDS / 2; round++) {
+            sink += pushAll(operator, values);
+        }
+
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            sink += pushAll(operator, values);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-24s %6.2f ns/value  (%s)%n", name,
+                (double) elapsed / ((long) ROUNDS * values.length), sink != 0 ? "ok" : "-");
+    }
+
+    private static double pushAll(StreamOperator operator, double[] values) {
+        operator.reset();
+        for (double value : values) {
+            operator.push(value);
+        }
+        return operator.value();
+    }
+}
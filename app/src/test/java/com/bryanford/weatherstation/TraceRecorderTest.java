@@ -0,0 +1,101 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class TraceRecorderTest {
+    private static final Pattern EVENT = Pattern.compile("\\{\"ph\":\"(\\w)\"([^\\n]*)\\}");
+
+    private static String export(TraceRecorder recorder) throws Exception {
+        StringWriter out = new StringWriter();
+        recorder.writeJson(out);
+        return out.toString();
+    }
+
+    @Test
+    public void writesEventsInOrder() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(16);
+
+        recorder.begin("connect");
+        recorder.beginAsync("discover", 7);
+        recorder.end();
+        recorder.endAsync("discover", 7);
+        recorder.instant("ready");
+
+        String json = export(recorder);
+        assertTrue(json.startsWith("{\"traceEvents\":["));
+        assertTrue(json.trim().endsWith("],\"displayTimeUnit\":\"ms\"}"));
+
+        StringBuilder phases = new StringBuilder();
+        double last = 0;
+        Matcher matcher = EVENT.matcher(json);
+        while (matcher.find()) {
+            phases.append(matcher.group(1));
+
+            Matcher ts = Pattern.compile("\"ts\":([0-9.]+)").matcher(matcher.group(2));
+            if (ts.find()) {
+                double time = Double.parseDouble(ts.group(1));
+                assertTrue(time >= last);
+                last = time;
+            }
+        }
+
+        // Events, then the thread name metadata
+        assertEquals("BbEeiM", phases.toString());
+        assertTrue(json.contains("\"name\":\"discover\",\"cat\":\"weatherstation\""));
+        assertTrue(json.contains("\"id\":\"0x7\""));
+        assertTrue(json.contains("\"args\":{\"name\":\"" + Thread.currentThread().getName()));
+    }
+
+    @Test
+    public void keepsMostRecentEvents() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(3);
+
+        for (int i = 0; i < 10; i++) {
+            recorder.instant("mark " + i);
+        }
+        assertEquals(3, recorder.size());
+
+        String json = export(recorder);
+        assertFalse(json.contains("mark 6"));
+        assertTrue(json.indexOf("mark 7") < json.indexOf("mark 8"));
+        assertTrue(json.indexOf("mark 8") < json.indexOf("mark 9"));
+
+        recorder.clear();
+        assertEquals(0, recorder.size());
+        assertEquals("{\"traceEvents\":[\n],\"displayTimeUnit\":\"ms\"}\n", export(recorder));
+    }
+
+    @Test
+    public void escapesNames() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(4);
+
+        recorder.instant("say \"hi\"\\\n");
+        assertTrue(export(recorder).contains("\"name\":\"say \\\"hi\\\"\\\\\\u000a\""));
+    }
+
+    @Test
+    public void recordsEachThread() throws Exception {
+        final TraceRecorder recorder = new TraceRecorder(64);
+
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                recorder.begin("work");
+                recorder.end();
+            }
+        }, "worker");
+        worker.start();
+        worker.join();
+        recorder.instant("main");
+
+        String json = export(recorder);
+        assertTrue(json.contains("\"tid\":" + worker.getId() + "}"));
+        assertTrue(json.contains("\"args\":{\"name\":\"worker\"}"));
+    }
+}
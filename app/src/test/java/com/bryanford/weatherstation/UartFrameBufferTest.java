@@ -0,0 +1,188 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UartFrameBufferTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String[] FRAMES = {"T=72.5", "", "H=41.0", "P=30.01 in. Hg"};
+
+    private static class Collector implements UartFrameBuffer.FrameListener {
+        final List<String> frames = new ArrayList<>();
+
+        @Override
+        public void onFrame(byte[] buffer, int offset, int length) {
+            frames.add(new String(buffer, offset, length, UTF_8));
+        }
+    }
+
+    @Test
+    public void lineFrames_splitAtEveryBoundary() throws Exception {
+        byte[] stream = lineStream();
+
+        for (int capacity : new int[]{16, 32, 1024}) {
+            for (int split = 0; split <= stream.length; split++) {
+                assertFrames(stream, new int[]{split}, capacity, UartFrameBuffer.MODE_LINE);
+            }
+        }
+    }
+
+    @Test
+    public void resync_lineModeSkipsToNextDelimiter() {
+        UartFrameBuffer buffer = new UartFrameBuffer(64, UartFrameBuffer.MODE_LINE);
+        Collector collector = new Collector();
+
+        // The chunk between the two was lost, the rest of its line is not a frame
+        byte[] first = "T=7".getBytes(UTF_8);
+        byte[] next = "0 in. Hg\nH=41.0\n".getBytes(UTF_8);
+
+        buffer.append(first, 0, first.length, collector);
+        buffer.resync();
+        buffer.append(next, 0, next.length, collector);
+
+        assertEquals(Arrays.asList("H=41.0"), collector.frames);
+        assertEquals(1, buffer.droppedFrames());
+    }
+
+    @Test
+    public void resync_lengthPrefixedStartsAtNextChunk() {
+        UartFrameBuffer buffer = new UartFrameBuffer(64, UartFrameBuffer.MODE_LENGTH_PREFIXED);
+        Collector collector = new Collector();
+
+        buffer.append(new byte[]{5, 0, 'a', 'b'}, 0, 4, collector);
+        buffer.resync();
+        buffer.append(new byte[]{2, 0, 'o', 'k'}, 0, 4, collector);
+
+        assertEquals(Arrays.asList("ok"), collector.frames);
+        assertEquals(0, buffer.buffered());
+    }
+
+    @Test
+    public void lengthPrefixedFrames_splitAtEveryBoundary() throws Exception {
+        byte[] stream = lengthPrefixedStream();
+
+        for (int capacity : new int[]{16, 32, 1024}) {
+            for (int split = 0; split <= stream.length; split++) {
+                assertFrames(stream, new int[]{split}, capacity,
+                        UartFrameBuffer.MODE_LENGTH_PREFIXED);
+            }
+        }
+    }
+
+    @Test
+    public void frames_splitAtEveryPairOfBoundaries() throws Exception {
+        byte[] lines = lineStream();
+        byte[] prefixed = lengthPrefixedStream();
+
+        for (int first = 0; first <= lines.length; first++) {
+            for (int second = first; second <= lines.length; second++) {
+                assertFrames(lines, new int[]{first, second}, 16, UartFrameBuffer.MODE_LINE);
+            }
+        }
+
+        for (int first = 0; first <= prefixed.length; first++) {
+            for (int second = first; second <= prefixed.length; second++) {
+                assertFrames(prefixed, new int[]{first, second}, 16,
+                        UartFrameBuffer.MODE_LENGTH_PREFIXED);
+            }
+        }
+    }
+
+    @Test
+    public void bytewiseFeed_wrapsRingRepeatedly() throws Exception {
+        UartFrameBuffer buffer = new UartFrameBuffer(16, UartFrameBuffer.MODE_LINE);
+        Collector collector = new Collector();
+        byte[] stream = lineStream();
+
+        for (int round = 0; round < 50; round++) {
+            for (byte b : stream) {
+                buffer.append(new byte[]{b}, 0, 1, collector);
+            }
+        }
+
+        assertEquals(50 * FRAMES.length, collector.frames.size());
+        for (int i = 0; i < collector.frames.size(); i++) {
+            assertEquals(FRAMES[i % FRAMES.length], collector.frames.get(i));
+        }
+        assertEquals(0, buffer.buffered());
+    }
+
+    @Test
+    public void oversizedLine_isDroppedAndStreamResynchronizes() throws Exception {
+        UartFrameBuffer buffer = new UartFrameBuffer(16, UartFrameBuffer.MODE_LINE);
+        Collector collector = new Collector();
+        byte[] stream = "0123456789abcdefghijklmnop\nok\r\n".getBytes(UTF_8);
+
+        buffer.append(stream, 0, stream.length, collector);
+
+        assertEquals(Arrays.asList("ok"), collector.frames);
+        assertEquals(1, buffer.droppedFrames());
+    }
+
+    @Test
+    public void invalidLength_isDropped() throws Exception {
+        UartFrameBuffer buffer = new UartFrameBuffer(16, UartFrameBuffer.MODE_LENGTH_PREFIXED);
+        Collector collector = new Collector();
+
+        buffer.append(new byte[]{(byte) 0xFF, (byte) 0xFF, 1, 2, 3}, 0, 5, collector);
+
+        assertTrue(collector.frames.isEmpty());
+        assertEquals(1, buffer.droppedFrames());
+        assertEquals(0, buffer.buffered());
+    }
+
+    // Feeds the stream cut at the given positions and checks the frames come out intact
+    private static void assertFrames(byte[] stream, int[] splits, int capacity, int mode) {
+        UartFrameBuffer buffer = new UartFrameBuffer(capacity, mode);
+        Collector collector = new Collector();
+        int start = 0;
+
+        // Prime the ring so frames also straddle its end
+        byte[] filler = mode == UartFrameBuffer.MODE_LINE
+                ? "x\n".getBytes(UTF_8) : new byte[]{1, 0, 'x'};
+        for (int i = 0; i < 5; i++) {
+            buffer.append(filler, 0, filler.length, collector);
+        }
+        collector.frames.clear();
+
+        for (int split : splits) {
+            buffer.append(stream, start, split - start, collector);
+            start = split;
+        }
+        buffer.append(stream, start, stream.length - start, collector);
+
+        assertEquals("splits " + Arrays.toString(splits), Arrays.asList(FRAMES),
+                collector.frames);
+        assertEquals(0, buffer.buffered());
+    }
+
+    private static byte[] lineStream() {
+        StringBuilder stream = new StringBuilder();
+
+        for (int i = 0; i < FRAMES.length; i++) {
+            // Mix both line endings
+            stream.append(FRAMES[i]).append(i % 2 == 0 ? "\r\n" : "\n");
+        }
+        return stream.toString().getBytes(UTF_8);
+    }
+
+    private static byte[] lengthPrefixedStream() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+        for (String frame : FRAMES) {
+            byte[] payload = frame.getBytes(UTF_8);
+            stream.write(payload.length & 0xFF);
+            stream.write(payload.length >> 8);
+            stream.write(payload);
+        }
+        return stream.toByteArray();
+    }
+}
@@ -0,0 +1,115 @@
+package com.bryanford.weatherstation;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Pushes a payload through {@link UartTransmitter} over a simulated BLE link and reports
+ * the effective UART throughput for several MTUs and connection intervals.  The link runs
+ * on its own thread in virtual time: writes are accepted into a controller buffer while it
+ * has room, and each connection event drains a fixed number of link layer packets, so the
+ * results show how chunk size and connection priority bound the transfer.  Run the main
+ * method from the IDE or with the unit test classpath.
+ */
+public class UartTransmitterBenchmark {
+    private static final int PAYLOAD_BYTES = 256 * 1024;
+    private static final int WINDOW = 8;
+
+    // Link layer packet payload with data length extension, and the L2CAP header
+    private static final int LL_PAYLOAD = 251;
+    private static final int L2CAP_HEADER = 4;
+    private static final int PACKETS_PER_EVENT = 6;
+    private static final int CONTROLLER_PACKETS = 8;
+
+    private static final int[] MTUS = {23, 185, 247, 517};
+
+    // Connection intervals for CONNECTION_PRIORITY_HIGH and BALANCED
+    private static final double[] INTERVALS_MS = {7.5, 45};
+
+    public static void main(String[] args) throws Exception {
+        byte[] payload = new byte[PAYLOAD_BYTES];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+
+        for (double interval : INTERVALS_MS) {
+            for (int mtu : MTUS) {
+                run(payload, mtu, interval);
+            }
+        }
+    }
+
+    private static void run(byte[] payload, int mtu, double intervalMs) throws Exception {
+        SimulatedLink link = new SimulatedLink((long) (intervalMs * 1000000));
+        UartTransmitter transmitter = new UartTransmitter(WINDOW, link);
+        link.mTransmitter = transmitter;
+
+        Thread thread = new Thread(link, "link");
+        thread.start();
+
+        long start = System.nanoTime();
+        transmitter.send(payload, 0, payload.length, mtu - 3);
+        transmitter.drain();
+        long wall = System.nanoTime() - start;
+
+        link.mWrites.put(SimulatedLink.STOP);
+        thread.join();
+
+        System.out.printf("interval %4.1f ms  mtu %3d: %8.0f bytes/s over the air, "
+                        + "%6d chunks, %5.2f M chunks/s through the transmitter%n",
+                intervalMs, mtu, PAYLOAD_BYTES * 1e9 / link.mClock,
+                transmitter.chunksSent(), transmitter.chunksSent() * 1e3 / wall);
+    }
+
+    private static class SimulatedLink implements UartTransmitter.ChunkWriter, Runnable {
+        static final byte[] STOP = new byte[0];
+
+        final BlockingQueue<byte[]> mWrites = new LinkedBlockingQueue<>();
+        final long mInterval;
+        UartTransmitter mTransmitter;
+
+        // Virtual nanoseconds until the last packet left the controller
+        long mClock;
+        int mBuffered;
+
+        SimulatedLink(long interval) {
+            mInterval = interval;
+        }
+
+        @Override
+        public void writeChunk(byte[] chunk) {
+            // Completed on the link thread, like a GATT callback
+            mWrites.add(chunk);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    byte[] chunk = mWrites.take();
+
+                    if (chunk == STOP) {
+                        while (mBuffered > 0) {
+                            connectionEvent();
+                        }
+                        return;
+                    }
+
+                    int packets = (chunk.length + 3 + L2CAP_HEADER + LL_PAYLOAD - 1) / LL_PAYLOAD;
+                    while (mBuffered + packets > CONTROLLER_PACKETS) {
+                        connectionEvent();
+                    }
+                    mBuffered += packets;
+                    mTransmitter.onWriteComplete(true);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void connectionEvent() {
+            mClock += mInterval;
+            mBuffered -= Math.min(mBuffered, PACKETS_PER_EVENT);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UartTransmitterTest {
+    private final List<byte[]> mWrites = new ArrayList<>();
+
+    private final UartTransmitter mTransmitter = new UartTransmitter(2,
+            new UartTransmitter.ChunkWriter() {
+                @Override
+                public void writeChunk(byte[] chunk) {
+                    mWrites.add(chunk.clone());
+                }
+            });
+
+    @Test
+    public void resetFailsSendersOfThePreviousConnection() throws Exception {
+        // Fills the window, the write of the first chunk never completes
+        mTransmitter.send(new byte[]{1, 2}, 0, 2, 1);
+
+        final Throwable[] failure = new Throwable[1];
+        final Thread sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mTransmitter.send(new byte[]{3}, 0, 1, 1);
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        sender.start();
+        while (sender.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        // Reconnected without a cancel, the first write on the new link completes
+        mTransmitter.reset();
+        mTransmitter.send(new byte[]{4}, 0, 1, 1);
+        mTransmitter.onWriteComplete(true);
+        sender.join(5000);
+
+        assertTrue(failure[0] instanceof IOException);
+        for (byte[] write : mWrites) {
+            assertNotEquals(3, write[0]);
+        }
+        assertEquals(0, mTransmitter.queued());
+    }
+
+    @Test
+    public void cancelFailsDrain() throws Exception {
+        mTransmitter.send(new byte[]{1}, 0, 1, 1);
+
+        final Throwable[] failure = new Throwable[1];
+        final Thread drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mTransmitter.drain();
+                } catch (Throwable e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        drainer.start();
+        while (drainer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        mTransmitter.cancel();
+        drainer.join(5000);
+        assertTrue(failure[0] instanceof IOException);
+    }
+}
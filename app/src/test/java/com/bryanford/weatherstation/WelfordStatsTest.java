@@ -0,0 +1,66 @@
+package com.bryanford.weatherstation;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WelfordStatsTest {
+    @Test
+    public void matchesTwoPassStatistics() {
+        Random random = new Random(7);
+        double[] values = new double[1000];
+        WelfordStats stats = new WelfordStats();
+
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextGaussian() * 3 + 20;
+            stats.push(values[i]);
+        }
+
+        double mean = 0;
+        for (double value : values) {
+            mean += value;
+        }
+        mean /= values.length;
+
+        double squares = 0;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+
+        assertEquals(values.length, stats.count());
+        assertEquals(mean, stats.mean(), 1e-9);
+        assertEquals(squares / (values.length - 1), stats.variance(), 1e-9);
+        assertEquals(stats.mean(), stats.value(), 0);
+    }
+
+    @Test
+    public void largeOffset_keepsVariancePrecision() {
+        WelfordStats stats = new WelfordStats();
+
+        // Pressure in Pa with a small spread, where the naive sum of squares fails
+        int n = 100000;
+        for (int i = 0; i < n; i++) {
+            stats.push(101325 + (i % 2 == 0 ? -0.5 : 0.5));
+        }
+        assertEquals(0.25 * n / (n - 1), stats.variance(), 1e-9);
+    }
+
+    @Test
+    public void undefinedUntilEnoughValues() {
+        WelfordStats stats = new WelfordStats();
+
+        assertTrue(Double.isNaN(stats.mean()));
+        stats.push(3);
+        assertEquals(3, stats.mean(), 0);
+        assertTrue(Double.isNaN(stats.variance()));
+
+        stats.push(Double.NaN);
+        assertEquals(1, stats.count());
+
+        stats.reset();
+        assertEquals(0, stats.count());
+        assertTrue(Double.isNaN(stats.value()));
+    }
+}